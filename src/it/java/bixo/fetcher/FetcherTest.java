@@ -35,11 +35,11 @@ import org.junit.Test;
 import bixo.config.FetcherPolicy;
 import bixo.config.UserAgent;
 import bixo.datum.BaseDatum;
+import bixo.datum.FetchOutcome;
 import bixo.datum.FetchedDatum;
 import bixo.datum.StatusDatum;
 import bixo.datum.UrlDatum;
 import bixo.datum.UrlStatus;
-import bixo.exceptions.BaseFetchException;
 import bixo.fetcher.http.IHttpFetcher;
 import bixo.fetcher.http.SimpleHttpFetcher;
 import bixo.fetcher.util.FixedScoreGenerator;
@@ -119,9 +119,9 @@ public class FetcherTest {
             StatusDatum sd = new StatusDatum(entry, metaDataFields);
             if (sd.getStatus() != UrlStatus.FETCHED) {
                 LOGGER.error(String.format("Fetched failed! Status is %s for %s", sd.getStatus(), sd.getUrl()));
-                BaseFetchException e = sd.getException();
-                if (e != null) {
-                    LOGGER.error("Fetched failed due to exception", e);
+                FetchOutcome outcome = sd.getOutcome();
+                if (outcome != null) {
+                    LOGGER.error("Fetched failed due to " + outcome);
                 }
                 
                 Assert.fail("Status not equal to FETCHED");
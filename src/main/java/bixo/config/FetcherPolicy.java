@@ -77,6 +77,16 @@ public class FetcherPolicy implements Serializable {
     public static final int NO_MAX_URLS_PER_SERVER = Integer.MAX_VALUE;
     public static final int DEFAULT_MAX_URLS_PER_SERVER = NO_MAX_URLS_PER_SERVER;
     
+    public static final int NO_MAX_CONSECUTIVE_FAILURES = Integer.MAX_VALUE;
+    public static final int DEFAULT_MAX_CONSECUTIVE_FAILURES = 5;
+    
+    public static final int NO_FETCH_RETRIES = 0;
+    public static final int DEFAULT_MAX_FETCH_RETRIES = 2;
+    public static final long DEFAULT_FETCH_RETRY_DELAY = 10 * 1000L;
+    
+    public static final int NO_PIPELINING = 1;
+    public static final int DEFAULT_PIPELINE_DEPTH = NO_PIPELINING;
+    
     // Interval between requests, in milliseconds.
     protected static final long DEFAULT_CRAWL_DELAY = 30 * 1000L;
 
@@ -89,6 +99,11 @@ public class FetcherPolicy implements Serializable {
     private Set<String> _validMimeTypes;    // Set of mime-types that we'll accept.
     private int _maxRequestsPerConnection;  // Max # of URLs to request in any one connection
     private long _requestTimeout;           // Max time for any given set of URLs (termination timeout is based on this)
+    private int _maxConsecutiveFailures;    // Timeouts/server errors in a row before we skip the rest of a server's URLs
+    private int _maxFetchRetries;           // Max # of in-run retries of a URL after a transient failure
+    private long _fetchRetryDelay;          // Delay (in milliseconds) before the first retry, doubled for each one after that
+    private boolean _parallelFetching;      // Fetch each batch using up to _maxConnectionsPerHost connections at once
+    private int _pipelineDepth;             // Max # of requests to send ahead on one connection, for no-delay servers
 
     // TODO KKr - move these into a CrawlPolicy class, and call it CrawlMode
     private FetcherMode _fetcherMode;       // Should we skip URLs when they back up for a domain?
@@ -126,6 +141,11 @@ public class FetcherPolicy implements Serializable {
         _redirectMode = _maxRedirects > 0 ? RedirectMode.FOLLOW_ALL : RedirectMode.FOLLOW_NONE;
         
         _requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+        _maxConsecutiveFailures = DEFAULT_MAX_CONSECUTIVE_FAILURES;
+        _maxFetchRetries = DEFAULT_MAX_FETCH_RETRIES;
+        _fetchRetryDelay = DEFAULT_FETCH_RETRY_DELAY;
+        _parallelFetching = false;
+        _pipelineDepth = DEFAULT_PIPELINE_DEPTH;
     }
 
     public long getDefaultFetchInterval() {
@@ -152,6 +172,44 @@ public class FetcherPolicy implements Serializable {
         _maxConnectionsPerHost = maxConnectionsPerHost;
     }
     
+    /**
+     * If parallel fetching is enabled, then each batch of URLs for a server is fetched using
+     * up to getMaxConnectionsPerHost() connections at once, and batches are sized so that
+     * each connection (versus the server as a whole) gets one request per crawl delay. Only
+     * use this for sites that have given permission for the extra load.
+     */
+    public boolean isParallelFetching() {
+        return _parallelFetching;
+    }
+    
+    public void setParallelFetching(boolean parallelFetching) {
+        _parallelFetching = parallelFetching;
+    }
+    
+    /**
+     * Return the number of connections that we use at once to fetch a batch of URLs.
+     */
+    public int getFetchSlotsPerHost() {
+        return _parallelFetching ? Math.max(1, _maxConnectionsPerHost) : 1;
+    }
+    
+    /**
+     * If the pipeline depth is greater than NO_PIPELINING, then batches for servers with no
+     * crawl delay are fetched using HTTP/1.1 pipelining, with up to this many requests sent
+     * ahead of the responses on one connection. See PipeliningHttpFetcher.
+     */
+    public int getPipelineDepth() {
+        return _pipelineDepth;
+    }
+    
+    public void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < NO_PIPELINING) {
+            throw new InvalidParameterException("pipelineDepth must be >= " + NO_PIPELINING + ": " + pipelineDepth);
+        }
+        
+        _pipelineDepth = pipelineDepth;
+    }
+    
     public int getMaxRequestsPerConnection() {
         return _maxRequestsPerConnection;
     }
@@ -237,6 +295,40 @@ public class FetcherPolicy implements Serializable {
         _requestTimeout = requestTimeout;
     }
     
+    /**
+     * Return the number of consecutive connect/read timeouts or server errors for one
+     * server, after which the rest of that server's URLs are skipped (with a status of
+     * SKIPPED_HOST_UNAVAILABLE) instead of fetched.
+     */
+    public int getMaxConsecutiveFailures() {
+        return _maxConsecutiveFailures;
+    }
+    
+    public void setMaxConsecutiveFailures(int maxConsecutiveFailures) {
+        _maxConsecutiveFailures = maxConsecutiveFailures;
+    }
+    
+    /**
+     * Return the number of times a URL that failed with a transient error (I/O problem,
+     * 503 or 429 response) gets retried during the same fetch, versus waiting for the next
+     * crawl loop. Use NO_FETCH_RETRIES to disable this.
+     */
+    public int getMaxFetchRetries() {
+        return _maxFetchRetries;
+    }
+    
+    public void setMaxFetchRetries(int maxFetchRetries) {
+        _maxFetchRetries = maxFetchRetries;
+    }
+    
+    public long getFetchRetryDelay() {
+        return _fetchRetryDelay;
+    }
+    
+    public void setFetchRetryDelay(long fetchRetryDelay) {
+        _fetchRetryDelay = fetchRetryDelay;
+    }
+    
     // TODO Move these into a CrawlPolicy
     public FetcherMode getFetcherMode() {
         return _fetcherMode;
@@ -322,6 +414,11 @@ public class FetcherPolicy implements Serializable {
         result = prime * result + (int) (_crawlEndTime ^ (_crawlEndTime >>> 32));
         result = prime * result + ((_fetcherMode == null) ? 0 : _fetcherMode.hashCode());
         result = prime * result + _maxConnectionsPerHost;
+        result = prime * result + _maxConsecutiveFailures;
+        result = prime * result + _maxFetchRetries;
+        result = prime * result + (_parallelFetching ? 1231 : 1237);
+        result = prime * result + _pipelineDepth;
+        result = prime * result + (int) (_fetchRetryDelay ^ (_fetchRetryDelay >>> 32));
         result = prime * result + _maxContentSize;
         result = prime * result + _maxRedirects;
         result = prime * result + _maxRequestsPerConnection;
@@ -358,6 +455,16 @@ public class FetcherPolicy implements Serializable {
             return false;
         if (_maxConnectionsPerHost != other._maxConnectionsPerHost)
             return false;
+        if (_maxConsecutiveFailures != other._maxConsecutiveFailures)
+            return false;
+        if (_maxFetchRetries != other._maxFetchRetries)
+            return false;
+        if (_parallelFetching != other._parallelFetching)
+            return false;
+        if (_pipelineDepth != other._pipelineDepth)
+            return false;
+        if (_fetchRetryDelay != other._fetchRetryDelay)
+            return false;
         if (_maxContentSize != other._maxContentSize)
             return false;
         if (_maxRedirects != other._maxRedirects)
@@ -0,0 +1,134 @@
+package bixo.datum;
+
+import java.io.IOException;
+
+import bixo.exceptions.AbortedFetchException;
+import bixo.exceptions.AbortedFetchReason;
+import bixo.exceptions.BaseFetchException;
+import bixo.exceptions.HttpFetchException;
+import bixo.exceptions.IOFetchException;
+import bixo.exceptions.RedirectFetchException;
+import bixo.exceptions.RedirectFetchException.RedirectExceptionReason;
+import bixo.exceptions.UrlFetchException;
+import cascading.tuple.Tuple;
+
+/**
+ * Compact description of a failed fetch, used in tuples instead of the
+ * BaseFetchException, since that gets serialized with its message, cause
+ * chain and stack trace.
+ *
+ * The UrlStatus and AbortedFetchReason are stored as ordinals, so new values
+ * for those enums have to be added at the end.
+ */
+public class FetchOutcome {
+    public static final int NO_HTTP_STATUS = 0;
+
+    public static final int MAX_MESSAGE_LENGTH = 200;
+
+    private static final int NO_ABORT_REASON = -1;
+
+    private UrlStatus _status;
+    private int _httpStatus;
+    private AbortedFetchReason _abortReason;
+    private String _message;
+
+    public FetchOutcome(UrlStatus status, int httpStatus, AbortedFetchReason abortReason, String message) {
+        _status = status;
+        _httpStatus = httpStatus;
+        _abortReason = abortReason;
+        _message = makeShortMessage(message);
+    }
+
+    public FetchOutcome(BaseFetchException e) {
+        _status = e.mapToUrlStatus();
+        _httpStatus = (e instanceof HttpFetchException) ? ((HttpFetchException)e).getHttpStatus() : NO_HTTP_STATUS;
+        _abortReason = (e instanceof AbortedFetchException) ? ((AbortedFetchException)e).getAbortReason() : null;
+        _message = makeShortMessage(e.getMessage());
+    }
+
+    public FetchOutcome(Tuple tuple) {
+        _status = UrlStatus.values()[tuple.getInteger(0)];
+        _httpStatus = tuple.getInteger(1);
+
+        int abortReason = tuple.getInteger(2);
+        _abortReason = (abortReason == NO_ABORT_REASON) ? null : AbortedFetchReason.values()[abortReason];
+        _message = tuple.getString(3);
+    }
+
+    public UrlStatus getStatus() {
+        return _status;
+    }
+
+    public int getHttpStatus() {
+        return _httpStatus;
+    }
+
+    public AbortedFetchReason getAbortReason() {
+        return _abortReason;
+    }
+
+    public String getMessage() {
+        return _message;
+    }
+
+    /**
+     * Rebuild an exception for <url> that maps to the same status. Only the type, HTTP status,
+     * abort reason and (truncated) message are kept, so there's no cause, stack trace, response
+     * headers or redirect target.
+     */
+    public BaseFetchException toException(String url) {
+        if (_abortReason != null) {
+            return new AbortedFetchException(url, _message, _abortReason);
+        } else if (_httpStatus != NO_HTTP_STATUS) {
+            return new HttpFetchException(url, _message, _httpStatus, new HttpHeaders());
+        } else if (_status == UrlStatus.HTTP_TOO_MANY_REDIRECTS) {
+            return new RedirectFetchException(url, "", RedirectExceptionReason.TOO_MANY_REDIRECTS);
+        } else if (_status == UrlStatus.HTTP_REDIRECTION_ERROR) {
+            return new RedirectFetchException(url, "", RedirectExceptionReason.TEMP_REDIRECT_DISALLOWED);
+        } else if (_status == UrlStatus.HTTP_MOVED_PERMANENTLY) {
+            return new RedirectFetchException(url, "", RedirectExceptionReason.PERM_REDIRECT_DISALLOWED);
+        } else if (_status == UrlStatus.ERROR_IOEXCEPTION) {
+            return new IOFetchException(url, new IOException(_message));
+        } else {
+            return new UrlFetchException(url, _message);
+        }
+    }
+
+    public Tuple toTuple() {
+        int abortReason = (_abortReason == null) ? NO_ABORT_REASON : _abortReason.ordinal();
+        return new Tuple(_status.ordinal(), _httpStatus, abortReason, _message);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(_status.name());
+        if (_httpStatus != NO_HTTP_STATUS) {
+            result.append(" (");
+            result.append(_httpStatus);
+            result.append(')');
+        }
+
+        if (_abortReason != null) {
+            result.append(" [");
+            result.append(_abortReason.name());
+            result.append(']');
+        }
+
+        if (_message.length() > 0) {
+            result.append(": ");
+            result.append(_message);
+        }
+
+        return result.toString();
+    }
+
+    private static String makeShortMessage(String message) {
+        if (message == null) {
+            return "";
+        } else if (message.length() > MAX_MESSAGE_LENGTH) {
+            return message.substring(0, MAX_MESSAGE_LENGTH);
+        } else {
+            return message;
+        }
+    }
+}
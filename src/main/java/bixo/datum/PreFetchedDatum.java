@@ -1,6 +1,5 @@
 package bixo.datum;
 
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -10,7 +9,7 @@ import cascading.tuple.TupleEntry;
 
 @SuppressWarnings("serial")
 public class PreFetchedDatum extends BaseDatum {
-    private List<ScoredUrlDatum> _urls;
+    private ScoredUrlList _urls;
     private long _fetchTime;
     private long _fetchDelay;
     private int _groupingKey;
@@ -21,7 +20,7 @@ public class PreFetchedDatum extends BaseDatum {
     public PreFetchedDatum(List<ScoredUrlDatum> urls, long fetchTime, long fetchDelay, int groupingKey, String groupingRef, boolean lastList) {
         super(BaseDatum.EMPTY_METADATA_MAP);
         
-        _urls = urls;
+        _urls = new ScoredUrlList(urls);
         _fetchTime = fetchTime;
         _fetchDelay = fetchDelay;
         _groupingKey = groupingKey;
@@ -30,12 +29,25 @@ public class PreFetchedDatum extends BaseDatum {
         _skipped = false;
     }
 
+    /**
+     * Return a decoded copy of the URLs. Use getUrlList() to avoid creating all of the
+     * ScoredUrlDatums at once.
+     */
     public List<ScoredUrlDatum> getUrls() {
+        List<ScoredUrlDatum> result = new LinkedList<ScoredUrlDatum>();
+        for (ScoredUrlDatum datum : _urls) {
+            result.add(datum);
+        }
+        
+        return result;
+    }
+    
+    public ScoredUrlList getUrlList() {
         return _urls;
     }
     
     public void setUrls(List<ScoredUrlDatum> urls) {
-        _urls = urls;
+        _urls = new ScoredUrlList(urls);
     }
     
     public long getFetchTime() {
@@ -151,7 +163,7 @@ public class PreFetchedDatum extends BaseDatum {
         super(tuple, BaseDatum.EMPTY_METADATA_FIELDS);
         
         TupleEntry entry = new TupleEntry(getStandardFields(), tuple);
-        _urls = tupleToList((Tuple)entry.get(URLS_FN), metaDataFields);
+        _urls = new ScoredUrlList((Tuple)entry.get(URLS_FN), metaDataFields);
         _fetchTime = entry.getLong(FETCH_TIME_FN);
         _fetchDelay = entry.getLong(FETCH_DELAY_FN);
         _groupingKey = entry.getInteger(GROUPING_KEY_FN);
@@ -169,26 +181,6 @@ public class PreFetchedDatum extends BaseDatum {
     @SuppressWarnings("unchecked")
     @Override
     protected Comparable[] getStandardValues() {
-        return BaseDatum.makeStandardValues(listToTuple(_urls), _fetchTime, _fetchDelay, _groupingKey, _groupingRef, _lastList, _skipped);
-    }
-
-    @SuppressWarnings("unchecked")
-    private static List<ScoredUrlDatum> tupleToList(Tuple tuple, Fields metaDataFields) {
-        List<ScoredUrlDatum> result = new LinkedList<ScoredUrlDatum>();
-        Iterator iter = tuple.iterator();
-        while (iter.hasNext()) {
-            result.add(new ScoredUrlDatum((Tuple)iter.next(), metaDataFields));
-        }
-        
-        return result;
-    }
-    
-    private static Tuple listToTuple(List<ScoredUrlDatum> list) {
-        Tuple result = new Tuple();
-        for (ScoredUrlDatum datum : list) {
-            result.add(datum.toTuple());
-        }
-        
-        return result;
+        return BaseDatum.makeStandardValues(_urls.toTuple(), _fetchTime, _fetchDelay, _groupingKey, _groupingRef, _lastList, _skipped);
     }
 }
@@ -0,0 +1,106 @@
+package bixo.datum;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Result of resolving a host and fetching its robots.txt, which can be saved
+ * and used later on instead of doing the DNS lookup and fetch again. We keep
+ * the raw robots.txt content, versus the parsed rules, since parsing is cheap
+ * and depends on the user agent.
+ *
+ * A fetch that failed has no content, and the HTTP status that should be
+ * passed to RobotRulesParser.failedFetch().
+ */
+@SuppressWarnings("serial")
+public class RobotsDatum extends BaseDatum {
+    private String _protocolAndDomain;
+    private String _hostAddress;
+    private long _fetchTime;
+    private int _httpStatus;
+    private ContentBytes _content;
+    private String _contentType;
+
+    public RobotsDatum(String protocolAndDomain, String hostAddress, long fetchTime, int httpStatus, byte[] content, String contentType) {
+        super(BaseDatum.EMPTY_METADATA_MAP);
+
+        _protocolAndDomain = protocolAndDomain;
+        _hostAddress = hostAddress;
+        _fetchTime = fetchTime;
+        _httpStatus = httpStatus;
+        _content = new ContentBytes(content == null ? new byte[0] : content);
+        _contentType = contentType == null ? "" : contentType;
+    }
+
+    public String getProtocolAndDomain() {
+        return _protocolAndDomain;
+    }
+
+    public String getHostAddress() {
+        return _hostAddress;
+    }
+
+    public long getFetchTime() {
+        return _fetchTime;
+    }
+
+    public int getHttpStatus() {
+        return _httpStatus;
+    }
+
+    public byte[] getContentBytes() {
+        return _content.getBytes();
+    }
+
+    public int getContentLength() {
+        return _content.getLength();
+    }
+
+    public String getContentType() {
+        return _contentType;
+    }
+
+    public String getRobotsUrl() {
+        return _protocolAndDomain + "/robots.txt";
+    }
+
+    // ======================================================================================
+    // Below here is all Cascading-specific implementation
+    // ======================================================================================
+
+    // Cascading field names that correspond to the datum fields.
+    public static final String PROTOCOL_AND_DOMAIN_FIELD = fieldName(RobotsDatum.class, "protocolAndDomain");
+    public static final String HOST_ADDRESS_FIELD = fieldName(RobotsDatum.class, "hostAddress");
+    public static final String FETCH_TIME_FIELD = fieldName(RobotsDatum.class, "fetchTime");
+    public static final String HTTP_STATUS_FIELD = fieldName(RobotsDatum.class, "httpStatus");
+    public static final String CONTENT_FIELD = fieldName(RobotsDatum.class, "content");
+    public static final String CONTENT_TYPE_FIELD = fieldName(RobotsDatum.class, "contentType");
+
+    public static final Fields FIELDS = new Fields(PROTOCOL_AND_DOMAIN_FIELD, HOST_ADDRESS_FIELD, FETCH_TIME_FIELD,
+                    HTTP_STATUS_FIELD, CONTENT_FIELD, CONTENT_TYPE_FIELD);
+
+    public RobotsDatum(Tuple tuple) {
+        super(tuple, BaseDatum.EMPTY_METADATA_FIELDS);
+
+        TupleEntry entry = new TupleEntry(getStandardFields(), tuple);
+        _protocolAndDomain = entry.getString(PROTOCOL_AND_DOMAIN_FIELD);
+        _hostAddress = entry.getString(HOST_ADDRESS_FIELD);
+        _fetchTime = entry.getLong(FETCH_TIME_FIELD);
+        _httpStatus = entry.getInteger(HTTP_STATUS_FIELD);
+        _content = (ContentBytes)entry.get(CONTENT_FIELD);
+        _contentType = entry.getString(CONTENT_TYPE_FIELD);
+    }
+
+    @Override
+    public Fields getStandardFields() {
+        return FIELDS;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Comparable[] getStandardValues() {
+        return BaseDatum.makeStandardValues(_protocolAndDomain, _hostAddress, _fetchTime, _httpStatus, _content, _contentType);
+    }
+
+}
@@ -0,0 +1,263 @@
+package bixo.datum;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Compact, read-only list of ScoredUrlDatums, as used by PreFetchedDatum for the
+ * URLs in a batch. URLs are front-coded (each one only stores what's different from
+ * the previous URL, which is typically everything after the protocol+host), the grouping
+ * key is stored once when it's the same for every URL (which it normally is), and the
+ * rest of the values are stored as columns.
+ *
+ * URLs are decoded as they're iterated over, so we never need the full list of
+ * ScoredUrlDatums in memory.
+ */
+@SuppressWarnings("serial")
+public class ScoredUrlList implements Iterable<ScoredUrlDatum>, Serializable {
+    private Fields _metaDataFields;
+    private String _groupKey;
+    private String[] _groupKeys;
+    private int[] _prefixLengths;
+    private String[] _suffixes;
+    private long[] _lastFetched;
+    private long[] _lastUpdated;
+    private int[] _statuses;
+    private double[] _scores;
+    private Tuple[] _metaDataValues;
+
+    @SuppressWarnings("unchecked")
+    public ScoredUrlList(List<ScoredUrlDatum> urls) {
+        int size = urls.size();
+        _prefixLengths = new int[size];
+        _suffixes = new String[size];
+        _lastFetched = new long[size];
+        _lastUpdated = new long[size];
+        _statuses = new int[size];
+        _scores = new double[size];
+        _metaDataValues = new Tuple[size];
+
+        _metaDataFields = size == 0 ? BaseDatum.EMPTY_METADATA_FIELDS : urls.get(0).getMetaDataFields();
+        _groupKey = size == 0 ? null : urls.get(0).getGroupKey();
+        String[] groupKeys = new String[size];
+        boolean sharedKey = true;
+
+        String prevUrl = "";
+        int i = 0;
+        for (ScoredUrlDatum datum : urls) {
+            String url = datum.getUrl();
+            int prefixLength = commonPrefixLength(prevUrl, url);
+            _prefixLengths[i] = prefixLength;
+            _suffixes[i] = url.substring(prefixLength);
+            prevUrl = url;
+
+            _lastFetched[i] = datum.getLastFetched();
+            _lastUpdated[i] = datum.getLastUpdated();
+            _statuses[i] = datum.getLastStatus().ordinal();
+            _scores[i] = datum.getScore();
+            _metaDataValues[i] = new Tuple(datum.getMetaDataValues());
+
+            groupKeys[i] = datum.getGroupKey();
+            sharedKey = sharedKey && equalKeys(_groupKey, groupKeys[i]);
+            i += 1;
+        }
+
+        if (!sharedKey) {
+            _groupKey = null;
+            _groupKeys = groupKeys;
+        }
+    }
+
+    public ScoredUrlList(Tuple tuple, Fields metaDataFields) {
+        _metaDataFields = metaDataFields;
+        _groupKey = tuple.getString(0);
+
+        Tuple prefixLengths = (Tuple)tuple.get(1);
+        Tuple suffixes = (Tuple)tuple.get(2);
+        Tuple lastFetched = (Tuple)tuple.get(3);
+        Tuple lastUpdated = (Tuple)tuple.get(4);
+        Tuple statuses = (Tuple)tuple.get(5);
+        Tuple scores = (Tuple)tuple.get(6);
+        Tuple metaDataValues = (Tuple)tuple.get(7);
+        Tuple groupKeys = (Tuple)tuple.get(8);
+
+        int size = prefixLengths.size();
+        _prefixLengths = new int[size];
+        _suffixes = new String[size];
+        _lastFetched = new long[size];
+        _lastUpdated = new long[size];
+        _statuses = new int[size];
+        _scores = new double[size];
+        _metaDataValues = new Tuple[size];
+        if (groupKeys != null) {
+            _groupKeys = new String[size];
+        }
+
+        for (int i = 0; i < size; i++) {
+            _prefixLengths[i] = prefixLengths.getInteger(i);
+            _suffixes[i] = suffixes.getString(i);
+            _lastFetched[i] = lastFetched.getLong(i);
+            _lastUpdated[i] = lastUpdated.getLong(i);
+            _statuses[i] = statuses.getInteger(i);
+            _scores[i] = scores.getDouble(i);
+            _metaDataValues[i] = (Tuple)metaDataValues.get(i);
+            if (groupKeys != null) {
+                _groupKeys[i] = groupKeys.getString(i);
+            }
+        }
+    }
+
+    public int size() {
+        return _suffixes.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Return the first URL, without decoding any ScoredUrlDatums (e.g. for logging).
+     */
+    public String getFirstUrl() {
+        return isEmpty() ? null : _suffixes[0];
+    }
+
+    @Override
+    public Iterator<ScoredUrlDatum> iterator() {
+        return new Iterator<ScoredUrlDatum>() {
+            private int _index = 0;
+            private String _prevUrl = "";
+
+            @Override
+            public boolean hasNext() {
+                return _index < size();
+            }
+
+            @Override
+            public ScoredUrlDatum next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                String url = _prevUrl.substring(0, _prefixLengths[_index]) + _suffixes[_index];
+                _prevUrl = url;
+
+                ScoredUrlDatum result = makeDatum(_index, url);
+                _index += 1;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public Tuple toTuple() {
+        Tuple prefixLengths = new Tuple();
+        Tuple suffixes = new Tuple();
+        Tuple lastFetched = new Tuple();
+        Tuple lastUpdated = new Tuple();
+        Tuple statuses = new Tuple();
+        Tuple scores = new Tuple();
+        Tuple metaDataValues = new Tuple();
+        Tuple groupKeys = _groupKeys == null ? null : new Tuple();
+
+        for (int i = 0; i < size(); i++) {
+            prefixLengths.add(_prefixLengths[i]);
+            suffixes.add(_suffixes[i]);
+            lastFetched.add(_lastFetched[i]);
+            lastUpdated.add(_lastUpdated[i]);
+            statuses.add(_statuses[i]);
+            scores.add(_scores[i]);
+            metaDataValues.add(_metaDataValues[i]);
+            if (groupKeys != null) {
+                groupKeys.add(_groupKeys[i]);
+            }
+        }
+
+        return new Tuple(_groupKey, prefixLengths, suffixes, lastFetched, lastUpdated, statuses, scores, metaDataValues, groupKeys);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ScoredUrlDatum makeDatum(int index, String url) {
+        Map<String, Comparable> metaData = new HashMap<String, Comparable>();
+        Tuple values = _metaDataValues[index];
+        for (int i = 0; i < _metaDataFields.size(); i++) {
+            metaData.put((String)_metaDataFields.get(i), values.get(i));
+        }
+
+        String groupKey = _groupKeys == null ? _groupKey : _groupKeys[index];
+        return new ScoredUrlDatum(url, _lastFetched[index], _lastUpdated[index], UrlStatus.values()[_statuses[index]],
+                        groupKey, _scores[index], metaData);
+    }
+
+    private static int commonPrefixLength(String s1, String s2) {
+        int maxLength = Math.min(s1.length(), s2.length());
+        int i = 0;
+        while ((i < maxLength) && (s1.charAt(i) == s2.charAt(i))) {
+            i += 1;
+        }
+
+        return i;
+    }
+
+    private static boolean equalKeys(String key1, String key2) {
+        return key1 == null ? key2 == null : key1.equals(key2);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((_groupKey == null) ? 0 : _groupKey.hashCode());
+        result = prime * result + Arrays.hashCode(_groupKeys);
+        result = prime * result + Arrays.hashCode(_prefixLengths);
+        result = prime * result + Arrays.hashCode(_suffixes);
+        result = prime * result + Arrays.hashCode(_lastFetched);
+        result = prime * result + Arrays.hashCode(_lastUpdated);
+        result = prime * result + Arrays.hashCode(_statuses);
+        result = prime * result + Arrays.hashCode(_scores);
+        result = prime * result + Arrays.hashCode(_metaDataValues);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        ScoredUrlList other = (ScoredUrlList) obj;
+        if (!equalKeys(_groupKey, other._groupKey))
+            return false;
+        if (!Arrays.equals(_groupKeys, other._groupKeys))
+            return false;
+        if (!Arrays.equals(_prefixLengths, other._prefixLengths))
+            return false;
+        if (!Arrays.equals(_suffixes, other._suffixes))
+            return false;
+        if (!Arrays.equals(_lastFetched, other._lastFetched))
+            return false;
+        if (!Arrays.equals(_lastUpdated, other._lastUpdated))
+            return false;
+        if (!Arrays.equals(_statuses, other._statuses))
+            return false;
+        if (!Arrays.equals(_scores, other._scores))
+            return false;
+        if (!Arrays.equals(_metaDataValues, other._metaDataValues))
+            return false;
+        return true;
+    }
+}
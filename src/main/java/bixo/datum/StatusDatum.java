@@ -35,9 +35,11 @@ public class StatusDatum extends BaseDatum {
     private String _url;
     private UrlStatus _status;
     private HttpHeaders _headers;
-    private BaseFetchException _exception;
+    private FetchOutcome _outcome;
     private long _statusTime;
     private String _hostAddress;
+    private String _newBaseUrl;
+    private long _contentSignature;
     
     /**
      * Constructor for creating StatusDatum for a URL that was fetched successfully.
@@ -48,26 +50,43 @@ public class StatusDatum extends BaseDatum {
      * @param metaData User-provided meta-data.
      */
     public StatusDatum(String url, HttpHeaders headers, String hostAddress, Map<String, Comparable> metaData) {
-        this(url, UrlStatus.FETCHED, headers, null, System.currentTimeMillis(), hostAddress, metaData);
+        this(url, headers, hostAddress, null, metaData);
+    }
+    
+    /**
+     * Constructor for creating StatusDatum for a URL that was fetched successfully,
+     * after following a permanent redirect to <newBaseUrl> (or null if there wasn't one).
+     */
+    public StatusDatum(String url, HttpHeaders headers, String hostAddress, String newBaseUrl, Map<String, Comparable> metaData) {
+        this(url, UrlStatus.FETCHED, headers, null, System.currentTimeMillis(), hostAddress, newBaseUrl, metaData);
     }
     
     public StatusDatum(String url, BaseFetchException e, Map<String, Comparable> metaData) {
-        this(url, e.mapToUrlStatus(), null, e, System.currentTimeMillis(), null, metaData);
+        this(url, new FetchOutcome(e), metaData);
+    }
+    
+    public StatusDatum(String url, FetchOutcome outcome, Map<String, Comparable> metaData) {
+        this(url, outcome.getStatus(), null, outcome, System.currentTimeMillis(), null, metaData);
     }
     
     public StatusDatum(String url, UrlStatus status, Map<String, Comparable> metaData) {
         this(url, status, null, null, System.currentTimeMillis(), null, metaData);
     }
     
-    public StatusDatum(String url, UrlStatus status, HttpHeaders headers, BaseFetchException e, long statusTime, String hostAddress, Map<String, Comparable> metaData) {
+    public StatusDatum(String url, UrlStatus status, HttpHeaders headers, FetchOutcome outcome, long statusTime, String hostAddress, Map<String, Comparable> metaData) {
+        this(url, status, headers, outcome, statusTime, hostAddress, null, metaData);
+    }
+    
+    public StatusDatum(String url, UrlStatus status, HttpHeaders headers, FetchOutcome outcome, long statusTime, String hostAddress, String newBaseUrl, Map<String, Comparable> metaData) {
         super(metaData);
         
         _url = url;
         _status = status;
         _headers = headers;
-        _exception = e;
+        _outcome = outcome;
         _statusTime = statusTime;
         _hostAddress = hostAddress;
+        _newBaseUrl = newBaseUrl;
     }
 
     public String getUrl() {
@@ -82,8 +101,22 @@ public class StatusDatum extends BaseDatum {
         return _headers;
     }
 
+    /**
+     * @return details of why the fetch failed, or null.
+     */
+    public FetchOutcome getOutcome() {
+        return _outcome;
+    }
+
+    /**
+     * @deprecated the exception is no longer kept, so this rebuilds one from getOutcome()
+     * (see FetchOutcome.toException()), without the cause or stack trace. Use getOutcome().
+     *
+     * @return exception for why the fetch failed, or null.
+     */
+    @Deprecated
     public BaseFetchException getException() {
-        return _exception;
+        return (_outcome == null) ? null : _outcome.toException(_url);
     }
 
     public long getStatusTime() {
@@ -93,6 +126,24 @@ public class StatusDatum extends BaseDatum {
     public String getHostAddress() {
         return _hostAddress;
     }
+    
+    /**
+     * @return the URL that we were permanently redirected to when fetching, or null.
+     */
+    public String getNewBaseUrl() {
+        return _newBaseUrl;
+    }
+
+    /**
+     * @return signature of the fetched content (see ContentSignature), or 0 if the URL wasn't fetched.
+     */
+    public long getContentSignature() {
+        return _contentSignature;
+    }
+
+    public void setContentSignature(long contentSignature) {
+        _contentSignature = contentSignature;
+    }
 
     // ======================================================================================
     // Below here is all Cascading-specific implementation
@@ -102,11 +153,18 @@ public class StatusDatum extends BaseDatum {
     public static final String URL_FIELD = fieldName(StatusDatum.class, "url");
     public static final String STATUS_FIELD = fieldName(StatusDatum.class, "status");
     public static final String HEADERS_FIELD = fieldName(StatusDatum.class, "headers");
-    public static final String EXCEPTION_FIELD = fieldName(StatusDatum.class, "exception");
+    public static final String OUTCOME_FIELD = fieldName(StatusDatum.class, "outcome");
+    /**
+     * @deprecated this field now holds the FetchOutcome tuple, not a serialized exception. Use OUTCOME_FIELD.
+     */
+    @Deprecated
+    public static final String EXCEPTION_FIELD = OUTCOME_FIELD;
     public static final String STATUS_TIME_FIELD = fieldName(StatusDatum.class, "statusTime");
     public static final String HOST_ADDRESS_FIELD = fieldName(StatusDatum.class, "hostAddress");
+    public static final String NEW_BASE_URL_FIELD = fieldName(StatusDatum.class, "newBaseUrl");
+    public static final String CONTENT_SIGNATURE_FIELD = fieldName(StatusDatum.class, "contentSignature");
         
-    public static final Fields FIELDS = new Fields(URL_FIELD, STATUS_FIELD, HEADERS_FIELD, EXCEPTION_FIELD, STATUS_TIME_FIELD, HOST_ADDRESS_FIELD);
+    public static final Fields FIELDS = new Fields(URL_FIELD, STATUS_FIELD, HEADERS_FIELD, OUTCOME_FIELD, STATUS_TIME_FIELD, HOST_ADDRESS_FIELD, NEW_BASE_URL_FIELD, CONTENT_SIGNATURE_FIELD);
     
     public StatusDatum(Tuple tuple, Fields metaDataFields) {
         super(tuple, metaDataFields);
@@ -122,9 +180,12 @@ public class StatusDatum extends BaseDatum {
         _url = entry.getString(URL_FIELD);
         _status = UrlStatus.valueOf(entry.getString(STATUS_FIELD));
         _headers = new HttpHeaders((Tuple)entry.get(HEADERS_FIELD));
-        _exception = (BaseFetchException)entry.get(EXCEPTION_FIELD);
+        Tuple outcome = (Tuple)entry.get(OUTCOME_FIELD);
+        _outcome = (outcome == null) ? null : new FetchOutcome(outcome);
         _statusTime = entry.getLong(STATUS_TIME_FIELD);
         _hostAddress = entry.getString(HOST_ADDRESS_FIELD);
+        _newBaseUrl = entry.getString(NEW_BASE_URL_FIELD);
+        _contentSignature = entry.getLong(CONTENT_SIGNATURE_FIELD);
     }
     
     @Override
@@ -134,7 +195,7 @@ public class StatusDatum extends BaseDatum {
     
     @Override
     protected Comparable[] getStandardValues() {
-        return new Comparable[] { _url, _status.name(), _headers == null ? null : _headers.toTuple(), (Comparable)_exception, _statusTime, _hostAddress };
+        return new Comparable[] { _url, _status.name(), _headers == null ? null : _headers.toTuple(), _outcome == null ? null : _outcome.toTuple(), _statusTime, _hostAddress, _newBaseUrl, _contentSignature };
     }
 
 
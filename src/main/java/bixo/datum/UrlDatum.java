@@ -99,6 +99,10 @@ public class UrlDatum extends BaseDatum {
     public static final String LAST_STATUS_FIELD = fieldName(UrlDatum.class, "lastStatus");
         
     public static final Fields FIELDS = new Fields(URL_FIELD, LAST_FETCHED_FIELD, LAST_UPDATED_FIELD, LAST_STATUS_FIELD);
+
+    // Optional field (see UrlFingerprint) that follows the meta-data fields, for
+    // grouping on something more compact than the URL.
+    public static final String FINGERPRINT_FIELD = fieldName(UrlDatum.class, "fingerprint");
     
     public UrlDatum(Tuple tuple, Fields metaDataFields) {
         super(tuple, metaDataFields);
@@ -37,6 +37,9 @@ public enum UrlStatus {
     ERROR_INVALID_URL,
     ERROR_IOEXCEPTION,
     
-    FETCHED;    // Successfully fetched
+    FETCHED,    // Successfully fetched
+
+    // Values are stored by ordinal (see FetchOutcome), so new ones have to go at the end.
+    SKIPPED_HOST_UNAVAILABLE;   // Skipped because of too many consecutive timeouts/server errors from the host
 
 }
@@ -44,6 +44,9 @@ public class AbortedFetchException extends BaseFetchException implements Writabl
         case INTERRUPTED:
             return UrlStatus.SKIPPED_INTERRUPTED;
             
+        case HOST_UNAVAILABLE:
+            return UrlStatus.SKIPPED_HOST_UNAVAILABLE;
+            
         default:
             throw new RuntimeException("Unknown abort reason: " + _abortReason);
         }
@@ -5,5 +5,6 @@ public enum AbortedFetchReason {
     
     SLOW_RESPONSE_RATE,     // Response rate back from server was below minimum.
     INVALID_MIMETYPE,       // FetcherPolicy doesn't specify this as a valid mime-type
-    INTERRUPTED;            // Fetch was interrupted (typically by FetchBuffer calling executor.terminate())
+    INTERRUPTED,            // Fetch was interrupted (typically by FetchBuffer calling executor.terminate())
+    HOST_UNAVAILABLE;       // Too many consecutive failures for the host (see HostCircuitBreaker)
 }
@@ -0,0 +1,234 @@
+package bixo.fetcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+
+import bixo.config.FetcherPolicy;
+import bixo.datum.ScoredUrlDatum;
+import bixo.exceptions.BaseFetchException;
+import bixo.exceptions.HttpFetchException;
+import bixo.exceptions.IOFetchException;
+import cascading.tuple.Tuple;
+
+/**
+ * URLs that failed with a transient error (IOFetchException, or a 503/429 response), waiting
+ * to be fetched again later in the same run. This is separate from the immediate connection-level
+ * retries done by the fetcher itself - here each retry waits for an exponentially increasing
+ * delay (or the server's Retry-After time, if that's longer), and is fetched as part of the
+ * ref's normal (polite) schedule.
+ *
+ * URLs are only queued if they haven't used up their retries, and the retry would happen
+ * before the crawl end time. Otherwise the caller should report the failure as usual. Every
+ * queued URL keeps its failure result, so that it can still be reported if the retry never
+ * happens (see close()). The caller has to call done() once a URL is fetched, or fails for
+ * good, so that we stop tracking how many times it's been retried.
+ */
+public class FetchRetryQueue {
+    private static final Logger LOGGER = Logger.getLogger(FetchRetryQueue.class);
+
+    // Don't wait around for servers that want us to come back much later.
+    public static final long MAX_RETRY_DELAY = 10 * 60 * 1000L;
+
+    // HttpStatus (from HttpCore 4.0) doesn't have a constant for this.
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static class RetryItem {
+        private ScoredUrlDatum _datum;
+        private long _retryTime;
+        private Tuple _failure;
+
+        public RetryItem(ScoredUrlDatum datum, long retryTime, Tuple failure) {
+            _datum = datum;
+            _retryTime = retryTime;
+            _failure = failure;
+        }
+    }
+
+    private FetcherPolicy _policy;
+    private Map<String, Integer> _numRetries;
+    private Map<String, List<RetryItem>> _items;
+    private int _size;
+    private boolean _closed;
+
+    public FetchRetryQueue(FetcherPolicy policy) {
+        _policy = policy;
+        _numRetries = new HashMap<String, Integer>();
+        _items = new HashMap<String, List<RetryItem>>();
+        _size = 0;
+        _closed = false;
+    }
+
+    /**
+     * Queue up <datum> (from <ref>) for a retry, if <e> is a transient failure and we haven't
+     * run out of retries or time. Return true if it was queued, in which case <failure> (the
+     * FetchTask result tuple for the failed fetch) is what we'll report if it never gets retried.
+     */
+    public synchronized boolean add(String ref, ScoredUrlDatum datum, BaseFetchException e, Tuple failure) {
+        if (_closed || !isTransient(e)) {
+            return false;
+        }
+
+        String url = datum.getUrl();
+        Integer numRetries = _numRetries.get(url);
+        int retry = (numRetries == null) ? 1 : numRetries + 1;
+        if (retry > _policy.getMaxFetchRetries()) {
+            return false;
+        }
+
+        long retryDelay = calcRetryDelay(e, retry);
+        long retryTime = System.currentTimeMillis() + retryDelay;
+        if ((retryDelay > MAX_RETRY_DELAY) || (retryTime >= _policy.getCrawlEndTime())) {
+            return false;
+        }
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(String.format("Retry #%d of %s in %dms", retry, url, retryDelay));
+        }
+
+        _numRetries.put(url, retry);
+
+        List<RetryItem> refItems = _items.get(ref);
+        if (refItems == null) {
+            refItems = new LinkedList<RetryItem>();
+            _items.put(ref, refItems);
+        }
+
+        refItems.add(new RetryItem(datum, retryTime, failure));
+        _size += 1;
+        return true;
+    }
+
+    /**
+     * Forget the retry count for <datum>, since it was fetched, or it won't be retried again.
+     */
+    public synchronized void done(ScoredUrlDatum datum) {
+        _numRetries.remove(datum.getUrl());
+    }
+
+    /**
+     * Return true if <ref> has URLs waiting to be retried.
+     */
+    public synchronized boolean hasRetries(String ref) {
+        return _items.containsKey(ref);
+    }
+
+    public synchronized boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Return the refs that have at least one URL that's ready to be retried.
+     */
+    public synchronized Set<String> getReadyRefs(long now) {
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<String, List<RetryItem>> entry : _items.entrySet()) {
+            for (RetryItem item : entry.getValue()) {
+                if (item._retryTime <= now) {
+                    result.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Remove & return the URLs for <ref> that are ready to be retried.
+     */
+    public synchronized List<ScoredUrlDatum> removeReady(String ref, long now) {
+        List<ScoredUrlDatum> result = new ArrayList<ScoredUrlDatum>();
+        List<RetryItem> refItems = _items.get(ref);
+        if (refItems == null) {
+            return result;
+        }
+
+        Iterator<RetryItem> iter = refItems.iterator();
+        while (iter.hasNext()) {
+            RetryItem item = iter.next();
+            if (item._retryTime <= now) {
+                result.add(item._datum);
+                iter.remove();
+            }
+        }
+
+        if (refItems.isEmpty()) {
+            _items.remove(ref);
+        }
+
+        _size -= result.size();
+        return result;
+    }
+
+    /**
+     * Stop accepting URLs, and return the failure results for everything that's still
+     * waiting to be retried.
+     */
+    public synchronized List<Tuple> close() {
+        _closed = true;
+
+        List<Tuple> result = new ArrayList<Tuple>(_size);
+        for (List<RetryItem> refItems : _items.values()) {
+            for (RetryItem item : refItems) {
+                result.add(item._failure);
+            }
+        }
+
+        _items.clear();
+        _numRetries.clear();
+        _size = 0;
+        return result;
+    }
+
+    private long calcRetryDelay(BaseFetchException e, int retry) {
+        long backoffDelay = _policy.getFetchRetryDelay() << (retry - 1);
+
+        if (e instanceof HttpFetchException) {
+            long retryAfter = getRetryAfter((HttpFetchException)e);
+            return Math.max(backoffDelay, retryAfter);
+        } else {
+            return backoffDelay;
+        }
+    }
+
+    /**
+     * Return the Retry-After delay (in milliseconds) from the response, or 0 if there isn't one.
+     * We only handle the delta-seconds format, not an HTTP date.
+     */
+    private static long getRetryAfter(HttpFetchException e) {
+        if (e.getHttpHeaders() == null) {
+            return 0;
+        }
+
+        String retryAfter = e.getHttpHeaders().getFirst("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000L);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+    public static boolean isTransient(BaseFetchException e) {
+        if (e instanceof IOFetchException) {
+            return true;
+        } else if (e instanceof HttpFetchException) {
+            int httpStatus = ((HttpFetchException)e).getHttpStatus();
+            return (httpStatus == HttpStatus.SC_SERVICE_UNAVAILABLE) || (httpStatus == SC_TOO_MANY_REQUESTS);
+        } else {
+            return false;
+        }
+    }
+}
@@ -22,14 +22,15 @@
  */
 package bixo.fetcher;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.List;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import bixo.cascading.BixoFlowProcess;
+import bixo.datum.FetchOutcome;
 import bixo.datum.FetchedDatum;
 import bixo.datum.ScoredUrlDatum;
 import bixo.datum.UrlStatus;
@@ -50,14 +51,30 @@ public class FetchTask implements Runnable {
     
     private IFetchMgr _fetchMgr;
     private IHttpFetcher _httpFetcher;
-    private List<ScoredUrlDatum> _items;
+    private Iterable<ScoredUrlDatum> _items;
     private String _ref;
+    private HostCircuitBreaker _circuitBreaker;
+    private FetchRetryQueue _retryQueue;
     
-    public FetchTask(IFetchMgr fetchMgr, IHttpFetcher httpFetcher, List<ScoredUrlDatum> items, String ref) {
+    public FetchTask(IFetchMgr fetchMgr, IHttpFetcher httpFetcher, Iterable<ScoredUrlDatum> items, String ref) {
+        this(fetchMgr, httpFetcher, items, ref, null, null);
+    }
+    
+    /**
+     * If <circuitBreaker> isn't null, then once it's open for <ref> we skip the rest of
+     * the items (after the first one, which is always fetched as a probe).
+     * 
+     * If <retryQueue> isn't null, then items that fail with a transient error are added to
+     * it (if it will take them), versus being collected as failed.
+     */
+    public FetchTask(IFetchMgr fetchMgr, IHttpFetcher httpFetcher, Iterable<ScoredUrlDatum> items, String ref,
+                    HostCircuitBreaker circuitBreaker, FetchRetryQueue retryQueue) {
         _fetchMgr = fetchMgr;
         _httpFetcher = httpFetcher;
         _items = items;
         _ref = ref;
+        _circuitBreaker = circuitBreaker;
+        _retryQueue = retryQueue;
     }
 
     @SuppressWarnings("unchecked")
@@ -70,10 +87,20 @@ public class FetchTask implements Runnable {
             // TODO KKr - when fetching the last item, send a Connection: close
             // header to let the server know it doesn't need to keep the socket open.
             Iterator<ScoredUrlDatum> iter = _items.iterator();
+            boolean firstItem = true;
+            boolean hostUnavailable = false;
             while (!Thread.interrupted() && iter.hasNext()) {
+                if (!firstItem && (_circuitBreaker != null) && _circuitBreaker.isOpen(_ref)) {
+                    LOGGER.debug("Too many consecutive failures, skipping remaining URLs for " + _ref);
+                    hostUnavailable = true;
+                    break;
+                }
+                
+                firstItem = false;
                 ScoredUrlDatum item = iter.next();
                 FetchedDatum result = new FetchedDatum(item);
                 Comparable status = null;
+                boolean retrying = false;
 
                 try {
                     process.increment(FetchCounters.URLS_FETCHING, 1);
@@ -87,46 +114,76 @@ public class FetchTask implements Runnable {
                     process.setStatus(Level.TRACE, "Fetched " + result);
 
                     status = UrlStatus.FETCHED.toString();
+                    
+                    if (_circuitBreaker != null) {
+                        _circuitBreaker.recordSuccess(_ref);
+                    }
                 } catch (BaseFetchException e) {
                     // TODO KKr - we'd have to do something special here for AbortedFetchException with
                     // the reason == INTERRUPTED, as we'd want to (a) increment URLS_SKIPPED, not failed,
                     // and we'd want to bail out of this loop (or set the interrupted flag)
-                    process.increment(FetchCounters.URLS_FAILED, 1);
-
-                    // We can do this because each of the concrete subclasses of BaseFetchException implements
-                    // WritableComparable
-                    status = (Comparable)e;
+                    if (_circuitBreaker != null) {
+                        _circuitBreaker.recordFailure(_ref, e);
+                    }
+                    
+                    // Pass back a compact version of the exception, since we don't need the
+                    // stack trace and it's expensive to serialize.
+                    status = new FetchOutcome(e).toTuple();
+                    
+                    retrying = (_retryQueue != null) && _retryQueue.add(_ref, item, e, makeResult(result, status));
+                    process.increment(retrying ? FetchCounters.URLS_RETRIED : FetchCounters.URLS_FAILED, 1);
                 } catch (Exception e) {
                     LOGGER.warn("Unexpected exception while fetching " + item.getUrl(), e);
 
                     process.increment(FetchCounters.URLS_FAILED, 1);
-                    status = new IOFetchException(item.getUrl(), new IOException(e));
+                    status = new FetchOutcome(new IOFetchException(item.getUrl(), new IOException(e))).toTuple();
                 } finally {
                     process.decrement(FetchCounters.URLS_FETCHING, 1);
 
-                    Tuple tuple = result.toTuple();
-                    tuple.add(status);
-                   _fetchMgr.collect(tuple);
+                    if (!retrying) {
+                        _fetchMgr.collect(makeResult(result, status));
+                        
+                        if (_retryQueue != null) {
+                            _retryQueue.done(item);
+                        }
+                    }
                 }
             }
             
             // While we still have entries, we need to write them out to avoid losing them.
+            AbortedFetchReason skipReason = hostUnavailable ? AbortedFetchReason.HOST_UNAVAILABLE : AbortedFetchReason.INTERRUPTED;
             while (iter.hasNext()) {
                 ScoredUrlDatum item = iter.next();
                 FetchedDatum result = new FetchedDatum(item);
                 process.increment(FetchCounters.URLS_SKIPPED, 1);
-                AbortedFetchException status = new AbortedFetchException(item.getUrl(), AbortedFetchReason.INTERRUPTED);
+                FetchOutcome status = new FetchOutcome(new AbortedFetchException(item.getUrl(), skipReason));
+                _fetchMgr.collect(makeResult(result, status.toTuple()));
                 
-                Tuple tuple = result.toTuple();
-                tuple.add(status);
-               _fetchMgr.collect(tuple);
+                if (_retryQueue != null) {
+                    _retryQueue.done(item);
+                }
             }
         } catch (Throwable t) {
             LOGGER.error("Exception while fetching", t);
         } finally {
+            // Fetchers that are specific to this task (e.g. PipeliningHttpFetcher) hold onto a connection.
+            if (_httpFetcher instanceof Closeable) {
+                try {
+                    ((Closeable)_httpFetcher).close();
+                } catch (IOException e) {
+                    LOGGER.warn("Exception closing fetcher for " + _ref, e);
+                }
+            }
+            
             process.decrement(FetchCounters.DOMAINS_PROCESSING, 1);
             _fetchMgr.finished(_ref);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private static Tuple makeResult(FetchedDatum result, Comparable status) {
+        Tuple tuple = result.toTuple();
+        tuple.add(status);
+        return tuple;
+    }
 }
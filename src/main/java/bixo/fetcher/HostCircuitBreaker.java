@@ -0,0 +1,103 @@
+package bixo.fetcher;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import bixo.config.FetcherPolicy;
+import bixo.exceptions.BaseFetchException;
+import bixo.exceptions.HttpFetchException;
+import bixo.exceptions.IOFetchException;
+
+/**
+ * Track consecutive host failures (connect/read timeouts and 5xx responses) per fetch
+ * ref, shared by all of the FetchTasks in one FetchBuffer. Once a ref has failed more than
+ * the limit in a row, the breaker for that ref is open, and FetchTask skips the rest of its
+ * URLs. The first URL of every later batch is still fetched, as a probe - if it succeeds, then
+ * the breaker is closed again.
+ * 
+ * Refs are released once their last batch has been fetched, and only the most recently
+ * used MAX_TRACKED_REFS are kept, so memory use doesn't grow with the number of failing hosts.
+ */
+public class HostCircuitBreaker {
+
+    public static final int MAX_TRACKED_REFS = 10000;
+    
+    private int _maxConsecutiveFailures;
+    private Map<String, Integer> _failures;
+
+    public HostCircuitBreaker(int maxConsecutiveFailures) {
+        this(maxConsecutiveFailures, MAX_TRACKED_REFS);
+    }
+    
+    @SuppressWarnings("serial")
+    public HostCircuitBreaker(int maxConsecutiveFailures, final int maxTrackedRefs) {
+        _maxConsecutiveFailures = maxConsecutiveFailures;
+        _failures = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > maxTrackedRefs;
+            }
+        };
+    }
+
+    public synchronized boolean isOpen(String ref) {
+        if (_maxConsecutiveFailures == FetcherPolicy.NO_MAX_CONSECUTIVE_FAILURES) {
+            return false;
+        }
+
+        Integer numFailures = _failures.get(ref);
+        return (numFailures != null) && (numFailures >= _maxConsecutiveFailures);
+    }
+
+    public synchronized void recordSuccess(String ref) {
+        _failures.remove(ref);
+    }
+
+    /**
+     * Forget about <ref>, once there's nothing left to fetch from it.
+     */
+    public synchronized void release(String ref) {
+        _failures.remove(ref);
+    }
+
+    public synchronized void recordFailure(String ref) {
+        Integer numFailures = _failures.get(ref);
+        _failures.put(ref, numFailures == null ? 1 : numFailures + 1);
+    }
+
+    /**
+     * Record the result of a fetch that failed with <e>. Only failures that say
+     * something about the health of the host count against the ref; anything
+     * else (404, redirects, bad mime-type, etc) means the host is responding.
+     */
+    public void recordFailure(String ref, BaseFetchException e) {
+        if (isHostFailure(e)) {
+            recordFailure(ref);
+        } else {
+            recordSuccess(ref);
+        }
+    }
+
+    public static boolean isHostFailure(BaseFetchException e) {
+        if (e instanceof HttpFetchException) {
+            return ((HttpFetchException)e).getHttpStatus() >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        } else if (e instanceof IOFetchException) {
+            Throwable cause = e.getCause();
+
+            // Running out of pooled connections is our problem, not the host's.
+            if (cause instanceof ConnectionPoolTimeoutException) {
+                return false;
+            }
+
+            // Covers socket (read) timeouts, connect timeouts and refused connections.
+            return (cause instanceof InterruptedIOException) || (cause instanceof ConnectException);
+        } else {
+            return false;
+        }
+    }
+}
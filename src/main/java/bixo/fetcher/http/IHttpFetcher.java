@@ -55,4 +55,12 @@ public interface IHttpFetcher extends Serializable {
     public byte[] get(String url) throws BaseFetchException;
 
     public void abort();
+    
+    /**
+     * Release any state (e.g. cookies or connections) being kept for the URLs with
+     * grouping key <ref>, since no more of them will be fetched.
+     * 
+     * @param ref - grouping key of the finished URLs
+     */
+    public void releaseContext(String ref);
 }
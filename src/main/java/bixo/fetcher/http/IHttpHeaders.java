@@ -51,6 +51,14 @@ public interface IHttpHeaders {
     public static final String ACCEPT_CHARSET = "Accept-Charset";
 
     public static final String ACCEPT = "Accept";
+
+    public static final String HOST = "Host";
+
+    public static final String USER_AGENT = "User-Agent";
+
+    public static final String CONNECTION = "Connection";
+
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
     
 
 }
@@ -153,4 +153,9 @@ public class LoggingFetcher implements IHttpFetcher {
         // Do nothing
     }
 
+    @Override
+    public void releaseContext(String ref) {
+        // Do nothing
+    }
+
 }
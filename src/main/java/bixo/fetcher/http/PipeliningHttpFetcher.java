@@ -0,0 +1,486 @@
+package bixo.fetcher.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+
+import bixo.config.FetcherPolicy;
+import bixo.config.UserAgent;
+import bixo.datum.ContentBytes;
+import bixo.datum.FetchedDatum;
+import bixo.datum.HttpHeaders;
+import bixo.datum.ScoredUrlDatum;
+import bixo.exceptions.AbortedFetchException;
+import bixo.exceptions.AbortedFetchReason;
+import bixo.exceptions.BaseFetchException;
+import bixo.exceptions.HttpFetchException;
+import bixo.utils.GroupingKey;
+import bixo.utils.HttpUtils;
+
+/**
+ * Fetcher for one batch of URLs from a single server, that uses HTTP/1.1 pipelining - up to
+ * <depth> GET requests are written to the connection ahead of the responses, which are then
+ * read back in order. This only makes sense for servers that don't want a crawl delay, since
+ * otherwise the requests have to be spaced out anyway.
+ *
+ * The URLs must be requested (via get()) in the same order as they were passed to the
+ * constructor. If that doesn't happen, or the server misbehaves (closes the connection,
+ * responds with HTTP/1.0, sends something we can't parse, etc) then we drop the connection
+ * and use the regular (fallback) fetcher for the current URL and everything after it.
+ *
+ * Redirects are handed off to the fallback fetcher, so that the FetcherPolicy redirect
+ * handling is the same. Anything other than a GET also goes to the fallback fetcher.
+ */
+@SuppressWarnings("serial")
+public class PipeliningHttpFetcher implements IHttpFetcher, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(PipeliningHttpFetcher.class);
+
+    private static final int SOCKET_TIMEOUT = 30 * 1000;
+    private static final int CONNECTION_TIMEOUT = 30 * 1000;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+    private static final String CRLF = "\r\n";
+    private static final String HTTP_1_1 = "HTTP/1.1";
+
+    /**
+     * The server (or the order of requests) doesn't work with pipelining. The connection
+     * is no longer usable, but the fallback fetcher might have better luck.
+     */
+    private static class PipelineException extends IOException {
+        public PipelineException(String msg) {
+            super(msg);
+        }
+    }
+
+    private IHttpFetcher _fallback;
+    private int _depth;
+
+    private transient Iterator<ScoredUrlDatum> _planned;
+    private transient LinkedList<String> _requested;
+    private transient boolean _endOfPlan;
+    private transient boolean _fallenBack;
+
+    private transient String _host;
+    private transient int _port;
+    private transient Socket _socket;
+    private transient InputStream _in;
+    private transient OutputStream _out;
+
+    public PipeliningHttpFetcher(IHttpFetcher fallback, Iterable<ScoredUrlDatum> plannedUrls, int depth) {
+        _fallback = fallback;
+        _depth = depth;
+
+        _planned = plannedUrls.iterator();
+        _requested = new LinkedList<String>();
+        _endOfPlan = false;
+        _fallenBack = false;
+    }
+
+    @Override
+    public FetcherPolicy getFetcherPolicy() {
+        return _fallback.getFetcherPolicy();
+    }
+
+    @Override
+    public int getMaxThreads() {
+        return _fallback.getMaxThreads();
+    }
+
+    @Override
+    public UserAgent getUserAgent() {
+        return _fallback.getUserAgent();
+    }
+
+    public boolean isPipelining() {
+        return !_fallenBack;
+    }
+
+    @Override
+    public FetchedDatum get(ScoredUrlDatum scoredUrl) throws BaseFetchException {
+        if (!_fallenBack) {
+            try {
+                return pipelinedGet(scoredUrl);
+            } catch (IOException e) {
+                // Either a PipelineException, or the connection failed. Either way, the
+                // fallback fetcher gets to try this URL (and all of the ones after it).
+                LOGGER.debug(String.format("Pipelining failed for %s (%s), falling back", scoredUrl.getUrl(), e.getMessage()));
+                fallBack();
+            }
+        }
+
+        return _fallback.get(scoredUrl);
+    }
+
+    @Override
+    public FetchedDatum head(ScoredUrlDatum scoredUrl) throws BaseFetchException {
+        return _fallback.head(scoredUrl);
+    }
+
+    @Override
+    public byte[] get(String url) throws BaseFetchException {
+        return _fallback.get(url);
+    }
+
+    @Override
+    public void abort() {
+        fallBack();
+        _fallback.abort();
+    }
+
+    @Override
+    public void releaseContext(String ref) {
+        _fallback.releaseContext(ref);
+    }
+
+    /**
+     * Drop the connection, if it's still open. Any URLs that haven't been fetched yet
+     * will be fetched by the fallback fetcher.
+     */
+    @Override
+    public void close() {
+        fallBack();
+    }
+
+    private FetchedDatum pipelinedGet(ScoredUrlDatum scoredUrl) throws BaseFetchException, IOException {
+        String url = scoredUrl.getUrl();
+        if (_socket == null) {
+            connect(url, GroupingKey.getHostAddressFromKey(scoredUrl.getGroupKey()));
+        }
+
+        fillPipeline();
+
+        String nextUrl = _requested.peek();
+        if (!url.equals(nextUrl)) {
+            throw new PipelineException("Unexpected URL order, expected " + nextUrl);
+        }
+
+        // Keep the pipeline full while we read the response.
+        _requested.remove();
+        fillPipeline();
+
+        long readStartTime = System.currentTimeMillis();
+        String hostAddress = _socket.getInetAddress().getHostAddress();
+
+        // Skip over interim (1xx) responses.
+        String statusLine;
+        int httpStatus;
+        HttpHeaders headers;
+        do {
+            statusLine = readLine();
+            httpStatus = parseStatus(statusLine);
+            headers = readHeaders();
+        } while (httpStatus < HttpStatus.SC_OK);
+
+        FetcherPolicy policy = _fallback.getFetcherPolicy();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        boolean keepAlive = readBody(url, httpStatus, headers, policy.getMaxContentSize(), content);
+        keepAlive = keepAlive && statusLine.startsWith(HTTP_1_1) && !"close".equalsIgnoreCase(headers.getFirst(IHttpHeaders.CONNECTION));
+
+        // We got a complete response, but anything else we've asked for is lost.
+        if (!keepAlive) {
+            LOGGER.debug("Server closing connection, falling back after " + url);
+            fallBack();
+        } else if (_requested.isEmpty() && _endOfPlan) {
+            closeConnection();
+        }
+
+        if ((httpStatus >= HttpStatus.SC_MULTIPLE_CHOICES) && (httpStatus < HttpStatus.SC_BAD_REQUEST)) {
+            return _fallback.get(scoredUrl);
+        } else if (httpStatus >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            throw new HttpFetchException(url, "Error fetching " + url, httpStatus, headers);
+        }
+
+        String contentType = headers.getFirst(IHttpHeaders.CONTENT_TYPE);
+        if (contentType == null) {
+            contentType = "";
+        }
+
+        // Same mime-type filtering as SimpleHttpFetcher.
+        Set<String> mimeTypes = policy.getValidMimeTypes();
+        if ((mimeTypes != null) && (mimeTypes.size() > 0)) {
+            String mimeType = HttpUtils.getMimeTypeFromContentType(contentType);
+            if (!mimeTypes.contains(mimeType)) {
+                throw new AbortedFetchException(url, "Invalid mime-type: " + mimeType, AbortedFetchReason.INVALID_MIMETYPE);
+            }
+        }
+
+        byte[] bytes = content.toByteArray();
+        long totalReadTime = Math.max(1, System.currentTimeMillis() - readStartTime);
+        int readRate = (int)((bytes.length * 1000L) / totalReadTime);
+
+        FetchedDatum result = new FetchedDatum(url, url, System.currentTimeMillis(), headers, new ContentBytes(bytes),
+                        contentType, readRate, scoredUrl.getMetaDataMap());
+        result.setHostAddress(hostAddress);
+        return result;
+    }
+
+    /**
+     * Connect to the server for <url>, using <hostAddress> (if not null) to avoid
+     * another DNS lookup.
+     */
+    private void connect(String url, String hostAddress) throws IOException {
+        URL target;
+
+        try {
+            target = new URL(url);
+        } catch (MalformedURLException e) {
+            throw new PipelineException("Invalid URL");
+        }
+
+        if (!target.getProtocol().equals("http")) {
+            throw new PipelineException("Only http URLs can be pipelined");
+        }
+
+        _host = target.getHost();
+        _port = (target.getPort() == -1) ? target.getDefaultPort() : target.getPort();
+
+        _socket = new Socket();
+        _socket.setSoTimeout(SOCKET_TIMEOUT);
+        _socket.setTcpNoDelay(true);
+        _socket.connect(new InetSocketAddress(hostAddress == null ? _host : hostAddress, _port), CONNECTION_TIMEOUT);
+
+        _in = new BufferedInputStream(_socket.getInputStream(), BUFFER_SIZE);
+        _out = new BufferedOutputStream(_socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    /**
+     * Write requests for planned URLs until we've got <depth> outstanding requests. We stop
+     * planning at the first URL that isn't on the same server, as that will get fetched
+     * by the fallback fetcher.
+     */
+    private void fillPipeline() throws IOException {
+        boolean wroteRequest = false;
+
+        while (!_endOfPlan && (_requested.size() < _depth)) {
+            if (!_planned.hasNext()) {
+                _endOfPlan = true;
+                break;
+            }
+
+            String url = _planned.next().getUrl();
+            URL target;
+
+            try {
+                target = new URL(url);
+            } catch (MalformedURLException e) {
+                _endOfPlan = true;
+                break;
+            }
+
+            int port = (target.getPort() == -1) ? target.getDefaultPort() : target.getPort();
+            if (!target.getProtocol().equals("http") || !target.getHost().equalsIgnoreCase(_host) || (port != _port)) {
+                _endOfPlan = true;
+                break;
+            }
+
+            writeRequest(target);
+            _requested.add(url);
+            wroteRequest = true;
+        }
+
+        if (wroteRequest) {
+            _out.flush();
+        }
+    }
+
+    private void writeRequest(URL target) throws IOException {
+        FetcherPolicy policy = _fallback.getFetcherPolicy();
+        String path = target.getFile();
+        if (path.length() == 0) {
+            path = "/";
+        }
+
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(' ').append(HTTP_1_1).append(CRLF);
+        request.append(IHttpHeaders.HOST).append(": ").append(_host);
+        if (_port != target.getDefaultPort()) {
+            request.append(':').append(_port);
+        }
+
+        request.append(CRLF);
+        request.append(IHttpHeaders.USER_AGENT).append(": ").append(_fallback.getUserAgent().getUserAgentString()).append(CRLF);
+        request.append(IHttpHeaders.ACCEPT_LANGUAGE).append(": ").append(policy.getAcceptLanguage()).append(CRLF);
+        request.append(IHttpHeaders.ACCEPT_CHARSET).append(": ").append(SimpleHttpFetcher.DEFAULT_ACCEPT_CHARSET).append(CRLF);
+        request.append(IHttpHeaders.ACCEPT).append(": ").append(SimpleHttpFetcher.DEFAULT_ACCEPT).append(CRLF);
+        request.append(CRLF);
+
+        _out.write(request.toString().getBytes("ISO-8859-1"));
+    }
+
+    private static int parseStatus(String statusLine) throws PipelineException {
+        // HTTP/1.x <status> <reason>
+        String[] parts = statusLine.split(" ", 3);
+        if ((parts.length < 2) || !parts[0].startsWith("HTTP/1.")) {
+            throw new PipelineException("Invalid status line: " + statusLine);
+        }
+
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new PipelineException("Invalid status line: " + statusLine);
+        }
+    }
+
+    private HttpHeaders readHeaders() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+
+        String line;
+        while ((line = readLine()).length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new PipelineException("Invalid header line: " + line);
+            }
+
+            headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+        }
+
+        return headers;
+    }
+
+    /**
+     * Read the response body into <content>, keeping at most <maxLength> bytes. The entire
+     * body always gets read, so that we're positioned at the start of the next response.
+     *
+     * @return true if the connection can be used for the next response.
+     */
+    private boolean readBody(String url, int httpStatus, HttpHeaders headers, int maxLength, ByteArrayOutputStream content) throws BaseFetchException, IOException {
+        if ((httpStatus == HttpStatus.SC_NO_CONTENT) || (httpStatus == HttpStatus.SC_NOT_MODIFIED)) {
+            return true;
+        }
+
+        String transferEncoding = headers.getFirst(IHttpHeaders.TRANSFER_ENCODING);
+        if ((transferEncoding != null) && transferEncoding.equalsIgnoreCase("chunked")) {
+            int chunkSize;
+            while ((chunkSize = parseChunkSize(readLine())) > 0) {
+                readBytes(url, chunkSize, maxLength, content);
+                if (readLine().length() > 0) {
+                    throw new PipelineException("Missing CRLF after chunk");
+                }
+            }
+
+            // Skip over any trailers.
+            readHeaders();
+            return true;
+        }
+
+        String contentLength = headers.getFirst(IHttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                readBytes(url, Integer.parseInt(contentLength.trim()), maxLength, content);
+                return true;
+            } catch (NumberFormatException e) {
+                throw new PipelineException("Invalid content length: " + contentLength);
+            }
+        }
+
+        // No way to know where the body ends, other than the server closing the connection.
+        readBytes(url, Integer.MAX_VALUE, maxLength, content);
+        return false;
+    }
+
+    private static int parseChunkSize(String line) throws PipelineException {
+        int extension = line.indexOf(';');
+        if (extension != -1) {
+            line = line.substring(0, extension);
+        }
+
+        try {
+            return Integer.parseInt(line.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new PipelineException("Invalid chunk size: " + line);
+        }
+    }
+
+    private void readBytes(String url, int length, int maxLength, ByteArrayOutputStream content) throws BaseFetchException, IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int minResponseRate = _fallback.getFetcherPolicy().getMinResponseRate();
+        long readStartTime = System.currentTimeMillis();
+        int readRequests = 0;
+        int totalRead = 0;
+
+        while (totalRead < length) {
+            int bytesRead = _in.read(buffer, 0, Math.min(buffer.length, length - totalRead));
+            if (bytesRead == -1) {
+                if (length == Integer.MAX_VALUE) {
+                    break;
+                } else {
+                    throw new PipelineException("Connection closed in the middle of a response");
+                }
+            }
+
+            readRequests += 1;
+            totalRead += bytesRead;
+
+            int keep = Math.min(bytesRead, maxLength - content.size());
+            if (keep > 0) {
+                content.write(buffer, 0, keep);
+            }
+
+            // Bailing out in the middle of a response means the connection is toast.
+            long totalReadTime = Math.max(1, System.currentTimeMillis() - readStartTime);
+            long readRate = (totalRead * 1000L) / totalReadTime;
+            if ((readRequests > 1) && (totalRead < length) && (readRate < minResponseRate)) {
+                fallBack();
+                throw new AbortedFetchException(url, "Slow response rate of " + readRate + " bytes/sec", AbortedFetchReason.SLOW_RESPONSE_RATE);
+            }
+
+            if (Thread.interrupted()) {
+                fallBack();
+                throw new AbortedFetchException(url, AbortedFetchReason.INTERRUPTED);
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+
+        int c;
+        while ((c = _in.read()) != '\n') {
+            if (c == -1) {
+                throw new PipelineException("Connection closed");
+            } else if (line.length() >= MAX_LINE_LENGTH) {
+                throw new PipelineException("Line too long");
+            }
+
+            line.append((char)c);
+        }
+
+        int length = line.length();
+        if ((length > 0) && (line.charAt(length - 1) == '\r')) {
+            line.setLength(length - 1);
+        }
+
+        return line.toString();
+    }
+
+    private void fallBack() {
+        _fallenBack = true;
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        if (_socket != null) {
+            try {
+                _socket.close();
+            } catch (IOException e) {
+                // Ignore any errors
+            }
+        }
+    }
+}
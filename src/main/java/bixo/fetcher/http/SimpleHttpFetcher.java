@@ -26,13 +26,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -56,7 +59,6 @@ import org.apache.http.HttpVersion;
 import org.apache.http.NoHttpResponseException;
 import org.apache.http.ProtocolException;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpRequestRetryHandler;
 import org.apache.http.client.RedirectException;
 import org.apache.http.client.methods.HttpGet;
@@ -70,9 +72,11 @@ import org.apache.http.client.protocol.ClientContext;
 import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.scheme.SocketFactory;
 import org.apache.http.conn.ssl.AbstractVerifier;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.cookie.params.CookieSpecParamBean;
@@ -105,6 +109,7 @@ import bixo.exceptions.IOFetchException;
 import bixo.exceptions.RedirectFetchException;
 import bixo.exceptions.UrlFetchException;
 import bixo.exceptions.RedirectFetchException.RedirectExceptionReason;
+import bixo.utils.GroupingKey;
 import bixo.utils.HttpUtils;
 
 @SuppressWarnings("serial")
@@ -132,13 +137,21 @@ public class SimpleHttpFetcher implements IHttpFetcher {
     // TODO KKr - figure out best value for this.
     // This is what Firefox uses (below)
     // Nutch has text/html,application/xml;q=0.9,application/xhtml+xml,text/xml;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5
-    private static final String DEFAULT_ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
-    private static final String DEFAULT_ACCEPT_CHARSET = "utf-8,ISO-8859-1;q=0.7,*;q=0.7";
+    static final String DEFAULT_ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
+    static final String DEFAULT_ACCEPT_CHARSET = "utf-8,ISO-8859-1;q=0.7,*;q=0.7";
     
     // Keys used to access data in the Http execution context.
     private static final String PERM_REDIRECT_CONTEXT_KEY = "perm-redirect";
 	private static final String REDIRECT_COUNT_CONTEXT_KEY = "redirect-count";
 	private static final String HOST_ADDRESS = "host-address";
+	
+	// Keys used to pass the already resolved address for a host through to our socket factories.
+	private static final String RESOLVED_HOST_PARAM = "bixo.resolved-host";
+	private static final String RESOLVED_ADDRESS_PARAM = "bixo.resolved-address";
+
+    // Minimum number of per-ref (grouping key) contexts we keep around, for sharing cookies
+    // and connections between requests to the same server.
+    private static final int MIN_CACHED_CONTEXTS = 100;
 
     private static final String SSL_CONTEXT_NAMES[] = {
         "TLS",
@@ -156,6 +169,7 @@ public class SimpleHttpFetcher implements IHttpFetcher {
     private UserAgent _userAgent;
     
     transient private DefaultHttpClient _httpClient;
+    transient private Map<String, HttpContext> _refContexts;
     
     private static class MyRequestRetryHandler implements HttpRequestRetryHandler {
         private int _maxRetryCount;
@@ -285,6 +299,98 @@ public class SimpleHttpFetcher implements IHttpFetcher {
         }
     }
     
+    /**
+     * Return the IP address that we've already resolved for <host>, or null if there isn't one.
+     * We check the host since the params are shared by every request made while following
+     * redirects, and those could be to a different host.
+     */
+    private static String getResolvedAddress(String host, HttpParams params) {
+        if (params == null) {
+            return null;
+        }
+        
+        String resolvedHost = (String)params.getParameter(RESOLVED_HOST_PARAM);
+        if ((resolvedHost != null) && resolvedHost.equalsIgnoreCase(host)) {
+            return (String)params.getParameter(RESOLVED_ADDRESS_PARAM);
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * Socket factory for http that connects to the resolved address (if any) for the
+     * host, versus doing another DNS lookup.
+     */
+    private static class ResolvedPlainSocketFactory implements SocketFactory {
+        private SocketFactory _factory;
+        
+        public ResolvedPlainSocketFactory(SocketFactory factory) {
+            _factory = factory;
+        }
+        
+        @Override
+        public Socket createSocket() throws IOException {
+            return _factory.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException {
+            String hostAddress = getResolvedAddress(host, params);
+            return _factory.connectSocket(sock, hostAddress == null ? host : hostAddress, port, localAddress, localPort, params);
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) {
+            return _factory.isSecure(sock);
+        }
+    }
+    
+    /**
+     * Socket factory for https that connects a plain socket to the resolved address (if any)
+     * for the host, and then layers SSL on top using the host name, so that certificate
+     * checking and SNI still see the real host.
+     */
+    private static class ResolvedSSLSocketFactory implements LayeredSocketFactory {
+        private SocketFactory _plainFactory;
+        private LayeredSocketFactory _sslFactory;
+        
+        public ResolvedSSLSocketFactory(SocketFactory plainFactory, LayeredSocketFactory sslFactory) {
+            _plainFactory = plainFactory;
+            _sslFactory = sslFactory;
+        }
+        
+        @Override
+        public Socket createSocket() throws IOException {
+            return _sslFactory.createSocket();
+        }
+
+        @Override
+        public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException {
+            String hostAddress = getResolvedAddress(host, params);
+            if (hostAddress == null) {
+                return _sslFactory.connectSocket(sock, host, port, localAddress, localPort, params);
+            }
+            
+            // We don't need the unconnected SSL socket from createSocket()
+            if (sock != null) {
+                sock.close();
+            }
+            
+            Socket plainSocket = _plainFactory.connectSocket(null, hostAddress, port, localAddress, localPort, params);
+            return _sslFactory.createSocket(plainSocket, host, port, true);
+        }
+
+        @Override
+        public boolean isSecure(Socket sock) {
+            return _sslFactory.isSecure(sock);
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return _sslFactory.createSocket(socket, host, port, autoClose);
+        }
+    }
+    
     private static class DummyX509HostnameVerifier extends AbstractVerifier {
 
         @Override
@@ -408,8 +514,22 @@ public class SimpleHttpFetcher implements IHttpFetcher {
     private FetchedResult request(HttpRequestBase request, ScoredUrlDatum scoredUrl) throws BaseFetchException {
         init();
 
+        // If we've already resolved the server's IP address (it's in the grouping key), then connect
+        // directly to that, which saves a DNS lookup and means we fetch from the IP that we're
+        // being polite to.
+        String hostAddress = GroupingKey.getHostAddressFromKey(scoredUrl.getGroupKey());
+        if (hostAddress != null) {
+            try {
+                HttpParams params = request.getParams();
+                params.setParameter(RESOLVED_HOST_PARAM, new URL(scoredUrl.getUrl()).getHost());
+                params.setParameter(RESOLVED_ADDRESS_PARAM, hostAddress);
+            } catch (MalformedURLException e) {
+                // Ignore, as doRequest will report the invalid URL.
+            }
+        }
+        
         try {
-            return doRequest(request, scoredUrl.getUrl(), scoredUrl.getMetaDataMap());
+            return doRequest(request, scoredUrl.getUrl(), scoredUrl.getGroupKey(), scoredUrl.getMetaDataMap());
         } catch (HttpFetchException e) {
             // Don't bother generating a trace for a 404 (not found)
             if (LOGGER.isTraceEnabled() && (e.getHttpStatus() != HttpStatus.SC_NOT_FOUND)) {
@@ -435,7 +555,7 @@ public class SimpleHttpFetcher implements IHttpFetcher {
         init();
         
         try {
-            FetchedDatum result = convert(doRequest(new HttpGet(), url, new HashMap<String, Comparable>()));
+            FetchedDatum result = convert(doRequest(new HttpGet(), url, null, new HashMap<String, Comparable>()));
             return result.getContentBytes();
         } catch (HttpFetchException e) {
             if (e.getHttpStatus() == HttpStatus.SC_NOT_FOUND) {
@@ -456,7 +576,7 @@ public class SimpleHttpFetcher implements IHttpFetcher {
         init();
         
         try {
-        	return doRequest(request,url,metaData);
+        	return doRequest(request, url, null, metaData);
         } catch (BaseFetchException e) {
         	if (LOGGER.isTraceEnabled()) {
         		LOGGER.trace(String.format("Exception fetching %s", url), e);
@@ -465,8 +585,52 @@ public class SimpleHttpFetcher implements IHttpFetcher {
         }
     }
 
+    /**
+     * Release the cookies and connection state we've been saving for <ref>, as we're
+     * done fetching from that server.
+     */
+    @Override
+    public void releaseContext(String ref) {
+        Map<String, HttpContext> refContexts = _refContexts;
+        if (refContexts != null) {
+            synchronized (refContexts) {
+                refContexts.remove(ref);
+            }
+        }
+    }
+
+    /**
+     * Return a new context for one request. If we know the ref (grouping key) for the URL,
+     * then this is a child of the ref's shared context, so that requests in the same batch
+     * share cookies (e.g. a session id) and get back the same pooled connections, while
+     * per-request values stay separate. Refs for different servers never share a cookie
+     * store, so there's no contention between fetch threads.
+     */
+    private HttpContext makeContext(String ref) {
+        if ((ref == null) || GroupingKey.isSpecialKey(ref)) {
+            HttpContext localContext = new BasicHttpContext();
+            localContext.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+            return localContext;
+        }
+
+        HttpContext refContext;
+        synchronized (_refContexts) {
+            refContext = _refContexts.get(ref);
+            if (refContext == null) {
+                refContext = new BasicHttpContext();
+                refContext.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+
+                // Connections are only re-used by requests with the same user token.
+                refContext.setAttribute(ClientContext.USER_TOKEN, ref);
+                _refContexts.put(ref, refContext);
+            }
+        }
+
+        return new BasicHttpContext(refContext);
+    }
+
     @SuppressWarnings("unchecked")
-    private FetchedResult doRequest(HttpRequestBase request, String url, Map<String, Comparable> metaData) throws BaseFetchException {
+    private FetchedResult doRequest(HttpRequestBase request, String url, String ref, Map<String, Comparable> metaData) throws BaseFetchException {
         LOGGER.trace("Fetching " + url);
 
         HttpResponse response;
@@ -479,11 +643,9 @@ public class SimpleHttpFetcher implements IHttpFetcher {
         String contentType = "";
         String hostAddress = null;
         
-        // Create a local instance of cookie store, and bind to local context
-        // Without this we get killed w/lots of threads, due to sync() on single cookie store.
-        HttpContext localContext = new BasicHttpContext();
-        CookieStore cookieStore = new BasicCookieStore();
-        localContext.setAttribute(ClientContext.COOKIE_STORE, cookieStore);
+        // Each ref gets its own cookie store, bound to the context. Without this we get killed
+        // w/lots of threads, due to sync() on single cookie store.
+        HttpContext localContext = makeContext(ref);
 
         try {
             request.setURI(new URI(url));
@@ -753,7 +915,7 @@ public class SimpleHttpFetcher implements IHttpFetcher {
 
             // Create and initialize scheme registry
             SchemeRegistry schemeRegistry = new SchemeRegistry();
-            schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+            schemeRegistry.register(new Scheme("http", new ResolvedPlainSocketFactory(PlainSocketFactory.getSocketFactory()), 80));
             SSLSocketFactory sf = null;
 
             for (String contextName : SSL_CONTEXT_NAMES) {
@@ -771,7 +933,7 @@ public class SimpleHttpFetcher implements IHttpFetcher {
             
             if (sf != null) {
                 sf.setHostnameVerifier(new DummyX509HostnameVerifier());
-                schemeRegistry.register(new Scheme("https", sf, 443));
+                schemeRegistry.register(new Scheme("https", new ResolvedSSLSocketFactory(PlainSocketFactory.getSocketFactory(), sf), 443));
             } else {
                 LOGGER.warn("No valid SSLContext found for https");
             }
@@ -803,6 +965,15 @@ public class SimpleHttpFetcher implements IHttpFetcher {
             defaultHeaders.add(new BasicHeader(IHttpHeaders.ACCEPT, DEFAULT_ACCEPT));
             
             clientParams.setDefaultHeaders(defaultHeaders);
+            
+            // Least recently used contexts get dropped, in case a ref never gets released.
+            final int maxContexts = Math.max(MIN_CACHED_CONTEXTS, _maxThreads);
+            _refContexts = new LinkedHashMap<String, HttpContext>(maxContexts, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, HttpContext> eldest) {
+                    return size() > maxContexts;
+                }
+            };
         }
     }
 
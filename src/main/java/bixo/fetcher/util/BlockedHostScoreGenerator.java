@@ -0,0 +1,83 @@
+package bixo.fetcher.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import bixo.datum.GroupedUrlDatum;
+import bixo.utils.HostSuffixSet;
+import bixo.utils.UrlSpans;
+
+/**
+ * Score generator that skips any domain in a host blocklist (a HostSuffixSet file on
+ * the task's local disk), and otherwise delegates every call to another generator. Since
+ * isGoodDomain() returns false for blocked domains, ProcessRobotsTask won't even fetch
+ * their robots.txt.
+ */
+@SuppressWarnings("serial")
+public class BlockedHostScoreGenerator extends ScoreGenerator {
+
+    private ScoreGenerator _scorer;
+    private String _blocklistPath;
+
+    private transient volatile HostSuffixSet _blockedHosts;
+
+    public BlockedHostScoreGenerator(ScoreGenerator scorer, String blocklistPath) {
+        super();
+
+        _scorer = scorer;
+        _blocklistPath = blocklistPath;
+    }
+
+    @Override
+    public boolean isGoodDomain(String domain, String pld) {
+        if (getBlockedHosts().contains(domain)) {
+            return false;
+        }
+
+        return _scorer.isGoodDomain(domain, pld);
+    }
+
+    @Override
+    public double generateScore(String url) {
+        UrlSpans realUrl = new UrlSpans();
+        if (realUrl.parse(url) && getBlockedHosts().contains(realUrl.getHost())) {
+            return SKIP_SCORE;
+        }
+
+        return _scorer.generateScore(url);
+    }
+
+    @Override
+    public double generateScore(String domain, String pld, GroupedUrlDatum url) {
+        if (getBlockedHosts().contains(domain)) {
+            return SKIP_SCORE;
+        }
+
+        return _scorer.generateScore(domain, pld, url);
+    }
+
+    @Override
+    public double generateScore(String domain, String pld, String url) {
+        if (getBlockedHosts().contains(domain)) {
+            return SKIP_SCORE;
+        }
+
+        return _scorer.generateScore(domain, pld, url);
+    }
+
+    private HostSuffixSet getBlockedHosts() {
+        if (_blockedHosts == null) {
+            synchronized (this) {
+                if (_blockedHosts == null) {
+                    try {
+                        _blockedHosts = HostSuffixSet.open(new File(_blocklistPath));
+                    } catch (IOException e) {
+                        throw new RuntimeException("Can't open host blocklist: " + _blocklistPath, e);
+                    }
+                }
+            }
+        }
+
+        return _blockedHosts;
+    }
+}
@@ -0,0 +1,145 @@
+package bixo.fetcher.util;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.PartitioningKey;
+import bixo.config.FetcherPolicy;
+import bixo.datum.PreFetchedDatum;
+import bixo.datum.ScoredUrlDatum;
+import bixo.fetcher.FetchRequest;
+import bixo.robots.RobotRules;
+import bixo.utils.GroupingKey;
+import cascading.tuple.TupleEntryCollector;
+
+/**
+ * Turns the URLs for one grouping key into PreFetchedDatum batches, each with a
+ * target fetch time, based on the crawl delay and the fetcher policy. This is
+ * used by the PreFetchBuffer, and also by the robots processing when we're
+ * generating batches without a separate GroupBy.
+ */
+@SuppressWarnings("serial")
+public class PreFetchBatcher implements Serializable {
+    private static final Logger LOGGER = Logger.getLogger(PreFetchBatcher.class);
+
+    public static final int URLS_PER_SKIPPED_BATCH = 100;
+
+    private FetcherPolicy _fetcherPolicy;
+    private int _numReduceTasks;
+
+    public PreFetchBatcher(FetcherPolicy fetcherPolicy, int numReduceTasks) {
+        _fetcherPolicy = fetcherPolicy;
+        _numReduceTasks = numReduceTasks;
+    }
+
+    /**
+     * Output batches for <urls>, which must be sorted by score (highest first).
+     *
+     * @param key grouping key (IP address + crawl delay) for all of the URLs.
+     * @param urls sorted URLs
+     * @param collector where to put PreFetchedDatum tuples (synchronized on while adding).
+     */
+    public void makeBatches(String key, Iterator<ScoredUrlDatum> urls, TupleEntryCollector collector) {
+        if (GroupingKey.isSpecialKey(key)) {
+            throw new RuntimeException("Invalid grouping key: " + key);
+        }
+
+        long crawlDelay = GroupingKey.getCrawlDelayFromKey(key);
+        if (crawlDelay == RobotRules.UNSET_CRAWL_DELAY) {
+            crawlDelay = _fetcherPolicy.getCrawlDelay();
+        }
+
+        int maxUrls = _fetcherPolicy.getMaxUrlsPerServer();
+        int totalUrls = 0;
+
+        PartitioningKey newKey = new PartitioningKey(key, _numReduceTasks);
+        long curRequestTime = System.currentTimeMillis();
+        long nextRequestTime = curRequestTime;
+
+        int targetSize = 0;
+
+        List<ScoredUrlDatum> batch = new LinkedList<ScoredUrlDatum>();
+
+        // TODO KKr - if we have a crawl duration, use it here to figure out how many URLs we
+        // could process. Read in up to that many URLs and put in a DiskQueue, so we have a count, then
+        // calculate a new crawlDelay that's (remaining time)/<num urls>, and use that in our loop.
+        // This will do a better job of spreading URLs out, because when we sort by target time
+        // the URLs from small domains will be better mingled with URLs from big domains. And this
+        // in turn will improve fetch efficiency or reduce the number of URLs we wind up skipping.
+
+        boolean skipping = false;
+        while (urls.hasNext()) {
+            if (targetSize == 0) {
+                skipping = totalUrls >= maxUrls;
+                // Figure out the max # of URLs that we would want to get.
+                if (skipping) {
+                    // We need to be skipping URLs. Do them in big chunks, and set the time to be
+                    // the same for each (don't care, FetchBuffer has to handle skipping them).
+                    targetSize = URLS_PER_SKIPPED_BATCH;
+                    nextRequestTime = curRequestTime;
+                } else {
+                    // With parallel fetching, each connection slot gets a full request's worth of URLs
+                    // in the same amount of time.
+                    FetchRequest request = _fetcherPolicy.getFetchRequest(curRequestTime, crawlDelay, Integer.MAX_VALUE);
+                    targetSize = Math.min(request.getNumUrls() * _fetcherPolicy.getFetchSlotsPerHost(), maxUrls - totalUrls);
+                    nextRequestTime = request.getNextRequestTime();
+                }
+            }
+
+            batch.add(urls.next());
+            totalUrls += 1;
+
+            if (batch.size() >= targetSize) {
+                LOGGER.trace(String.format("Added %d urls for ref %s in group %d at %d", batch.size(), newKey.getRef(), newKey.getValue(), curRequestTime));
+                PreFetchedDatum datum = new PreFetchedDatum(batch, curRequestTime, nextRequestTime - curRequestTime, newKey.getValue(), newKey.getRef(), !urls.hasNext());
+                datum.setSkipped(skipping);
+                collect(datum, collector);
+
+                curRequestTime = nextRequestTime;
+                batch = new LinkedList<ScoredUrlDatum>();
+                targetSize = 0;
+            }
+        }
+
+        // See if we have another partially built datum to add.
+        if (batch.size() > 0) {
+            LOGGER.trace(String.format("Added %d urls for ref %s in group %d at %d", batch.size(), newKey.getRef(), newKey.getValue(), curRequestTime));
+            PreFetchedDatum datum = new PreFetchedDatum(batch, curRequestTime, 0, newKey.getValue(), newKey.getRef(), true);
+            datum.setSkipped(skipping);
+            collect(datum, collector);
+        }
+    }
+
+    /**
+     * Output batches for <urls> that won't be fetched, where <key> is the special
+     * grouping key (blocked, deferred, etc) for all of them. These use the special
+     * key as the grouping ref, and are marked as skipped.
+     */
+    public void makeSkippedBatches(String key, List<ScoredUrlDatum> urls, TupleEntryCollector collector) {
+        if (!GroupingKey.isSpecialKey(key)) {
+            throw new RuntimeException("Not a special grouping key: " + key);
+        }
+
+        PartitioningKey newKey = new PartitioningKey(key, _numReduceTasks);
+        long requestTime = System.currentTimeMillis();
+
+        for (int start = 0; start < urls.size(); start += URLS_PER_SKIPPED_BATCH) {
+            int end = Math.min(urls.size(), start + URLS_PER_SKIPPED_BATCH);
+            List<ScoredUrlDatum> batch = new LinkedList<ScoredUrlDatum>(urls.subList(start, end));
+            PreFetchedDatum datum = new PreFetchedDatum(batch, requestTime, 0, newKey.getValue(), newKey.getRef(), end == urls.size());
+            datum.setSkipped(true);
+            collect(datum, collector);
+        }
+    }
+
+    private void collect(PreFetchedDatum datum, TupleEntryCollector collector) {
+        // Collectors aren't thread safe, and we can get called from multiple robots threads.
+        synchronized (collector) {
+            collector.add(datum.toTuple());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package bixo.fetcher.util;
+
+import bixo.datum.GroupedUrlDatum;
+import bixo.urldb.RevisitScheduler;
+
+/**
+ * Score generator that scores each URL by its predicted staleness (see RevisitScheduler),
+ * so that when the per-server limit or the crawl end time cuts off a fetch, the pages most
+ * likely to have changed are the ones that get fetched. URLs that have never been fetched
+ * get the max score of 1.0, and previously fetched URLs that aren't stale enough yet are
+ * skipped.
+ *
+ * The URLs being scored need to have the RevisitScheduler meta-data fields.
+ */
+@SuppressWarnings("serial")
+public class RevisitScoreGenerator extends ScoreGenerator {
+
+    public static final double NEW_URL_SCORE = 1.0;
+
+    private RevisitScheduler _scheduler;
+
+    public RevisitScoreGenerator() {
+        this(new RevisitScheduler());
+    }
+
+    public RevisitScoreGenerator(RevisitScheduler scheduler) {
+        super();
+
+        _scheduler = scheduler;
+    }
+
+    @Override
+    public double generateScore(String domain, String pld, GroupedUrlDatum url) {
+        return generateScore(url, System.currentTimeMillis());
+    }
+
+    public double generateScore(GroupedUrlDatum url, long now) {
+        long lastFetched = url.getLastFetched();
+        if (lastFetched <= 0) {
+            return NEW_URL_SCORE;
+        }
+
+        double staleness = _scheduler.getStaleness(url.getMetaDataMap(), lastFetched, now);
+        return (staleness < _scheduler.getMinStaleness()) ? SKIP_SCORE : staleness;
+    }
+
+    @Override
+    public double generateScore(String domain, String pld, String url) {
+        // No fetch history available, so treat it like a new URL (and every domain as good).
+        return NEW_URL_SCORE;
+    }
+}
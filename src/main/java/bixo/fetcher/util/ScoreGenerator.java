@@ -1,11 +1,10 @@
 package bixo.fetcher.util;
 
 import java.io.Serializable;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 import bixo.datum.GroupedUrlDatum;
 import bixo.utils.DomainNames;
+import bixo.utils.UrlSpans;
 
 @SuppressWarnings("serial")
 public abstract class ScoreGenerator implements Serializable {
@@ -25,13 +24,13 @@ public abstract class ScoreGenerator implements Serializable {
     
     
     public double generateScore(String url) {
-        try {
-            URL realUrl = new URL(url);
-            String host = realUrl.getHost();
-            return generateScore(host, DomainNames.getPLD(host), url);
-        } catch (MalformedURLException e) {
+        UrlSpans realUrl = new UrlSpans();
+        if (!realUrl.parse(url)) {
             return SKIP_SCORE;
         }
+        
+        String host = realUrl.getHost();
+        return generateScore(host, DomainNames.getPLD(host), url);
     }
 
     public double generateScore(String domain, String pld, GroupedUrlDatum url) {
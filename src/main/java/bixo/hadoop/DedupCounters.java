@@ -0,0 +1,7 @@
+package bixo.hadoop;
+
+public enum DedupCounters {
+    DOCUMENTS_HASHED,   // Documents with enough text to calculate a SimHash
+    DOCUMENTS_TOO_SHORT,// Documents with too little text to check for duplicates
+    DUPLICATES_MARKED,  // Documents marked as near-duplicates of another document
+}
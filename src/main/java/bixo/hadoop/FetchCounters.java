@@ -10,16 +10,19 @@ public enum FetchCounters {
     DOMAINS_REJECTED,   // Domains we rejected
     DOMAINS_SKIPPED,    // Domains we ignored
     DOMAINS_DEFERRED,   // Domains we deferred
+    DOMAINS_PREFETCHED, // Domains where we used a prefetched robots.txt & IP address
     URLS_ACCEPTED,      // URLs we accepted
     URLS_DEFERRED,      // URLs we deferred, because domain was deferred
     URLS_REJECTED,      // URLS we rejected, because domain was rejected
     URLS_BLOCKED,       // URLS we blocked, because of robots.txt
+    URLS_LIMITED,       // URLs we accepted, but skipped because of the per-server limit
     
     // During URL fetching
     URLS_FETCHING,
     URLS_FETCHED,
     URLS_SKIPPED,
     URLS_FAILED,
+    URLS_RETRIED,       // URLs that failed, but were queued up to be retried later in the fetch
     
     FETCHED_BYTES,          // Total bytes of fetched content.
     FETCHED_TIME            // Total time in milliseconds spent fetching
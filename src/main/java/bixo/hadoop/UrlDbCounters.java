@@ -0,0 +1,8 @@
+package bixo.hadoop;
+
+public enum UrlDbCounters {
+    URLS_WRITTEN,       // URLs written to the merged URL DB partitions
+    URLS_MERGED,        // URLs that were in both the URL DB and the new set of URLs
+    PARTITIONS_MERGED,  // URL DB partitions that were rewritten
+    URLS_REDIRECTED,    // URLs replaced by the target of a known permanent redirect
+}
@@ -24,6 +24,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 
 import bixo.datum.BaseDatum;
+import bixo.pipes.DedupPipe;
 import cascading.scheme.Scheme;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
@@ -32,6 +33,10 @@ import cascading.tuple.TupleEntry;
 import cascading.tuple.Tuples;
 import cascading.util.Util;
 
+/**
+ * Sink-only scheme that writes tuples to a Lucene index. Incoming tuples that have a
+ * non-empty DedupPipe.DUPLICATE_OF_FIELD (see MarkDuplicatesFunction) aren't indexed.
+ */
 @SuppressWarnings("serial")
 public class IndexScheme extends Scheme {
     private static final Logger LOGGER = Logger.getLogger(IndexScheme.class);
@@ -46,6 +51,8 @@ public class IndexScheme extends Scheme {
     public static final String BOOST_FIELD = BaseDatum.fieldName(IndexScheme.class, "boost");
     public static final Fields BOOST_FIELDS = new Fields(BOOST_FIELD);
 
+    private static final Fields DUPLICATE_OF_FIELDS = new Fields(DedupPipe.DUPLICATE_OF_FIELD);
+
     private Class<? extends Analyzer> _analyzer;
     private int _maxFieldLength;
     private Store[] _storeSettings;
@@ -119,6 +126,15 @@ public class IndexScheme extends Scheme {
     @SuppressWarnings("unchecked")
     @Override
     public void sink(TupleEntry tupleEntry, OutputCollector outputCollector) throws IOException {
+        // Don't index documents that were marked as near-duplicates.
+        if (tupleEntry.getFields().contains(DUPLICATE_OF_FIELDS)) {
+            String duplicateOf = tupleEntry.getString(DedupPipe.DUPLICATE_OF_FIELD);
+            if ((duplicateOf != null) && (duplicateOf.length() > 0)) {
+                LOGGER.trace("Skipping duplicate of " + duplicateOf);
+                return;
+            }
+        }
+        
         Tuple result = getSinkFields() != null ? tupleEntry.selectTuple(getSinkFields()) : tupleEntry.getTuple();
         outputCollector.collect(Tuples.NULL, result);
     }
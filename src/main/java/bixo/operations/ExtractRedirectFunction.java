@@ -0,0 +1,47 @@
+package bixo.operations;
+
+import bixo.cascading.NullContext;
+import bixo.datum.StatusDatum;
+import bixo.datum.UrlStatus;
+import bixo.urldb.IUrlNormalizer;
+import bixo.urldb.RedirectMap;
+import bixo.utils.UrlFingerprint;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.tuple.Tuple;
+
+/**
+ * Output a RedirectMap entry for every status that was fetched after following a permanent
+ * redirect. The status URL is used as-is (it came from the URL DB, so it's already normalized),
+ * and the new base URL is normalized, so that rewritten URLs match what's in the URL DB.
+ * 
+ * This must be used with Fields.RESULTS as the output selector.
+ */
+@SuppressWarnings("serial")
+public class ExtractRedirectFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+    private final IUrlNormalizer _normalizer;
+    
+    public ExtractRedirectFunction(IUrlNormalizer normalizer) {
+        super(RedirectMap.FIELDS);
+        
+        _normalizer = normalizer;
+    }
+
+    @Override
+    public void operate(FlowProcess process, FunctionCall<NullContext> funCall) {
+        String status = funCall.getArguments().getString(StatusDatum.STATUS_FIELD);
+        String newBaseUrl = funCall.getArguments().getString(StatusDatum.NEW_BASE_URL_FIELD);
+        if ((newBaseUrl == null) || !status.equals(UrlStatus.FETCHED.name())) {
+            return;
+        }
+        
+        String url = funCall.getArguments().getString(StatusDatum.URL_FIELD);
+        String target = _normalizer.normalize(newBaseUrl);
+        if (!target.equals(url)) {
+            funCall.getOutputCollector().add(new Tuple(UrlFingerprint.make(url), target));
+        }
+    }
+}
@@ -1,10 +1,24 @@
 package bixo.operations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -14,15 +28,27 @@ import bixo.cascading.NullContext;
 import bixo.config.FetcherPolicy;
 import bixo.config.FetcherPolicy.FetcherMode;
 import bixo.datum.BaseDatum;
+import bixo.datum.FetchOutcome;
 import bixo.datum.FetchedDatum;
+import bixo.datum.ParsedDatum;
 import bixo.datum.PreFetchedDatum;
 import bixo.datum.ScoredUrlDatum;
+import bixo.datum.ScoredUrlList;
+import bixo.datum.StatusDatum;
 import bixo.datum.UrlStatus;
+import bixo.fetcher.FetchRetryQueue;
 import bixo.fetcher.FetchTask;
+import bixo.fetcher.HostCircuitBreaker;
 import bixo.fetcher.IFetchMgr;
 import bixo.fetcher.http.IHttpFetcher;
+import bixo.fetcher.http.PipeliningHttpFetcher;
 import bixo.hadoop.FetchCounters;
+import bixo.parser.IParser;
+import bixo.parser.ParserCounters;
+import bixo.robots.RobotRules;
+import bixo.utils.ContentSignature;
 import bixo.utils.DiskQueue;
+import bixo.utils.GroupingKey;
 import bixo.utils.ThreadedExecutor;
 import cascading.flow.FlowProcess;
 import cascading.flow.hadoop.HadoopFlowProcess;
@@ -63,11 +89,8 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
                 PreFetchedDatum datum = _queue.peek();
                 if (datum != null) {
                     String ref = datum.getGroupingRef();
-                    if (_activeRefs.get(ref) == null) {
-                        Long nextFetchTime = _pendingRefs.get(ref);
-                        if ((nextFetchTime == null) || (nextFetchTime <= System.currentTimeMillis())) {
-                            return _queue.remove();
-                        }
+                    if (isReady(ref, System.currentTimeMillis())) {
+                        return _queue.remove();
                     }
                 }
 
@@ -85,8 +108,8 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
                         // In efficient fetching, we punt on items that aren't ready.
                         case EFFICIENT:
                             _queue.remove();
-                            List<ScoredUrlDatum> urls = datum.getUrls();
-                            trace("Skipping %d urls from %s (e.g. %s)", urls.size(), datum.getGroupingRef(), urls.get(0).getUrl());
+                            ScoredUrlList urls = datum.getUrlList();
+                            trace("Skipping %d urls from %s (e.g. %s)", urls.size(), datum.getGroupingRef(), urls.getFirstUrl());
                             skipUrls(urls, UrlStatus.SKIPPED_INEFFICIENT, null);
                             break;
                     }
@@ -96,18 +119,15 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
                 if (_values.hasNext()) {
                     datum = new PreFetchedDatum(_values.next().getTuple(), _metaDataFields);
                     if (datum.isSkipped()) {
-                        List<ScoredUrlDatum> urls = datum.getUrls();
-                        trace("Skipping %d urls from %s (e.g. %s)", urls.size(), datum.getGroupingRef(), urls.get(0).getUrl());
+                        ScoredUrlList urls = datum.getUrlList();
+                        trace("Skipping %d urls from %s (e.g. %s)", urls.size(), datum.getGroupingRef(), urls.getFirstUrl());
                         skipUrls(urls, UrlStatus.SKIPPED_PER_SERVER_LIMIT, null);
                         continue;
                     }
                     
                     String ref = datum.getGroupingRef();
-                    if (_activeRefs.get(ref) == null) {
-                        Long nextFetchTime = _pendingRefs.get(ref);
-                        if ((nextFetchTime == null) || (nextFetchTime <= System.currentTimeMillis())) {
-                            return datum;
-                        }
+                    if (isReady(ref, System.currentTimeMillis())) {
+                        return datum;
                     }
 
                     if (datum != null) {
@@ -122,8 +142,8 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
                                 
                             // In efficient fetching, we punt on items that aren't ready.
                             case EFFICIENT:
-                                List<ScoredUrlDatum> urls = datum.getUrls();
-                                trace("Skipping %d urls from %s (e.g. %s)", urls.size(), datum.getGroupingRef(), urls.get(0).getUrl());
+                                ScoredUrlList urls = datum.getUrlList();
+                                trace("Skipping %d urls from %s (e.g. %s)", urls.size(), datum.getGroupingRef(), urls.getFirstUrl());
                                 skipUrls(urls, UrlStatus.SKIPPED_INEFFICIENT, null);
                                 break;
                         }
@@ -141,36 +161,120 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
         }
     }
 
-    private static final Fields FETCH_RESULT_FIELD = new Fields(BaseDatum.fieldName(FetchBuffer.class, "fetch-exception"));
+    /**
+     * IFetchMgr for one of the connection slots that are fetching a batch in parallel. The
+     * ref is only finished once every slot's FetchTask has finished.
+     */
+    private class SlotFetchMgr implements IFetchMgr {
+        private AtomicInteger _activeSlots;
+        
+        public SlotFetchMgr(int numSlots) {
+            _activeSlots = new AtomicInteger(numSlots);
+        }
+        
+        @Override
+        public BixoFlowProcess getProcess() {
+            return FetchBuffer.this.getProcess();
+        }
+
+        @Override
+        public void collect(Tuple tuple) {
+            FetchBuffer.this.collect(tuple);
+        }
+
+        @Override
+        public void finished(String ref) {
+            if (_activeSlots.decrementAndGet() == 0) {
+                FetchBuffer.this.finished(ref);
+            }
+        }
+    }
+    
+    /**
+     * Runnable for parsing a fetched document, using the parse thread pool.
+     */
+    private class ParseTask implements Runnable {
+        private FetchedDatum _datum;
+        
+        public ParseTask(FetchedDatum datum) {
+            _datum = datum;
+        }
+        
+        @Override
+        public void run() {
+            parseAndCollect(_datum);
+        }
+        
+        /**
+         * Output the content without parsing it, for when we have to shut down before
+         * this task gets run. The status has already been emitted as FETCHED.
+         */
+        public void skipParse() {
+            LOGGER.warn("Skipping parse of " + _datum.getBaseUrl());
+            _flowProcess.increment(ParserCounters.DOCUMENTS_FAILED, 1);
+            collectContent(_datum, null);
+        }
+    }
+    
+    // We output two kinds of tuples, using the same fields. Every URL gets a status
+    // tuple, which is a StatusDatum plus meta-data, with the two fields below set to null.
+    // Every fetched URL also gets a content tuple, where the StatusDatum fields are null,
+    // and the FetchedDatum and/or ParsedDatum fields (w/o meta-data) are nested tuples.
+    // This way the status branch never has to deal with the content.
+    public static final Fields CONTENT_RECORD_FIELD = new Fields(BaseDatum.fieldName(FetchBuffer.class, "content-record"));
+    public static final Fields PARSE_RESULT_FIELD = new Fields(BaseDatum.fieldName(FetchBuffer.class, "parse-result"));
 
     // Time to sleep when we don't have any URLs that can be fetched.
     private static final long NOTHING_TO_FETCH_SLEEP_TIME = 1000;
 
     private static final long HARD_TERMINATION_CLEANUP_DURATION = 10 * 1000L;
 
+    // Number of documents waiting to be parsed (per parse thread) before fetch threads
+    // start parsing documents themselves.
+    private static final int PARSE_QUEUE_SIZE_PER_THREAD = 4;
+
     private IHttpFetcher _fetcher;
     private FetcherMode _fetcherMode;
     private final Fields _metaDataFields;
+    private IParser _parser;
+    private boolean _keepContent;
 
     private transient ThreadedExecutor _executor;
+    private transient ThreadPoolExecutor _parseExecutor;
+    private transient ThreadLocal<IParser> _threadParser;
     private transient BixoFlowProcess _flowProcess;
     private transient TupleEntryCollector _collector;
 
     private transient Object _refLock;
     private transient ConcurrentHashMap<String, Long> _activeRefs;
     private transient ConcurrentHashMap<String, Long> _pendingRefs;
+    private transient HostCircuitBreaker _circuitBreaker;
+    private transient ConcurrentHashMap<String, Long> _crawlDelays;
+    private transient Set<String> _lastBatchRefs;
+    private transient FetchRetryQueue _retryQueue;
     
     private transient AtomicBoolean _keepCollecting;
     
     public FetchBuffer(IHttpFetcher fetcher, Fields metaDataFields) {
-        // We're going to output a tuple that contains a FetchedDatum, plus meta-data,
-        // plus a result that could be a string, a status, or an exception
-        super(FetchedDatum.FIELDS.append(metaDataFields).append(FETCH_RESULT_FIELD));
+        this(fetcher, null, true, metaDataFields);
+    }
+
+    /**
+     * Create a buffer that also parses fetched documents (if <parser> isn't null),
+     * using a separate thread pool sized to the number of cores, so that parsing
+     * overlaps with fetching. If <keepContent> is false then the raw content is
+     * dropped from the output after parsing.
+     */
+    public FetchBuffer(IHttpFetcher fetcher, IParser parser, boolean keepContent, Fields metaDataFields) {
+        super(StatusDatum.FIELDS.append(metaDataFields).append(CONTENT_RECORD_FIELD).append(PARSE_RESULT_FIELD));
 
         _fetcher = fetcher;
         _fetcherMode = _fetcher.getFetcherPolicy().getFetcherMode();
         _metaDataFields = metaDataFields;
+        _parser = parser;
+        _keepContent = keepContent;
     }
+    
 
     @Override
     public boolean isSafe() {
@@ -189,9 +293,28 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
 
         _executor = new ThreadedExecutor(_fetcher.getMaxThreads(), _fetcher.getFetcherPolicy().getRequestTimeout());
 
+        if (_parser != null) {
+            // If all of the parse threads are busy and the queue is full, the fetch thread
+            // parses the document itself (see collect), instead of waiting for a parse thread.
+            int numParseThreads = Runtime.getRuntime().availableProcessors();
+            BlockingQueue<Runnable> parseQueue = new ArrayBlockingQueue<Runnable>(numParseThreads * PARSE_QUEUE_SIZE_PER_THREAD);
+            _parseExecutor = new ThreadPoolExecutor(numParseThreads, numParseThreads, 0L, TimeUnit.MILLISECONDS, parseQueue);
+            
+            // Parsers aren't thread-safe, so every thread gets its own copy.
+            _threadParser = new ThreadLocal<IParser>() {
+                @Override
+                protected IParser initialValue() {
+                    return copyParser(_parser);
+                }
+            };
+        }
+
         _refLock = new Object();
         _pendingRefs = new ConcurrentHashMap<String, Long>();
         _activeRefs = new ConcurrentHashMap<String, Long>();
+        _circuitBreaker = new HostCircuitBreaker(_fetcher.getFetcherPolicy().getMaxConsecutiveFailures());
+        _crawlDelays = new ConcurrentHashMap<String, Long>();
+        _lastBatchRefs = new HashSet<String>();
         
         _keepCollecting = new AtomicBoolean(true);
     }
@@ -203,42 +326,65 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
         _collector = buffCall.getOutputCollector();
         FetcherPolicy fetcherPolicy = _fetcher.getFetcherPolicy();
         
+        // URLs that fail with a transient error get retried (with back-off) before we're done
+        // with this set of values. We also need it when a ref finishes, to know whether it
+        // still has URLs waiting to be retried.
+        FetchRetryQueue retryQueue = new FetchRetryQueue(fetcherPolicy);
+        _retryQueue = retryQueue;
+        
         // Each value is a PreFetchedDatum that contains a set of URLs to fetch in one request from
-        // a single server, plus other values needed to set state properly.
-        while (!Thread.interrupted() && !fetcherPolicy.isTerminateFetch() && !values.isEmpty()) {
+        // a single server, plus other values needed to set state properly. We keep going until
+        // active fetches are done, since they can still add URLs to the retry queue.
+        while (!Thread.interrupted() && !fetcherPolicy.isTerminateFetch() && (!values.isEmpty() || !retryQueue.isEmpty() || !_activeRefs.isEmpty())) {
+            if (fetchRetries(retryQueue) > 0) {
+                continue;
+            }
+            
             PreFetchedDatum datum = values.nextOrNull(_fetcherMode);
             
             try {
                 if (datum == null) {
                     trace("Nothing ready to fetch, sleeping...");
+                    removeExpiredRefs(System.currentTimeMillis());
                     process.keepAlive();
                     Thread.sleep(NOTHING_TO_FETCH_SLEEP_TIME);
                 } else {
-                    List<ScoredUrlDatum> urls = datum.getUrls();
+                    ScoredUrlList urls = datum.getUrlList();
                     String ref = datum.getGroupingRef();
                     trace("Processing %d URLs for %s", urls.size(), ref);
+                    
+                    // With parallel fetching, the batch is split up between connection slots.
+                    int numSlots = Math.max(1, Math.min(fetcherPolicy.getFetchSlotsPerHost(), urls.size()));
+                    
+                    // Remember the per-URL delay, for when we have to retry some of these URLs.
+                    _crawlDelays.put(ref, (datum.getFetchDelay() * numSlots) / Math.max(1, urls.size()));
 
-                    Runnable doFetch = new FetchTask(this, _fetcher, urls, ref);
                     if (datum.isLastList()) {
                         makeActive(ref, 0L);
+                        setLastBatch(ref, true);
                         trace("Executing fetch of %d URLs from %s (last batch)", urls.size(), ref);
                     } else {
                         Long nextFetchTime = System.currentTimeMillis() + datum.getFetchDelay();
                         makeActive(ref, nextFetchTime);
+                        setLastBatch(ref, false);
                         trace("Executing fetch of %d URLs from %s (next fetch time %d)", urls.size(), ref, nextFetchTime);
                     }
 
                     long startTime = System.currentTimeMillis();
 
-                    try {
-                        _executor.execute(doFetch);
-                    } catch (RejectedExecutionException e) {
-                        // should never happen.
-                        LOGGER.error("Fetch pool rejected our fetch list for " + ref);
+                    if (numSlots == 1) {
+                        try {
+                            _executor.execute(new FetchTask(this, makeFetcher(urls, ref), urls, ref, _circuitBreaker, retryQueue));
+                        } catch (RejectedExecutionException e) {
+                            // should never happen.
+                            LOGGER.error("Fetch pool rejected our fetch list for " + ref);
 
-                        finished(ref);
-                        _flowProcess.increment(FetchCounters.URLS_SKIPPED, urls.size());
-                        skipUrls(urls, UrlStatus.SKIPPED_DEFERRED, String.format("Execution rejection skipped %d URLs", urls.size()));
+                            finished(ref);
+                            _flowProcess.increment(FetchCounters.URLS_SKIPPED, urls.size());
+                            skipUrls(urls, UrlStatus.SKIPPED_DEFERRED, String.format("Execution rejection skipped %d URLs", urls.size()));
+                        }
+                    } else {
+                        fetchInParallel(urls, ref, numSlots, retryQueue);
                     }
 
                     // Adjust for how long it took to get the request queued.
@@ -258,9 +404,29 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
             
             while (!values.isEmpty()) {
                 PreFetchedDatum datum = values.nextOrNull(FetcherMode.IMPOLITE);
-                List<ScoredUrlDatum> urls = datum.getUrls();
-                trace("Skipping %d urls from %s (e.g. %s) ", urls.size(), datum.getGroupingRef(), urls.get(0).getUrl());
-                skipUrls(datum.getUrls(), status, null);
+                ScoredUrlList urls = datum.getUrlList();
+                trace("Skipping %d urls from %s (e.g. %s) ", urls.size(), datum.getGroupingRef(), urls.getFirstUrl());
+                skipUrls(urls, status, null);
+            }
+        }
+        
+        // Anything that's still waiting to be retried (or that fails after this point, when we
+        // stopped early) gets reported with the failure status from its last attempt.
+        List<Tuple> failures = retryQueue.close();
+        if (!failures.isEmpty()) {
+            trace("Giving up on retrying %d URLs", failures.size());
+            _flowProcess.increment(FetchCounters.URLS_FAILED, failures.size());
+            for (Tuple failure : failures) {
+                collect(failure);
+            }
+        }
+        
+        // Refs that were only waiting on those retries are done now.
+        synchronized (_refLock) {
+            for (String ref : new ArrayList<String>(_lastBatchRefs)) {
+                if (!_activeRefs.containsKey(ref)) {
+                    release(ref);
+                }
             }
         }
     }
@@ -287,6 +453,24 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
                 Thread.sleep(HARD_TERMINATION_CLEANUP_DURATION);
             }
             
+            // Fetch threads are all done, so no more documents will be queued up for parsing.
+            // Wait for the queued ones to be parsed, since they've already been reported as fetched.
+            if (_parseExecutor != null) {
+                _parseExecutor.shutdown();
+                if (!_parseExecutor.awaitTermination(requestTimeout, TimeUnit.MILLISECONDS)) {
+                    List<Runnable> unparsed = _parseExecutor.shutdownNow();
+                    LOGGER.warn(String.format("Had to do a hard termination of parsing, with %d documents not parsed", unparsed.size()));
+                    
+                    // Still output the content for documents we never got to, and give any
+                    // interrupted parse threads time to output what they have.
+                    for (Runnable task : unparsed) {
+                        ((ParseTask)task).skipParse();
+                    }
+                    
+                    _parseExecutor.awaitTermination(HARD_TERMINATION_CLEANUP_DURATION, TimeUnit.MILLISECONDS);
+                }
+            }
+            
             // Now stop collecting results. If somebody is in the middle of the collect() call,
             // we want them to finish before we set it to false and drop out of this method.
             synchronized (_keepCollecting) {
@@ -309,18 +493,150 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
                 throw new RuntimeException("finished called on non-active ref: " + ref);
             }
             
-            // If there's going to be more to fetch, put it back in the pending pool.
-            if (nextFetchTime != 0) {
-                trace("Finished batch fetch for %s, with next batch at %d", ref, nextFetchTime);
-                _pendingRefs.put(ref, nextFetchTime);
-            } else {
+            // The last batch (or a retry after it) is only the end for this ref if no URLs
+            // are still waiting to be retried.
+            if (_lastBatchRefs.contains(ref) && !_retryQueue.hasRetries(ref)) {
                 trace("Finished last batch fetch for %s", ref);
+                release(ref);
+                return;
+            }
+            
+            // There's going to be more to fetch, so put it back in the pending pool. Retries
+            // after the last batch still have to wait for the crawl delay.
+            if (nextFetchTime == 0) {
+                nextFetchTime = System.currentTimeMillis() + Math.max(0, getCrawlDelay(ref));
+            }
+            
+            trace("Finished batch fetch for %s, with next batch at %d", ref, nextFetchTime);
+            _pendingRefs.put(ref, nextFetchTime);
+        }
+    }
+
+    /**
+     * We're done with <ref>, so we don't need its cookies (or connections), or its failure
+     * count. Must be called while holding _refLock.
+     */
+    private void release(String ref) {
+        _lastBatchRefs.remove(ref);
+        _circuitBreaker.release(ref);
+        _fetcher.releaseContext(ref);
+        _crawlDelays.remove(ref);
+        _pendingRefs.remove(ref);
+        
+        // But when batches are made per domain, another domain on the same IP address
+        // can still have batches for this ref, and those have to wait for the crawl delay.
+        long crawlDelay = getCrawlDelay(ref);
+        if (crawlDelay > 0) {
+            _pendingRefs.put(ref, System.currentTimeMillis() + crawlDelay);
+        }
+    }
+
+    private void setLastBatch(String ref, boolean lastBatch) {
+        synchronized (_refLock) {
+            if (lastBatch) {
+                _lastBatchRefs.add(ref);
+            } else {
+                _lastBatchRefs.remove(ref);
             }
         }
     }
 
     @Override
     public void collect(Tuple tuple) {
+        // We get a FetchedDatum plus meta-data, plus a result that could be a string,
+        // a status, or an exception.
+        FetchedDatum fetchedDatum = new FetchedDatum(tuple, _metaDataFields);
+        StatusDatum status = makeStatus(fetchedDatum, tuple.get(FetchedDatum.FIELDS.size() + _metaDataFields.size()));
+        collectStatus(status);
+        
+        if (status.getStatus() != UrlStatus.FETCHED) {
+            return;
+        }
+        
+        if (_parser == null) {
+            collectContent(fetchedDatum, null);
+        } else {
+            try {
+                _parseExecutor.execute(new ParseTask(fetchedDatum));
+            } catch (RejectedExecutionException e) {
+                // Parse queue is full (or shut down), so parse it in this thread.
+                parseAndCollect(fetchedDatum);
+            }
+        }
+    }
+
+    private StatusDatum makeStatus(FetchedDatum fetchedDatum, Comparable result) {
+        if (result instanceof String) {
+            UrlStatus urlStatus = UrlStatus.valueOf((String)result);
+            if (urlStatus == UrlStatus.FETCHED) {
+                StatusDatum status = new StatusDatum(fetchedDatum.getBaseUrl(), fetchedDatum.getHeaders(), fetchedDatum.getHostAddress(), fetchedDatum.getNewBaseUrl(), fetchedDatum.getMetaDataMap());
+                status.setContentSignature(ContentSignature.make(fetchedDatum.getContentBytes(), fetchedDatum.getContentLength()));
+                return status;
+            } else {
+                return new StatusDatum(fetchedDatum.getBaseUrl(), urlStatus, fetchedDatum.getMetaDataMap());
+            }
+        } else if (result instanceof Tuple) {
+            return new StatusDatum(fetchedDatum.getBaseUrl(), new FetchOutcome((Tuple)result), fetchedDatum.getMetaDataMap());
+        } else {
+            throw new RuntimeException("Unknown type for fetch status field: " + result.getClass());
+        }
+    }
+    
+    private void parseAndCollect(FetchedDatum fetchedDatum) {
+        Tuple parseResult = null;
+        
+        try {
+            ParsedDatum parsedDatum = _threadParser.get().parse(fetchedDatum);
+            parseResult = getStandardValues(parsedDatum.toTuple(), ParsedDatum.FIELDS.size());
+            _flowProcess.increment(ParserCounters.DOCUMENTS_PARSED, 1);
+        } catch (Exception e) {
+            LOGGER.warn("Error parsing " + fetchedDatum.getBaseUrl(), e);
+            _flowProcess.increment(ParserCounters.DOCUMENTS_FAILED, 1);
+        }
+        
+        collectContent(fetchedDatum, parseResult);
+    }
+    
+    private void collectStatus(StatusDatum status) {
+        Tuple tuple = status.toTuple();
+        tuple.add(null);
+        tuple.add(null);
+        addToCollector(tuple);
+    }
+    
+    private void collectContent(FetchedDatum fetchedDatum, Tuple parseResult) {
+        Tuple contentRecord = null;
+        if (_keepContent) {
+            contentRecord = getStandardValues(fetchedDatum.toTuple(), FetchedDatum.FIELDS.size());
+        } else if (parseResult == null) {
+            // Nothing to output.
+            return;
+        }
+        
+        Tuple tuple = new Tuple();
+        for (int i = 0; i < StatusDatum.FIELDS.size(); i++) {
+            tuple.add(null);
+        }
+        
+        for (Comparable value : fetchedDatum.getMetaDataValues()) {
+            tuple.add(value);
+        }
+        
+        tuple.add(contentRecord);
+        tuple.add(parseResult);
+        addToCollector(tuple);
+    }
+    
+    private static Tuple getStandardValues(Tuple datumTuple, int numStandardFields) {
+        Tuple result = new Tuple();
+        for (int i = 0; i < numStandardFields; i++) {
+            result.add(datumTuple.get(i));
+        }
+        
+        return result;
+    }
+    
+    private void addToCollector(Tuple tuple) {
         // Prevent two bad things from happening:
         // 1. Somebody changes _keepCollecting after we've tested that it's true
         // 2. Two people calling collector.add() at the same time (it's not thread safe)
@@ -338,12 +654,11 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
         return _flowProcess;
     }
     
-    private void skipUrls(List<ScoredUrlDatum> urls, UrlStatus status, String traceMsg) {
+    private void skipUrls(ScoredUrlList urls, UrlStatus status, String traceMsg) {
+        // Fetch threads can be collecting results at the same time, so use the same
+        // synchronized path as every other output.
         for (ScoredUrlDatum datum : urls) {
-            FetchedDatum result = new FetchedDatum(datum);
-            Tuple tuple = result.toTuple();
-            tuple.add(status.toString());
-            _collector.add(tuple);
+            collectStatus(new StatusDatum(datum.getUrl(), status, datum.getMetaDataMap()));
         }
 
         _flowProcess.increment(FetchCounters.URLS_SKIPPED, urls.size());
@@ -353,6 +668,143 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
         }
     }
     
+    /**
+     * Fetch <urls> from <ref> using <numSlots> FetchTasks at once, each with its share of the
+     * URLs. URLs are dealt out round-robin, so every slot gets some of the higher scoring ones.
+     */
+    private void fetchInParallel(ScoredUrlList urls, String ref, int numSlots, FetchRetryQueue retryQueue) {
+        List<List<ScoredUrlDatum>> slotUrls = new ArrayList<List<ScoredUrlDatum>>(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            slotUrls.add(new ArrayList<ScoredUrlDatum>());
+        }
+        
+        int slot = 0;
+        for (ScoredUrlDatum datum : urls) {
+            slotUrls.get(slot).add(datum);
+            slot = (slot + 1) % numSlots;
+        }
+        
+        trace("Fetching %d URLs from %s using %d connections", urls.size(), ref, numSlots);
+        SlotFetchMgr slotMgr = new SlotFetchMgr(numSlots);
+        for (List<ScoredUrlDatum> curUrls : slotUrls) {
+            try {
+                _executor.execute(new FetchTask(slotMgr, _fetcher, curUrls, ref, _circuitBreaker, retryQueue));
+            } catch (RejectedExecutionException e) {
+                // should never happen.
+                LOGGER.error("Fetch pool rejected our fetch list for " + ref);
+
+                slotMgr.finished(ref);
+                skipUrls(new ScoredUrlList(curUrls), UrlStatus.SKIPPED_DEFERRED, String.format("Execution rejection skipped %d URLs", curUrls.size()));
+            }
+        }
+    }
+    
+    /**
+     * Return the fetcher to use for one batch of <urls> from <ref>. If pipelining is enabled and
+     * the server doesn't want a crawl delay, this is a PipeliningHttpFetcher for just that batch.
+     */
+    private IHttpFetcher makeFetcher(ScoredUrlList urls, String ref) {
+        FetcherPolicy fetcherPolicy = _fetcher.getFetcherPolicy();
+        if ((fetcherPolicy.getPipelineDepth() <= FetcherPolicy.NO_PIPELINING) || (urls.size() < 2) || GroupingKey.isSpecialKey(ref)) {
+            return _fetcher;
+        }
+        
+        if (getCrawlDelay(ref) != 0) {
+            return _fetcher;
+        }
+        
+        trace("Pipelining %d URLs from %s", urls.size(), ref);
+        return new PipeliningHttpFetcher(_fetcher, urls, fetcherPolicy.getPipelineDepth());
+    }
+    
+    /**
+     * Return the crawl delay for <ref>, from its grouping key (or the fetcher policy, if the
+     * server didn't set one). If we can't tell, return -1.
+     */
+    private long getCrawlDelay(String ref) {
+        if (GroupingKey.isSpecialKey(ref)) {
+            return -1;
+        }
+        
+        long crawlDelay;
+        try {
+            crawlDelay = GroupingKey.getCrawlDelayFromKey(ref);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Can't get crawl delay from ref: " + ref);
+            return -1;
+        }
+        
+        if (crawlDelay == RobotRules.UNSET_CRAWL_DELAY) {
+            crawlDelay = _fetcher.getFetcherPolicy().getCrawlDelay();
+        }
+        
+        return crawlDelay;
+    }
+    
+    /**
+     * Remove pending refs whose next fetch time has passed, since that's the same as not
+     * being pending. Otherwise we'd keep one for every server we ever finished with.
+     */
+    private void removeExpiredRefs(long now) {
+        synchronized (_refLock) {
+            Iterator<Map.Entry<String, Long>> iter = _pendingRefs.entrySet().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().getValue() <= now) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Start fetching URLs that are ready to be retried, for refs that aren't busy.
+     * 
+     * @return number of URLs being retried.
+     */
+    private int fetchRetries(FetchRetryQueue retryQueue) {
+        long now = System.currentTimeMillis();
+        int numUrls = 0;
+        
+        for (String ref : retryQueue.getReadyRefs(now)) {
+            if (!isReady(ref, now)) {
+                continue;
+            }
+            
+            List<ScoredUrlDatum> urls = retryQueue.removeReady(ref, now);
+            Long crawlDelay = _crawlDelays.get(ref);
+            long nextFetchTime = now + ((crawlDelay == null) ? 0 : crawlDelay * urls.size());
+            makeActive(ref, nextFetchTime);
+            trace("Executing retry of %d URLs from %s (next fetch time %d)", urls.size(), ref, nextFetchTime);
+            
+            try {
+                _executor.execute(new FetchTask(this, _fetcher, urls, ref, _circuitBreaker, retryQueue));
+            } catch (RejectedExecutionException e) {
+                // should never happen.
+                LOGGER.error("Fetch pool rejected our retry list for " + ref);
+                
+                finished(ref);
+                skipUrls(new ScoredUrlList(urls), UrlStatus.SKIPPED_DEFERRED, String.format("Execution rejection skipped %d URLs", urls.size()));
+            }
+            
+            numUrls += urls.size();
+        }
+        
+        return numUrls;
+    }
+    
+    /**
+     * Return true if we can start fetching from <ref>, since it's not active, and
+     * its next fetch time (if any) has passed.
+     */
+    private boolean isReady(String ref, long now) {
+        if (_activeRefs.get(ref) != null) {
+            return false;
+        }
+        
+        Long nextFetchTime = _pendingRefs.get(ref);
+        return (nextFetchTime == null) || (nextFetchTime <= now);
+    }
+    
     /**
      * Make <ref> active, removing from pending if necessary.
      * 
@@ -376,6 +828,22 @@ public class FetchBuffer extends BaseOperation<NullContext> implements Buffer<Nu
         }
     }
 
+    private static IParser copyParser(IParser parser) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(parser);
+            out.close();
+            
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            return (IParser)in.readObject();
+        } catch (IOException e) {
+            throw new RuntimeException("Can't copy parser", e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Can't copy parser", e);
+        }
+    }
+    
     private void trace(String template, Object... params) {
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace(String.format(template, params));
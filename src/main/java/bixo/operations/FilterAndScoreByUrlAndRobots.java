@@ -1,5 +1,6 @@
 package bixo.operations;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -8,14 +9,17 @@ import org.apache.log4j.Logger;
 import bixo.cascading.BixoFlowProcess;
 import bixo.cascading.LoggingFlowReporter;
 import bixo.cascading.NullContext;
+import bixo.config.FetcherPolicy;
 import bixo.config.UserAgent;
 import bixo.datum.GroupedUrlDatum;
+import bixo.datum.PreFetchedDatum;
 import bixo.datum.ScoredUrlDatum;
 import bixo.fetcher.http.IHttpFetcher;
+import bixo.fetcher.util.PreFetchBatcher;
 import bixo.fetcher.util.ScoreGenerator;
-import bixo.hadoop.FetchCounters;
 import bixo.robots.RobotRulesParser;
 import bixo.robots.RobotUtils;
+import bixo.robots.RobotsCache;
 import bixo.utils.DiskQueue;
 import bixo.utils.GroupingKey;
 import bixo.utils.ThreadedExecutor;
@@ -45,28 +49,54 @@ public class FilterAndScoreByUrlAndRobots extends BaseOperation<NullContext> imp
     private Fields _metadataFields;
 	private IHttpFetcher _fetcher;
 	private RobotRulesParser _parser;
+	private int _maxUrlsPerServer;
+	private PreFetchBatcher _batcher;
+	private RobotsCache _robotsCache;
 	
     private transient ThreadedExecutor _executor;
     private transient BixoFlowProcess _flowProcess;
 
     public FilterAndScoreByUrlAndRobots(UserAgent userAgent, int maxThreads, RobotRulesParser parser, ScoreGenerator scorer, Fields metadataFields) {
-        // We're going to output a ScoredUrlDatum (what FetcherBuffer expects).
-        super(ScoredUrlDatum.FIELDS.append(metadataFields));
-
-        _scorer = scorer;
-        _parser = parser;
-        _metadataFields = metadataFields;
-        _fetcher = RobotUtils.createFetcher(userAgent, maxThreads);
+        this(RobotUtils.createFetcher(userAgent, maxThreads), parser, scorer, metadataFields);
     }
 
     public FilterAndScoreByUrlAndRobots(IHttpFetcher fetcher, RobotRulesParser parser, ScoreGenerator scorer, Fields metadataFields) {
-        // We're going to output a ScoredUrlDatum (what FetcherBuffer expects).
-        super(ScoredUrlDatum.FIELDS.append(metadataFields));
+        this(fetcher, parser, scorer, metadataFields, FetcherPolicy.NO_MAX_URLS_PER_SERVER, null);
+    }
+
+    /**
+     * Only the top <maxUrlsPerServer> URLs (by score) per domain are output with a regular
+     * grouping key, the rest are marked as being over the per-server limit.
+     * 
+     * If <batcher> isn't null, then we output PreFetchedDatum batches (what the FetchBuffer expects)
+     * directly, instead of ScoredUrlDatums that have to be grouped again by IP/delay.
+     * 
+     * If <robotsCache> isn't null, then prefetched robots.txt results (and IP addresses) are used
+     * for the domains it has, versus doing the DNS lookup and robots.txt fetch again.
+     */
+    public FilterAndScoreByUrlAndRobots(UserAgent userAgent, int maxThreads, RobotRulesParser parser, ScoreGenerator scorer, Fields metadataFields,
+                    int maxUrlsPerServer, PreFetchBatcher batcher, RobotsCache robotsCache) {
+        this(RobotUtils.createFetcher(userAgent, maxThreads), parser, scorer, metadataFields, maxUrlsPerServer, batcher, robotsCache);
+    }
+
+    public FilterAndScoreByUrlAndRobots(IHttpFetcher fetcher, RobotRulesParser parser, ScoreGenerator scorer, Fields metadataFields,
+                    int maxUrlsPerServer, PreFetchBatcher batcher) {
+        this(fetcher, parser, scorer, metadataFields, maxUrlsPerServer, batcher, null);
+    }
+
+    public FilterAndScoreByUrlAndRobots(IHttpFetcher fetcher, RobotRulesParser parser, ScoreGenerator scorer, Fields metadataFields,
+                    int maxUrlsPerServer, PreFetchBatcher batcher, RobotsCache robotsCache) {
+        // We're going to output a ScoredUrlDatum (what the PreFetchBuffer expects), or
+        // a PreFetchedDatum if we're batching.
+        super(batcher == null ? ScoredUrlDatum.FIELDS.append(metadataFields) : PreFetchedDatum.FIELDS);
 
         _scorer = scorer;
         _parser = parser;
         _metadataFields = metadataFields;
         _fetcher = fetcher;
+        _maxUrlsPerServer = maxUrlsPerServer;
+        _batcher = batcher;
+        _robotsCache = robotsCache;
     }
 
     @Override
@@ -79,6 +109,14 @@ public class FilterAndScoreByUrlAndRobots extends BaseOperation<NullContext> imp
         // add it if it exists.
         _flowProcess = new BixoFlowProcess((HadoopFlowProcess)flowProcess);
         _flowProcess.addReporter(new LoggingFlowReporter());
+        
+        if (_robotsCache != null) {
+            try {
+                _robotsCache.open(((HadoopFlowProcess)flowProcess).getJobConf());
+            } catch (IOException e) {
+                throw new RuntimeException("Can't load prefetched robots.txt results", e);
+            }
+        }
     };
     
     @Override
@@ -102,22 +140,31 @@ public class FilterAndScoreByUrlAndRobots extends BaseOperation<NullContext> imp
         TupleEntry group = bufferCall.getGroup();
         String protocolAndDomain = group.getString(0);
 
+        // We start resolving the domain (and fetching robots.txt) before reading any URLs, so
+        // that only the URLs we read while that's in progress have to be queued (and possibly
+        // spilled to disk). The rest get filtered and scored as we read them.
         DiskQueue<GroupedUrlDatum> urls = new DiskQueue<GroupedUrlDatum>(MAX_URLS_IN_MEMORY);
-        Iterator<TupleEntry> values = bufferCall.getArgumentsIterator();
-        while (values.hasNext()) {
-            urls.add(new GroupedUrlDatum(values.next().getTuple(), _metadataFields));
+        ProcessRobotsTask doRobots = new ProcessRobotsTask(protocolAndDomain, _scorer, urls, _fetcher, _parser, bufferCall.getOutputCollector(), _flowProcess, _maxUrlsPerServer, _batcher);
+        if (_robotsCache != null) {
+            doRobots.setRobotsCache(_robotsCache);
         }
         
+        doRobots.beginStreaming();
+        
         try {
-            Runnable doRobots = new ProcessRobotsTask(protocolAndDomain, _scorer, urls, _fetcher, _parser, bufferCall.getOutputCollector(), _flowProcess);
             _executor.execute(doRobots);
         } catch (RejectedExecutionException e) {
             // should never happen.
             LOGGER.error("Robots handling pool rejected our request for " + protocolAndDomain);
-            _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
-            _flowProcess.increment(FetchCounters.URLS_REJECTED, urls.size());
-            ProcessRobotsTask.emptyQueue(urls, GroupingKey.DEFERRED_GROUPING_KEY, bufferCall.getOutputCollector());
+            doRobots.rejectDomain(GroupingKey.DEFERRED_GROUPING_KEY);
         }
+        
+        Iterator<TupleEntry> values = bufferCall.getArgumentsIterator();
+        while (values.hasNext()) {
+            doRobots.addUrl(new GroupedUrlDatum(values.next().getTuple(), _metadataFields));
+        }
+        
+        doRobots.endStreaming();
 	}
 
 	
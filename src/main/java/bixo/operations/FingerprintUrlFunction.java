@@ -0,0 +1,30 @@
+package bixo.operations;
+
+import bixo.cascading.NullContext;
+import bixo.datum.UrlDatum;
+import bixo.utils.UrlFingerprint;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Calculate the UrlDatum.FINGERPRINT_FIELD from the UrlDatum.URL_FIELD. This
+ * should be used with Fields.ALL as the output selector, so that the fingerprint
+ * gets appended to the incoming tuple.
+ */
+@SuppressWarnings("serial")
+public class FingerprintUrlFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+    public FingerprintUrlFunction() {
+        super(new Fields(UrlDatum.FINGERPRINT_FIELD));
+    }
+
+    @Override
+    public void operate(FlowProcess process, FunctionCall<NullContext> funCall) {
+        String url = funCall.getArguments().getString(UrlDatum.URL_FIELD);
+        funCall.getOutputCollector().add(new Tuple(UrlFingerprint.make(url)));
+    }
+}
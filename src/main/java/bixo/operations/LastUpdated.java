@@ -22,6 +22,9 @@
  */
 package bixo.operations;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import bixo.datum.UrlDatum;
 import cascading.flow.FlowProcess;
 import cascading.operation.Aggregator;
@@ -31,38 +34,46 @@ import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
 import cascading.tuple.TupleEntry;
 
+/**
+ * Keep the UrlDatum with the latest update time for each URL in the group.
+ * Normally the grouping is on the URL, but when grouping on the URL fingerprint
+ * we can (rarely) get more than one URL per group, so we track each URL separately.
+ */
 @SuppressWarnings("serial")
-public class LastUpdated extends BaseOperation<Tuple> implements Aggregator<Tuple> {
+public class LastUpdated extends BaseOperation<Map<String, Tuple>> implements Aggregator<Map<String, Tuple>> {
 
     public LastUpdated(Fields fields) {
         super(fields);
     }
 
     @Override
-    public void start(FlowProcess flowProcess, AggregatorCall<Tuple> aggregatorCall) {
-        aggregatorCall.setContext(null);
+    public void start(FlowProcess flowProcess, AggregatorCall<Map<String, Tuple>> aggregatorCall) {
+        aggregatorCall.setContext(new HashMap<String, Tuple>(2));
     }
 
     @Override
-    public void aggregate(FlowProcess flowProcess, AggregatorCall<Tuple> aggregatorCall) {
+    public void aggregate(FlowProcess flowProcess, AggregatorCall<Map<String, Tuple>> aggregatorCall) {
+        Map<String, Tuple> latest = aggregatorCall.getContext();
+        TupleEntry entry = aggregatorCall.getArguments();
+        String url = entry.getString(UrlDatum.URL_FIELD);
 
-        Tuple tuple = aggregatorCall.getContext();
+        Tuple tuple = latest.get(url);
         if (tuple == null) {
-            aggregatorCall.setContext(new Tuple(aggregatorCall.getArguments().getTuple()));
+            latest.put(url, new Tuple(entry.getTuple()));
         } else {
-            TupleEntry entry = aggregatorCall.getArguments();
-
             long newLast = entry.getLong(UrlDatum.LAST_UPDATED_FIELD);
             long oldLast = new TupleEntry(UrlDatum.FIELDS, tuple).getLong(UrlDatum.LAST_UPDATED_FIELD);
             if (newLast > oldLast) {
-                aggregatorCall.setContext(new Tuple(entry.getTuple()));
+                latest.put(url, new Tuple(entry.getTuple()));
             }
         }
     }
 
     @Override
-    public void complete(FlowProcess flowProcess, AggregatorCall<Tuple> aggregatorCall) {
-        aggregatorCall.getOutputCollector().add(aggregatorCall.getContext());
+    public void complete(FlowProcess flowProcess, AggregatorCall<Map<String, Tuple>> aggregatorCall) {
+        for (Tuple tuple : aggregatorCall.getContext().values()) {
+            aggregatorCall.getOutputCollector().add(tuple);
+        }
     }
 
 }
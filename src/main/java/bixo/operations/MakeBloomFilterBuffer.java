@@ -0,0 +1,122 @@
+package bixo.operations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.datum.UrlDatum;
+import bixo.utils.BloomFilter;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+
+/**
+ * Build a Bloom filter from the UrlDatum.FINGERPRINT_FIELD values in a single group,
+ * and write it (see BloomFilter.write()) to <filterPath>.
+ *
+ * The filter has to be sized before anything is added, so the fingerprints are first
+ * spilled to a local temp file while being counted, and then read back in. Only the
+ * filter itself is kept in memory. The output is one tuple with the number of URLs.
+ */
+@SuppressWarnings("serial")
+public class MakeBloomFilterBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
+    private static final Logger LOGGER = Logger.getLogger(MakeBloomFilterBuffer.class);
+
+    private String _filterPath;
+    private double _falsePositiveRate;
+
+    public MakeBloomFilterBuffer(Fields numUrlsField, String filterPath, double falsePositiveRate) {
+        super(numUrlsField);
+
+        _filterPath = filterPath;
+        _falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+        JobConf conf = ((HadoopFlowProcess)flowProcess).getJobConf();
+        File spillFile = null;
+
+        try {
+            spillFile = File.createTempFile("bloom-filter-", ".tmp");
+            long numUrls = spillFingerprints(bufferCall.getArgumentsIterator(), spillFile, flowProcess);
+
+            BloomFilter filter = new BloomFilter(numUrls, _falsePositiveRate);
+            fillFilter(filter, spillFile, flowProcess);
+
+            Path filterPath = new Path(_filterPath);
+            FileSystem fs = filterPath.getFileSystem(conf);
+            DataOutputStream out = fs.create(filterPath, true);
+            try {
+                filter.write(out);
+            } finally {
+                out.close();
+            }
+
+            LOGGER.info(String.format("Wrote Bloom filter for %d URLs using %d bits to %s", numUrls, filter.getNumBits(), _filterPath));
+            bufferCall.getOutputCollector().add(new Tuple(numUrls));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to create Bloom filter " + _filterPath, e);
+        } finally {
+            if (spillFile != null) {
+                spillFile.delete();
+            }
+        }
+    }
+
+    private static long spillFingerprints(Iterator<TupleEntry> values, File spillFile, FlowProcess flowProcess) throws IOException {
+        long numUrls = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+        try {
+            while (values.hasNext()) {
+                out.writeLong(values.next().getLong(UrlDatum.FINGERPRINT_FIELD));
+                numUrls += 1;
+
+                if ((numUrls % 100000) == 0) {
+                    flowProcess.keepAlive();
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        return numUrls;
+    }
+
+    private static void fillFilter(BloomFilter filter, File spillFile, FlowProcess flowProcess) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+        try {
+            long numUrls = 0;
+            while (true) {
+                filter.add(in.readLong());
+                numUrls += 1;
+
+                if ((numUrls % 100000) == 0) {
+                    flowProcess.keepAlive();
+                }
+            }
+        } catch (EOFException e) {
+            // All done
+        } finally {
+            in.close();
+        }
+    }
+}
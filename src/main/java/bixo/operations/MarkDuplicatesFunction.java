@@ -0,0 +1,73 @@
+package bixo.operations;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.datum.ParsedDatum;
+import bixo.pipes.DedupPipe;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * Add the DedupPipe.DUPLICATE_OF_FIELD to parsed documents, using the duplicates saved
+ * from the DedupPipe.DEDUP_PIPE_NAME tail. The value is the URL of the original document,
+ * or an empty string. Use with Fields.ALL to keep the ParsedDatum fields.
+ *
+ * The duplicates are read from <source> into memory when the operation is prepared, so
+ * this is a map-side join that doesn't shuffle the parsed documents.
+ */
+@SuppressWarnings("serial")
+public class MarkDuplicatesFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+    private static final Logger LOGGER = Logger.getLogger(MarkDuplicatesFunction.class);
+
+    private Tap _source;
+
+    private transient Map<String, String> _duplicates;
+
+    public MarkDuplicatesFunction(Tap source) {
+        super(new Fields(DedupPipe.DUPLICATE_OF_FIELD));
+
+        _source = source;
+    }
+
+    @Override
+    public void prepare(FlowProcess process, OperationCall<NullContext> operationCall) {
+        super.prepare(process, operationCall);
+
+        Map<String, String> duplicates = new HashMap<String, String>();
+        try {
+            TupleEntryIterator iter = _source.openForRead(((HadoopFlowProcess)process).getJobConf());
+            try {
+                while (iter.hasNext()) {
+                    Tuple tuple = iter.next().selectTuple(DedupPipe.DUPLICATES_FIELDS);
+                    duplicates.put(tuple.getString(0), tuple.getString(1));
+                }
+            } finally {
+                iter.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load duplicates", e);
+        }
+
+        LOGGER.info(String.format("Loaded %d duplicates", duplicates.size()));
+        _duplicates = duplicates;
+    }
+
+    @Override
+    public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+        String duplicateOf = _duplicates.get(funcCall.getArguments().getString(ParsedDatum.URL_FIELD));
+        funcCall.getOutputCollector().add(new Tuple(duplicateOf == null ? "" : duplicateOf));
+    }
+}
@@ -0,0 +1,149 @@
+package bixo.operations;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+import bixo.cascading.BixoFlowProcess;
+import bixo.cascading.LoggingFlowReporter;
+import bixo.cascading.NullContext;
+import bixo.datum.UrlDatum;
+import bixo.hadoop.UrlDbCounters;
+import bixo.urldb.PartitionedUrlDb;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.OperationCall;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Hfs;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * Merge one partition of new/updated URLs with the matching partition of the
+ * existing URL DB.
+ *
+ * The group is the partition number, and the values are the new UrlDatums for that
+ * partition, sorted by URL. The existing partition is already sorted by URL, so we
+ * can do a streaming merge join against it without ever sending the existing URL DB
+ * through the shuffle. As with LastUpdated, when we have more than one entry for the
+ * same URL we keep the one with the latest update time.
+ *
+ */
+@SuppressWarnings("serial")
+public class MergeUrlDbBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
+    private static final Logger LOGGER = Logger.getLogger(MergeUrlDbBuffer.class);
+
+    private String _oldDbPath;
+    private Fields _metaDataFields;
+
+    private transient BixoFlowProcess _flowProcess;
+
+    public MergeUrlDbBuffer(String oldDbPath, Fields metaDataFields) {
+        super(UrlDatum.FIELDS.append(metaDataFields));
+
+        _oldDbPath = oldDbPath;
+        _metaDataFields = metaDataFields;
+    }
+
+    @Override
+    public void prepare(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        super.prepare(flowProcess, operationCall);
+        _flowProcess = new BixoFlowProcess((HadoopFlowProcess)flowProcess);
+        _flowProcess.addReporter(new LoggingFlowReporter());
+    }
+
+    @Override
+    public void cleanup(FlowProcess flowProcess, OperationCall<NullContext> operationCall) {
+        _flowProcess.dumpCounters();
+        super.cleanup(flowProcess, operationCall);
+    }
+
+    @Override
+    public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+        int partition = bufferCall.getGroup().getInteger(0);
+        Iterator<TupleEntry> newUrls = bufferCall.getArgumentsIterator();
+        TupleEntryCollector collector = bufferCall.getOutputCollector();
+
+        TupleEntryIterator oldUrls = null;
+
+        try {
+            oldUrls = openPartition(partition);
+
+            UrlDatum curOld = nextOrNull(oldUrls);
+            UrlDatum curNew = nextOrNull(newUrls);
+            UrlDatum pending = null;
+
+            while ((curOld != null) || (curNew != null)) {
+                // Pick whichever is first in URL order, preferring the existing entry
+                // for ties so that an update only wins if it's actually newer.
+                UrlDatum next;
+                if ((curNew == null) || ((curOld != null) && (curOld.getUrl().compareTo(curNew.getUrl()) <= 0))) {
+                    next = curOld;
+                    curOld = nextOrNull(oldUrls);
+                } else {
+                    next = curNew;
+                    curNew = nextOrNull(newUrls);
+                }
+
+                if (pending == null) {
+                    pending = next;
+                } else if (pending.getUrl().equals(next.getUrl())) {
+                    _flowProcess.increment(UrlDbCounters.URLS_MERGED, 1);
+                    if (next.getLastUpdated() > pending.getLastUpdated()) {
+                        pending = next;
+                    }
+                } else {
+                    collector.add(pending.toTuple());
+                    _flowProcess.increment(UrlDbCounters.URLS_WRITTEN, 1);
+                    pending = next;
+                }
+            }
+
+            if (pending != null) {
+                collector.add(pending.toTuple());
+                _flowProcess.increment(UrlDbCounters.URLS_WRITTEN, 1);
+            }
+
+            _flowProcess.increment(UrlDbCounters.PARTITIONS_MERGED, 1);
+        } catch (IOException e) {
+            // We can't just drop URLs on the floor, so fail the task.
+            throw new RuntimeException("Unable to merge URL DB partition " + partition, e);
+        } finally {
+            if (oldUrls != null) {
+                oldUrls.close();
+            }
+        }
+    }
+
+    private TupleEntryIterator openPartition(int partition) throws IOException {
+        if (_oldDbPath == null) {
+            return null;
+        }
+
+        String partitionPath = _oldDbPath + "/" + PartitionedUrlDb.makePartitionName(partition);
+        Tap partitionTap = new Hfs(new SequenceFile(UrlDatum.FIELDS.append(_metaDataFields)), partitionPath);
+        JobConf conf = _flowProcess.getJobConf();
+        if (!partitionTap.pathExists(conf)) {
+            LOGGER.debug("No existing URL DB partition at " + partitionPath);
+            return null;
+        }
+
+        return partitionTap.openForRead(conf);
+    }
+
+    private UrlDatum nextOrNull(Iterator<TupleEntry> iter) {
+        if ((iter == null) || !iter.hasNext()) {
+            return null;
+        }
+
+        return new UrlDatum(iter.next().getTuple(), _metaDataFields);
+    }
+}
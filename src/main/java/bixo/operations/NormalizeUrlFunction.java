@@ -1,31 +1,98 @@
 package bixo.operations;
 
+import java.io.File;
+import java.io.IOException;
+
 import bixo.cascading.NullContext;
 import bixo.datum.UrlDatum;
+import bixo.hadoop.UrlDbCounters;
 import bixo.urldb.IUrlNormalizer;
+import bixo.urldb.RedirectMap;
+import bixo.utils.UrlFingerprint;
 import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
 import cascading.operation.Function;
 import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
 import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
 
 @SuppressWarnings("serial")
 public class NormalizeUrlFunction extends BaseOperation<NullContext> implements Function<NullContext> {
 
     private final IUrlNormalizer _normalizer;
     private final Fields _metaDataFields;
+    private final boolean _addFingerprint;
+    private final String _redirectsPath;
+
+    private transient RedirectMap _redirects;
 
     public NormalizeUrlFunction(IUrlNormalizer normalizer, Fields metaDataFields) {
-        super(UrlDatum.FIELDS.append(metaDataFields));
+        this(normalizer, metaDataFields, false);
+    }
+
+    /**
+     * @param addFingerprint if true, append the fingerprint of the normalized URL as
+     *        the UrlDatum.FINGERPRINT_FIELD, after the meta-data fields.
+     */
+    public NormalizeUrlFunction(IUrlNormalizer normalizer, Fields metaDataFields, boolean addFingerprint) {
+        this(normalizer, metaDataFields, addFingerprint, null);
+    }
+
+    /**
+     * @param redirectsPath if not null, the local file with a RedirectMap (see
+     *        RedirectMap.write(DataOutput)). Normalized URLs that are known to be
+     *        permanently redirected get replaced by their final location.
+     */
+    public NormalizeUrlFunction(IUrlNormalizer normalizer, Fields metaDataFields, boolean addFingerprint, String redirectsPath) {
+        super(makeResultFields(metaDataFields, addFingerprint));
         
         _normalizer = normalizer;
         _metaDataFields = metaDataFields;
+        _addFingerprint = addFingerprint;
+        _redirectsPath = redirectsPath;
+    }
+
+    @Override
+    public void prepare(FlowProcess process, OperationCall<NullContext> operationCall) {
+        super.prepare(process, operationCall);
+        
+        if (_redirectsPath != null) {
+            try {
+                _redirects = RedirectMap.readFile(new File(_redirectsPath));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't load redirect map: " + _redirectsPath, e);
+            }
+        }
+    }
+
+    private static Fields makeResultFields(Fields metaDataFields, boolean addFingerprint) {
+        Fields result = UrlDatum.FIELDS.append(metaDataFields);
+        if (addFingerprint) {
+            result = result.append(new Fields(UrlDatum.FINGERPRINT_FIELD));
+        }
+        
+        return result;
     }
 
     @Override
     public void operate(FlowProcess process, FunctionCall<NullContext> funCall) {
         UrlDatum datum = new UrlDatum(funCall.getArguments().getTuple(), _metaDataFields);
         datum.setUrl(_normalizer.normalize(datum.getUrl()));
-        funCall.getOutputCollector().add(datum.toTuple());
+        
+        if (_redirects != null) {
+            String target = _redirects.getTarget(datum.getUrl());
+            if (target != null) {
+                datum.setUrl(target);
+                process.increment(UrlDbCounters.URLS_REDIRECTED, 1);
+            }
+        }
+        
+        Tuple result = datum.toTuple();
+        if (_addFingerprint) {
+            result.add(UrlFingerprint.make(datum.getUrl()));
+        }
+        
+        funCall.getOutputCollector().add(result);
     }
 }
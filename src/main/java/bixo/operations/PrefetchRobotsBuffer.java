@@ -0,0 +1,124 @@
+package bixo.operations;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.BixoFlowProcess;
+import bixo.cascading.LoggingFlowReporter;
+import bixo.cascading.NullContext;
+import bixo.config.UserAgent;
+import bixo.datum.RobotsDatum;
+import bixo.fetcher.http.IHttpFetcher;
+import bixo.hadoop.FetchCounters;
+import bixo.robots.RobotUtils;
+import bixo.utils.DomainInfo;
+import bixo.utils.ThreadedExecutor;
+import cascading.flow.FlowProcess;
+import cascading.flow.hadoop.HadoopFlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.tuple.TupleEntryCollector;
+
+/**
+ * Resolve each protocol+domain group key and fetch its robots.txt (using a pool of threads),
+ * and output the result as a RobotsDatum, so that the next fetch can skip doing this work.
+ *
+ * Domains that can't be resolved aren't output, so they get handled as usual by the next fetch.
+ */
+@SuppressWarnings("serial")
+public class PrefetchRobotsBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
+    private static final Logger LOGGER = Logger.getLogger(PrefetchRobotsBuffer.class);
+
+    private static final long COMMAND_TIMEOUT = RobotUtils.getMaxFetchTime();
+    private static final long TERMINATE_TIMEOUT = COMMAND_TIMEOUT;
+
+    private static class PrefetchRobotsTask implements Runnable {
+        private String _protocolAndDomain;
+        private IHttpFetcher _fetcher;
+        private TupleEntryCollector _collector;
+        private BixoFlowProcess _flowProcess;
+
+        public PrefetchRobotsTask(String protocolAndDomain, IHttpFetcher fetcher, TupleEntryCollector collector, BixoFlowProcess flowProcess) {
+            _protocolAndDomain = protocolAndDomain;
+            _fetcher = fetcher;
+            _collector = collector;
+            _flowProcess = flowProcess;
+        }
+
+        @Override
+        public void run() {
+            _flowProcess.increment(FetchCounters.DOMAINS_PROCESSING, 1);
+
+            try {
+                DomainInfo domainInfo = new DomainInfo(_protocolAndDomain);
+                if (!domainInfo.isValidHostAddress()) {
+                    LOGGER.debug("Skipping robots prefetch for invalid host address: " + _protocolAndDomain);
+                    return;
+                }
+
+                RobotsDatum result = RobotUtils.fetchRobots(_fetcher, _protocolAndDomain, domainInfo.getHostAddress());
+                synchronized (_collector) {
+                    _collector.add(result.toTuple());
+                }
+
+                _flowProcess.increment(FetchCounters.DOMAINS_FINISHED, 1);
+            } catch (Exception e) {
+                // Unknown host, bad URL, etc. - the fetch will figure this out again later.
+                LOGGER.debug("Skipping robots prefetch for " + _protocolAndDomain + ": " + e.getMessage());
+            } finally {
+                _flowProcess.decrement(FetchCounters.DOMAINS_PROCESSING, 1);
+            }
+        }
+    }
+
+    private IHttpFetcher _fetcher;
+
+    private transient ThreadedExecutor _executor;
+    private transient BixoFlowProcess _flowProcess;
+
+    public PrefetchRobotsBuffer(UserAgent userAgent, int maxThreads) {
+        this(RobotUtils.createFetcher(userAgent, maxThreads));
+    }
+
+    public PrefetchRobotsBuffer(IHttpFetcher fetcher) {
+        super(RobotsDatum.FIELDS);
+
+        _fetcher = fetcher;
+    }
+
+    @Override
+    public void prepare(FlowProcess flowProcess, cascading.operation.OperationCall<NullContext> operationCall) {
+        _executor = new ThreadedExecutor(_fetcher.getMaxThreads(), COMMAND_TIMEOUT);
+
+        _flowProcess = new BixoFlowProcess((HadoopFlowProcess)flowProcess);
+        _flowProcess.addReporter(new LoggingFlowReporter());
+    }
+
+    @Override
+    public void cleanup(FlowProcess flowProcess, cascading.operation.OperationCall<NullContext> operationCall) {
+        try {
+            if (!_executor.terminate(TERMINATE_TIMEOUT)) {
+                LOGGER.warn("Had to do a hard shutdown of robots prefetching");
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while waiting for termination");
+        }
+
+        _flowProcess.dumpCounters();
+    }
+
+    @Override
+    public void operate(FlowProcess flowProcess, BufferCall<NullContext> bufferCall) {
+        String protocolAndDomain = bufferCall.getGroup().getString(0);
+
+        try {
+            _executor.execute(new PrefetchRobotsTask(protocolAndDomain, _fetcher, bufferCall.getOutputCollector(), _flowProcess));
+        } catch (RejectedExecutionException e) {
+            // Nothing lost, since the fetch will do the robots.txt work for this domain.
+            LOGGER.warn("Robots prefetch pool rejected our request for " + protocolAndDomain);
+            _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
+        }
+    }
+}
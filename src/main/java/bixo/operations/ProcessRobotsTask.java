@@ -4,20 +4,31 @@ import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 
 import org.apache.log4j.Logger;
 
 import bixo.cascading.BixoFlowProcess;
+import bixo.config.FetcherPolicy;
 import bixo.datum.GroupedUrlDatum;
+import bixo.datum.RobotsDatum;
 import bixo.datum.ScoredUrlDatum;
 import bixo.datum.UrlStatus;
 import bixo.fetcher.http.IHttpFetcher;
+import bixo.fetcher.util.PreFetchBatcher;
 import bixo.fetcher.util.ScoreGenerator;
 import bixo.hadoop.FetchCounters;
 import bixo.robots.RobotRules;
 import bixo.robots.RobotRulesParser;
 import bixo.robots.RobotUtils;
+import bixo.robots.RobotsCache;
 import bixo.utils.DomainInfo;
 import bixo.utils.DomainNames;
 import bixo.utils.GroupingKey;
@@ -26,6 +37,18 @@ import cascading.tuple.TupleEntryCollector;
 public class ProcessRobotsTask implements Runnable {
     private static final Logger LOGGER = Logger.getLogger(ProcessRobotsTask.class);
 
+    // Above this many URLs per server, we don't try to keep the top-scoring URLs in memory,
+    // and just let the PreFetchBuffer skip the excess. When we're making batches, this is
+    // the max number of URLs per server that we support.
+    public static final int MAX_TOP_URLS_IN_MEMORY = 10000;
+
+    private static final Comparator<ScoredUrlDatum> ASCENDING_SCORE = new Comparator<ScoredUrlDatum>() {
+        @Override
+        public int compare(ScoredUrlDatum o1, ScoredUrlDatum o2) {
+            return Double.compare(o1.getScore(), o2.getScore());
+        }
+    };
+
     private String _protocolAndDomain;
     private ScoreGenerator _scorer;
     private Queue<GroupedUrlDatum> _urls;
@@ -33,9 +56,46 @@ public class ProcessRobotsTask implements Runnable {
     private TupleEntryCollector _collector;
     private RobotRulesParser _parser;
     private BixoFlowProcess _flowProcess;
+    private PreFetchBatcher _batcher;
+    private int _maxUrlsPerServer;
+    private RobotsCache _robotsCache;
+
+    // Set up when we resolve the domain (and get its robots.txt).
+    private String _domain;
+    private String _pld;
+    private RobotRules _robotRules;
+    private String _validKey;
+    private String _rejectKey;
+    private FetchCounters _rejectCounter;
+
+    // Used while processing URLs.
+    private PriorityQueue<ScoredUrlDatum> _topUrls;
+    private int _numLimited;
+    private Map<String, List<ScoredUrlDatum>> _skipped;
+
+    // Hand-off between the thread resolving the domain and the thread adding URLs.
+    private boolean _resolved;
+    private boolean _inputDone;
 
     public ProcessRobotsTask(String protocolAndDomain, ScoreGenerator scorer, Queue<GroupedUrlDatum> urls, IHttpFetcher fetcher, 
                     RobotRulesParser parser, TupleEntryCollector collector, BixoFlowProcess flowProcess) {
+        this(protocolAndDomain, scorer, urls, fetcher, parser, collector, flowProcess, FetcherPolicy.NO_MAX_URLS_PER_SERVER, null);
+    }
+
+    /**
+     * Only the <maxUrlsPerServer> top-scoring accepted URLs for the domain get output with a
+     * regular grouping key. The rest are output with the LIMITED_GROUPING_KEY, so they don't
+     * have to be shuffled to the PreFetchBuffer just to be skipped.
+     * 
+     * If <batcher> isn't null, then output PreFetchedDatum batches (sorted by score) for the
+     * domain, instead of a ScoredUrlDatum per URL that still needs to be grouped by IP/delay.
+     * The accepted URLs are held in memory until all of the domain's URLs have been scored,
+     * so <maxUrlsPerServer> can't be more than MAX_TOP_URLS_IN_MEMORY. Skipped URLs are
+     * output in batches as we go.
+     */
+    public ProcessRobotsTask(String protocolAndDomain, ScoreGenerator scorer, Queue<GroupedUrlDatum> urls, IHttpFetcher fetcher, 
+                    RobotRulesParser parser, TupleEntryCollector collector, BixoFlowProcess flowProcess, int maxUrlsPerServer,
+                    PreFetchBatcher batcher) {
         _protocolAndDomain = protocolAndDomain;
         _scorer = scorer;
         _urls = urls;
@@ -43,6 +103,66 @@ public class ProcessRobotsTask implements Runnable {
         _parser = parser;
         _collector = collector;
         _flowProcess = flowProcess;
+        _batcher = batcher;
+        _maxUrlsPerServer = maxUrlsPerServer;
+
+        // Min-heap of the top-scoring accepted URLs, if we're limiting them here.
+        if (_maxUrlsPerServer <= MAX_TOP_URLS_IN_MEMORY) {
+            _topUrls = new PriorityQueue<ScoredUrlDatum>(Math.max(1, _maxUrlsPerServer), ASCENDING_SCORE);
+        } else if (_batcher != null) {
+            throw new IllegalArgumentException(String.format("Max URLs per server (%d) must be <= %d when making batches", _maxUrlsPerServer, MAX_TOP_URLS_IN_MEMORY));
+        }
+
+        _skipped = new HashMap<String, List<ScoredUrlDatum>>();
+        _inputDone = true;
+    }
+
+    /**
+     * Use previously fetched robots.txt results (and IP addresses) from <robotsCache>, which
+     * must already be open, when they're available for the domain.
+     */
+    public void setRobotsCache(RobotsCache robotsCache) {
+        _robotsCache = robotsCache;
+    }
+
+    /**
+     * Call before running the task, if URLs will be passed in via addUrl() versus all
+     * being in the queue. Once the domain has been resolved, added URLs are processed
+     * directly, so only the ones added while robots.txt is being fetched get queued.
+     */
+    public synchronized void beginStreaming() {
+        _inputDone = false;
+    }
+
+    public synchronized void addUrl(GroupedUrlDatum datum) {
+        if (_resolved) {
+            processQueue();
+            processUrl(datum);
+        } else {
+            _urls.add(datum);
+        }
+    }
+
+    /**
+     * Call after the last URL has been added. If the domain has already been resolved,
+     * then any remaining URLs are processed (and results output) by the calling thread.
+     */
+    public synchronized void endStreaming() {
+        _inputDone = true;
+        if (_resolved) {
+            processQueue();
+            finish();
+        }
+    }
+
+    /**
+     * Reject all URLs for the domain with <groupingKey>, without resolving it (e.g. when we
+     * couldn't run the task). Only valid when streaming.
+     */
+    public synchronized void rejectDomain(String groupingKey) {
+        _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
+        reject(groupingKey, FetchCounters.URLS_REJECTED);
+        _resolved = true;
     }
 
     /**
@@ -55,6 +175,32 @@ public class ProcessRobotsTask implements Runnable {
      * @param outputCollector
      */
     public static void emptyQueue(Queue<GroupedUrlDatum> urls, String groupingKey, TupleEntryCollector collector) {
+        emptyQueue(urls, groupingKey, collector, null);
+    }
+
+    /**
+     * Clear out the queue, as above, but output skipped PreFetchedDatum batches if
+     * <batcher> isn't null.
+     */
+    public static void emptyQueue(Queue<GroupedUrlDatum> urls, String groupingKey, TupleEntryCollector collector, PreFetchBatcher batcher) {
+        if (batcher != null) {
+            List<ScoredUrlDatum> skipped = new ArrayList<ScoredUrlDatum>(PreFetchBatcher.URLS_PER_SKIPPED_BATCH);
+            GroupedUrlDatum datum;
+            while ((datum = urls.poll()) != null) {
+                skipped.add(new ScoredUrlDatum(datum.getUrl(), 0, 0, UrlStatus.UNFETCHED, groupingKey, 1.0, datum.getMetaDataMap()));
+                if (skipped.size() >= PreFetchBatcher.URLS_PER_SKIPPED_BATCH) {
+                    batcher.makeSkippedBatches(groupingKey, skipped, collector);
+                    skipped.clear();
+                }
+            }
+            
+            if (!skipped.isEmpty()) {
+                batcher.makeSkippedBatches(groupingKey, skipped, collector);
+            }
+            
+            return;
+        }
+        
         GroupedUrlDatum datum;
         while ((datum = urls.poll()) != null) {
             ScoredUrlDatum scoreUrl = new ScoredUrlDatum(datum.getUrl(), 0, 0, UrlStatus.UNFETCHED, groupingKey, 1.0, datum.getMetaDataMap());
@@ -77,7 +223,31 @@ public class ProcessRobotsTask implements Runnable {
         _flowProcess.increment(FetchCounters.DOMAINS_PROCESSING, 1);
 
         try {
-            DomainInfo domainInfo = new DomainInfo(_protocolAndDomain);
+            resolve();
+            
+            synchronized (this) {
+                _resolved = true;
+                if (_inputDone) {
+                    processQueue();
+                    finish();
+                }
+            }
+        } finally {
+            _flowProcess.decrement(FetchCounters.DOMAINS_PROCESSING, 1);
+        }
+    }
+
+    private void resolve() {
+        try {
+            RobotsDatum cachedRobots = (_robotsCache == null) ? null : _robotsCache.get(_protocolAndDomain);
+            DomainInfo domainInfo;
+            if (cachedRobots != null) {
+                _flowProcess.increment(FetchCounters.DOMAINS_PREFETCHED, 1);
+                domainInfo = new DomainInfo(_protocolAndDomain, cachedRobots.getHostAddress());
+            } else {
+                domainInfo = new DomainInfo(_protocolAndDomain);
+            }
+            
             if (!domainInfo.isValidHostAddress()) {
                 throw new UnknownHostException(_protocolAndDomain);
             }
@@ -86,78 +256,189 @@ public class ProcessRobotsTask implements Runnable {
                 LOGGER.trace(String.format("Resolved %s to %s", _protocolAndDomain, domainInfo.getHostAddress()));
             }
             
-            String domain = domainInfo.getDomain();
-            String pld = DomainNames.getPLD(domain);
-            if (!_scorer.isGoodDomain(domain, pld)) {
+            _domain = domainInfo.getDomain();
+            _pld = DomainNames.getPLD(_domain);
+            if (!_scorer.isGoodDomain(_domain, _pld)) {
                 _flowProcess.increment(FetchCounters.DOMAINS_SKIPPED, 1);
-                _flowProcess.increment(FetchCounters.URLS_SKIPPED, _urls.size());
-                
-                LOGGER.debug("Skipping URLs from not-good domain: " + domain);
-                
-                emptyQueue(_urls, GroupingKey.SKIPPED_GROUPING_KEY, _collector);
+                LOGGER.debug("Skipping URLs from not-good domain: " + _domain);
+                reject(GroupingKey.SKIPPED_GROUPING_KEY, FetchCounters.URLS_SKIPPED);
             } else {
-                RobotRules robotRules = RobotUtils.getRobotRules(_fetcher, _parser, new URL(domainInfo.getProtocolAndDomain() + "/robots.txt"));
+                if (cachedRobots != null) {
+                    _robotRules = RobotUtils.getRobotRules(cachedRobots, _parser, _fetcher.getUserAgent().getAgentName());
+                } else {
+                    _robotRules = RobotUtils.getRobotRules(_fetcher, _parser, new URL(domainInfo.getProtocolAndDomain() + "/robots.txt"));
+                }
 
-                String validKey = null;
-                boolean isDeferred = robotRules.isDeferVisits();
-                if (isDeferred) {
-                    LOGGER.debug("Deferring visits to URLs from " + domainInfo.getDomain());
+                if (_robotRules.isDeferVisits()) {
+                    LOGGER.debug("Deferring visits to URLs from " + _domain);
                     _flowProcess.increment(FetchCounters.DOMAINS_DEFERRED, 1);
                 } else {
-                    validKey = GroupingKey.makeGroupingKey(domainInfo.getHostAddress(), robotRules.getCrawlDelay());
+                    _validKey = GroupingKey.makeGroupingKey(domainInfo.getHostAddress(), _robotRules.getCrawlDelay());
                     _flowProcess.increment(FetchCounters.DOMAINS_FINISHED, 1);
                 }
-
-                // Use the same key for every URL from this domain
-                GroupedUrlDatum datum;
-                while ((datum = _urls.poll()) != null) {
-                    ScoredUrlDatum scoreUrl;
-                    FetchCounters counter;
-                    String url = datum.getUrl();
-
-                    if (isDeferred) {
-                        counter = FetchCounters.URLS_DEFERRED;
-                        scoreUrl = new ScoredUrlDatum(url, 0, 0, UrlStatus.SKIPPED_DEFERRED, GroupingKey.DEFERRED_GROUPING_KEY, 0.0, datum.getMetaDataMap());
-                    } else if (!robotRules.isAllowed(url)) {
-                        counter = FetchCounters.URLS_BLOCKED;
-                        scoreUrl = new ScoredUrlDatum(url, 0, 0, UrlStatus.SKIPPED_BLOCKED, GroupingKey.BLOCKED_GROUPING_KEY, 0.0, datum.getMetaDataMap());
-                    } else {
-                        counter = FetchCounters.URLS_ACCEPTED;
-                        double score = _scorer.generateScore(domain, pld, datum);
-                        scoreUrl = new ScoredUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, validKey, score, datum.getMetaDataMap());
-                    }
-                    
-                    _flowProcess.increment(counter, 1);
-
-                    // collectors aren't thread safe
-                    synchronized (_collector) {
-                        _collector.add(scoreUrl.toTuple());
-                    }
-                }
             }
         } catch (UnknownHostException e) {
             LOGGER.debug("Unknown host: " + _protocolAndDomain);
             _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
-            _flowProcess.increment(FetchCounters.URLS_REJECTED, _urls.size());
-            emptyQueue(_urls, GroupingKey.UNKNOWN_HOST_GROUPING_KEY, _collector);
+            reject(GroupingKey.UNKNOWN_HOST_GROUPING_KEY, FetchCounters.URLS_REJECTED);
         } catch (MalformedURLException e) {
             LOGGER.debug("Invalid URL: " + _protocolAndDomain);
             _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
-            _flowProcess.increment(FetchCounters.URLS_REJECTED, _urls.size());
-            emptyQueue(_urls, GroupingKey.INVALID_URL_GROUPING_KEY, _collector);
+            reject(GroupingKey.INVALID_URL_GROUPING_KEY, FetchCounters.URLS_REJECTED);
         } catch (URISyntaxException e) {
             LOGGER.debug("Invalid URI: " + _protocolAndDomain);
             _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
-            _flowProcess.increment(FetchCounters.URLS_REJECTED, _urls.size());
-            emptyQueue(_urls, GroupingKey.INVALID_URL_GROUPING_KEY, _collector);
+            reject(GroupingKey.INVALID_URL_GROUPING_KEY, FetchCounters.URLS_REJECTED);
         } catch (Exception e) {
             LOGGER.warn("Exception processing " + _protocolAndDomain, e);
             _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
-            _flowProcess.increment(FetchCounters.URLS_REJECTED, _urls.size());
-            emptyQueue(_urls, GroupingKey.INVALID_URL_GROUPING_KEY, _collector);
-        } finally {
-            _flowProcess.decrement(FetchCounters.DOMAINS_PROCESSING, 1);
+            reject(GroupingKey.INVALID_URL_GROUPING_KEY, FetchCounters.URLS_REJECTED);
+        }
+    }
+
+    private void reject(String groupingKey, FetchCounters counter) {
+        _rejectKey = groupingKey;
+        _rejectCounter = counter;
+    }
+
+    private void processQueue() {
+        GroupedUrlDatum datum;
+        while ((datum = _urls.poll()) != null) {
+            processUrl(datum);
+        }
+    }
+
+    private void processUrl(GroupedUrlDatum datum) {
+        String url = datum.getUrl();
+        
+        try {
+            if (_rejectKey != null) {
+                _flowProcess.increment(_rejectCounter, 1);
+                skip(new ScoredUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, _rejectKey, 1.0, datum.getMetaDataMap()));
+            } else if (_validKey == null) {
+                _flowProcess.increment(FetchCounters.URLS_DEFERRED, 1);
+                skip(new ScoredUrlDatum(url, 0, 0, UrlStatus.SKIPPED_DEFERRED, GroupingKey.DEFERRED_GROUPING_KEY, 0.0, datum.getMetaDataMap()));
+            } else if (!_robotRules.isAllowed(url)) {
+                _flowProcess.increment(FetchCounters.URLS_BLOCKED, 1);
+                skip(new ScoredUrlDatum(url, 0, 0, UrlStatus.SKIPPED_BLOCKED, GroupingKey.BLOCKED_GROUPING_KEY, 0.0, datum.getMetaDataMap()));
+            } else {
+                double score = _scorer.generateScore(_domain, _pld, datum);
+                if (score == ScoreGenerator.SKIP_SCORE) {
+                    _flowProcess.increment(FetchCounters.URLS_SKIPPED, 1);
+                    skip(new ScoredUrlDatum(url, 0, 0, UrlStatus.SKIPPED_BY_SCORER, GroupingKey.SKIPPED_GROUPING_KEY, 0.0, datum.getMetaDataMap()));
+                } else {
+                    _flowProcess.increment(FetchCounters.URLS_ACCEPTED, 1);
+                    accept(new ScoredUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, _validKey, score, datum.getMetaDataMap()));
+                }
+            }
+        } catch (Exception e) {
+            // Reject this URL, and all remaining URLs for the domain.
+            LOGGER.warn("Exception processing " + url, e);
+            _flowProcess.increment(FetchCounters.DOMAINS_REJECTED, 1);
+            reject(GroupingKey.INVALID_URL_GROUPING_KEY, FetchCounters.URLS_REJECTED);
+            
+            _flowProcess.increment(_rejectCounter, 1);
+            skip(new ScoredUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, _rejectKey, 1.0, datum.getMetaDataMap()));
+        }
+    }
+
+    private void accept(ScoredUrlDatum scoreUrl) {
+        if (_topUrls == null) {
+            collect(scoreUrl);
+            return;
+        }
+        
+        // Keep the URL if it's one of the top scoring, and output whatever
+        // that pushes out (or the URL itself) as limited.
+        ScoredUrlDatum loser = scoreUrl;
+        if (_topUrls.size() < _maxUrlsPerServer) {
+            _topUrls.add(scoreUrl);
+            loser = null;
+        } else if ((_maxUrlsPerServer > 0) && (_topUrls.peek().getScore() < scoreUrl.getScore())) {
+            loser = _topUrls.poll();
+            _topUrls.add(scoreUrl);
+        }
+        
+        if (loser != null) {
+            _numLimited += 1;
+            _flowProcess.increment(FetchCounters.URLS_LIMITED, 1);
+            loser.setGroupKey(GroupingKey.LIMITED_GROUPING_KEY);
+            skip(loser);
+        }
+    }
+
+    private void skip(ScoredUrlDatum datum) {
+        if (_batcher != null) {
+            String key = datum.getGroupKey();
+            List<ScoredUrlDatum> urls = _skipped.get(key);
+            if (urls == null) {
+                urls = new ArrayList<ScoredUrlDatum>();
+                _skipped.put(key, urls);
+            }
+            
+            urls.add(datum);
+            
+            // Don't hang onto all of the skipped URLs for a big domain.
+            if (urls.size() >= PreFetchBatcher.URLS_PER_SKIPPED_BATCH) {
+                _batcher.makeSkippedBatches(key, urls, _collector);
+                urls.clear();
+            }
+        } else {
+            collect(datum);
+        }
+    }
+
+    private void finish() {
+        if (_topUrls != null) {
+            if (_numLimited > 0) {
+                LOGGER.debug(String.format("Limited %d URLs from %s", _numLimited, _domain));
+            }
+            
+            if (_batcher != null) {
+                makeBatches(new ArrayList<ScoredUrlDatum>(_topUrls));
+            } else {
+                for (ScoredUrlDatum topUrl : _topUrls) {
+                    collect(topUrl);
+                }
+            }
+            
+            _topUrls.clear();
+        }
+        
+        if (_batcher != null) {
+            makeSkippedBatches();
+        }
+    }
+
+    private void collect(ScoredUrlDatum datum) {
+        // collectors aren't thread safe
+        synchronized (_collector) {
+            _collector.add(datum.toTuple());
+        }
+    }
+
+    private void makeBatches(List<ScoredUrlDatum> accepted) {
+        if (!accepted.isEmpty()) {
+            // Same order as we'd get from the GroupBy that's used when we're not batching.
+            Collections.sort(accepted, new Comparator<ScoredUrlDatum>() {
+                @Override
+                public int compare(ScoredUrlDatum o1, ScoredUrlDatum o2) {
+                    return Double.compare(o2.getScore(), o1.getScore());
+                }
+            });
+            
+            _batcher.makeBatches(_validKey, accepted.iterator(), _collector);
+        }
+    }
+    
+    private void makeSkippedBatches() {
+        for (Map.Entry<String, List<ScoredUrlDatum>> entry : _skipped.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                _batcher.makeSkippedBatches(entry.getKey(), entry.getValue(), _collector);
+            }
         }
+        
+        _skipped.clear();
     }
 
 }
@@ -0,0 +1,43 @@
+package bixo.operations;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.pipes.DedupPipe;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Filter;
+import cascading.operation.FilterCall;
+import cascading.operation.OperationCall;
+
+/**
+ * Remove documents that the MarkDuplicatesFunction marked as near-duplicates,
+ * so that we don't index them.
+ */
+@SuppressWarnings("serial")
+public class RemoveDuplicatesFilter extends BaseOperation<NullContext> implements Filter<NullContext> {
+    private static final Logger LOGGER = Logger.getLogger(RemoveDuplicatesFilter.class);
+
+    private int _numRemoved;
+
+    @Override
+    public void prepare(FlowProcess process, OperationCall<NullContext> opCall) {
+        _numRemoved = 0;
+    }
+
+    @Override
+    public boolean isRemove(FlowProcess process, FilterCall<NullContext> filterCall) {
+        String duplicateOf = filterCall.getArguments().getString(DedupPipe.DUPLICATE_OF_FIELD);
+        if ((duplicateOf != null) && (duplicateOf.length() > 0)) {
+            _numRemoved += 1;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void cleanup(FlowProcess process, OperationCall<NullContext> opCall) {
+        LOGGER.info(String.format("Removed %d duplicate documents", _numRemoved));
+    }
+}
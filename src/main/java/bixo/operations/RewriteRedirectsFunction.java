@@ -0,0 +1,63 @@
+package bixo.operations;
+
+import java.io.File;
+import java.io.IOException;
+
+import bixo.cascading.NullContext;
+import bixo.datum.UrlDatum;
+import bixo.hadoop.UrlDbCounters;
+import bixo.urldb.RedirectMap;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.operation.OperationCall;
+import cascading.tuple.Fields;
+
+/**
+ * Replace the URL of each UrlDatum (plus meta-data) with the final location of its permanent
+ * redirect, if there is one. This is used on URLs read from the URL DB, so that a URL that's
+ * known to be redirected gets grouped with (and scheduled as) its target, versus being
+ * fetched (and redirected) again on every revisit.
+ *
+ * The RedirectMap is loaded from the local file <redirectsPath> when the operation is
+ * prepared, versus being serialized with the operation.
+ */
+@SuppressWarnings("serial")
+public class RewriteRedirectsFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+    private final Fields _metaDataFields;
+    private final String _redirectsPath;
+
+    private transient RedirectMap _redirects;
+
+    public RewriteRedirectsFunction(Fields metaDataFields, String redirectsPath) {
+        super(UrlDatum.FIELDS.append(metaDataFields));
+
+        _metaDataFields = metaDataFields;
+        _redirectsPath = redirectsPath;
+    }
+
+    @Override
+    public void prepare(FlowProcess process, OperationCall<NullContext> operationCall) {
+        super.prepare(process, operationCall);
+
+        try {
+            _redirects = RedirectMap.readFile(new File(_redirectsPath));
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load redirect map: " + _redirectsPath, e);
+        }
+    }
+
+    @Override
+    public void operate(FlowProcess process, FunctionCall<NullContext> funCall) {
+        UrlDatum datum = new UrlDatum(funCall.getArguments().getTuple(), _metaDataFields);
+        String target = _redirects.getTarget(datum.getUrl());
+        if (target != null) {
+            datum.setUrl(target);
+            process.increment(UrlDbCounters.URLS_REDIRECTED, 1);
+        }
+
+        funCall.getOutputCollector().add(datum.toTuple());
+    }
+}
@@ -0,0 +1,325 @@
+package bixo.pipes;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.datum.BaseDatum;
+import bixo.datum.ParsedDatum;
+import bixo.hadoop.DedupCounters;
+import bixo.utils.SimHash;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Buffer;
+import cascading.operation.BufferCall;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.pipe.CoGroup;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.pipe.cogroup.LeftJoin;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+
+/**
+ * Find parsed documents that are near-duplicates of other documents, using
+ * the SimHash of the parsed text.
+ *
+ * Each document's 64-bit SimHash is split into bands, and documents are grouped
+ * by band value. If two SimHashes differ by no more than MAX_HAMMING_DISTANCE bits
+ * then they have to match in at least one band, so we only compare documents that
+ * are in the same band group. Within a group, a document is a duplicate of the
+ * first (by URL sort order) document that's close enough.
+ *
+ * Since matches from different bands can chain together (A is close to B, and B is
+ * close to C), all documents that are connected by matches form one set, and every
+ * document in the set is marked as a duplicate of the set's lowest URL. The sets are
+ * found by passing the lowest URL seen so far between matching documents, for a fixed
+ * number of rounds (one GroupBy each, on just the matches), so nothing has to fit in
+ * one reducer's memory. A set that's more than NUM_LABEL_ROUNDS + 1 matches across
+ * might not be fully resolved, in which case some of its documents can be marked as
+ * duplicates of a URL that's itself marked.
+ *
+ * The DEDUP_PIPE_NAME tail has one (DUPLICATE_URL_FIELD, DUPLICATE_OF_FIELD) tuple per
+ * duplicate, which is much smaller than the parsed text, so save the parsed documents
+ * directly and use the MarkDuplicatesFunction to join the two on the map side (e.g.
+ * before indexing). The OUTLINKS_PIPE_NAME tail has the ParsedDatum (plus meta-data)
+ * of every document that's not a duplicate, but without its parsed text, for
+ * expanding outlinks in the same flow.
+ */
+@SuppressWarnings("serial")
+public class DedupPipe extends SubAssembly {
+    private static final Logger LOGGER = Logger.getLogger(DedupPipe.class);
+
+    // Pipe that outputs the DUPLICATES_FIELDS, for documents that are duplicates.
+    public static final String DEDUP_PIPE_NAME = "dedup_pipe";
+
+    // Pipe that outputs ParsedDatum tuples, with no parsed text or parse meta-data,
+    // for documents that aren't duplicates.
+    public static final String OUTLINKS_PIPE_NAME = "dedup_outlinks";
+
+    public static final String DUPLICATE_URL_FIELD = BaseDatum.fieldName(DedupPipe.class, "duplicateUrl");
+    public static final String DUPLICATE_OF_FIELD = BaseDatum.fieldName(DedupPipe.class, "duplicateOf");
+    public static final Fields DUPLICATES_FIELDS = new Fields(DUPLICATE_URL_FIELD, DUPLICATE_OF_FIELD);
+
+    public static final int MAX_HAMMING_DISTANCE = 3;
+
+    // Number of rounds of passing the lowest URL along to matching documents, after
+    // each document has gotten the URLs of the documents it directly matches.
+    public static final int NUM_LABEL_ROUNDS = 3;
+
+    // Need more bands than the max distance, so that near-duplicates share a band.
+    private static final int NUM_BANDS = MAX_HAMMING_DISTANCE + 1;
+    private static final int BITS_PER_BAND = 64 / NUM_BANDS;
+
+    // Documents with less text than this aren't worth checking, and would
+    // otherwise all wind up in the same (huge) group.
+    private static final int MIN_SHINGLES = 10;
+
+    // Limit on the number of distinct documents we compare against in one band
+    // group, to avoid n^2 behavior with lots of similar but not identical pages.
+    private static final int MAX_CANDIDATES = 1000;
+
+    private static final String BAND_KEY_FIELD = BaseDatum.fieldName(DedupPipe.class, "bandKey");
+    private static final String SIMHASH_FIELD = BaseDatum.fieldName(DedupPipe.class, "simHash");
+    private static final String NODE_FIELD = BaseDatum.fieldName(DedupPipe.class, "node");
+    private static final String NEIGHBOR_FIELD = BaseDatum.fieldName(DedupPipe.class, "neighbor");
+    private static final String LABEL_FIELD = BaseDatum.fieldName(DedupPipe.class, "label");
+
+    private static final Fields LABEL_FIELDS = new Fields(NODE_FIELD, NEIGHBOR_FIELD, LABEL_FIELD);
+
+    private static class SimHashBandsFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        public SimHashBandsFunction() {
+            super(new Fields(BAND_KEY_FIELD, DUPLICATE_URL_FIELD, SIMHASH_FIELD));
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            TupleEntry entry = funcCall.getArguments();
+            String url = entry.getString(ParsedDatum.URL_FIELD);
+            String text = entry.getString(ParsedDatum.PARSED_TEXT_FIELD);
+
+            if ((text == null) || (SimHash.countShingles(text, SimHash.DEFAULT_SHINGLE_SIZE) < MIN_SHINGLES)) {
+                process.increment(DedupCounters.DOCUMENTS_TOO_SHORT, 1);
+                return;
+            }
+
+            process.increment(DedupCounters.DOCUMENTS_HASHED, 1);
+            long simHash = SimHash.makeSimHash(text, SimHash.DEFAULT_SHINGLE_SIZE);
+            long bandMask = (1L << BITS_PER_BAND) - 1;
+            for (int band = 0; band < NUM_BANDS; band++) {
+                int bandValue = (int)((simHash >>> (band * BITS_PER_BAND)) & bandMask);
+                int bandKey = (band << BITS_PER_BAND) | bandValue;
+                funcCall.getOutputCollector().add(new Tuple(bandKey, url, simHash));
+            }
+        }
+    }
+
+    private static class NearDuplicateBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
+
+        public NearDuplicateBuffer() {
+            super(DUPLICATES_FIELDS);
+        }
+
+        @Override
+        public void operate(FlowProcess process, BufferCall<NullContext> bufferCall) {
+            List<String> candidateUrls = new ArrayList<String>();
+            List<Long> candidateHashes = new ArrayList<Long>();
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry entry = iter.next();
+                String url = entry.getString(DUPLICATE_URL_FIELD);
+                long simHash = entry.getLong(SIMHASH_FIELD);
+
+                String originalUrl = null;
+                for (int i = 0; (i < candidateUrls.size()) && (originalUrl == null); i++) {
+                    if (SimHash.hammingDistance(simHash, candidateHashes.get(i)) <= MAX_HAMMING_DISTANCE) {
+                        originalUrl = candidateUrls.get(i);
+                    }
+                }
+
+                if ((originalUrl != null) && !originalUrl.equals(url)) {
+                    bufferCall.getOutputCollector().add(new Tuple(url, originalUrl));
+                } else if ((originalUrl == null) && (candidateUrls.size() < MAX_CANDIDATES)) {
+                    candidateUrls.add(url);
+                    candidateHashes.add(simHash);
+                }
+            }
+        }
+    }
+
+    private static class MatchLabelsFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        public MatchLabelsFunction() {
+            super(LABEL_FIELDS);
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            TupleEntry entry = funcCall.getArguments();
+            String url = entry.getString(DUPLICATE_URL_FIELD);
+            String originalUrl = entry.getString(DUPLICATE_OF_FIELD);
+
+            // Each document remembers the match (with its own URL as the label), and gets
+            // the URL of the other document as a label (with no neighbor).
+            TupleEntryCollector collector = funcCall.getOutputCollector();
+            collector.add(new Tuple(url, originalUrl, url));
+            collector.add(new Tuple(originalUrl, url, originalUrl));
+            collector.add(new Tuple(url, "", originalUrl));
+            collector.add(new Tuple(originalUrl, "", url));
+        }
+    }
+
+    private static class LowestLabelBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
+        private boolean _lastRound;
+
+        public LowestLabelBuffer(boolean lastRound) {
+            super(lastRound ? DUPLICATES_FIELDS : LABEL_FIELDS);
+
+            _lastRound = lastRound;
+        }
+
+        @Override
+        public void operate(FlowProcess process, BufferCall<NullContext> bufferCall) {
+            // Labels are sorted, so the first one is the lowest URL we've heard about.
+            String node = bufferCall.getGroup().getString(NODE_FIELD);
+            String lowestUrl = null;
+
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry entry = iter.next();
+                if (lowestUrl == null) {
+                    lowestUrl = entry.getString(LABEL_FIELD);
+                    if (node.compareTo(lowestUrl) < 0) {
+                        lowestUrl = node;
+                    }
+
+                    if (_lastRound) {
+                        break;
+                    }
+                }
+
+                // Keep the match, and pass the lowest URL along to the other document.
+                String neighbor = entry.getString(NEIGHBOR_FIELD);
+                if (neighbor.length() > 0) {
+                    bufferCall.getOutputCollector().add(new Tuple(node, neighbor, lowestUrl));
+                    bufferCall.getOutputCollector().add(new Tuple(neighbor, "", lowestUrl));
+                }
+            }
+
+            if (_lastRound && !lowestUrl.equals(node)) {
+                process.increment(DedupCounters.DUPLICATES_MARKED, 1);
+                LOGGER.trace("Marking " + node + " as duplicate of " + lowestUrl);
+                bufferCall.getOutputCollector().add(new Tuple(node, lowestUrl));
+            }
+        }
+    }
+
+    private static class RemoveParsedTextFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+        private Fields _metaDataFields;
+
+        public RemoveParsedTextFunction(Fields metaDataFields) {
+            super(ParsedDatum.FIELDS.append(metaDataFields));
+
+            _metaDataFields = metaDataFields;
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            ParsedDatum datum = new ParsedDatum(funcCall.getArguments().getTuple(), _metaDataFields);
+            datum.setParsedText("");
+            datum.setParsedMeta(new HashMap<String, String>());
+            funcCall.getOutputCollector().add(datum.toTuple());
+        }
+    }
+
+    private static class RemoveDuplicatesBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
+        private int _numDatumFields;
+
+        public RemoveDuplicatesBuffer(Fields metaDataFields) {
+            super(ParsedDatum.FIELDS.append(metaDataFields));
+
+            _numDatumFields = ParsedDatum.FIELDS.size() + metaDataFields.size();
+        }
+
+        @Override
+        public void operate(FlowProcess process, BufferCall<NullContext> bufferCall) {
+            // We get each datum for the URL joined with its duplicate marker, if there
+            // is one, which is the same for every datum in the group.
+            Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
+            while (iter.hasNext()) {
+                TupleEntry entry = iter.next();
+                if (entry.getString(DUPLICATE_OF_FIELD) != null) {
+                    return;
+                }
+
+                Tuple joined = entry.getTuple();
+                Tuple datum = new Tuple();
+                for (int i = 0; i < _numDatumFields; i++) {
+                    datum.add(joined.get(i));
+                }
+
+                bufferCall.getOutputCollector().add(datum);
+            }
+        }
+    }
+
+    public DedupPipe(Pipe parsePipe) {
+        this(parsePipe, new Fields());
+    }
+
+    public DedupPipe(Pipe parsePipe, Fields metaDataFields) {
+        Pipe dedupPipe = new Pipe("simhash bands", parsePipe);
+        dedupPipe = new Each(dedupPipe, new SimHashBandsFunction(), Fields.RESULTS);
+        dedupPipe = new GroupBy(dedupPipe, new Fields(BAND_KEY_FIELD), new Fields(DUPLICATE_URL_FIELD));
+        dedupPipe = new Every(dedupPipe, new NearDuplicateBuffer(), Fields.RESULTS);
+
+        // Find the lowest URL connected to each matched document.
+        dedupPipe = new Each(dedupPipe, new MatchLabelsFunction(), Fields.RESULTS);
+        for (int round = 0; round <= NUM_LABEL_ROUNDS; round++) {
+            boolean lastRound = (round == NUM_LABEL_ROUNDS);
+            String pipeName = lastRound ? DEDUP_PIPE_NAME : "label round " + round;
+            dedupPipe = new GroupBy(pipeName, dedupPipe, new Fields(NODE_FIELD), new Fields(LABEL_FIELD));
+            dedupPipe = new Every(dedupPipe, new LowestLabelBuffer(lastRound), Fields.RESULTS);
+        }
+
+        // Only the outlinks are needed, so don't shuffle the parsed text.
+        Pipe outlinksPipe = new Pipe("remove parsed text", parsePipe);
+        outlinksPipe = new Each(outlinksPipe, new RemoveParsedTextFunction(metaDataFields), Fields.RESULTS);
+        outlinksPipe = new CoGroup(OUTLINKS_PIPE_NAME, outlinksPipe, new Fields(ParsedDatum.URL_FIELD), dedupPipe, new Fields(DUPLICATE_URL_FIELD), new LeftJoin());
+        outlinksPipe = new Every(outlinksPipe, new RemoveDuplicatesBuffer(metaDataFields), Fields.RESULTS);
+
+        setTails(dedupPipe, outlinksPipe);
+    }
+
+    public Pipe getDuplicatesTailPipe() {
+        return getTailPipe(DEDUP_PIPE_NAME);
+    }
+
+    public Pipe getOutlinksTailPipe() {
+        return getTailPipe(OUTLINKS_PIPE_NAME);
+    }
+
+    private Pipe getTailPipe(String pipeName) {
+        String[] pipeNames = getTailNames();
+        for (int i = 0; i < pipeNames.length; i++) {
+            if (pipeName.equals(pipeNames[i])) {
+                return getTails()[i];
+            }
+        }
+
+        throw new InvalidParameterException("Invalid pipe name: " + pipeName);
+    }
+}
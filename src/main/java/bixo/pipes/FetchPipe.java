@@ -2,7 +2,10 @@ package bixo.pipes;
 
 import java.net.MalformedURLException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import bixo.cascading.ISplitter;
@@ -12,20 +15,23 @@ import bixo.cascading.SplitterAssembly;
 import bixo.datum.BaseDatum;
 import bixo.datum.FetchedDatum;
 import bixo.datum.GroupedUrlDatum;
+import bixo.datum.ParsedDatum;
 import bixo.datum.PreFetchedDatum;
 import bixo.datum.ScoredUrlDatum;
 import bixo.datum.StatusDatum;
 import bixo.datum.UrlDatum;
-import bixo.datum.UrlStatus;
-import bixo.exceptions.BaseFetchException;
 import bixo.fetcher.http.IHttpFetcher;
 import bixo.fetcher.util.IGroupingKeyGenerator;
+import bixo.fetcher.util.PreFetchBatcher;
 import bixo.fetcher.util.ScoreGenerator;
 import bixo.operations.FetchBuffer;
 import bixo.operations.FilterAndScoreByUrlAndRobots;
 import bixo.operations.GroupFunction;
 import bixo.operations.PreFetchBuffer;
+import bixo.operations.ProcessRobotsTask;
+import bixo.parser.IParser;
 import bixo.robots.RobotRulesParser;
+import bixo.robots.RobotsCache;
 import bixo.robots.SimpleRobotRulesParser;
 import bixo.utils.GroupingKey;
 import bixo.utils.UrlUtils;
@@ -48,9 +54,18 @@ public class FetchPipe extends SubAssembly {
     // Pipe that outputs FetchedDatum tuples, for URLs that were fetched.
     public static final String CONTENT_PIPE_NAME = "FetchPipe-content";
     
-    // Pipe that outputs StatusDatum tuples, for all URLs being processed.
+    // Pipe that outputs StatusDatum tuples, for all URLs being processed (or only
+    // for URLs that made it to the fetch step, if status isn't being sorted).
     public static final String STATUS_PIPE_NAME = "FetchPipe-status";
     
+    // Pipe that outputs StatusDatum tuples for URLs that were skipped before the
+    // fetch step (only when status isn't being sorted).
+    public static final String SKIPPED_STATUS_PIPE_NAME = "FetchPipe-skipped-status";
+    
+    // Pipe that outputs ParsedDatum tuples, for URLs that were fetched and parsed
+    // (only when a parser is passed in).
+    public static final String PARSE_PIPE_NAME = "FetchPipe-parse";
+    
     /**
      * Generate key using protocol+host+port, which is what we need in order
      * to safely fetch robots.txt files.
@@ -84,21 +99,50 @@ public class FetchPipe extends SubAssembly {
         }
     }
     
+    private static class SplitBatchesIntoSpecialAndRegularKeys implements ISplitter {
+
+        @Override
+        public String getLHSName() {
+            return "special grouping key";
+        }
+
+        @Override
+        public boolean isLHS(Tuple tuple) {
+            int pos = PreFetchedDatum.FIELDS.getPos(PreFetchedDatum.GROUPING_REF_FN);
+            return GroupingKey.isSpecialKey(tuple.getString(pos));
+        }
+    }
+    
+    private static class UnpackBatchFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+        private Fields _metaDataFields;
+        
+        // Output the ScoredUrlDatums (with meta-data) from a PreFetchedDatum batch.
+        public UnpackBatchFunction(Fields metaDataFields) {
+            super(ScoredUrlDatum.FIELDS.append(metaDataFields));
+            
+            _metaDataFields = metaDataFields;
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            PreFetchedDatum batch = new PreFetchedDatum(funcCall.getArguments().getTuple(), _metaDataFields);
+            Iterator<ScoredUrlDatum> iter = batch.getUrlList().iterator();
+            while (iter.hasNext()) {
+                funcCall.getOutputCollector().add(iter.next().toTuple());
+            }
+        }
+    }
+    
     @SuppressWarnings({ "unchecked" })
-    private static class FilterErrorsFunction extends BaseOperation implements Function {
-        private int _fieldPos;
+    private static class SelectStatusFunction extends BaseOperation implements Function {
         private int[] _fieldsToCopy;
         
-        // Only output FetchedDatum tuples for input where we were able to fetch the URL.
-        public FilterErrorsFunction(Fields resultFields) {
-            super(resultFields.size() + 1, resultFields);
-            
-            // Location of extra field added during fetch, that contains fetch error
-            _fieldPos = resultFields.size();
+        // Only output the status tuples from the FetchBuffer, which are the ones
+        // with a URL in the StatusDatum fields.
+        public SelectStatusFunction(Fields metaDataFields) {
+            super(StatusDatum.FIELDS.append(metaDataFields));
             
-            // Create array used to extract the fields we need that correspond to
-            // the FetchedDatum w/o the exception tacked on the end.
-            _fieldsToCopy = new int[resultFields.size()];
+            _fieldsToCopy = new int[StatusDatum.FIELDS.size() + metaDataFields.size()];
             for (int i = 0; i < _fieldsToCopy.length; i++) {
                 _fieldsToCopy[i] = i;
             }
@@ -107,58 +151,46 @@ public class FetchPipe extends SubAssembly {
         @Override
         public void operate(FlowProcess process, FunctionCall funcCall) {
             Tuple t = funcCall.getArguments().getTuple();
-            
-            // Get the status to decide if it's a good fetch
-            Comparable status = t.get(_fieldPos);
-            if ((status instanceof String) && (UrlStatus.valueOf((String)status) == UrlStatus.FETCHED)) {
+            if (t.get(0) != null) {
                 funcCall.getOutputCollector().add(t.get(_fieldsToCopy));
             }
         }
     }
 
-    @SuppressWarnings({ "unchecked" })
-    private static class MakeStatusFunction extends BaseOperation implements Function {
-        private int _fieldPos;
-        private Fields _metaDataFields;
+    private static class ExtractRecordFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+        private int _metaDataPos;
+        private int _numMetaDataFields;
+        private int _recordPos;
         
-        // Output an appropriate StatusDatum based on whether we were able to fetch
-        // the URL or not.
-        public MakeStatusFunction(Fields metaDataFields) {
-            super(StatusDatum.FIELDS.append(metaDataFields));
+        // Output datum tuples (plus meta-data) from the nested record in the
+        // <recordField> field of the FetchBuffer's content tuples.
+        public ExtractRecordFunction(Fields datumFields, Fields recordField, Fields metaDataFields) {
+            super(datumFields.append(metaDataFields));
             
-            // Location of extra field added during fetch, that contains fetch status
-            _fieldPos = FetchedDatum.FIELDS.size() + metaDataFields.size();
-            
-            _metaDataFields = metaDataFields;
+            Fields bufferFields = StatusDatum.FIELDS.append(metaDataFields).append(FetchBuffer.CONTENT_RECORD_FIELD).append(FetchBuffer.PARSE_RESULT_FIELD);
+            _metaDataPos = StatusDatum.FIELDS.size();
+            _numMetaDataFields = metaDataFields.size();
+            _recordPos = bufferFields.getPos(recordField.get(0));
         }
 
         @Override
-        public void operate(FlowProcess process, FunctionCall funcCall) {
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
             Tuple t = funcCall.getArguments().getTuple();
-            FetchedDatum fd = new FetchedDatum(t, _metaDataFields);
-            
-            // Get the fetch status that we hang on the end of the tuple,
-            // after all of the FetchedDatum fields.
-            Comparable result = t.get(_fieldPos);
-            StatusDatum status;
+            Tuple record = (Tuple)t.get(_recordPos);
+            if (record == null) {
+                return;
+            }
             
-            if (result instanceof String) {
-                UrlStatus urlStatus = UrlStatus.valueOf((String)result);
-                if (urlStatus == UrlStatus.FETCHED) {
-                    status = new StatusDatum(fd.getBaseUrl(), fd.getHeaders(), fd.getHostAddress(), fd.getMetaDataMap());
-                } else {
-                    status = new StatusDatum(fd.getBaseUrl(), urlStatus, fd.getMetaDataMap());
-                }
-            } else if (result instanceof BaseFetchException) {
-                status = new StatusDatum(fd.getBaseUrl(), (BaseFetchException)result, fd.getMetaDataMap());
-            } else {
-                throw new RuntimeException("Unknown type for fetch status field: " + result.getClass());
+            Tuple result = new Tuple(record);
+            for (int i = 0; i < _numMetaDataFields; i++) {
+                result.add(t.get(_metaDataPos + i));
             }
             
-            funcCall.getOutputCollector().add(status.toTuple());
+            funcCall.getOutputCollector().add(result);
         }
     }
 
+
     private static class MakeSkippedStatus extends BaseOperation<NullContext> implements Function<NullContext> {
         private Fields _metaDataFields;
         
@@ -207,6 +239,33 @@ public class FetchPipe extends SubAssembly {
     
     public FetchPipe(Pipe urlProvider, ScoreGenerator scorer, IHttpFetcher fetcher, IHttpFetcher robotsFetcher, RobotRulesParser parser,
                     int numReducers, Fields metaDataFields) {
+        this(urlProvider, scorer, fetcher, robotsFetcher, parser, numReducers, metaDataFields, new FetchPipeOptions());
+    }
+    
+    /**
+     * Generate an assembly using the optional settings in <options> (see FetchPipeOptions).
+     * 
+     * If batching in robots is enabled, each domain gets its own batch schedule, versus one
+     * schedule per IP address. Batches for domains on the same IP address still use the same
+     * grouping ref, so the FetchBuffer only fetches one of them at a time, and waits for the
+     * crawl delay between them. But those batches can wind up later than their target fetch
+     * times, so more of them get skipped in the EFFICIENT fetcher mode, or when the crawl
+     * ends.
+     * 
+     * Accepted URLs are then held in memory per domain, so the max URLs per server is capped
+     * to ProcessRobotsTask.MAX_TOP_URLS_IN_MEMORY.
+     */
+    public FetchPipe(Pipe urlProvider, ScoreGenerator scorer, IHttpFetcher fetcher, IHttpFetcher robotsFetcher, RobotRulesParser parser,
+                    int numReducers, Fields metaDataFields, FetchPipeOptions options) {
+        
+        IParser contentParser = options.getContentParser();
+        boolean keepContent = options.isKeepContent();
+        boolean batchInRobots = options.isBatchInRobots();
+        RobotsCache robotsCache = options.getRobotsCache();
+        
+        if ((contentParser == null) && !keepContent) {
+            throw new InvalidParameterException("Content can only be dropped when it's being parsed");
+        }
         
         Fields groupedFields = GroupedUrlDatum.FIELDS.append(metaDataFields);
         Pipe robotsPipe = new Each(urlProvider, new GroupFunction(metaDataFields, new GroupByDomain()), groupedFields);
@@ -216,45 +275,92 @@ public class FetchPipe extends SubAssembly {
             parser = new SimpleRobotRulesParser();
         }
         
+        // Only pass on the top-scoring URLs per domain, since the rest would just get skipped
+        // after being shuffled.
+        int maxUrlsPerServer = fetcher.getFetcherPolicy().getMaxUrlsPerServer();
+        
+        PreFetchBatcher batcher = null;
+        if (batchInRobots) {
+            // The top URLs have to be held in memory until all of the domain's URLs are scored.
+            maxUrlsPerServer = Math.min(maxUrlsPerServer, ProcessRobotsTask.MAX_TOP_URLS_IN_MEMORY);
+            batcher = new PreFetchBatcher(fetcher.getFetcherPolicy(), numReducers);
+        }
+        
         FilterAndScoreByUrlAndRobots filter;
         if (robotsFetcher != null) {
-            filter = new FilterAndScoreByUrlAndRobots(robotsFetcher, parser, scorer, metaDataFields);
+            filter = new FilterAndScoreByUrlAndRobots(robotsFetcher, parser, scorer, metaDataFields, maxUrlsPerServer, batcher, robotsCache);
         } else {
-            filter = new FilterAndScoreByUrlAndRobots(fetcher.getUserAgent(), fetcher.getMaxThreads(), parser, scorer, metaDataFields);
+            filter = new FilterAndScoreByUrlAndRobots(fetcher.getUserAgent(), fetcher.getMaxThreads(), parser, scorer, metaDataFields, maxUrlsPerServer, batcher, robotsCache);
         }
         
         robotsPipe = new Every(robotsPipe, filter, Fields.RESULTS);
         
         // Split into records for URLs that are special (not fetchable) and regular
-        SplitterAssembly splitter = new SplitterAssembly(robotsPipe, new SplitIntoSpecialAndRegularKeys());
-        
-        // Now generate sets of URLs to fetch. We'll wind up with all URLs for the same server & the same crawl delay,
-        // ordered by score, getting passed per list to the PreFetchBuffer. This will generate PreFetchDatums that contain a key
-        // based on the hash of the IP address (with a range of values == number of reducers), plus a list of URLs and a target
-        // crawl time.
-        Pipe prefetchPipe = new GroupBy("Distributing URL sets", splitter.getRHSPipe(), new Fields(GroupedUrlDatum.GROUP_KEY_FIELD), new Fields(ScoredUrlDatum.SCORE_FIELD), true);
-        prefetchPipe = new Every(prefetchPipe, new PreFetchBuffer(fetcher.getFetcherPolicy(), numReducers, metaDataFields), Fields.RESULTS);
+        SplitterAssembly splitter;
+        Pipe prefetchPipe;
+        Pipe skippedUrls;
+        if (batchInRobots) {
+            // The robots reducer has already output PreFetchedDatums, so we only need to unpack
+            // the URLs from the special (not fetchable) batches.
+            splitter = new SplitterAssembly(robotsPipe, new SplitBatchesIntoSpecialAndRegularKeys());
+            prefetchPipe = splitter.getRHSPipe();
+            skippedUrls = new Each(splitter.getLHSPipe(), new UnpackBatchFunction(metaDataFields));
+        } else {
+            splitter = new SplitterAssembly(robotsPipe, new SplitIntoSpecialAndRegularKeys());
+            
+            // Now generate sets of URLs to fetch. We'll wind up with all URLs for the same server & the same crawl delay,
+            // ordered by score, getting passed per list to the PreFetchBuffer. This will generate PreFetchDatums that contain a key
+            // based on the hash of the IP address (with a range of values == number of reducers), plus a list of URLs and a target
+            // crawl time.
+            prefetchPipe = new GroupBy("Distributing URL sets", splitter.getRHSPipe(), new Fields(GroupedUrlDatum.GROUP_KEY_FIELD), new Fields(ScoredUrlDatum.SCORE_FIELD), true);
+            prefetchPipe = new Every(prefetchPipe, new PreFetchBuffer(fetcher.getFetcherPolicy(), numReducers, metaDataFields), Fields.RESULTS);
+            skippedUrls = splitter.getLHSPipe();
+        }
         
         Pipe fetchPipe = new GroupBy("Fetching URL sets", prefetchPipe, new Fields(PreFetchedDatum.GROUPING_KEY_FN), 
                         new Fields(PreFetchedDatum.FETCH_TIME_FN));
-        fetchPipe = new Every(fetchPipe, new FetchBuffer(fetcher, metaDataFields), Fields.RESULTS);
+        fetchPipe = new Every(fetchPipe, new FetchBuffer(fetcher, contentParser, keepContent, metaDataFields), Fields.RESULTS);
 
-        Fields fetchedFields = FetchedDatum.FIELDS.append(metaDataFields);
-        Pipe fetchedContent = new Pipe(CONTENT_PIPE_NAME, new Each(fetchPipe, new FilterErrorsFunction(fetchedFields)));
+        // The FetchBuffer outputs narrow status tuples for every URL, plus separate content
+        // tuples for fetched URLs, so the status branch never has to carry the content.
+        Pipe fetchedContent = null;
+        if (keepContent) {
+            fetchedContent = new Pipe(CONTENT_PIPE_NAME, new Each(fetchPipe, new ExtractRecordFunction(FetchedDatum.FIELDS, FetchBuffer.CONTENT_RECORD_FIELD, metaDataFields)));
+        }
         
-        Pipe fetchedStatus = new Pipe("fetched status", new Each(fetchPipe, new MakeStatusFunction(metaDataFields)));
+        Pipe parsedContent = null;
+        if (contentParser != null) {
+            parsedContent = new Pipe(PARSE_PIPE_NAME, new Each(fetchPipe, new ExtractRecordFunction(ParsedDatum.FIELDS, FetchBuffer.PARSE_RESULT_FIELD, metaDataFields)));
+        }
         
-        // We need to merge URLs from the LHS of the splitter (never fetched) so that our status pipe
-        // gets status for every URL we put into this sub-assembly.
-        Pipe skippedStatus = new Pipe("skipped status", new Each(splitter.getLHSPipe(), new MakeSkippedStatus(metaDataFields)));
+        List<Pipe> tails = new ArrayList<Pipe>();
+        if (fetchedContent != null) {
+            tails.add(fetchedContent);
+        }
         
-        // TODO KKr You're already setting the group name here (so that the
-        // tail pipe gets the same name), so I wasn't able to pass in a
-        // group name here for BaseTool.nameFlowSteps to use for the job name.
-        Pipe joinedStatus = new GroupBy(STATUS_PIPE_NAME, Pipe.pipes(skippedStatus, fetchedStatus),
-                        new Fields(StatusDatum.URL_FIELD));
-
-        setTails(fetchedContent, joinedStatus);
+        if (parsedContent != null) {
+            tails.add(parsedContent);
+        }
+        
+        if (options.isSortStatus()) {
+            Pipe fetchedStatus = new Pipe("fetched status", new Each(fetchPipe, new SelectStatusFunction(metaDataFields)));
+            
+            // We need to merge URLs from the LHS of the splitter (never fetched) so that our status pipe
+            // gets status for every URL we put into this sub-assembly.
+            Pipe skippedStatus = new Pipe("skipped status", new Each(skippedUrls, new MakeSkippedStatus(metaDataFields)));
+            
+            // TODO KKr You're already setting the group name here (so that the
+            // tail pipe gets the same name), so I wasn't able to pass in a
+            // group name here for BaseTool.nameFlowSteps to use for the job name.
+            Pipe joinedStatus = new GroupBy(STATUS_PIPE_NAME, Pipe.pipes(skippedStatus, fetchedStatus),
+                            new Fields(StatusDatum.URL_FIELD));
+            tails.add(joinedStatus);
+        } else {
+            tails.add(new Pipe(STATUS_PIPE_NAME, new Each(fetchPipe, new SelectStatusFunction(metaDataFields))));
+            tails.add(new Pipe(SKIPPED_STATUS_PIPE_NAME, new Each(skippedUrls, new MakeSkippedStatus(metaDataFields))));
+        }
+        
+        setTails(tails.toArray(new Pipe[tails.size()]));
     }
 
     public Pipe getContentTailPipe() {
@@ -265,6 +371,14 @@ public class FetchPipe extends SubAssembly {
         return getTailPipe(STATUS_PIPE_NAME);
     }
     
+    public Pipe getSkippedStatusTailPipe() {
+        return getTailPipe(SKIPPED_STATUS_PIPE_NAME);
+    }
+    
+    public Pipe getParseTailPipe() {
+        return getTailPipe(PARSE_PIPE_NAME);
+    }
+    
     private Pipe getTailPipe(String pipeName) {
         String[] pipeNames = getTailNames();
         for (int i = 0; i < pipeNames.length; i++) {
@@ -292,4 +406,43 @@ public class FetchPipe extends SubAssembly {
         
         return result;
     }
+
+    /**
+     * Make a sink map for a FetchPipe that parses. <fetchedSink> should be null if the
+     * pipe was created with keepContent set to false, since then there's no content tail.
+     */
+    public static Map<String, Tap> makeSinkMap(Tap statusSink, Tap fetchedSink, Tap parsedSink) {
+        Map<String, Tap> result = makeSinkMap(statusSink, fetchedSink);
+        if (fetchedSink == null) {
+            result.remove(CONTENT_PIPE_NAME);
+        }
+        
+        if (parsedSink == null) {
+            parsedSink = new NullSinkTap(ParsedDatum.FIELDS);
+        }
+        
+        result.put(PARSE_PIPE_NAME, parsedSink);
+        return result;
+    }
+
+    /**
+     * Make a sink map for a FetchPipe created with sortStatus set to false, which has a
+     * separate tail for the status of skipped URLs. <parsedSink> should be null if the
+     * pipe isn't parsing.
+     */
+    public static Map<String, Tap> makeUnsortedSinkMap(Tap statusSink, Tap skippedStatusSink, Tap fetchedSink, Tap parsedSink) {
+        Map<String, Tap> result;
+        if (parsedSink == null) {
+            result = makeSinkMap(statusSink, fetchedSink);
+        } else {
+            result = makeSinkMap(statusSink, fetchedSink, parsedSink);
+        }
+        
+        if (skippedStatusSink == null) {
+            skippedStatusSink = new NullSinkTap(StatusDatum.FIELDS);
+        }
+        
+        result.put(SKIPPED_STATUS_PIPE_NAME, skippedStatusSink);
+        return result;
+    }
 }
@@ -0,0 +1,81 @@
+package bixo.pipes;
+
+import bixo.parser.IParser;
+import bixo.robots.RobotsCache;
+
+/**
+ * Optional settings for a FetchPipe. The defaults give the original behavior: no parsing,
+ * content is kept, status is sorted, and batches are made after the robots step.
+ */
+public class FetchPipeOptions {
+
+    private IParser _contentParser = null;
+    private boolean _keepContent = true;
+    private boolean _sortStatus = true;
+    private boolean _batchInRobots = false;
+    private RobotsCache _robotsCache = null;
+
+    public IParser getContentParser() {
+        return _contentParser;
+    }
+
+    /**
+     * Parse documents in the same reducer that fetches them, so the raw content doesn't
+     * have to be written out and read back in just to be parsed. Parsed documents go to
+     * the FetchPipe.PARSE_PIPE_NAME tail.
+     */
+    public void setContentParser(IParser contentParser) {
+        _contentParser = contentParser;
+    }
+
+    public boolean isKeepContent() {
+        return _keepContent;
+    }
+
+    /**
+     * If false, then there's no FetchPipe.CONTENT_PIPE_NAME tail. Only valid when there's
+     * a content parser.
+     */
+    public void setKeepContent(boolean keepContent) {
+        _keepContent = keepContent;
+    }
+
+    public boolean isSortStatus() {
+        return _sortStatus;
+    }
+
+    /**
+     * If false, then status for URLs skipped before fetching goes to the
+     * FetchPipe.SKIPPED_STATUS_PIPE_NAME tail, instead of being merged (and sorted by URL)
+     * with the fetch status. That avoids an extra MapReduce job just to combine the two.
+     */
+    public void setSortStatus(boolean sortStatus) {
+        _sortStatus = sortStatus;
+    }
+
+    public boolean isBatchInRobots() {
+        return _batchInRobots;
+    }
+
+    /**
+     * If true, then the robots reducer also generates the scored, time-stamped batches of
+     * URLs for each domain, which removes the separate "Distributing URL sets" GroupBy. See
+     * the FetchPipe javadoc for the politeness trade-off.
+     */
+    public void setBatchInRobots(boolean batchInRobots) {
+        _batchInRobots = batchInRobots;
+    }
+
+    public RobotsCache getRobotsCache() {
+        return _robotsCache;
+    }
+
+    /**
+     * Use robots.txt results (and IP addresses) that were prefetched (e.g. by a
+     * RobotsPrefetchPipe in the previous loop) instead of resolving the domain and
+     * fetching robots.txt again.
+     */
+    public void setRobotsCache(RobotsCache robotsCache) {
+        _robotsCache = robotsCache;
+    }
+}
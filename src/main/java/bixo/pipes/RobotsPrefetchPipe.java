@@ -0,0 +1,86 @@
+package bixo.pipes;
+
+import java.net.MalformedURLException;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.config.UserAgent;
+import bixo.datum.RobotsDatum;
+import bixo.datum.UrlDatum;
+import bixo.fetcher.http.IHttpFetcher;
+import bixo.operations.PrefetchRobotsBuffer;
+import bixo.utils.UrlUtils;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.pipe.SubAssembly;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Resolve the distinct protocol+domains for a set of URLs (e.g. newly discovered outlinks)
+ * and fetch their robots.txt files, outputting RobotsDatums. Save these and pass them to the
+ * next FetchPipe via a RobotsCache, so that the robots reducer starts with warm DNS & rules.
+ *
+ * The input pipe needs to have a UrlDatum.URL_FIELD, and nothing else is used.
+ */
+@SuppressWarnings("serial")
+public class RobotsPrefetchPipe extends SubAssembly {
+    private static final Logger LOGGER = Logger.getLogger(RobotsPrefetchPipe.class);
+
+    public static final String ROBOTS_PIPE_NAME = "robots_prefetch_pipe";
+
+    private static class MakeProtocolAndDomainFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        public MakeProtocolAndDomainFunction() {
+            super(new Fields(RobotsDatum.PROTOCOL_AND_DOMAIN_FIELD));
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            String url = funcCall.getArguments().getString(0);
+
+            try {
+                funcCall.getOutputCollector().add(new Tuple(UrlUtils.makeProtocolAndDomain(url)));
+            } catch (MalformedURLException e) {
+                LOGGER.trace("Skipping robots prefetch for invalid URL: " + url);
+            }
+        }
+    }
+
+    public RobotsPrefetchPipe(Pipe urlProvider, UserAgent userAgent, int maxThreads) {
+        this(urlProvider, new PrefetchRobotsBuffer(userAgent, maxThreads));
+    }
+
+    public RobotsPrefetchPipe(Pipe urlProvider, IHttpFetcher robotsFetcher) {
+        this(urlProvider, new PrefetchRobotsBuffer(robotsFetcher));
+    }
+
+    private RobotsPrefetchPipe(Pipe urlProvider, PrefetchRobotsBuffer prefetcher) {
+        Pipe robotsPipe = new Pipe("Extracting protocol+domain", urlProvider);
+        robotsPipe = new Each(robotsPipe, new Fields(UrlDatum.URL_FIELD), new MakeProtocolAndDomainFunction(), Fields.RESULTS);
+        robotsPipe = new GroupBy(ROBOTS_PIPE_NAME, robotsPipe, new Fields(RobotsDatum.PROTOCOL_AND_DOMAIN_FIELD));
+        robotsPipe = new Every(robotsPipe, prefetcher, Fields.RESULTS);
+
+        setTails(robotsPipe);
+    }
+
+    public Pipe getTailPipe() {
+        String[] pipeNames = getTailNames();
+        if (pipeNames.length != 1) {
+            throw new RuntimeException("Unexpected number of tail pipes!");
+        }
+
+        if (!pipeNames[0].equals(ROBOTS_PIPE_NAME)) {
+            throw new RuntimeException("Unexpected name for tail pipe");
+        }
+
+        return getTails()[0];
+    }
+}
@@ -1,31 +1,49 @@
 package bixo.pipes;
 
 import bixo.datum.UrlDatum;
+import bixo.operations.FingerprintUrlFunction;
 import bixo.operations.LastUpdated;
 import bixo.operations.UrlFilter;
 import bixo.urldb.IUrlFilter;
-import cascading.operation.Aggregator;
 import cascading.pipe.Each;
 import cascading.pipe.Every;
 import cascading.pipe.GroupBy;
 import cascading.pipe.Pipe;
 import cascading.pipe.SubAssembly;
 import cascading.tuple.Fields;
-import cascading.tuple.Tuple;
 
+/**
+ * Merge URLs by running all of them (e.g. the entire URL DB plus the new URLs) through
+ * a GroupBy, so the cost grows with the size of the URL DB. See PartitionedUrlDb for a
+ * merge that only has to shuffle the new URLs.
+ */
 @SuppressWarnings("serial")
 public class UrlDbPipe extends SubAssembly {
 
     // TODO sg: should we have more than one filter and filter?
     public UrlDbPipe(Pipe pipe, IUrlFilter urlFilter, Fields metaDataFields) {
+        this(pipe, urlFilter, metaDataFields, false);
+    }
+
+    /**
+     * @param groupOnFingerprint if true, group on the URL fingerprint versus the
+     *        full URL, which is cheaper to sort.
+     */
+    public UrlDbPipe(Pipe pipe, IUrlFilter urlFilter, Fields metaDataFields, boolean groupOnFingerprint) {
         Pipe urlDbPipe = new Pipe("urlDb_pipe", pipe);
 
         urlDbPipe = new Each(urlDbPipe, new UrlFilter(urlFilter, metaDataFields));
 
         // we want the url with the latest update.
-        urlDbPipe = new GroupBy(urlDbPipe, new Fields(UrlDatum.URL_FIELD));
-        Aggregator<Tuple> last = new LastUpdated(UrlDatum.FIELDS);
-        urlDbPipe = new Every(urlDbPipe, last, Fields.RESULTS);
+        Fields urlFields = UrlDatum.FIELDS.append(metaDataFields);
+        if (groupOnFingerprint) {
+            urlDbPipe = new Each(urlDbPipe, new FingerprintUrlFunction(), Fields.ALL);
+            urlDbPipe = new GroupBy(urlDbPipe, new Fields(UrlDatum.FINGERPRINT_FIELD));
+        } else {
+            urlDbPipe = new GroupBy(urlDbPipe, new Fields(UrlDatum.URL_FIELD));
+        }
+        
+        urlDbPipe = new Every(urlDbPipe, urlFields, new LastUpdated(urlFields), Fields.RESULTS);
 
         setTails(urlDbPipe);
     }
@@ -8,6 +8,7 @@ import org.apache.log4j.Logger;
 import bixo.config.FetcherPolicy;
 import bixo.config.UserAgent;
 import bixo.datum.FetchedDatum;
+import bixo.datum.RobotsDatum;
 import bixo.datum.ScoredUrlDatum;
 import bixo.exceptions.HttpFetchException;
 import bixo.exceptions.IOFetchException;
@@ -67,35 +68,91 @@ public class RobotUtils {
      * @return Robot rules
      */
     public static RobotRules getRobotRules(IHttpFetcher fetcher, RobotRulesParser parser, URL robotsUrl) {
+        String robotsUrlAsString = robotsUrl.toExternalForm();
+        FetchedDatum result = null;
+        int httpStatus;
         
         try {
-            String urlToFetch = robotsUrl.toExternalForm();
-            ScoredUrlDatum scoredUrl = new ScoredUrlDatum(urlToFetch);
-            FetchedDatum result = fetcher.get(scoredUrl);
+            result = fetcher.get(new ScoredUrlDatum(robotsUrlAsString));
+            httpStatus = getHttpStatus(result);
+        } catch (Exception e) {
+            httpStatus = getHttpStatus(robotsUrlAsString, e);
+        }
+        
+        if (httpStatus != HttpStatus.SC_OK) {
+            return parser.failedFetch(httpStatus);
+        }
+        
+        return parseRobots(parser, fetcher.getUserAgent().getAgentName(), robotsUrlAsString, result.getContentBytes(), result.getContentType());
+    }
 
-            // HACK! DANGER! Some sites will redirect the request to the top-level domain
-            // page, without returning a 404. So look for a response which has a redirect,
-            // and the fetched content is not plain text, and assume it's one of these...
-            // which is the same as not having a robots.txt file.
-            
-            String contentType = result.getContentType();
-            boolean isPlainText = (contentType != null) && (contentType.startsWith("text/plain"));
-            if ((result.getNumRedirects() > 0) && !isPlainText) {
-                return parser.failedFetch(HttpStatus.SC_GONE);
+    /**
+     * Fetch robots.txt for <protocolAndDomain>, without parsing it, so that the result
+     * can be saved and parsed later (see getRobotRules(RobotsDatum...)).
+     */
+    public static RobotsDatum fetchRobots(IHttpFetcher fetcher, String protocolAndDomain, String hostAddress) {
+        String robotsUrl = protocolAndDomain + "/robots.txt";
+        long fetchTime = System.currentTimeMillis();
+        
+        try {
+            FetchedDatum result = fetcher.get(new ScoredUrlDatum(robotsUrl));
+            int httpStatus = getHttpStatus(result);
+            if (httpStatus != HttpStatus.SC_OK) {
+                return new RobotsDatum(protocolAndDomain, hostAddress, fetchTime, httpStatus, null, null);
             }
             
-            return parser.parseContent(urlToFetch, result.getContentBytes(), result.getContentType(), 
-                            fetcher.getUserAgent().getAgentName());
-        } catch (HttpFetchException e) {
-            return parser.failedFetch(e.getHttpStatus());
-        } catch (IOFetchException e) {
+            return new RobotsDatum(protocolAndDomain, hostAddress, fetchTime, httpStatus, result.getContentBytes(), result.getContentType());
+        } catch (Exception e) {
+            return new RobotsDatum(protocolAndDomain, hostAddress, fetchTime, getHttpStatus(robotsUrl, e), null, null);
+        }
+    }
+    
+    /**
+     * Generate rules from a previously fetched robots.txt file.
+     */
+    public static RobotRules getRobotRules(RobotsDatum robots, RobotRulesParser parser, String agentName) {
+        if (robots.getHttpStatus() != HttpStatus.SC_OK) {
+            return parser.failedFetch(robots.getHttpStatus());
+        }
+        
+        return parseRobots(parser, agentName, robots.getRobotsUrl(), robots.getContentBytes(), robots.getContentType());
+    }
+    
+    private static RobotRules parseRobots(RobotRulesParser parser, String agentName, String robotsUrl, byte[] content, String contentType) {
+        try {
+            return parser.parseContent(robotsUrl, content, contentType, agentName);
+        } catch (Exception e) {
+            LOGGER.error("Unexpected exception parsing robots.txt: " + robotsUrl, e);
             return parser.failedFetch(HttpStatus.SC_INTERNAL_SERVER_ERROR);
-        } catch (RedirectFetchException e) {
+        }
+    }
+    
+    private static int getHttpStatus(FetchedDatum result) {
+        // HACK! DANGER! Some sites will redirect the request to the top-level domain
+        // page, without returning a 404. So look for a response which has a redirect,
+        // and the fetched content is not plain text, and assume it's one of these...
+        // which is the same as not having a robots.txt file.
+        
+        String contentType = result.getContentType();
+        boolean isPlainText = (contentType != null) && (contentType.startsWith("text/plain"));
+        if ((result.getNumRedirects() > 0) && !isPlainText) {
+            return HttpStatus.SC_GONE;
+        } else {
+            return HttpStatus.SC_OK;
+        }
+    }
+    
+    private static int getHttpStatus(String robotsUrl, Exception e) {
+        if (e instanceof HttpFetchException) {
+            return ((HttpFetchException)e).getHttpStatus();
+        } else if (e instanceof IOFetchException) {
+            return HttpStatus.SC_INTERNAL_SERVER_ERROR;
+        } else if (e instanceof RedirectFetchException) {
             // Other sites will have circular redirects, so treat this as a missing robots.txt
-            return parser.failedFetch(HttpStatus.SC_GONE);
-        } catch (Exception e) {
+            return HttpStatus.SC_GONE;
+        } else {
             LOGGER.error("Unexpected exception fetching robots.txt: " + robotsUrl, e);
-            return parser.failedFetch(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+            return HttpStatus.SC_INTERNAL_SERVER_ERROR;
         }
     }
 
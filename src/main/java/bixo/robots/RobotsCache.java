@@ -0,0 +1,79 @@
+package bixo.robots;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.http.HttpStatus;
+import org.apache.log4j.Logger;
+
+import bixo.datum.RobotsDatum;
+import cascading.tap.Tap;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * Previously fetched robots.txt results (and IP addresses), keyed by protocol+domain,
+ * e.g. as saved by the RobotsPrefetchPipe during the previous crawl loop. The entries
+ * are read from <source> when open() is called, which normally happens when the
+ * operation that uses this cache is prepared.
+ *
+ * Entries that are older than the max age, or where the fetch failed with a server
+ * error, are ignored, so those domains get resolved and fetched as usual.
+ */
+@SuppressWarnings("serial")
+public class RobotsCache implements Serializable {
+    private static final Logger LOGGER = Logger.getLogger(RobotsCache.class);
+
+    public static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000L;
+
+    private Tap _source;
+    private long _maxAge;
+
+    private transient Map<String, RobotsDatum> _entries;
+
+    public RobotsCache(Tap source) {
+        this(source, DEFAULT_MAX_AGE);
+    }
+
+    public RobotsCache(Tap source, long maxAge) {
+        _source = source;
+        _maxAge = maxAge;
+    }
+
+    public void open(JobConf conf) throws IOException {
+        Map<String, RobotsDatum> entries = new HashMap<String, RobotsDatum>();
+        long minFetchTime = System.currentTimeMillis() - _maxAge;
+        int numIgnored = 0;
+
+        TupleEntryIterator iter = _source.openForRead(conf);
+        try {
+            while (iter.hasNext()) {
+                RobotsDatum datum = new RobotsDatum(iter.next().getTuple());
+                if ((datum.getFetchTime() < minFetchTime) || (datum.getHttpStatus() >= HttpStatus.SC_INTERNAL_SERVER_ERROR)) {
+                    numIgnored += 1;
+                } else {
+                    entries.put(datum.getProtocolAndDomain(), datum);
+                }
+            }
+        } finally {
+            iter.close();
+        }
+
+        LOGGER.info(String.format("Loaded %d robots.txt entries (ignored %d)", entries.size(), numIgnored));
+        _entries = entries;
+    }
+
+    /**
+     * Return the saved result for <protocolAndDomain>, or null if we don't have a
+     * usable one.
+     */
+    public RobotsDatum get(String protocolAndDomain) {
+        if (_entries == null) {
+            throw new IllegalStateException("Robots cache hasn't been opened");
+        }
+
+        return _entries.get(protocolAndDomain);
+    }
+}
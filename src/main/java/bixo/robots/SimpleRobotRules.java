@@ -1,10 +1,11 @@
 package bixo.robots;
 
-import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
 
+import bixo.utils.UrlSpans;
+
 /**
  * Result from parsing a single robots.txt file - which means we
  * get a set of rules, and a crawl-delay.
@@ -96,11 +97,12 @@ public class SimpleRobotRules extends RobotRules {
     private String getPath(String url) {
 
         try {
-            String path = new URL(url).getPath();
-            
-            if ((path == null) || (path.equals(""))) {
+            UrlSpans spans = new UrlSpans();
+            if (!spans.parse(url) || (spans.getPathStart() == spans.getPathEnd())) {
                 return "/";
             } else {
+                String path = spans.getPath();
+                
                 // We always lower-case the path, as anybody who sets up rules that differ only by case
                 // is insane, but it's more likely that somebody will accidentally put in rules that don't
                 // match their target paths because of case differences.
@@ -0,0 +1,50 @@
+package bixo.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import bixo.utils.HostSuffixSet;
+
+/**
+ * Convert a list of domains (one per line, optionally followed by a tab and other
+ * data, as output by ExtractDmozAdultDomains) into a HostSuffixSet file, for use
+ * with BlockedHostFilter or BlockedHostScoreGenerator.
+ */
+public class MakeHostBlocklist {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: MakeHostBlocklist <domain list file> <output file>");
+            System.exit(-1);
+        }
+
+        try {
+            InputStreamReader isr = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+            BufferedReader reader = new BufferedReader(isr);
+            List<String> hosts = new ArrayList<String>();
+
+            try {
+                String curLine;
+                while ((curLine = reader.readLine()) != null) {
+                    int tab = curLine.indexOf('\t');
+                    hosts.add((tab == -1) ? curLine : curLine.substring(0, tab));
+                }
+            } finally {
+                reader.close();
+            }
+
+            File outputFile = new File(args[1]);
+            HostSuffixSet.write(hosts, outputFile);
+            System.out.println(String.format("Wrote %d domains to %s", HostSuffixSet.open(outputFile).size(), outputFile));
+        } catch (Exception e) {
+            System.err.println("Exception while running tool: " + e.getMessage());
+            e.printStackTrace(System.err);
+            System.exit(-1);
+        }
+    }
+
+}
@@ -1,8 +1,7 @@
 package bixo.tools;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -16,11 +15,13 @@ import org.kohsuke.args4j.CmdLineParser;
 import bixo.config.FetcherPolicy;
 import bixo.config.UserAgent;
 import bixo.config.FetcherPolicy.FetcherMode;
-import bixo.datum.UrlDatum;
 import bixo.tools.sitecrawler.BixoJDBCTapFactory;
 import bixo.tools.sitecrawler.SiteCrawler;
 import bixo.tools.sitecrawler.UrlImporter;
 import bixo.urldb.IUrlFilter;
+import bixo.urldb.RuleUrlFilter;
+import bixo.urldb.RuleUrlFilter.Rule;
+import bixo.urldb.RuleUrlFilter.RuleType;
 import bixo.utils.FsUtils;
 import cascading.flow.Flow;
 import cascading.flow.PlannerException;
@@ -38,43 +39,23 @@ public class SimpleCrawlTool {
 
 	private static final String EMAIL_ADDRESS = "bixo-dev@yahoogroups.com";
     
-    // Filter URLs that fall outside of the target domain
-    @SuppressWarnings("serial")
-    private static class DomainUrlFilter implements IUrlFilter {
-
-        private String _domain;
-        private Pattern _suffixExclusionPattern;
-        private Pattern _protocolInclusionPattern;
+    private static final String[] EXCLUDED_SUFFIXES = {
+        ".pdf", ".zip", ".gzip", ".gz", ".sit", ".bz", ".bz2", ".tar", ".tgz", ".exe"
+    };
 
-        public DomainUrlFilter(String domain) {
-            _domain = domain;
-            _suffixExclusionPattern = Pattern.compile("(?i)\\.(pdf|zip|gzip|gz|sit|bz|bz2|tar|tgz|exe)$");
-            _protocolInclusionPattern = Pattern.compile("(?i)^(http|https)://");
+    // Filter URLs that fall outside of the target domain
+    private static IUrlFilter makeDomainUrlFilter(String domain) {
+        List<Rule> rules = new ArrayList<Rule>();
+        for (String suffix : EXCLUDED_SUFFIXES) {
+            rules.add(new Rule(false, RuleType.SUFFIX, suffix));
         }
 
-        @Override
-        public boolean isRemove(UrlDatum datum) {
-            String urlAsString = datum.getUrl();
-            
-            // Skip URLs with protocols we don't want to try to process
-            if (!_protocolInclusionPattern.matcher(urlAsString).find()) {
-                return true;
-                
-            }
-
-            if (_suffixExclusionPattern.matcher(urlAsString).find()) {
-                return true;
-            }
-            
-            try {
-                URL url = new URL(urlAsString);
-                String host = url.getHost();
-                return (!host.endsWith(_domain));
-            } catch (MalformedURLException e) {
-                LOGGER.warn("Invalid URL: " + urlAsString);
-                return true;
-            }
-        }
+        // Only http & https URLs get fetched, so skip other protocols that have a host.
+        rules.add(new Rule(false, RuleType.PREFIX, "ftp:"));
+        rules.add(new Rule(false, RuleType.PREFIX, "file:"));
+        
+        rules.add(new Rule(true, RuleType.HOST_SUFFIX, domain));
+        return new RuleUrlFilter(rules, true);
     }
 
     private static void printUsageAndExit(CmdLineParser parser) {
@@ -193,7 +174,7 @@ public class SimpleCrawlTool {
             long targetEndTime = hasEndTime ? System.currentTimeMillis()
                             + (crawlDurationInMinutes * MILLISECONDS_PER_MINUTE) : FetcherPolicy.NO_CRAWL_END_TIME;
 
-            IUrlFilter urlFilter = new DomainUrlFilter(domain);
+            IUrlFilter urlFilter = makeDomainUrlFilter(domain);
 
             // OK, now we're ready to start looping, since we've got our current settings
 
@@ -6,6 +6,7 @@ import org.apache.log4j.Logger;
 
 import bixo.cascading.NullContext;
 import bixo.datum.UrlDatum;
+import bixo.urldb.RevisitScheduler;
 import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
 import cascading.operation.Buffer;
@@ -17,10 +18,22 @@ import cascading.tuple.TupleEntry;
 public class BestUrlToFetchBuffer extends BaseOperation<NullContext> implements Buffer<NullContext> {
     private static final Logger LOGGER = Logger.getLogger(BestUrlToFetchBuffer.class);
     
+    private RevisitScheduler _scheduler;
     private long _numSelected = 0;
+    private long _numRevisits = 0;
     
     public BestUrlToFetchBuffer() {
+        this(null);
+    }
+    
+    /**
+     * Select URLs that have never been fetched, plus (if <scheduler> isn't null) previously
+     * fetched URLs that the scheduler says are due to be fetched again.
+     */
+    public BestUrlToFetchBuffer(RevisitScheduler scheduler) {
         super(UrlDatum.FIELDS.append(MetaData.FIELDS));
+        
+        _scheduler = scheduler;
     }
     
     @Override
@@ -31,7 +44,7 @@ public class BestUrlToFetchBuffer extends BaseOperation<NullContext> implements
 
     @Override
     public void cleanup(FlowProcess process, OperationCall<NullContext> operationCall) {
-        LOGGER.info("Ending selection of best URLs to fetch - selected " + _numSelected + " urls");
+        LOGGER.info("Ending selection of best URLs to fetch - selected " + _numSelected + " urls, including " + _numRevisits + " revisits");
     }
 
     @Override
@@ -50,9 +63,17 @@ public class BestUrlToFetchBuffer extends BaseOperation<NullContext> implements
         }
         
         
-        if (bestDatum != null && bestDatum.getLastFetched() == 0) {
+        if (bestDatum == null) {
+            return;
+        }
+        
+        if (bestDatum.getLastFetched() == 0) {
+            bufferCall.getOutputCollector().add(bestDatum.toTuple());
+            _numSelected++;
+        } else if ((_scheduler != null) && _scheduler.isDue(bestDatum.getMetaDataMap(), bestDatum.getLastFetched(), System.currentTimeMillis())) {
             bufferCall.getOutputCollector().add(bestDatum.toTuple());
             _numSelected++;
+            _numRevisits++;
         }
     }
 
@@ -27,8 +27,12 @@ public class BixoJDBCTapFactory {
     private static final String JDBC_SERVER_SUFFIX = "/" + DB_NAME + ";shutdown=true";
         
     private static final String JDBC_DRIVER = "org.hsqldb.jdbcDriver";
-    private static final String[] _urlsSinkColumnNames = {"url", "lastFetched", "lastUpdated", "lastStatus", "crawlDepth"};
-    private static final String[] _urlsSinkColumnDefs = {"VARCHAR(255)", "BIGINT", "BIGINT", "VARCHAR(32)", "INTEGER"};
+    
+    // Columns are in the same order as UrlDatum.FIELDS.append(MetaData.FIELDS)
+    private static final String[] _urlsSinkColumnNames = {"url", "lastFetched", "lastUpdated", "lastStatus", "crawlDepth",
+                    "revisitChanges", "revisitChecks", "revisitInterval", "revisitLastFetched", "revisitSignature"};
+    private static final String[] _urlsSinkColumnDefs = {"VARCHAR(255)", "BIGINT", "BIGINT", "VARCHAR(32)", "INTEGER",
+                    "INTEGER", "INTEGER", "BIGINT", "BIGINT", "BIGINT"};
 
     private static String _jdbcUrl;
     private static Server _server;
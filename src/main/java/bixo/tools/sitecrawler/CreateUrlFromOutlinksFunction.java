@@ -9,6 +9,7 @@ import bixo.datum.Outlink;
 import bixo.datum.ParsedDatum;
 import bixo.datum.UrlDatum;
 import bixo.datum.UrlStatus;
+import bixo.urldb.RevisitScheduler;
 import cascading.flow.FlowProcess;
 import cascading.operation.BaseOperation;
 import cascading.operation.Function;
@@ -45,6 +46,9 @@ public class CreateUrlFromOutlinksFunction extends BaseOperation<NullContext> im
     	int crawlDepth = (Integer)metaData.get("crawl-depth");
     	metaData.put("crawl-depth", crawlDepth + 1);
     	
+    	// Outlinks start out with no fetch history of their own.
+    	RevisitScheduler.resetMetaData(metaData);
+    	
         TupleEntryCollector collector = funcCall.getOutputCollector();
 
     	for (Outlink outlink : outlinks) {
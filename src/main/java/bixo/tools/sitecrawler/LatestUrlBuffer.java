@@ -1,6 +1,8 @@
 package bixo.tools.sitecrawler;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -43,14 +45,17 @@ public class LatestUrlBuffer extends BaseOperation<NullContext> implements Buffe
 
 	@Override
 	public void operate(FlowProcess process, BufferCall<NullContext> bufferCall) {
-		UrlDatum bestDatum = null;
+	    // We group on the URL fingerprint, so in the rare case of a collision we
+	    // can have more than one URL in the group.
+		Map<String, UrlDatum> bestDatums = new HashMap<String, UrlDatum>(2);
 		
 		int ignoredUrls = 0;
 		Iterator<TupleEntry> iter = bufferCall.getArgumentsIterator();
 		while (iter.hasNext()) {
 			UrlDatum datum = new UrlDatum(iter.next().getTuple(), MetaData.FIELDS);
+			UrlDatum bestDatum = bestDatums.get(datum.getUrl());
 			if (bestDatum == null) {
-				bestDatum = datum;
+				bestDatums.put(datum.getUrl(), datum);
 			} else if (datum.getLastFetched() > bestDatum.getLastFetched()) {
 				if (bestDatum.getLastFetched() != 0) {
 					_numLater += 1;
@@ -59,7 +64,7 @@ public class LatestUrlBuffer extends BaseOperation<NullContext> implements Buffe
 				}
 				
 				// last fetched time will be 0 for never-fetched
-				bestDatum = datum;
+				bestDatums.put(datum.getUrl(), datum);
 			} else {
 				ignoredUrls += 1;
 			}
@@ -67,10 +72,10 @@ public class LatestUrlBuffer extends BaseOperation<NullContext> implements Buffe
 		
 		_numIgnored += ignoredUrls;
 		if (ignoredUrls >= 100) {
-			LOGGER.info(String.format("Ignored %d duplicate URL(s) with earlier (or no) fetch time: %s", ignoredUrls, bestDatum.getUrl()));
+			LOGGER.info(String.format("Ignored %d duplicate URL(s) with earlier (or no) fetch time: %s", ignoredUrls, bestDatums.keySet()));
 		}
 		
-		if (bestDatum != null) {
+		for (UrlDatum bestDatum : bestDatums.values()) {
 		    bufferCall.getOutputCollector().add(bestDatum.toTuple());
 		}
 	}
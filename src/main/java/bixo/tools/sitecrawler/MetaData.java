@@ -1,7 +1,12 @@
 package bixo.tools.sitecrawler;
 
+import bixo.urldb.RevisitScheduler;
 import cascading.tuple.Fields;
 
 public class MetaData {
-    public static final Fields FIELDS = new Fields("crawl-depth");
+    public static final String CRAWL_DEPTH_FIELD = "crawl-depth";
+    
+    // Meta-data values are always in field name order, so this has to stay sorted (and
+    // in sync with the URL DB columns in BixoJDBCTapFactory).
+    public static final Fields FIELDS = new Fields(CRAWL_DEPTH_FIELD).append(RevisitScheduler.FIELDS);
 }
@@ -1,8 +1,16 @@
 package bixo.tools.sitecrawler;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobConf;
@@ -13,21 +21,31 @@ import bixo.config.FetcherPolicy;
 import bixo.config.UserAgent;
 import bixo.datum.FetchedDatum;
 import bixo.datum.ParsedDatum;
+import bixo.datum.RobotsDatum;
 import bixo.datum.StatusDatum;
 import bixo.datum.UrlDatum;
 import bixo.datum.UrlStatus;
 import bixo.fetcher.http.IHttpFetcher;
 import bixo.fetcher.http.SimpleHttpFetcher;
-import bixo.fetcher.util.FixedScoreGenerator;
+import bixo.fetcher.util.RevisitScoreGenerator;
 import bixo.fetcher.util.ScoreGenerator;
 import bixo.hadoop.HadoopUtils;
+import bixo.operations.ExtractRedirectFunction;
+import bixo.operations.FingerprintUrlFunction;
 import bixo.operations.NormalizeUrlFunction;
+import bixo.operations.RewriteRedirectsFunction;
 import bixo.operations.UrlFilter;
 import bixo.parser.SimpleParser;
+import bixo.pipes.DedupPipe;
 import bixo.pipes.FetchPipe;
-import bixo.pipes.ParsePipe;
+import bixo.pipes.FetchPipeOptions;
+import bixo.pipes.RobotsPrefetchPipe;
+import bixo.robots.RobotsCache;
+import bixo.urldb.FastUrlNormalizer;
 import bixo.urldb.IUrlFilter;
-import bixo.urldb.SimpleUrlNormalizer;
+import bixo.urldb.RedirectMap;
+import bixo.urldb.RevisitScheduler;
+import bixo.urldb.SeenUrlFilter;
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
 import cascading.flow.FlowProcess;
@@ -47,6 +65,16 @@ import cascading.tuple.Fields;
 public class SiteCrawler {
     private static final Logger LOGGER = Logger.getLogger(SiteCrawler.class);
     private static final int CRAWL_STACKSIZE_KB = 128;
+    
+    // All permanent redirects we know about, and the ones found by the current loop.
+    private static final String REDIRECTS_DIR_NAME = "redirects";
+    private static final String NEW_REDIRECTS_DIR_NAME = "new-redirects";
+    
+    // All permanent redirects we know about, in the single-file form used by tasks.
+    private static final String REDIRECT_MAP_FILE_NAME = "redirect-map";
+    
+    // Bloom filter of the URLs in the URL DB at the start of the loop.
+    private static final String SEEN_URLS_FILE_NAME = "seen-urls";
 	
     @SuppressWarnings("serial")
     private static class CreateUrlFromStatusFunction extends BaseOperation<NullContext> implements Function<NullContext> {
@@ -71,40 +99,108 @@ public class SiteCrawler {
         }
 
 
+        @SuppressWarnings("unchecked")
         @Override
         public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
             StatusDatum datum = new StatusDatum(funcCall.getArguments(), MetaData.FIELDS);
             UrlStatus status = datum.getStatus();
             String url = datum.getUrl();
             long statusTime = datum.getStatusTime();
+            Map<String, Comparable> metaData = datum.getMetaDataMap();
             long fetchTime;
 
             if (status == UrlStatus.FETCHED) {
                 fetchTime = statusTime;
-            } else if (status == UrlStatus.SKIPPED_BY_SCORER) {
-                status = UrlStatus.FETCHED;
-                fetchTime = statusTime; // Not strictly true, but we need old status time passed through
-                
-                // TODO KKr - it would be nice to be able to get the old status here,
-                // versus "knowing" that the only time a url is skipped by our scorer is
-                // when it's already been fetched.
-            } else if (status == UrlStatus.UNFETCHED) {
-                // Since we only try to fetch URLs that have never been fetched, we know that the
-                // last fetch time will always be 0.
-                fetchTime = 0;
+                RevisitScheduler.update(metaData, fetchTime, datum.getContentSignature());
+            } else if ((status == UrlStatus.SKIPPED_BY_SCORER)
+                            || (status == UrlStatus.SKIPPED_PER_SERVER_LIMIT)
+                            || (status == UrlStatus.SKIPPED_TIME_LIMIT)
+                            || (status == UrlStatus.UNFETCHED)) {
+                // Not fetched this time (not stale enough, or over the fetch budget), so
+                // keep the time of the last successful fetch, if any.
+                fetchTime = RevisitScheduler.getLastFetched(metaData);
+                status = (fetchTime == 0) ? UrlStatus.UNFETCHED : UrlStatus.FETCHED;
             } else {
                 LOGGER.error(String.format("Unknown status %s for URL %s", status, url));
                 return;
             }
 
             _numCreated += 1;
-            UrlDatum urlDatum = new UrlDatum(url, fetchTime, statusTime, status, datum.getMetaDataMap());
+            UrlDatum urlDatum = new UrlDatum(url, fetchTime, statusTime, status, metaData);
             funcCall.getOutputCollector().add(urlDatum.toTuple());
         }
     }
 
 	
 	
+    /**
+     * Load the permanent redirects found by all previous loops, which is the previous loop's
+     * redirect map plus whatever redirects it found.
+     */
+    private static RedirectMap loadRedirects(FileSystem fs, JobConf conf, Path inputDir) throws IOException {
+        List<Tap> sources = new ArrayList<Tap>();
+        for (String dirName : new String[] { REDIRECTS_DIR_NAME, NEW_REDIRECTS_DIR_NAME }) {
+            Path path = new Path(inputDir, dirName);
+            if (fs.exists(path)) {
+                sources.add(new Hfs(new SequenceFile(RedirectMap.FIELDS), path.toUri().toString()));
+            }
+        }
+        
+        return RedirectMap.read(conf, sources.toArray(new Tap[sources.size()]));
+    }
+	
+    /**
+     * Build the Bloom filter of known URLs with a separate job, and make it available to
+     * the crawl job's tasks through the DistributedCache (versus putting it in the JobConf).
+     * Return null if there aren't any URLs yet.
+     */
+    private static SeenUrlFilter makeSeenUrlFilter(Tap urlSource, Path outputDir, FileSystem fs, JobConf conf, boolean debug) throws IOException, URISyntaxException {
+        Path filterPath = new Path(outputDir, SEEN_URLS_FILE_NAME);
+        Properties properties = HadoopUtils.getDefaultProperties(SiteCrawler.class, debug, new JobConf(conf));
+        SeenUrlFilter.makeFilterFlow(urlSource, filterPath.toUri().toString(), SeenUrlFilter.DEFAULT_FALSE_POSITIVE_RATE, properties).complete();
+        if (!fs.exists(filterPath)) {
+            return null;
+        }
+        
+        return new SeenUrlFilter(addToTaskCache(filterPath, SEEN_URLS_FILE_NAME, conf));
+    }
+    
+    /**
+     * Write the redirect map to a single file, and make it available to the crawl job's tasks
+     * through the DistributedCache (versus putting it in the JobConf). Return the path that
+     * tasks should use to read it, or null if there aren't any redirects.
+     */
+    private static String makeRedirectMapFile(RedirectMap redirects, Path outputDir, FileSystem fs, JobConf conf) throws IOException, URISyntaxException {
+        if (redirects.size() == 0) {
+            return null;
+        }
+        
+        Path mapPath = new Path(outputDir, REDIRECT_MAP_FILE_NAME);
+        DataOutputStream out = fs.create(mapPath, true);
+        try {
+            redirects.write(out);
+        } finally {
+            out.close();
+        }
+        
+        return addToTaskCache(mapPath, REDIRECT_MAP_FILE_NAME, conf);
+    }
+    
+    /**
+     * Add <path> to the DistributedCache as <name>, and return the path that tasks should
+     * use to read it.
+     */
+    private static String addToTaskCache(Path path, String name, JobConf conf) throws URISyntaxException {
+        // Tasks of a local job read the file directly, since we don't get symlinks.
+        if (HadoopUtils.isJobLocal(conf)) {
+            return path.toUri().getPath();
+        }
+        
+        DistributedCache.addCacheFile(new URI(path.toUri().toString() + "#" + name), conf);
+        DistributedCache.createSymlink(conf);
+        return name;
+    }
+    
 	public static Flow createFlow(Path inputDir, Path outputDir, UserAgent userAgent, FetcherPolicy fetcherPolicy,
 	                IUrlFilter urlFilter, int maxThreads, boolean debug, String persistentDbLocation) throws Throwable {
 		JobConf conf = HadoopUtils.getDefaultJobConf(CRAWL_STACKSIZE_KB);
@@ -117,17 +213,39 @@ public class SiteCrawler {
 
 		Tap inputSource = BixoJDBCTapFactory.createUrlsSourceJDBCTap(persistentDbLocation);
 
+        String curCrawlDirName = outputDir.toUri().toString();
+
+        // Carry forward all of the permanent redirects we know about, so that URLs get
+        // rewritten to their final location (versus fetching the redirect again).
+        RedirectMap redirects = loadRedirects(fs, conf, inputDir);
+        redirects.write(new Hfs(new SequenceFile(RedirectMap.FIELDS), curCrawlDirName + "/" + REDIRECTS_DIR_NAME), conf);
+        Tap newRedirectsSink = new Hfs(new SequenceFile(RedirectMap.FIELDS), curCrawlDirName + "/" + NEW_REDIRECTS_DIR_NAME);
+        String redirectsPath = makeRedirectMapFile(redirects, outputDir, fs, conf);
+
 		// Read _everything_ in initially
-        // Split that pipe into URLs we want to fetch for the fetch pipe
+        // Split that pipe into URLs we want to fetch for the fetch pipe. URLs in the URL DB
+        // that are known to redirect are grouped with their target.
         Pipe importPipe = new Pipe("url importer");
+        if (redirectsPath != null) {
+            importPipe = new Each(importPipe, new RewriteRedirectsFunction(MetaData.FIELDS, redirectsPath));
+        }
+        
         importPipe = new GroupBy(importPipe, new Fields(UrlDatum.URL_FIELD));
-        importPipe = new Every(importPipe, new BestUrlToFetchBuffer(), Fields.RESULTS);
-
-        String curCrawlDirName = outputDir.toUri().toString();
+        RevisitScheduler revisitScheduler = new RevisitScheduler();
+        importPipe = new Every(importPipe, new BestUrlToFetchBuffer(revisitScheduler), Fields.RESULTS);
 
         Tap contentSink = new Hfs(new SequenceFile(FetchedDatum.FIELDS.append(MetaData.FIELDS)), curCrawlDirName + "/content");
         Tap parseSink = new Hfs(new SequenceFile(ParsedDatum.FIELDS.append(MetaData.FIELDS)), curCrawlDirName + "/parse");
-
+        Tap duplicatesSink = new Hfs(new SequenceFile(DedupPipe.DUPLICATES_FIELDS), curCrawlDirName + "/duplicates");
+        Tap robotsSink = new Hfs(new SequenceFile(RobotsDatum.FIELDS), curCrawlDirName + "/robots");
+        
+        // Use robots.txt results (and IP addresses) prefetched by the previous loop, if any.
+        RobotsCache robotsCache = null;
+        Path robotsPath = new Path(inputDir, "robots");
+        if (fs.exists(robotsPath)) {
+            robotsCache = new RobotsCache(new Hfs(new SequenceFile(RobotsDatum.FIELDS), robotsPath.toUri().toString()));
+        }
+        
         // VMa : The source and sink for urls is essentially the same database -
         // since cascading
         // doesn't allow you to use the same tap for source and sink we fake it
@@ -137,39 +255,70 @@ public class SiteCrawler {
 
         // Create the sub-assembly that runs the fetch job
         IHttpFetcher fetcher = new SimpleHttpFetcher(maxThreads, fetcherPolicy, userAgent);
-        ScoreGenerator scorer = new FixedScoreGenerator();
-        FetchPipe fetchPipe = new FetchPipe(importPipe, scorer, fetcher, numReducers, MetaData.FIELDS);
-
-        // Take content and split it into content output plus parse to extract
-        // URLs.
-        ParsePipe parsePipe = new ParsePipe(fetchPipe.getContentTailPipe(), new SimpleParser(), MetaData.FIELDS);
-        Pipe urlFromOutlinksPipe = new Pipe("url from outlinks", parsePipe.getTailPipe());
+        // Fetch the most stale URLs first, if we can't fetch everything that's due.
+        ScoreGenerator scorer = new RevisitScoreGenerator(revisitScheduler);
+        // Parse content in the fetch reducer, so we don't have to read all of the
+        // content back in just to extract URLs. We still save the raw content. And
+        // we don't need status sorted, since it all goes into the URL GroupBy below.
+        FetchPipeOptions fetchOptions = new FetchPipeOptions();
+        fetchOptions.setContentParser(new SimpleParser());
+        fetchOptions.setSortStatus(false);
+        fetchOptions.setRobotsCache(robotsCache);
+        FetchPipe fetchPipe = new FetchPipe(importPipe, scorer, fetcher, null, null, numReducers, MetaData.FIELDS, fetchOptions);
+        
+        // Find near-duplicate pages, and don't bother following their outlinks. The parsed
+        // pages are saved as-is, and the duplicates are saved separately (use the
+        // MarkDuplicatesFunction to join them, e.g. when indexing).
+        DedupPipe dedupPipe = new DedupPipe(fetchPipe.getParseTailPipe(), MetaData.FIELDS);
+        Pipe urlFromOutlinksPipe = new Pipe("url from outlinks", dedupPipe.getOutlinksTailPipe());
         urlFromOutlinksPipe = new Each(urlFromOutlinksPipe, new CreateUrlFromOutlinksFunction());
         urlFromOutlinksPipe = new Each(urlFromOutlinksPipe, new UrlFilter(urlFilter, MetaData.FIELDS));
-        urlFromOutlinksPipe = new Each(urlFromOutlinksPipe, new NormalizeUrlFunction(new SimpleUrlNormalizer(), MetaData.FIELDS));
+        urlFromOutlinksPipe = new Each(urlFromOutlinksPipe, new NormalizeUrlFunction(new FastUrlNormalizer(), MetaData.FIELDS, true, redirectsPath));
+        
+        // Most outlinks on a mature crawl are to URLs we already know about, so drop
+        // those before they have to go through the GroupBy below.
+        SeenUrlFilter seenUrlFilter = makeSeenUrlFilter(inputSource, outputDir, fs, conf, debug);
+        if (seenUrlFilter != null) {
+            urlFromOutlinksPipe = new Each(urlFromOutlinksPipe, new UrlFilter(seenUrlFilter, MetaData.FIELDS));
+        }
+        
+        // Resolve & fetch robots.txt for the hosts of the new URLs now, versus at the start of
+        // the next loop's fetch job.
+        RobotsPrefetchPipe robotsPrefetchPipe = new RobotsPrefetchPipe(urlFromOutlinksPipe, userAgent, maxThreads);
 
         // Take status and output updated UrlDatum's. Again, since we are using
         // the same database
         // we need to create a new tap.
         Pipe urlFromFetchPipe = new Pipe("url from fetch", fetchPipe.getStatusTailPipe());
         urlFromFetchPipe = new Each(urlFromFetchPipe, new CreateUrlFromStatusFunction());
+        urlFromFetchPipe = new Each(urlFromFetchPipe, new FingerprintUrlFunction(), Fields.ALL);
+        
+        Pipe newRedirectsPipe = new Pipe("new redirects", fetchPipe.getStatusTailPipe());
+        newRedirectsPipe = new Each(newRedirectsPipe, new ExtractRedirectFunction(new FastUrlNormalizer()), Fields.RESULTS);
+        
+        Pipe urlFromSkippedPipe = new Pipe("url from skipped", fetchPipe.getSkippedStatusTailPipe());
+        urlFromSkippedPipe = new Each(urlFromSkippedPipe, new CreateUrlFromStatusFunction());
+        urlFromSkippedPipe = new Each(urlFromSkippedPipe, new FingerprintUrlFunction(), Fields.ALL);
 
         // Now we need to join the URLs we get from parsing content with the
         // URLs we got
         // from the status output, so we have a unified stream of all known
-        // URLs.
-        Pipe urlPipe = new GroupBy("url pipe", Pipe.pipes(urlFromFetchPipe, urlFromOutlinksPipe), new Fields(UrlDatum.URL_FIELD));
+        // URLs. We group on the URL fingerprint, since that's much cheaper to sort.
+        Pipe urlPipe = new GroupBy("url pipe", Pipe.pipes(urlFromFetchPipe, urlFromSkippedPipe, urlFromOutlinksPipe), new Fields(UrlDatum.FINGERPRINT_FIELD));
         urlPipe = new Every(urlPipe, new LatestUrlBuffer(), Fields.RESULTS);
 
         // Create the output map that connects each tail pipe to the appropriate
         // sink.
         Map<String, Tap> sinkMap = new HashMap<String, Tap>();
         sinkMap.put(FetchPipe.CONTENT_PIPE_NAME, contentSink);
-        sinkMap.put(ParsePipe.PARSE_PIPE_NAME, parseSink);
+        sinkMap.put(FetchPipe.PARSE_PIPE_NAME, parseSink);
+        sinkMap.put(DedupPipe.DEDUP_PIPE_NAME, duplicatesSink);
         sinkMap.put(urlPipe.getName(), urlSink);
+        sinkMap.put(RobotsPrefetchPipe.ROBOTS_PIPE_NAME, robotsSink);
+        sinkMap.put(newRedirectsPipe.getName(), newRedirectsSink);
         // Finally we can run it.
         FlowConnector flowConnector = new FlowConnector(HadoopUtils.getDefaultProperties(SiteCrawler.class, debug, conf));
-        return flowConnector.connect(inputSource, sinkMap, fetchPipe.getContentTailPipe(), parsePipe.getTailPipe(), urlPipe);
+        return flowConnector.connect(inputSource, sinkMap, fetchPipe.getContentTailPipe(), fetchPipe.getParseTailPipe(), dedupPipe.getDuplicatesTailPipe(), urlPipe, robotsPrefetchPipe.getTailPipe(), newRedirectsPipe);
 			
 	}
 
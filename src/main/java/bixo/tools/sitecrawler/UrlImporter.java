@@ -12,6 +12,7 @@ import org.apache.log4j.Logger;
 import bixo.cascading.NullContext;
 import bixo.datum.UrlDatum;
 import bixo.hadoop.HadoopUtils;
+import bixo.urldb.RevisitScheduler;
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
 import cascading.flow.FlowProcess;
@@ -47,6 +48,7 @@ public class UrlImporter {
                     
                     UrlDatum urlDatum = new UrlDatum(urlAsString);
                     urlDatum.addMetaDataValue("crawl-depth", new Integer(0));
+                    RevisitScheduler.resetMetaData(urlDatum.getMetaDataMap());
 
                     funcCall.getOutputCollector().add(urlDatum.toTuple());
                 } catch (MalformedURLException e) {
@@ -80,6 +82,7 @@ public class UrlImporter {
 
             UrlDatum datum = new UrlDatum("http://" + targetDomain);
             datum.addMetaDataValue("crawl-depth", new Integer(0));
+            RevisitScheduler.resetMetaData(datum.getMetaDataMap());
 
             writer.add(datum.toTuple());
             writer.close();
@@ -119,6 +122,7 @@ public class UrlImporter {
                 writer = urlSink.openForWrite(conf);
                 UrlDatum datum = new UrlDatum("http://" + targetDomain);
                 datum.addMetaDataValue("crawl-depth", new Integer(0));
+            RevisitScheduler.resetMetaData(datum.getMetaDataMap());
                 
                 writer.add(datum.toTuple());
                 writer.close();
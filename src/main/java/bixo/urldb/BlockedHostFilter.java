@@ -0,0 +1,53 @@
+package bixo.urldb;
+
+import java.io.File;
+import java.io.IOException;
+
+import bixo.datum.UrlDatum;
+import bixo.utils.HostSuffixSet;
+import bixo.utils.UrlSpans;
+
+/**
+ * Removes URLs whose host is in a (typically very large) blocklist, e.g. the adult
+ * domains found by ExtractDmozAdultDomains. The list is a HostSuffixSet file, which
+ * has to be on the local disk of every task (e.g. via the DistributedCache). It gets
+ * memory-mapped the first time the filter is used.
+ */
+@SuppressWarnings("serial")
+public class BlockedHostFilter implements IUrlFilter {
+
+    private String _blocklistPath;
+
+    private transient volatile HostSuffixSet _blockedHosts;
+
+    public BlockedHostFilter(String blocklistPath) {
+        _blocklistPath = blocklistPath;
+    }
+
+    @Override
+    public boolean isRemove(UrlDatum datum) {
+        String url = datum.getUrl();
+        UrlSpans spans = new UrlSpans();
+        if (!spans.parse(url)) {
+            return false;
+        }
+
+        return getBlockedHosts().contains(url, spans.getHostStart(), spans.getHostEnd());
+    }
+
+    private HostSuffixSet getBlockedHosts() {
+        if (_blockedHosts == null) {
+            synchronized (this) {
+                if (_blockedHosts == null) {
+                    try {
+                        _blockedHosts = HostSuffixSet.open(new File(_blocklistPath));
+                    } catch (IOException e) {
+                        throw new RuntimeException("Can't open host blocklist: " + _blocklistPath, e);
+                    }
+                }
+            }
+        }
+
+        return _blockedHosts;
+    }
+}
@@ -0,0 +1,639 @@
+package bixo.urldb;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Produces the same results as SimpleUrlNormalizer, but does the session id,
+ * relative path and default page processing with character-level scans versus
+ * regular expressions, and decodes/re-encodes URL components using re-usable
+ * buffers versus lots of temporary strings.
+ *
+ * Because of the re-used buffers, an instance of this class must not be shared
+ * between threads.
+ */
+@SuppressWarnings("serial")
+public class FastUrlNormalizer implements IUrlNormalizer {
+    private static final Logger LOGGER = Logger.getLogger(FastUrlNormalizer.class);
+
+    // See SimpleUrlNormalizer for why these are the reserved chars.
+    private static final String RESERVED_QUERY_CHARS = "%&;=:?#";
+    private static final String RESERVED_PATH_CHARS = "%/?#";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char LINE_SEPARATOR = (char)0x2028;
+    private static final char PARAGRAPH_SEPARATOR = (char)0x2029;
+
+    // Session id parameter names, with optional prefixes, in the order SimpleUrlNormalizer tries them.
+    private static final String[] SESSION_ID_PREFIXES = { "l", "j", "bv_", "" };
+    private static final String[] SESSION_ID_NAMES = { "sid", "phpsessid", "sessionid", "session_id" };
+
+    private static final String[] DEFAULT_PAGE_NAMES = { "index", "default" };
+
+    private boolean _treatRefAsQuery;
+
+    private transient StringBuilder _pathBuffer;
+    private transient StringBuilder _decodeBuffer;
+    private transient StringBuilder _resultBuffer;
+    private transient int[] _segmentStarts;
+    private transient byte[] _bytes;
+
+    public FastUrlNormalizer() {
+        this(false);
+    }
+
+    public FastUrlNormalizer(boolean treatRefAsQuery) {
+        _treatRefAsQuery = treatRefAsQuery;
+    }
+
+    public String normalize(String url) {
+        String result = url.trim();
+
+        // First see if there is any protocol - if not, append http:// by default.
+        if (result.indexOf("://") == -1) {
+            result = "http://" + result;
+        }
+
+        // Get rid of session ids first, as they can come before the query (e.g. ;jsessionid=xxx)
+        result = removeSessionId(result);
+
+        URL testUrl;
+
+        try {
+            String decodedUrl = result.replace("+", "%20");
+            testUrl = new URL(decodedUrl);
+            url = testUrl.toExternalForm();
+        } catch (MalformedURLException e) {
+            LOGGER.debug("Malformed URL being returned without further processing: " + result);
+            return result;
+        }
+
+        // Don't do additional special processing for anything other than http/https protocols.
+        String protocol = testUrl.getProtocol().toLowerCase();
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            return result;
+        }
+
+        String hostname = testUrl.getHost().toLowerCase();
+        if (hostname.endsWith(".")) {
+            hostname = hostname.substring(0, hostname.length() - 1);
+        }
+
+        int port = testUrl.getPort();
+        if (port == testUrl.getDefaultPort()) {
+            port = -1;
+        }
+
+        // IPv6 addresses need the URL class to handle adding brackets.
+        if (hostname.indexOf(':') != -1) {
+            return normalizeWithUrl(result, protocol, hostname, port, testUrl, url);
+        }
+
+        StringBuilder out = getResultBuffer();
+        out.append(protocol);
+        out.append(':');
+        if ((hostname.length() > 0) || (port != -1)) {
+            out.append("//");
+            out.append(hostname);
+            if (port != -1) {
+                out.append(':');
+                out.append(port);
+            }
+        }
+
+        appendPath(testUrl.getPath(), out);
+        appendQueryAndAnchor(testUrl, url, out);
+        return out.toString();
+    }
+
+    private String normalizeWithUrl(String result, String protocol, String hostname, int port, URL testUrl, String url) {
+        StringBuilder file = new StringBuilder();
+        appendPath(testUrl.getPath(), file);
+        appendQueryAndAnchor(testUrl, url, file);
+
+        try {
+            return new URL(protocol, hostname, port, file.toString()).toExternalForm();
+        } catch (MalformedURLException e) {
+            LOGGER.error("Unexpected exception during normalization: " + e);
+            return result;
+        }
+    }
+
+    private void appendQueryAndAnchor(URL testUrl, String url, StringBuilder out) {
+        // See SimpleUrlNormalizer for why we sometimes treat the anchor as a query.
+        String query = testUrl.getQuery();
+        String anchor = testUrl.getRef();
+
+        int pos = url.indexOf("#" + anchor);
+        if (_treatRefAsQuery && (anchor != null) && (query == null) && (pos != -1) && (url.charAt(pos - 1) == '/')) {
+            out.append('#');
+            appendQuery(anchor, out);
+        } else if (query != null) {
+            int queryStart = out.length();
+            out.append('?');
+            appendQuery(query, out);
+            if (out.length() == queryStart + 1) {
+                out.setLength(queryStart);
+            }
+        }
+    }
+
+    /**
+     * Remove the first thing that looks like a session id (e.g. ";jsessionid=xxx"),
+     * up to but not including the following '?', '&' or '#'.
+     */
+    private String removeSessionId(String url) {
+        int len = url.length();
+        for (int start = 0; start < len; start++) {
+            char c = url.charAt(start);
+            int end = -1;
+            if ((c == ';') || (c == '_')) {
+                end = matchSessionId(url, start + 1);
+            }
+
+            if (end == -1) {
+                end = matchSessionId(url, start);
+            }
+
+            if (end != -1) {
+                return url.substring(0, start) + url.substring(end);
+            }
+        }
+
+        return url;
+    }
+
+    private int matchSessionId(String url, int pos) {
+        for (String prefix : SESSION_ID_PREFIXES) {
+            if (!regionMatchesAscii(url, pos, prefix)) {
+                continue;
+            }
+
+            int namePos = pos + prefix.length();
+            for (String name : SESSION_ID_NAMES) {
+                int valuePos = namePos + name.length();
+                if (regionMatchesAscii(url, namePos, name) && (valuePos < url.length()) && (url.charAt(valuePos) == '=')) {
+                    int end = findSessionIdEnd(url, valuePos + 1);
+                    if (end != -1) {
+                        return end;
+                    }
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    private int findSessionIdEnd(String url, int pos) {
+        int len = url.length();
+        for (int i = pos; i <= len; i++) {
+            if (isEndOfInput(url, i)) {
+                return i;
+            }
+
+            char c = url.charAt(i);
+            if ((c == '?') || (c == '&') || (c == '#')) {
+                return i;
+            } else if (isLineTerminator(c)) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Append the normalized version of <path> to <out>. This resolves "/xx/../"
+     * sequences, removes any default page, removes empty path segments, and
+     * decodes/re-encodes each path segment.
+     */
+    private void appendPath(String path, StringBuilder out) {
+        StringBuilder resolved = resolveRelativePath(path);
+        removeDefaultPage(resolved);
+
+        int pathStart = out.length();
+        int len = resolved.length();
+        int segStart = 0;
+        for (int i = 0; i <= len; i++) {
+            if ((i == len) || (resolved.charAt(i) == '/')) {
+                if (i > segStart) {
+                    out.append('/');
+                    appendComponent(resolved, segStart, i, RESERVED_PATH_CHARS, out);
+                }
+
+                segStart = i + 1;
+            }
+        }
+
+        if (out.length() == pathStart) {
+            out.append('/');
+        } else if ((len > 0) && (resolved.charAt(len - 1) == '/') && (out.charAt(out.length() - 1) != '/')) {
+            // Preserve state of final / in path
+            out.append('/');
+        }
+    }
+
+    /**
+     * Remove "/xx/../" sequences (where xx isn't empty or all dots), along with any
+     * leading "/../" sequences, in one pass by keeping track of where each path
+     * segment starts.
+     */
+    private StringBuilder resolveRelativePath(String path) {
+        StringBuilder result = getPathBuffer();
+        int len = path.length();
+
+        // Anything before the first '/' can't be part of a relative path.
+        int firstSlash = path.indexOf('/');
+        if (firstSlash == -1) {
+            result.append(path);
+            return result;
+        }
+
+        result.append(path, 0, firstSlash);
+        boolean hasPrefix = firstSlash > 0;
+
+        int[] segmentStarts = getSegmentStarts(len);
+        int numSegments = 0;
+
+        int segStart = firstSlash;
+        while (segStart < len) {
+            int segEnd = path.indexOf('/', segStart + 1);
+            if (segEnd == -1) {
+                segEnd = len;
+            }
+
+            boolean isParent = (segEnd - segStart == 3) && (path.charAt(segStart + 1) == '.') && (path.charAt(segStart + 2) == '.');
+            boolean hasTrailingSlash = segEnd < len;
+
+            if (isParent && hasTrailingSlash) {
+                if ((numSegments > 0) && isRemovableSegment(result, segmentStarts[numSegments - 1])) {
+                    numSegments -= 1;
+                    result.setLength(segmentStarts[numSegments]);
+                    segStart = segEnd;
+                    continue;
+                } else if ((numSegments == 0) && !hasPrefix) {
+                    // Leading "/../" gets removed, and so does any immediately following "//../"
+                    segStart = segEnd;
+                    while (path.startsWith("//../", segStart)) {
+                        segStart += 4;
+                    }
+                    
+                    continue;
+                }
+            }
+
+            segmentStarts[numSegments++] = result.length();
+            result.append(path, segStart, segEnd);
+            segStart = segEnd;
+        }
+
+        return result;
+    }
+
+    // A segment (which starts with '/') can be removed by a following "/../"
+    // if it has at least one char that isn't a '.'
+    private static boolean isRemovableSegment(StringBuilder path, int segStart) {
+        for (int i = segStart + 1; i < path.length(); i++) {
+            if (path.charAt(i) != '.') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Replace the first thing that looks like "/index.html" (followed by '?', '&', '#'
+     * or the end of the path) with "/".
+     */
+    private static void removeDefaultPage(StringBuilder path) {
+        int len = path.length();
+        for (int start = 0; start < len; start++) {
+            if (path.charAt(start) != '/') {
+                continue;
+            }
+
+            for (String name : DEFAULT_PAGE_NAMES) {
+                int dotPos = start + 1 + name.length();
+                if (regionMatchesAscii(path, start + 1, name) && (dotPos < len) && (path.charAt(dotPos) == '.')) {
+                    int end = matchDefaultPageExtension(path, dotPos + 1);
+                    if (end != -1) {
+                        path.replace(start, end, "/");
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the end of a default page extension (e.g. "html", "jsp", "php3") that
+     * starts at <pos> and is followed by '?', '&', '#' or the end of the path, or -1
+     * if there isn't one.
+     */
+    private static int matchDefaultPageExtension(CharSequence path, int pos) {
+        int len = path.length();
+
+        // js[pf][afx]?
+        if (regionMatchesAscii(path, pos, "js") && (pos + 2 < len) && isOneOf(path.charAt(pos + 2), "pf")) {
+            int end = pos + 3;
+            if ((end < len) && isOneOf(path.charAt(end), "afx") && isDefaultPageEnd(path, end + 1)) {
+                return end + 1;
+            } else if (isDefaultPageEnd(path, end)) {
+                return end;
+            }
+        }
+
+        // cgi|cfm
+        if ((regionMatchesAscii(path, pos, "cgi") || regionMatchesAscii(path, pos, "cfm")) && isDefaultPageEnd(path, pos + 3)) {
+            return pos + 3;
+        }
+
+        // asp[x]?
+        if (regionMatchesAscii(path, pos, "asp")) {
+            if (regionMatchesAscii(path, pos + 3, "x") && isDefaultPageEnd(path, pos + 4)) {
+                return pos + 4;
+            } else if (isDefaultPageEnd(path, pos + 3)) {
+                return pos + 3;
+            }
+        }
+
+        // [psx]?htm[l]?
+        if ((pos < len) && isOneOf(path.charAt(pos), "psx")) {
+            int end = matchHtm(path, pos + 1);
+            if (end != -1) {
+                return end;
+            }
+        }
+
+        int end = matchHtm(path, pos);
+        if (end != -1) {
+            return end;
+        }
+
+        // php[3456]?
+        if (regionMatchesAscii(path, pos, "php")) {
+            if ((pos + 3 < len) && isOneOf(path.charAt(pos + 3), "3456") && isDefaultPageEnd(path, pos + 4)) {
+                return pos + 4;
+            } else if (isDefaultPageEnd(path, pos + 3)) {
+                return pos + 3;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int matchHtm(CharSequence path, int pos) {
+        if (!regionMatchesAscii(path, pos, "htm")) {
+            return -1;
+        } else if (regionMatchesAscii(path, pos + 3, "l") && isDefaultPageEnd(path, pos + 4)) {
+            return pos + 4;
+        } else if (isDefaultPageEnd(path, pos + 3)) {
+            return pos + 3;
+        } else {
+            return -1;
+        }
+    }
+
+    private static boolean isDefaultPageEnd(CharSequence path, int pos) {
+        if (isEndOfInput(path, pos)) {
+            return true;
+        }
+
+        char c = path.charAt(pos);
+        return (c == '?') || (c == '&') || (c == '#');
+    }
+
+    /**
+     * Append the normalized version of <query> to <out>. Empty query parameters are
+     * removed, and each key and value is decoded then re-encoded.
+     */
+    private void appendQuery(String query, StringBuilder out) {
+        int queryStart = out.length();
+        int len = query.length();
+        int partStart = 0;
+        for (int i = 0; i <= len; i++) {
+            if ((i == len) || (query.charAt(i) == '&')) {
+                if (i > partStart) {
+                    if (out.length() > queryStart) {
+                        out.append('&');
+                    }
+
+                    int kvStart = partStart;
+                    for (int j = partStart; j <= i; j++) {
+                        if ((j == i) || (query.charAt(j) == '=')) {
+                            appendComponent(query, kvStart, j, RESERVED_QUERY_CHARS, out);
+                            if (j < i) {
+                                out.append('=');
+                            }
+
+                            kvStart = j + 1;
+                        }
+                    }
+                }
+
+                partStart = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Decode the URL component in <src> between <start> and <end>, and then append
+     * the re-encoded result to <out>.
+     */
+    private void appendComponent(CharSequence src, int start, int end, String reservedChars, StringBuilder out) {
+        StringBuilder decoded = decodeComponent(src, start, end);
+
+        int len = decoded.length();
+        for (int i = 0; i < len; ) {
+            int codePoint = Character.codePointAt(decoded, i);
+            if (codePoint == 0x0020) {
+                out.append('+');
+            } else if (codePoint >= 0x007F) {
+                appendUtf8Escaped(codePoint, out);
+            } else if ((codePoint < 0x0020) || (reservedChars.indexOf((char)codePoint) != -1)) {
+                appendEscaped(codePoint, out);
+            } else {
+                out.append((char)codePoint);
+            }
+
+            i += Character.charCount(codePoint);
+        }
+    }
+
+    /**
+     * Decode the URL component in <src> between <start> and <end>. Like
+     * URLDecoder, '+' becomes a space and runs of %xx escapes are decoded as
+     * UTF-8 bytes. A '%' that isn't followed by two hex digits is treated as a
+     * literal '%'.
+     */
+    private StringBuilder decodeComponent(CharSequence src, int start, int end) {
+        StringBuilder result = getDecodeBuffer();
+
+        int i = start;
+        while (i < end) {
+            char c = src.charAt(i);
+            if (c == '+') {
+                result.append(' ');
+                i += 1;
+            } else if (c == '%') {
+                byte[] bytes = getBytes(end - i);
+                int numBytes = 0;
+                while ((i < end) && (src.charAt(i) == '%')) {
+                    int hi = (i + 2 < end) ? hexValue(src.charAt(i + 1)) : -1;
+                    int lo = (hi != -1) ? hexValue(src.charAt(i + 2)) : -1;
+                    if (lo != -1) {
+                        bytes[numBytes++] = (byte)((hi << 4) + lo);
+                        i += 3;
+                    } else {
+                        bytes[numBytes++] = '%';
+                        i += 1;
+                    }
+                }
+
+                result.append(new String(bytes, 0, numBytes, UTF_8));
+            } else {
+                result.append(c);
+                i += 1;
+            }
+        }
+
+        return result;
+    }
+
+    private static void appendUtf8Escaped(int codePoint, StringBuilder out) {
+        if ((codePoint >= Character.MIN_SURROGATE) && (codePoint <= Character.MAX_SURROGATE)) {
+            // Unpaired surrogates get converted to '?' when encoded.
+            appendEscaped('?', out);
+        } else if (codePoint < 0x800) {
+            appendEscaped(0xC0 | (codePoint >> 6), out);
+            appendEscaped(0x80 | (codePoint & 0x3F), out);
+        } else if (codePoint < 0x10000) {
+            appendEscaped(0xE0 | (codePoint >> 12), out);
+            appendEscaped(0x80 | ((codePoint >> 6) & 0x3F), out);
+            appendEscaped(0x80 | (codePoint & 0x3F), out);
+        } else {
+            appendEscaped(0xF0 | (codePoint >> 18), out);
+            appendEscaped(0x80 | ((codePoint >> 12) & 0x3F), out);
+            appendEscaped(0x80 | ((codePoint >> 6) & 0x3F), out);
+            appendEscaped(0x80 | (codePoint & 0x3F), out);
+        }
+    }
+
+    private static void appendEscaped(int value, StringBuilder out) {
+        out.append('%');
+        out.append(HEX_DIGITS[(value >> 4) & 0x0F]);
+        out.append(HEX_DIGITS[value & 0x0F]);
+    }
+
+    private static int hexValue(char c) {
+        if ((c >= '0') && (c <= '9')) {
+            return c - '0';
+        } else if ((c >= 'a') && (c <= 'f')) {
+            return 0xa + (c - 'a');
+        } else if ((c >= 'A') && (c <= 'F')) {
+            return 0xA + (c - 'A');
+        } else {
+            return -1;
+        }
+    }
+
+    private static boolean isOneOf(char c, String lowerCaseChars) {
+        return lowerCaseChars.indexOf(toLowerAscii(c)) != -1;
+    }
+
+    // Case-insensitive match that (like Pattern's (?i) flag) only folds ASCII chars.
+    private static boolean regionMatchesAscii(CharSequence s, int offset, String lowerCaseTarget) {
+        int targetLen = lowerCaseTarget.length();
+        if (offset + targetLen > s.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < targetLen; i++) {
+            if (toLowerAscii(s.charAt(offset + i)) != lowerCaseTarget.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static char toLowerAscii(char c) {
+        return ((c >= 'A') && (c <= 'Z')) ? (char)(c + ('a' - 'A')) : c;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return (c == '\n') || (c == '\r') || (c == '\u0085') || (c == LINE_SEPARATOR) || (c == PARAGRAPH_SEPARATOR);
+    }
+
+    /**
+     * Same logic as the regex '$', which matches at the end of the input or before
+     * a final line terminator.
+     */
+    private static boolean isEndOfInput(CharSequence s, int pos) {
+        int len = s.length();
+        if (pos == len) {
+            return true;
+        } else if (pos == len - 2) {
+            return (s.charAt(pos) == '\r') && (s.charAt(pos + 1) == '\n');
+        } else if (pos == len - 1) {
+            char c = s.charAt(pos);
+            if (c == '\n') {
+                return (pos == 0) || (s.charAt(pos - 1) != '\r');
+            } else {
+                return isLineTerminator(c);
+            }
+        } else {
+            return false;
+        }
+    }
+
+    private StringBuilder getPathBuffer() {
+        if (_pathBuffer == null) {
+            _pathBuffer = new StringBuilder();
+        }
+
+        _pathBuffer.setLength(0);
+        return _pathBuffer;
+    }
+
+    private StringBuilder getDecodeBuffer() {
+        if (_decodeBuffer == null) {
+            _decodeBuffer = new StringBuilder();
+        }
+
+        _decodeBuffer.setLength(0);
+        return _decodeBuffer;
+    }
+
+    private StringBuilder getResultBuffer() {
+        if (_resultBuffer == null) {
+            _resultBuffer = new StringBuilder();
+        }
+
+        _resultBuffer.setLength(0);
+        return _resultBuffer;
+    }
+
+    private int[] getSegmentStarts(int pathLength) {
+        if ((_segmentStarts == null) || (_segmentStarts.length < pathLength)) {
+            _segmentStarts = new int[Math.max(64, pathLength)];
+        }
+
+        return _segmentStarts;
+    }
+
+    private byte[] getBytes(int numBytes) {
+        if ((_bytes == null) || (_bytes.length < numBytes)) {
+            _bytes = new byte[Math.max(256, numBytes)];
+        }
+
+        return _bytes;
+    }
+}
@@ -0,0 +1,331 @@
+package bixo.urldb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.datum.BaseDatum;
+import bixo.datum.UrlDatum;
+import bixo.hadoop.HadoopConfigured;
+import bixo.hadoop.HadoopUtils;
+import bixo.operations.MergeUrlDbBuffer;
+import bixo.utils.TimeStampUtils;
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Hfs;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * A URL DB that's split into a fixed number of partitions by URL hash, where
+ * each partition file is sorted by URL.
+ *
+ * Merging in a set of new/updated URLs only shuffles the (small) delta. Each reducer
+ * gets one partition's worth of new URLs, and does a streaming merge with the existing
+ * partition file (see MergeUrlDbBuffer). Partitions that don't have any new URLs are
+ * carried forward untouched.
+ *
+ * Currently this is only used by UrlImporter.importUrls(inputPath, workingFolder, numPartitions).
+ * The SiteCrawler loop keeps its URL DB in an HSQLDB table (see BixoJDBCTapFactory), and
+ * UrlDbPipe still runs every URL it's given through a GroupBy, so the per-loop merge cost
+ * for those hasn't changed.
+ *
+ * The partition count and layout version are saved in a LAYOUT_FILE_NAME file next to
+ * the partitions, and merging into a URL DB without a matching layout file fails, since
+ * its files can't be assumed to be hashed & sorted the same way.
+ *
+ */
+public class PartitionedUrlDb extends HadoopConfigured {
+    private static final Logger LOGGER = Logger.getLogger(PartitionedUrlDb.class);
+
+    public static final String PARTITION_FIELD = BaseDatum.fieldName(PartitionedUrlDb.class, "partition");
+
+    // Starts with '_' so that it's skipped when the URL DB is read as a whole.
+    public static final String LAYOUT_FILE_NAME = "_layout";
+
+    public static final int LAYOUT_VERSION = 1;
+
+    private static final String PARTITION_PREFIX = "part-";
+
+    @SuppressWarnings("serial")
+    private static class AddPartitionFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+        private int _numPartitions;
+
+        public AddPartitionFunction(int numPartitions) {
+            super(new Fields(PARTITION_FIELD));
+
+            _numPartitions = numPartitions;
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            String url = funcCall.getArguments().getString(UrlDatum.URL_FIELD);
+            funcCall.getOutputCollector().add(new Tuple(getPartition(url, _numPartitions)));
+        }
+    }
+
+    private int _numPartitions;
+    private Fields _metaDataFields;
+
+    public PartitionedUrlDb(int numPartitions, Fields metaDataFields) {
+        if (numPartitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be at least 1: " + numPartitions);
+        }
+
+        _numPartitions = numPartitions;
+        _metaDataFields = metaDataFields;
+    }
+
+    public static int getPartition(String url, int numPartitions) {
+        return (url.hashCode() & Integer.MAX_VALUE) % numPartitions;
+    }
+
+    public static String makePartitionName(int partition) {
+        return String.format("%s%05d", PARTITION_PREFIX, partition);
+    }
+
+    /**
+     * Merge the UrlDatums from <deltaSource> into the URL DB at <dbPath>. If
+     * there's no existing URL DB then one is created.
+     *
+     * The new URL DB is completely built in a separate directory before replacing the
+     * existing one, so a failure never leaves <dbPath> with only some of its partitions.
+     *
+     * @param deltaSource UrlDatums (plus meta-data) to merge in
+     * @param dbPath location of the partitioned URL DB
+     * @throws IOException
+     */
+    public void merge(Tap deltaSource, String dbPath) throws IOException {
+        FileSystem fs = getFileSystem(dbPath);
+        Path currentDb = new Path(dbPath);
+        boolean dbExists = fs.exists(currentDb);
+        if (dbExists) {
+            checkLayout(fs, currentDb);
+        }
+
+        String timestamp = TimeStampUtils.nowWithUnderLine();
+        Path mergeDb = new Path(dbPath + "-merged-" + timestamp);
+        Path newDb = new Path(dbPath + "-new-" + timestamp);
+        Path oldDb = new Path(dbPath + "-old-" + timestamp);
+
+        Fields dbFields = UrlDatum.FIELDS.append(_metaDataFields);
+        Tap mergeSink = new Hfs(new SequenceFile(dbFields), mergeDb.toUri().toASCIIString(), true);
+
+        Pipe pipe = new Pipe("urldb-merge");
+        pipe = new Each(pipe, new AddPartitionFunction(_numPartitions), Fields.ALL);
+        pipe = new GroupBy(pipe, new Fields(PARTITION_FIELD), new Fields(UrlDatum.URL_FIELD));
+        String oldDbPath = dbExists ? currentDb.toUri().toASCIIString() : null;
+        pipe = new Every(pipe, dbFields, new MergeUrlDbBuffer(oldDbPath, _metaDataFields), Fields.RESULTS);
+
+        JobConf conf = HadoopUtils.getDefaultJobConf();
+        boolean isLocal = HadoopUtils.isJobLocal(conf);
+        if (!isLocal) {
+            conf.setNumReduceTasks(_numPartitions);
+        }
+
+        FlowConnector flowConnector = new FlowConnector(HadoopUtils.getDefaultProperties(PartitionedUrlDb.class, false, conf));
+        Flow flow = flowConnector.connect(deltaSource, mergeSink, pipe);
+        flow.complete();
+
+        // Now turn the reducer output files into partition files.
+        fs.mkdirs(newDb);
+        Set<Integer> mergedPartitions = new HashSet<Integer>();
+        for (FileStatus status : listPartFiles(fs, mergeDb)) {
+            if (isLocal) {
+                splitPartitions(fs, status.getPath(), newDb, mergedPartitions, conf);
+            } else {
+                renamePartition(fs, status.getPath(), newDb, mergedPartitions, conf);
+            }
+        }
+
+        LOGGER.info(String.format("Merged %d of %d URL DB partitions", mergedPartitions.size(), _numPartitions));
+
+        if (dbExists) {
+            // Carry forward partitions that didn't have any new URLs. These are copied, versus
+            // moved, so that the current URL DB stays complete until it's replaced.
+            for (FileStatus status : listPartFiles(fs, currentDb)) {
+                Path partition = status.getPath();
+                Path newPartition = new Path(newDb, partition.getName());
+                if (!fs.exists(newPartition) && !FileUtil.copy(fs, partition, fs, newPartition, false, conf)) {
+                    throw new IOException("Unable to copy URL DB partition " + partition + " to " + newPartition);
+                }
+            }
+        }
+
+        writeLayout(fs, newDb);
+        fs.delete(mergeDb, true);
+
+        // Swap in the new URL DB. If the second rename fails, put the old one back.
+        if (dbExists) {
+            rename(fs, currentDb, oldDb);
+            
+            if (!fs.rename(newDb, currentDb)) {
+                rename(fs, oldDb, currentDb);
+                throw new IOException("Unable to rename " + newDb + " to " + currentDb);
+            }
+            
+            fs.delete(oldDb, true);
+        } else {
+            rename(fs, newDb, currentDb);
+        }
+    }
+
+    private void writeLayout(FileSystem fs, Path dbDir) throws IOException {
+        DataOutputStream out = fs.create(new Path(dbDir, LAYOUT_FILE_NAME), true);
+        try {
+            out.writeInt(LAYOUT_VERSION);
+            out.writeInt(_numPartitions);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void checkLayout(FileSystem fs, Path dbDir) throws IOException {
+        Path layoutFile = new Path(dbDir, LAYOUT_FILE_NAME);
+        if (!fs.exists(layoutFile)) {
+            throw new IllegalStateException("URL DB at " + dbDir + " isn't a partitioned URL DB (no " + LAYOUT_FILE_NAME + " file)");
+        }
+
+        DataInputStream in = fs.open(layoutFile);
+        try {
+            int version = in.readInt();
+            if (version != LAYOUT_VERSION) {
+                throw new IllegalStateException(String.format("URL DB at %s has layout version %d, expected %d", dbDir, version, LAYOUT_VERSION));
+            }
+
+            int numPartitions = in.readInt();
+            if (numPartitions != _numPartitions) {
+                throw new IllegalStateException(String.format("URL DB at %s has %d partitions, expected %d", dbDir, numPartitions, _numPartitions));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void rename(FileSystem fs, Path src, Path dst) throws IOException {
+        if (!fs.rename(src, dst)) {
+            throw new IOException("Unable to rename " + src + " to " + dst);
+        }
+    }
+
+    private void renamePartition(FileSystem fs, Path partFile, Path newDb, Set<Integer> mergedPartitions, JobConf conf) throws IOException {
+        Tap partTap = new Hfs(new SequenceFile(UrlDatum.FIELDS.append(_metaDataFields)), partFile.toUri().toASCIIString());
+        TupleEntryIterator iter = partTap.openForRead(conf);
+
+        String firstUrl = null;
+        try {
+            if (iter.hasNext()) {
+                firstUrl = iter.next().getString(UrlDatum.URL_FIELD);
+            }
+        } finally {
+            iter.close();
+        }
+
+        if (firstUrl == null) {
+            // Reducer didn't get any partitions.
+            return;
+        }
+
+        int partition = getPartition(firstUrl, _numPartitions);
+        if (!mergedPartitions.add(partition)) {
+            throw new IllegalStateException("More than one reducer output file for partition " + partition);
+        }
+
+        rename(fs, partFile, new Path(newDb, makePartitionName(partition)));
+    }
+
+    /**
+     * With a local job we only get one reducer, so all partitions wind up in a single
+     * output file. Since the output was grouped by partition, we can split it up by
+     * streaming through it once.
+     */
+    private void splitPartitions(FileSystem fs, Path partFile, Path newDb, Set<Integer> mergedPartitions, JobConf conf) throws IOException {
+        Fields dbFields = UrlDatum.FIELDS.append(_metaDataFields);
+        Tap partTap = new Hfs(new SequenceFile(dbFields), partFile.toUri().toASCIIString());
+        TupleEntryIterator iter = partTap.openForRead(conf);
+
+        int curPartition = -1;
+        Path curPath = null;
+        TupleEntryCollector writer = null;
+
+        try {
+            while (iter.hasNext()) {
+                TupleEntry entry = iter.next();
+                int partition = getPartition(entry.getString(UrlDatum.URL_FIELD), _numPartitions);
+                if (partition != curPartition) {
+                    if (writer != null) {
+                        writer.close();
+                        movePartition(fs, curPath, newDb, curPartition);
+                    }
+
+                    if (!mergedPartitions.add(partition)) {
+                        throw new IllegalStateException("Output for partition " + partition + " isn't contiguous");
+                    }
+
+                    curPartition = partition;
+                    curPath = new Path(newDb, "tmp-" + makePartitionName(partition));
+                    writer = new Hfs(new SequenceFile(dbFields), curPath.toUri().toASCIIString(), true).openForWrite(conf);
+                }
+
+                writer.add(entry);
+            }
+
+            if (writer != null) {
+                writer.close();
+                writer = null;
+                movePartition(fs, curPath, newDb, curPartition);
+            }
+        } finally {
+            iter.close();
+
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private void movePartition(FileSystem fs, Path tmpDir, Path newDb, int partition) throws IOException {
+        FileStatus[] partFiles = listPartFiles(fs, tmpDir);
+        if (partFiles.length != 1) {
+            throw new IllegalStateException("Expected one file for partition " + partition + ", got " + partFiles.length);
+        }
+
+        rename(fs, partFiles[0].getPath(), new Path(newDb, makePartitionName(partition)));
+        fs.delete(tmpDir, true);
+    }
+
+    private static FileStatus[] listPartFiles(FileSystem fs, Path dir) throws IOException {
+        FileStatus[] files = fs.listStatus(dir, new PathFilter() {
+
+            public boolean accept(Path path) {
+                return path.getName().startsWith(PARTITION_PREFIX);
+            }
+        });
+
+        return files == null ? new FileStatus[0] : files;
+    }
+}
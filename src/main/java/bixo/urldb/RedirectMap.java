@@ -0,0 +1,198 @@
+package bixo.urldb;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+import bixo.datum.BaseDatum;
+import bixo.utils.UrlFingerprint;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+/**
+ * Map from (the fingerprint of) URLs that were permanently redirected, to the final URL
+ * that they redirect to. This is used to rewrite URLs before they get into the URL DB, so
+ * that we don't keep paying for the same 301 every loop, or keep adding duplicate URLs.
+ *
+ * The map is saved as a file of fingerprint/target URL pairs (see FIELDS), sorted by
+ * fingerprint, and loaded into memory as two parallel arrays. Since the key is a fingerprint,
+ * a (very rare) collision would rewrite a URL that wasn't actually redirected.
+ *
+ * Chains of redirects are collapsed, so every entry points at the end of its chain.
+ * Entries that are part of a loop are dropped.
+ *
+ * Tasks shouldn't get the map as part of an operation, since it would be serialized into
+ * the JobConf. Instead, write it to a single file (see write(DataOutput)) that's made
+ * available to each task (e.g. via the DistributedCache), and load it with readFile().
+ */
+public class RedirectMap {
+    private static final Logger LOGGER = Logger.getLogger(RedirectMap.class);
+
+    public static final String FINGERPRINT_FIELD = BaseDatum.fieldName(RedirectMap.class, "fingerprint");
+    public static final String TARGET_URL_FIELD = BaseDatum.fieldName(RedirectMap.class, "targetUrl");
+
+    public static final Fields FIELDS = new Fields(FINGERPRINT_FIELD, TARGET_URL_FIELD);
+
+    // Longest chain of redirects we'll collapse, same as what a browser will typically follow.
+    private static final int MAX_REDIRECT_HOPS = 5;
+
+    private long[] _fingerprints;
+    private String[] _targets;
+
+    public RedirectMap() {
+        this(new long[0], new String[0]);
+    }
+
+    private RedirectMap(long[] fingerprints, String[] targets) {
+        _fingerprints = fingerprints;
+        _targets = targets;
+    }
+
+    public int size() {
+        return _fingerprints.length;
+    }
+
+    /**
+     * Return the final URL that <url> is permanently redirected to, or null if we
+     * don't know of a redirect for it.
+     */
+    public String getTarget(String url) {
+        int index = Arrays.binarySearch(_fingerprints, UrlFingerprint.make(url));
+        return (index < 0) ? null : _targets[index];
+    }
+
+    /**
+     * Return the final URL that <url> is permanently redirected to, or <url> if
+     * there isn't one.
+     */
+    public String rewrite(String url) {
+        String target = getTarget(url);
+        return (target == null) ? url : target;
+    }
+
+    /**
+     * Save the map to <sink>, which must use FIELDS.
+     */
+    public void write(Tap sink, JobConf conf) throws IOException {
+        TupleEntryCollector collector = sink.openForWrite(conf);
+
+        try {
+            for (int i = 0; i < _fingerprints.length; i++) {
+                collector.add(new Tuple(_fingerprints[i], _targets[i]));
+            }
+        } finally {
+            collector.close();
+        }
+    }
+
+    /**
+     * Save the map in a compact binary form, for use with read(DataInput).
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(_fingerprints.length);
+        for (int i = 0; i < _fingerprints.length; i++) {
+            out.writeLong(_fingerprints[i]);
+            Text.writeString(out, _targets[i]);
+        }
+    }
+
+    public static RedirectMap read(DataInput in) throws IOException {
+        int size = in.readInt();
+        long[] fingerprints = new long[size];
+        String[] targets = new String[size];
+        for (int i = 0; i < size; i++) {
+            fingerprints[i] = in.readLong();
+            targets[i] = Text.readString(in);
+        }
+
+        return new RedirectMap(fingerprints, targets);
+    }
+
+    public static RedirectMap readFile(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            RedirectMap result = read(in);
+            LOGGER.info(String.format("Loaded %d redirects from %s", result.size(), file));
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load a map from <sources>, each of which must contain FIELDS. If the same fingerprint
+     * is in more than one source, then the target from the last source wins, so newer
+     * redirects should come after older ones.
+     */
+    public static RedirectMap read(JobConf conf, Tap... sources) throws IOException {
+        Map<Long, String> redirects = new HashMap<Long, String>();
+
+        for (Tap source : sources) {
+            TupleEntryIterator iter = source.openForRead(conf);
+
+            try {
+                while (iter.hasNext()) {
+                    TupleEntry entry = iter.next();
+                    redirects.put(entry.getLong(FINGERPRINT_FIELD), entry.getString(TARGET_URL_FIELD));
+                }
+            } finally {
+                iter.close();
+            }
+        }
+
+        RedirectMap result = makeMap(redirects);
+        LOGGER.info(String.format("Loaded %d redirects (%d after collapsing chains)", redirects.size(), result.size()));
+        return result;
+    }
+
+    protected static RedirectMap makeMap(Map<Long, String> redirects) {
+        Map<Long, String> resolved = new HashMap<Long, String>(redirects.size());
+
+        for (Map.Entry<Long, String> entry : redirects.entrySet()) {
+            long fingerprint = entry.getKey();
+            String target = entry.getValue();
+            long targetFingerprint = UrlFingerprint.make(target);
+
+            for (int hops = 1; (hops < MAX_REDIRECT_HOPS) && (targetFingerprint != fingerprint) && redirects.containsKey(targetFingerprint); hops++) {
+                target = redirects.get(targetFingerprint);
+                targetFingerprint = UrlFingerprint.make(target);
+            }
+
+            // Skip loops (and chains that are too long), since there's no final location.
+            if ((targetFingerprint == fingerprint) || redirects.containsKey(targetFingerprint)) {
+                continue;
+            }
+
+            resolved.put(fingerprint, target);
+        }
+
+        long[] fingerprints = new long[resolved.size()];
+        int i = 0;
+        for (long fingerprint : resolved.keySet()) {
+            fingerprints[i++] = fingerprint;
+        }
+
+        Arrays.sort(fingerprints);
+        String[] targets = new String[fingerprints.length];
+        for (i = 0; i < fingerprints.length; i++) {
+            targets[i] = resolved.get(fingerprints[i]);
+        }
+
+        return new RedirectMap(fingerprints, targets);
+    }
+}
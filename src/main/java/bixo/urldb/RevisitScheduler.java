@@ -0,0 +1,185 @@
+package bixo.urldb;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import bixo.datum.BaseDatum;
+import cascading.tuple.Fields;
+
+/**
+ * Decides when previously fetched URLs should be fetched again, based on how often
+ * each page has changed in the past.
+ *
+ * The change history is kept in meta-data fields (see FIELDS) that travel with the URL
+ * through the URL DB and the fetch pipe. Each time a URL is fetched, update() compares the
+ * signature of the new content against the one from the previous fetch, and counts the
+ * check (and the change, if the signatures differ).
+ *
+ * Page changes are treated as a Poisson process. The change rate is estimated from n checks
+ * with X detected changes, where the average time between checks is I, as
+ * -ln((n - X + 0.5) / (n + 0.5)) / I (Cho & Garcia-Molina), which corrects for changes that
+ * were missed because a page changed more than once between checks. The predicted staleness
+ * of a URL is then the probability that it has changed since the last fetch, or
+ * 1 - exp(-rate * timeSinceFetch).
+ *
+ * To let the estimate adapt when a page's behavior changes, the history is halved once it
+ * has more than MAX_CHECKS checks.
+ */
+@SuppressWarnings({ "serial", "unchecked" })
+public class RevisitScheduler implements Serializable {
+
+    // Meta-data fields, which need to be part of the meta-data for every URL.
+    public static final String SIGNATURE_FIELD = "revisit-signature";
+    public static final String LAST_FETCHED_FIELD = "revisit-last-fetched";
+    public static final String NUM_CHECKS_FIELD = "revisit-checks";
+    public static final String NUM_CHANGES_FIELD = "revisit-changes";
+    public static final String CHECK_INTERVAL_FIELD = "revisit-interval";
+
+    public static final Fields FIELDS = BaseDatum.makeMetaDataFields(SIGNATURE_FIELD, LAST_FETCHED_FIELD,
+                    NUM_CHECKS_FIELD, NUM_CHANGES_FIELD, CHECK_INTERVAL_FIELD);
+
+    public static final int MAX_CHECKS = 32;
+
+    private static final long ONE_DAY = 24L * 60 * 60 * 1000;
+
+    // Change interval we assume for pages without any history.
+    public static final long DEFAULT_CHANGE_INTERVAL = 7 * ONE_DAY;
+
+    // Longest change interval we'll estimate, so that pages which haven't changed yet
+    // still get checked every so often.
+    public static final long DEFAULT_MAX_CHANGE_INTERVAL = 90 * ONE_DAY;
+
+    public static final double DEFAULT_MIN_STALENESS = 0.5;
+
+    private long _defaultChangeInterval;
+    private long _maxChangeInterval;
+    private double _minStaleness;
+
+    public RevisitScheduler() {
+        this(DEFAULT_CHANGE_INTERVAL, DEFAULT_MAX_CHANGE_INTERVAL, DEFAULT_MIN_STALENESS);
+    }
+
+    public RevisitScheduler(long defaultChangeInterval, long maxChangeInterval, double minStaleness) {
+        if ((defaultChangeInterval <= 0) || (maxChangeInterval < defaultChangeInterval)) {
+            throw new IllegalArgumentException("Change intervals must be > 0, and max >= default");
+        }
+
+        if ((minStaleness < 0.0) || (minStaleness > 1.0)) {
+            throw new IllegalArgumentException("Min staleness must be between 0 and 1");
+        }
+
+        _defaultChangeInterval = defaultChangeInterval;
+        _maxChangeInterval = maxChangeInterval;
+        _minStaleness = minStaleness;
+    }
+
+    public double getMinStaleness() {
+        return _minStaleness;
+    }
+
+    /**
+     * Set the revisit fields in <metaData> to their initial (no history) values.
+     */
+    public static void resetMetaData(Map<String, Comparable> metaData) {
+        metaData.put(SIGNATURE_FIELD, new Long(0));
+        metaData.put(LAST_FETCHED_FIELD, new Long(0));
+        metaData.put(NUM_CHECKS_FIELD, new Integer(0));
+        metaData.put(NUM_CHANGES_FIELD, new Integer(0));
+        metaData.put(CHECK_INTERVAL_FIELD, new Long(0));
+    }
+
+    /**
+     * Update the revisit fields in <metaData> for a fetch at <fetchTime> that returned
+     * content with <signature>.
+     */
+    public static void update(Map<String, Comparable> metaData, long fetchTime, long signature) {
+        long lastFetched = getLong(metaData, LAST_FETCHED_FIELD);
+        long lastSignature = getLong(metaData, SIGNATURE_FIELD);
+        int numChecks = (int)getLong(metaData, NUM_CHECKS_FIELD);
+        int numChanges = (int)getLong(metaData, NUM_CHANGES_FIELD);
+        long checkInterval = getLong(metaData, CHECK_INTERVAL_FIELD);
+
+        // We can only count it as a check if we have something to compare against.
+        if ((lastFetched > 0) && (lastSignature != 0) && (signature != 0) && (fetchTime > lastFetched)) {
+            numChecks += 1;
+            checkInterval += fetchTime - lastFetched;
+            if (signature != lastSignature) {
+                numChanges += 1;
+            }
+
+            if (numChecks > MAX_CHECKS) {
+                numChecks /= 2;
+                numChanges /= 2;
+                checkInterval /= 2;
+            }
+        }
+
+        metaData.put(SIGNATURE_FIELD, new Long(signature));
+        metaData.put(LAST_FETCHED_FIELD, new Long(fetchTime));
+        metaData.put(NUM_CHECKS_FIELD, new Integer(numChecks));
+        metaData.put(NUM_CHANGES_FIELD, new Integer(numChanges));
+        metaData.put(CHECK_INTERVAL_FIELD, new Long(checkInterval));
+    }
+
+    /**
+     * Return the time of the last successful fetch recorded in <metaData>, or 0 if the
+     * URL has never been fetched.
+     */
+    public static long getLastFetched(Map<String, Comparable> metaData) {
+        return getLong(metaData, LAST_FETCHED_FIELD);
+    }
+
+    /**
+     * Return the estimated number of changes per millisecond.
+     */
+    public double getChangeRate(Map<String, Comparable> metaData) {
+        long numChecks = getLong(metaData, NUM_CHECKS_FIELD);
+        long numChanges = Math.min(numChecks, getLong(metaData, NUM_CHANGES_FIELD));
+        long checkInterval = getLong(metaData, CHECK_INTERVAL_FIELD);
+        double minRate = 1.0 / _maxChangeInterval;
+
+        if ((numChecks == 0) || (checkInterval <= 0)) {
+            return 1.0 / _defaultChangeInterval;
+        }
+
+        double avgInterval = (double)checkInterval / numChecks;
+        double changesPerCheck = -Math.log((numChecks - numChanges + 0.5) / (numChecks + 0.5));
+        return Math.max(minRate, changesPerCheck / avgInterval);
+    }
+
+    /**
+     * Return the probability (0...1) that the URL has changed since it was last fetched,
+     * as of <now>. URLs that have never been fetched are always stale.
+     */
+    public double getStaleness(Map<String, Comparable> metaData, long lastFetched, long now) {
+        if (lastFetched <= 0) {
+            return 1.0;
+        }
+
+        long elapsed = Math.max(0, now - lastFetched);
+        return 1.0 - Math.exp(-getChangeRate(metaData) * elapsed);
+    }
+
+    /**
+     * Return true if the URL should be fetched (again), as of <now>.
+     */
+    public boolean isDue(Map<String, Comparable> metaData, long lastFetched, long now) {
+        return getStaleness(metaData, lastFetched, now) >= _minStaleness;
+    }
+
+    // Values can be null (no history), or strings when they've been read back from a DB.
+    private static long getLong(Map<String, Comparable> metaData, String fieldName) {
+        Object value = (metaData == null) ? null : metaData.get(fieldName);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number)value).longValue();
+        } else {
+            try {
+                return Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + fieldName + ": " + value);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package bixo.urldb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+import bixo.datum.UrlDatum;
+import bixo.utils.UrlSpans;
+
+/**
+ * Filter that applies an ordered list of include/exclude rules to each URL, where the
+ * first rule that matches decides whether the URL is kept. If no rule matches, the default
+ * is used.
+ *
+ * Rather than checking each rule in turn, the rules are compiled when the filter is created.
+ * Prefix rules go into a trie that's walked from the start of the URL, suffix rules into a
+ * trie walked backwards from the end, and host suffix rules into a trie walked backwards
+ * from the end of the host name. All regex rules are combined into a single pattern, so one
+ * find() tells us if any of them match. Only when that happens do individual regexes get
+ * checked, to find the first rule that matched.
+ *
+ * Prefix, suffix and host rules are case-insensitive. Regex rules can't use back-references,
+ * as the group numbers change when they're combined.
+ *
+ * Rules can be read from text, one per line, as "+" (keep) or "-" (remove), then the type
+ * and the value, e.g. "-suffix:.pdf" or "+host:domain.com". Blank lines and lines starting
+ * with '#' are ignored.
+ */
+@SuppressWarnings("serial")
+public class RuleUrlFilter implements IUrlFilter {
+    private static final Logger LOGGER = Logger.getLogger(RuleUrlFilter.class);
+
+    public enum RuleType {
+        PREFIX("prefix"),
+        SUFFIX("suffix"),
+        HOST_SUFFIX("host"),    // Host name is equal to, or a subdomain of, the value
+        REGEX("regex");         // Pattern is found anywhere in the URL
+
+        private String _name;
+
+        private RuleType(String name) {
+            _name = name;
+        }
+
+        public String getName() {
+            return _name;
+        }
+    }
+
+    public static class Rule implements Serializable {
+        private boolean _include;
+        private RuleType _type;
+        private String _value;
+
+        public Rule(boolean include, RuleType type, String value) {
+            if (value.length() == 0) {
+                throw new IllegalArgumentException("Rule value can't be empty");
+            }
+
+            _include = include;
+            _type = type;
+            _value = value;
+        }
+
+        public boolean isInclude() {
+            return _include;
+        }
+
+        public RuleType getType() {
+            return _type;
+        }
+
+        public String getValue() {
+            return _value;
+        }
+
+        /**
+         * Parse a rule in the text format, e.g. "-regex:\?.*sessionid=".
+         */
+        public static Rule parse(String ruleText) {
+            ruleText = ruleText.trim();
+            int colon = ruleText.indexOf(':');
+            if ((ruleText.length() < 2) || (colon == -1)) {
+                throw new IllegalArgumentException("Invalid rule: " + ruleText);
+            }
+
+            boolean include;
+            if (ruleText.charAt(0) == '+') {
+                include = true;
+            } else if (ruleText.charAt(0) == '-') {
+                include = false;
+            } else {
+                throw new IllegalArgumentException("Rule must start with + or -: " + ruleText);
+            }
+
+            String typeName = ruleText.substring(1, colon);
+            for (RuleType type : RuleType.values()) {
+                if (type.getName().equalsIgnoreCase(typeName)) {
+                    return new Rule(include, type, ruleText.substring(colon + 1));
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown rule type: " + ruleText);
+        }
+
+        @Override
+        public String toString() {
+            return (_include ? "+" : "-") + _type.getName() + ":" + _value;
+        }
+    }
+
+    // Trie of lower-cased rule values. Each node knows the index of the first rule that
+    // ends at that node, or Integer.MAX_VALUE if there isn't one.
+    private static class TrieNode implements Serializable {
+        private char[] _chars = new char[0];
+        private TrieNode[] _children = new TrieNode[0];
+        private int _ruleIndex = Integer.MAX_VALUE;
+
+        public TrieNode getChild(char c) {
+            for (int i = 0; i < _chars.length; i++) {
+                if (_chars[i] == c) {
+                    return _children[i];
+                }
+            }
+
+            return null;
+        }
+
+        public void add(String value, boolean reversed, int ruleIndex) {
+            TrieNode node = this;
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                char c = Character.toLowerCase(value.charAt(reversed ? length - 1 - i : i));
+                TrieNode child = node.getChild(c);
+                if (child == null) {
+                    child = new TrieNode();
+
+                    int numChildren = node._chars.length;
+                    char[] chars = new char[numChildren + 1];
+                    TrieNode[] children = new TrieNode[numChildren + 1];
+                    System.arraycopy(node._chars, 0, chars, 0, numChildren);
+                    System.arraycopy(node._children, 0, children, 0, numChildren);
+                    chars[numChildren] = c;
+                    children[numChildren] = child;
+                    node._chars = chars;
+                    node._children = children;
+                }
+
+                node = child;
+            }
+
+            node._ruleIndex = Math.min(node._ruleIndex, ruleIndex);
+        }
+    }
+
+    private Rule[] _rules;
+    private boolean _removeByDefault;
+
+    private TrieNode _prefixes;
+    private TrieNode _suffixes;
+    private TrieNode _hostSuffixes;
+    private boolean _hasHostRules;
+
+    // All regex rules OR'd together, plus the index of each rule's group in the
+    // combined pattern, and the individual patterns for resolving which one came first.
+    private Pattern _combinedRegex;
+    private int[] _regexGroups;
+    private int[] _regexRules;
+    private Pattern[] _regexes;
+
+    public RuleUrlFilter(List<Rule> rules, boolean removeByDefault) {
+        _rules = rules.toArray(new Rule[rules.size()]);
+        _removeByDefault = removeByDefault;
+
+        _prefixes = new TrieNode();
+        _suffixes = new TrieNode();
+        _hostSuffixes = new TrieNode();
+        _hasHostRules = false;
+
+        List<Integer> regexRules = new ArrayList<Integer>();
+        StringBuilder combined = new StringBuilder();
+
+        for (int i = 0; i < _rules.length; i++) {
+            Rule rule = _rules[i];
+            switch (rule.getType()) {
+                case PREFIX:
+                    _prefixes.add(rule.getValue(), false, i);
+                    break;
+
+                case SUFFIX:
+                    _suffixes.add(rule.getValue(), true, i);
+                    break;
+
+                case HOST_SUFFIX:
+                    _hostSuffixes.add(rule.getValue(), true, i);
+                    _hasHostRules = true;
+                    break;
+
+                case REGEX:
+                    regexRules.add(i);
+                    break;
+
+                default:
+                    throw new RuntimeException("Unknown rule type: " + rule.getType());
+            }
+        }
+
+        int numRegexes = regexRules.size();
+        _regexRules = new int[numRegexes];
+        _regexGroups = new int[numRegexes];
+        _regexes = new Pattern[numRegexes];
+
+        int group = 1;
+        for (int i = 0; i < numRegexes; i++) {
+            _regexRules[i] = regexRules.get(i);
+            _regexes[i] = Pattern.compile(_rules[_regexRules[i]].getValue());
+            _regexGroups[i] = group;
+            group += 1 + _regexes[i].matcher("").groupCount();
+
+            if (i > 0) {
+                combined.append('|');
+            }
+
+            combined.append('(');
+            combined.append(_regexes[i].pattern());
+            combined.append(')');
+        }
+
+        _combinedRegex = (numRegexes == 0) ? null : Pattern.compile(combined.toString());
+    }
+
+    /**
+     * Read rules (in the text format) from <rulesReader>.
+     */
+    public static List<Rule> readRules(Reader rulesReader) throws IOException {
+        List<Rule> result = new ArrayList<Rule>();
+        BufferedReader reader = new BufferedReader(rulesReader);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if ((line.length() > 0) && !line.startsWith("#")) {
+                result.add(Rule.parse(line));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean isRemove(UrlDatum datum) {
+        String url = datum.getUrl();
+        Rule rule = getMatchingRule(url);
+
+        if (rule == null) {
+            return _removeByDefault;
+        } else {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace(String.format("Rule %s matched %s", rule, url));
+            }
+
+            return !rule.isInclude();
+        }
+    }
+
+    /**
+     * Return the first rule that matches <url>, or null if none of them match (in which
+     * case the default applies). This is useful for figuring out why a URL was removed.
+     */
+    public Rule getMatchingRule(String url) {
+        int ruleIndex = Math.min(matchPrefix(url), matchSuffix(url));
+        ruleIndex = Math.min(ruleIndex, matchHostSuffix(url));
+        ruleIndex = Math.min(ruleIndex, matchRegex(url, ruleIndex));
+        return (ruleIndex == Integer.MAX_VALUE) ? null : _rules[ruleIndex];
+    }
+
+    private int matchPrefix(String url) {
+        int result = Integer.MAX_VALUE;
+        TrieNode node = _prefixes;
+        for (int i = 0; (node != null) && (i < url.length()); i++) {
+            node = node.getChild(Character.toLowerCase(url.charAt(i)));
+            if (node != null) {
+                result = Math.min(result, node._ruleIndex);
+            }
+        }
+
+        return result;
+    }
+
+    private int matchSuffix(String url) {
+        int result = Integer.MAX_VALUE;
+        TrieNode node = _suffixes;
+        for (int i = url.length() - 1; (node != null) && (i >= 0); i--) {
+            node = node.getChild(Character.toLowerCase(url.charAt(i)));
+            if (node != null) {
+                result = Math.min(result, node._ruleIndex);
+            }
+        }
+
+        return result;
+    }
+
+    private int matchHostSuffix(String url) {
+        if (!_hasHostRules) {
+            return Integer.MAX_VALUE;
+        }
+
+        UrlSpans spans = new UrlSpans();
+        if (!spans.parse(url)) {
+            return Integer.MAX_VALUE;
+        }
+
+        // Only a match if it's the entire host, or it's right after a '.'
+        int result = Integer.MAX_VALUE;
+        int hostStart = spans.getHostStart();
+        TrieNode node = _hostSuffixes;
+        for (int i = spans.getHostEnd() - 1; (node != null) && (i >= hostStart); i--) {
+            node = node.getChild(Character.toLowerCase(url.charAt(i)));
+            if ((node != null) && ((i == hostStart) || (url.charAt(i - 1) == '.'))) {
+                result = Math.min(result, node._ruleIndex);
+            }
+        }
+
+        return result;
+    }
+
+    private int matchRegex(String url, int bestRuleIndex) {
+        if (_combinedRegex == null) {
+            return Integer.MAX_VALUE;
+        }
+
+        Matcher matcher = _combinedRegex.matcher(url);
+        if (!matcher.find()) {
+            return Integer.MAX_VALUE;
+        }
+
+        // Some regex matched, but one that comes earlier in the rule list might match
+        // later in the URL, so check those separately.
+        int matched = 0;
+        while (matcher.group(_regexGroups[matched]) == null) {
+            matched += 1;
+        }
+
+        for (int i = 0; (i < matched) && (_regexRules[i] < bestRuleIndex); i++) {
+            if (_regexes[i].matcher(url).find()) {
+                return _regexRules[i];
+            }
+        }
+
+        return _regexRules[matched];
+    }
+}
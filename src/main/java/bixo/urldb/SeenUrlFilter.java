@@ -0,0 +1,131 @@
+package bixo.urldb;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import bixo.cascading.NullContext;
+import bixo.datum.BaseDatum;
+import bixo.datum.UrlDatum;
+import bixo.operations.MakeBloomFilterBuffer;
+import bixo.utils.BloomFilter;
+import bixo.utils.UrlFingerprint;
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.flow.FlowProcess;
+import cascading.operation.BaseOperation;
+import cascading.operation.Function;
+import cascading.operation.FunctionCall;
+import cascading.pipe.Each;
+import cascading.pipe.Every;
+import cascading.pipe.GroupBy;
+import cascading.pipe.Pipe;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Hfs;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+/**
+ * Removes URLs that are (probably) already in the URL DB, using a Bloom
+ * filter built from the URL DB before the flow is started. This lets us drop
+ * known outlinks before they get sent through a GroupBy with the status.
+ *
+ * The filter is built by a separate flow (see makeFilterFlow()), which writes it to
+ * a file. That file has to be on the local disk of every task (e.g. via the
+ * DistributedCache), and gets loaded the first time the filter is used.
+ *
+ * A false positive means a new URL gets dropped, so the false positive rate
+ * should be set low enough that losing that many new URLs is acceptable.
+ */
+@SuppressWarnings("serial")
+public class SeenUrlFilter implements IUrlFilter {
+    private static final Logger LOGGER = Logger.getLogger(SeenUrlFilter.class);
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    public static final String FILTER_KEY_FIELD = BaseDatum.fieldName(SeenUrlFilter.class, "key");
+    public static final String NUM_URLS_FIELD = BaseDatum.fieldName(SeenUrlFilter.class, "num-urls");
+
+    // Where makeFilterFlow() puts the URL count, relative to the filter path.
+    public static final String NUM_URLS_SUFFIX = "-count";
+
+    // Every fingerprint goes to the same group, so that one reducer builds the filter.
+    private static class AddFilterKeyFunction extends BaseOperation<NullContext> implements Function<NullContext> {
+
+        public AddFilterKeyFunction() {
+            super(new Fields(FILTER_KEY_FIELD, UrlDatum.FINGERPRINT_FIELD));
+        }
+
+        @Override
+        public void operate(FlowProcess process, FunctionCall<NullContext> funcCall) {
+            String url = funcCall.getArguments().getString(UrlDatum.URL_FIELD);
+            funcCall.getOutputCollector().add(new Tuple(0, UrlFingerprint.make(url)));
+        }
+    }
+
+    private String _filterPath;
+
+    private transient volatile BloomFilter _seenUrls;
+
+    /**
+     * Use the filter in the local file <filterPath>, as written by makeFilterFlow().
+     */
+    public SeenUrlFilter(String filterPath) {
+        _filterPath = filterPath;
+    }
+
+    @Override
+    public boolean isRemove(UrlDatum datum) {
+        return getSeenUrls().mightContain(UrlFingerprint.make(datum.getUrl()));
+    }
+
+    private BloomFilter getSeenUrls() {
+        if (_seenUrls == null) {
+            synchronized (this) {
+                if (_seenUrls == null) {
+                    try {
+                        _seenUrls = readFilter(new File(_filterPath));
+                    } catch (IOException e) {
+                        throw new RuntimeException("Can't load seen URL filter: " + _filterPath, e);
+                    }
+                }
+            }
+        }
+
+        return _seenUrls;
+    }
+
+    public static BloomFilter readFilter(File filterFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filterFile)));
+        try {
+            BloomFilter result = BloomFilter.read(in);
+            LOGGER.info(String.format("Loaded seen URL filter with %d bits from %s", result.getNumBits(), filterFile));
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Create a flow that builds a filter from all of the URLs in <urlSource>, which must
+     * contain the UrlDatum.URL_FIELD field, and writes it to <filterPath>. The filter gets
+     * built in a single reducer, so that reducer needs enough memory to hold it (about
+     * 1.8 bytes per URL at the default false positive rate).
+     */
+    public static Flow makeFilterFlow(Tap urlSource, String filterPath, double falsePositiveRate, Properties properties) {
+        Pipe pipe = new Pipe("seen-url-filter");
+        pipe = new Each(pipe, new AddFilterKeyFunction(), Fields.RESULTS);
+        pipe = new GroupBy(pipe, new Fields(FILTER_KEY_FIELD));
+        pipe = new Every(pipe, new MakeBloomFilterBuffer(new Fields(NUM_URLS_FIELD), filterPath, falsePositiveRate), Fields.RESULTS);
+
+        Tap countSink = new Hfs(new SequenceFile(new Fields(NUM_URLS_FIELD)), filterPath + NUM_URLS_SUFFIX, true);
+        FlowConnector flowConnector = new FlowConnector(properties);
+        return flowConnector.connect(urlSource, countSink, pipe);
+    }
+}
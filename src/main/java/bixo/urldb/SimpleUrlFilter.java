@@ -1,9 +1,7 @@
 package bixo.urldb;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-
 import bixo.datum.UrlDatum;
+import bixo.utils.UrlSpans;
 
 /**
  * Simple UrlFilter that just makes sure the URL is considered to be
@@ -14,12 +12,7 @@ public class SimpleUrlFilter implements IUrlFilter {
 
 	@Override
 	public boolean isRemove(UrlDatum datum) {
-        try {
-            new URL(datum.getUrl());
-            return false;
-        } catch (MalformedURLException e) {
-            return true;
-        }
+        return !new UrlSpans().parse(datum.getUrl());
 	}
 
 }
@@ -1,9 +1,9 @@
 package bixo.urldb;
 
-import java.net.URI;
-import java.net.URL;
 import java.util.regex.Pattern;
 
+import bixo.utils.UrlSpans;
+
 @SuppressWarnings("serial")
 public class SimpleUrlValidator implements IUrlValidator {
     private static final Pattern HTTP_PATTERN = Pattern.compile("^(http|https):");
@@ -14,13 +14,9 @@ public class SimpleUrlValidator implements IUrlValidator {
             return false;
         }
 
-        try {
-            new URL(urlString);
-            URI uri = new URI(urlString);
-            return uri.getHost() != null;
-        } catch (Exception e) {
-            return false;
-        }
+        // Same as checking that both java.net.URL and URI can parse it, and that URI finds a host.
+        UrlSpans url = new UrlSpans();
+        return url.parse(urlString) && url.isValidUri();
     }
 
 }
@@ -34,7 +34,6 @@ import bixo.operations.TextUrlParser;
 import bixo.utils.TimeStampUtils;
 import cascading.flow.Flow;
 import cascading.flow.FlowConnector;
-import cascading.operation.Aggregator;
 import cascading.operation.aggregator.Last;
 import cascading.pipe.Each;
 import cascading.pipe.Every;
@@ -47,7 +46,6 @@ import cascading.tap.Hfs;
 import cascading.tap.MultiSourceTap;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
-import cascading.tuple.Tuple;
 
 public class UrlImporter extends HadoopConfigured {
     public static final String URL_DB_NAME = "url_db";
@@ -79,8 +77,7 @@ public class UrlImporter extends HadoopConfigured {
             Pipe pipe = new Pipe("urldb-merge");
             // we want the url with the latest update.
             pipe = new GroupBy(pipe, new Fields(UrlDatum.URL_FIELD));
-            Aggregator<Tuple> last = new LastUpdated(UrlDatum.FIELDS);
-            pipe = new Every(pipe, last, Fields.RESULTS);
+            pipe = new Every(pipe, new LastUpdated(UrlDatum.FIELDS), Fields.RESULTS);
 
             FlowConnector flowConnector = new FlowConnector();
             Flow flow = flowConnector.connect(source, mergeSink, pipe);
@@ -99,6 +96,26 @@ public class UrlImporter extends HadoopConfigured {
 
     }
 
+    /**
+     * Import URLs into a URL DB that's split into <numPartitions> URL-sorted
+     * partitions, so only the imported URLs (not the entire URL DB) need to be
+     * run through a GroupBy.
+     * 
+     * The URL DB has to have been created by this call with the same number of
+     * partitions, otherwise the merge fails (see PartitionedUrlDb).
+     */
+    public void importUrls(String inputPath, String workingFolder, int numPartitions) throws IOException {
+        FileSystem fs = getFileSystem(workingFolder);
+        Path importDb = new Path(workingFolder, URL_DB_NAME + "-import-" + TimeStampUtils.nowWithUnderLine());
+        Tap importSink = new Hfs(new SequenceFile(UrlDatum.FIELDS), importDb.toUri().toASCIIString(), true);
+        importUrls(inputPath, importSink);
+
+        PartitionedUrlDb urlDb = new PartitionedUrlDb(numPartitions, UrlDatum.EMPTY_METADATA_FIELDS);
+        urlDb.merge(importSink, workingFolder + "/" + URL_DB_NAME);
+
+        fs.delete(importDb, true);
+    }
+
     public void importUrls(String inputPath, Tap sink) throws IOException {
 
         FileSystem fs = getFileSystem(inputPath);
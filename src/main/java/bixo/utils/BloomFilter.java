@@ -0,0 +1,96 @@
+package bixo.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Compact set membership test for 64-bit hash values. There are no false
+ * negatives, and false positives happen at (roughly) the rate requested when
+ * the filter was created, assuming no more than the expected number of entries
+ * get added.
+ *
+ * The k bit positions are derived from the two halves of the 64-bit hash, so
+ * callers need to pass in a well-mixed value.
+ *
+ * Large filters should be saved with write() and loaded with read(), versus being
+ * serialized as part of a Hadoop job.
+ */
+@SuppressWarnings("serial")
+public class BloomFilter implements Serializable {
+    private static final double LN2 = Math.log(2.0);
+
+    private long[] _bits;
+    private long _numBits;
+    private int _numHashes;
+
+    private BloomFilter() {
+        // For read()
+    }
+
+    public BloomFilter(long expectedEntries, double falsePositiveRate) {
+        if ((falsePositiveRate <= 0.0) || (falsePositiveRate >= 1.0)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+
+        expectedEntries = Math.max(1, expectedEntries);
+        long numBits = (long)Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (LN2 * LN2));
+        int numWords = (int)Math.min(Integer.MAX_VALUE, (numBits + 63) / 64);
+        _bits = new long[Math.max(1, numWords)];
+        _numBits = _bits.length * 64L;
+        _numHashes = Math.max(1, (int)Math.round(((double)_numBits / expectedEntries) * LN2));
+    }
+
+    public void add(long hash) {
+        long h1 = hash & 0x00000000FFFFFFFFL;
+        long h2 = hash >>> 32;
+
+        for (int i = 0; i < _numHashes; i++) {
+            long bit = (h1 + (i * h2)) % _numBits;
+            _bits[(int)(bit >>> 6)] |= (1L << bit);
+        }
+    }
+
+    public boolean mightContain(long hash) {
+        long h1 = hash & 0x00000000FFFFFFFFL;
+        long h2 = hash >>> 32;
+
+        for (int i = 0; i < _numHashes; i++) {
+            long bit = (h1 + (i * h2)) % _numBits;
+            if ((_bits[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public long getNumBits() {
+        return _numBits;
+    }
+
+    public int getNumHashes() {
+        return _numHashes;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(_numHashes);
+        out.writeInt(_bits.length);
+        for (long word : _bits) {
+            out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter read(DataInput in) throws IOException {
+        BloomFilter result = new BloomFilter();
+        result._numHashes = in.readInt();
+        result._bits = new long[in.readInt()];
+        for (int i = 0; i < result._bits.length; i++) {
+            result._bits[i] = in.readLong();
+        }
+
+        result._numBits = result._bits.length * 64L;
+        return result;
+    }
+}
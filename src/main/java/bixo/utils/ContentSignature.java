@@ -0,0 +1,42 @@
+package bixo.utils;
+
+/**
+ * 64-bit signature of fetched content, used to tell whether a page has changed
+ * since the last time it was fetched.
+ *
+ * This is an exact hash of the raw bytes, so any change (including things like
+ * embedded timestamps) counts as a change.
+ */
+public class ContentSignature {
+
+    // Returned for empty content, so that 0 can mean "no signature".
+    public static final long EMPTY_SIGNATURE = 1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ContentSignature() {
+        // Static utility class
+    }
+
+    /**
+     * Return the signature of the first <length> bytes of <content>. The result
+     * is never 0.
+     */
+    public static long make(byte[] content, int length) {
+        if (length == 0) {
+            return EMPTY_SIGNATURE;
+        }
+
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            hash ^= (content[i] & 0xFF);
+            hash *= FNV_PRIME;
+        }
+
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        return (hash == 0) ? EMPTY_SIGNATURE : hash;
+    }
+}
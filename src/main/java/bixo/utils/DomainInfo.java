@@ -2,9 +2,7 @@ package bixo.utils;
 
 import java.net.InetAddress;
 import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.regex.Pattern;
 
@@ -25,15 +23,30 @@ public class DomainInfo {
     private String _hostAddress;
 
     public DomainInfo(String protocolAndDomain) throws UnknownHostException, MalformedURLException, URISyntaxException {
+        this(protocolAndDomain, null);
+    }
+
+    /**
+     * Create info for <protocolAndDomain>, using <hostAddress> (e.g. from a previous lookup)
+     * if it's not null, versus resolving the domain.
+     */
+    public DomainInfo(String protocolAndDomain, String hostAddress) throws UnknownHostException, MalformedURLException, URISyntaxException {
         _protocolAndDomain = protocolAndDomain;
-        URL url = new URL(protocolAndDomain);
+        UrlSpans url = new UrlSpans();
+        if (!url.parse(protocolAndDomain)) {
+            throw new MalformedURLException("Invalid URL: " + protocolAndDomain);
+        }
 
-        // Since URI class is stricter than URL when validating, let's use the URL result to try to create a URI
-        new URI(url.getProtocol(), null, url.getHost(), url.getPort(), url.getPath(), url.getQuery(), null);
+        // Since URI class is stricter than URL when validating, also check that URI would accept the host.
+        if (!url.hasValidHostName()) {
+            throw new URISyntaxException(protocolAndDomain, "Invalid host name");
+        }
         
         _domain = url.getHost();
         
-        if (TESTING_DOMAIN_PATTERN.matcher(_domain).matches()) {
+        if (hostAddress != null) {
+            _hostAddress = hostAddress;
+        } else if (TESTING_DOMAIN_PATTERN.matcher(_domain).matches()) {
             _hostAddress = _domain;
         } else {
             _hostAddress = InetAddress.getByName(_domain).getHostAddress();
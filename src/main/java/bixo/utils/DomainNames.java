@@ -22,7 +22,6 @@
  */
 package bixo.utils;
 
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -145,11 +144,8 @@ public class DomainNames {
      * @return hostname, or <invalid URL>.
      */
     public static String safeGetHost(String url) {
-        try {
-            return new URL(url).getHost();
-        } catch (MalformedURLException e) {
-            return "<invalid URL>";
-        }
+        UrlSpans spans = new UrlSpans();
+        return spans.parse(url) ? spans.getHost() : "<invalid URL>";
     }
     
     /**
@@ -176,17 +172,18 @@ public class DomainNames {
      * @return true iff url is "within" domain
      */
     public static boolean isUrlWithinDomain(String url, String domain) {
-        try {
-            for (   String urlDomain = new URL(url).getHost();
-                    urlDomain != null;
-                    urlDomain = DomainNames.getSuperDomain(urlDomain)) {
-                if (urlDomain.equalsIgnoreCase(domain)) {
-                    return true;
-                }
-            }
-        } catch (MalformedURLException e) {
+        UrlSpans spans = new UrlSpans();
+        if (!spans.parse(url)) {
             return false;
         }
+        
+        for (   String urlDomain = spans.getHost();
+                urlDomain != null;
+                urlDomain = DomainNames.getSuperDomain(urlDomain)) {
+            if (urlDomain.equalsIgnoreCase(domain)) {
+                return true;
+            }
+        }
         return false;
     }
     
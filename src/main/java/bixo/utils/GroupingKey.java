@@ -26,6 +26,9 @@ public class GroupingKey {
     
     // URL isn't valid
     public static final String INVALID_URL_GROUPING_KEY = KEY_PREFIX + "invalid";
+    
+    // URL wasn't one of the top-scoring URLs for the server, so over the per-server limit
+    public static final String LIMITED_GROUPING_KEY = KEY_PREFIX + "limited";
 
     // Pattern for grouping key. This must be kept in sync with the
     // UNSET_DURATION constant and the makeGroupingKey code.
@@ -33,6 +36,9 @@ public class GroupingKey {
     
     private static final String UNSET_DURATION = "unset";
     
+    // IPv4 dotted quad, or something that could only be an IPv6 address.
+    private static final Pattern IP_ADDRESS_PATTERN = Pattern.compile("(\\d{1,3}\\.){3}\\d{1,3}|[0-9a-fA-F:]*:[0-9a-fA-F:.%]*");
+    
     public static boolean isSpecialKey(String key) {
         return key.startsWith(KEY_PREFIX);
     }
@@ -54,6 +60,24 @@ public class GroupingKey {
         return m.group(1);
     }
     
+    /**
+     * Return the IP address that was resolved for the server (see ProcessRobotsTask), or null
+     * if <key> is null, a special key, or doesn't have an IP address for the domain.
+     */
+    public static String getHostAddressFromKey(String key) {
+        if ((key == null) || isSpecialKey(key)) {
+            return null;
+        }
+        
+        Matcher m = GROUPING_KEY_PATTERN.matcher(key);
+        if (!m.matches()) {
+            return null;
+        }
+        
+        String domain = m.group(1);
+        return IP_ADDRESS_PATTERN.matcher(domain).matches() ? domain : null;
+    }
+    
     public static long getCrawlDelayFromKey(String key) {
         Matcher m = GROUPING_KEY_PATTERN.matcher(key);
         if (!m.matches()) {
@@ -88,6 +112,8 @@ public class GroupingKey {
             status = UrlStatus.SKIPPED_DEFERRED;
         } else if (key.equals(GroupingKey.SKIPPED_GROUPING_KEY)) {
             status = UrlStatus.SKIPPED_BY_SCORER;
+        } else if (key.equals(GroupingKey.LIMITED_GROUPING_KEY)) {
+            status = UrlStatus.SKIPPED_PER_SERVER_LIMIT;
         } else {
             throw new RuntimeException("Unknown value for special grouping key: " + key);
         }
@@ -0,0 +1,207 @@
+package bixo.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Immutable set of host names (domains), where a host is in the set if it or any of its
+ * parent domains was added. E.g. if the set was built with "domain.com", then it contains
+ * "domain.com" and "www.domain.com", but not "notdomain.com".
+ *
+ * The set is built offline (see write()) as a file of host names that have been lower-cased,
+ * reversed (so "www.domain.com" becomes "moc.niamod.www") and sorted, plus an offset table.
+ * That file is memory-mapped when opened, so even sets with tens of millions of entries take
+ * almost no heap, and can be shared by all of the tasks on a machine via the OS page cache.
+ * A lookup is one binary search per label in the host, with no allocation.
+ *
+ * Only ASCII host names are supported (IDNs should be converted to punycode first), and the
+ * file has to be less than 2GB.
+ */
+public class HostSuffixSet {
+    private static final Logger LOGGER = Logger.getLogger(HostSuffixSet.class);
+
+    private static final int MAGIC_NUMBER = 0x42485353;    // "BHSS"
+    private static final int HEADER_SIZE = 8;
+
+    private ByteBuffer _buffer;
+    private int _numEntries;
+    private int _dataStart;
+
+    private HostSuffixSet(ByteBuffer buffer) throws IOException {
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC_NUMBER)) {
+            throw new IOException("Not a host suffix set file");
+        }
+
+        _buffer = buffer;
+        _numEntries = buffer.getInt(4);
+        _dataStart = HEADER_SIZE + ((_numEntries + 1) * 4);
+    }
+
+    /**
+     * Open the set that was written to <file>, by memory-mapping it.
+     */
+    public static HostSuffixSet open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new HostSuffixSet(buffer);
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * Write a set containing <hosts> to <file>. Entries are lower-cased, and empty or
+     * non-ASCII entries are skipped.
+     */
+    public static void write(Iterable<String> hosts, File file) throws IOException {
+        List<String> entries = new ArrayList<String>();
+        int numSkipped = 0;
+
+        for (String host : hosts) {
+            host = host.trim().toLowerCase();
+            while (host.endsWith(".")) {
+                host = host.substring(0, host.length() - 1);
+            }
+
+            if ((host.length() == 0) || !isAscii(host)) {
+                numSkipped += 1;
+            } else {
+                entries.add(new StringBuilder(host).reverse().toString());
+            }
+        }
+
+        if (numSkipped > 0) {
+            LOGGER.warn(String.format("Skipped %d empty or non-ASCII host names", numSkipped));
+        }
+
+        // Since everything is ASCII, String order is the same as byte order.
+        Collections.sort(entries);
+        List<String> uniqueEntries = new ArrayList<String>(entries.size());
+        for (String entry : entries) {
+            if (uniqueEntries.isEmpty() || !entry.equals(uniqueEntries.get(uniqueEntries.size() - 1))) {
+                uniqueEntries.add(entry);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(uniqueEntries.size());
+
+            int offset = 0;
+            for (String entry : uniqueEntries) {
+                out.writeInt(offset);
+                offset += entry.length();
+            }
+            out.writeInt(offset);
+
+            for (String entry : uniqueEntries) {
+                out.writeBytes(entry);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public int size() {
+        return _numEntries;
+    }
+
+    /**
+     * Return true if <host>, or one of its parent domains, is in the set.
+     */
+    public boolean contains(String host) {
+        return contains(host, 0, host.length());
+    }
+
+    /**
+     * Return true if the host name in <s> from <start> to <end> (e.g. the host offsets
+     * from UrlSpans), or one of its parent domains, is in the set.
+     */
+    public boolean contains(CharSequence s, int start, int end) {
+        // Ignore trailing '.' in a fully qualified host name.
+        while ((end > start) && (s.charAt(end - 1) == '.')) {
+            end -= 1;
+        }
+
+        if (end == start) {
+            return false;
+        }
+
+        // Check the full host, then each parent domain.
+        for (int labelStart = start; labelStart < end; labelStart++) {
+            if (((labelStart == start) || (s.charAt(labelStart - 1) == '.')) && find(s, labelStart, end)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean find(CharSequence s, int start, int end) {
+        int low = 0;
+        int high = _numEntries - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, s, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Compare entry <index> against the reversed, lower-cased chars of s[start, end).
+    private int compare(int index, CharSequence s, int start, int end) {
+        int entryStart = _dataStart + _buffer.getInt(HEADER_SIZE + (index * 4));
+        int entryEnd = _dataStart + _buffer.getInt(HEADER_SIZE + ((index + 1) * 4));
+
+        int pos = end - 1;
+        for (int i = entryStart; i < entryEnd; i++, pos--) {
+            if (pos < start) {
+                return 1;
+            }
+
+            int entryChar = _buffer.get(i) & 0xFF;
+            int c = Character.toLowerCase(s.charAt(pos));
+            if (entryChar != c) {
+                return entryChar - c;
+            }
+        }
+
+        return (pos < start) ? 0 : -1;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package bixo.utils;
+
+/**
+ * 64-bit SimHash of text, calculated from overlapping word shingles. Two
+ * documents with mostly the same text will have SimHash values that differ in
+ * only a few bits.
+ */
+public class SimHash {
+
+    public static final int DEFAULT_SHINGLE_SIZE = 3;
+
+    private SimHash() {
+        // Static utility class
+    }
+
+    /**
+     * Calculate the SimHash of <text>, using shingles of <shingleSize> words.
+     *
+     * @return SimHash value, or 0 if there are no shingles (not enough words).
+     */
+    public static long makeSimHash(String text, int shingleSize) {
+        int[] counts = new int[64];
+        int numShingles = 0;
+
+        // Ring buffer of hashes for the last <shingleSize> words.
+        long[] wordHashes = new long[shingleSize];
+        int numWords = 0;
+
+        int len = text.length();
+        int wordStart = -1;
+        for (int i = 0; i <= len; i++) {
+            boolean isWordChar = (i < len) && Character.isLetterOrDigit(text.charAt(i));
+            if (isWordChar) {
+                if (wordStart == -1) {
+                    wordStart = i;
+                }
+            } else if (wordStart != -1) {
+                wordHashes[numWords % shingleSize] = hashWord(text, wordStart, i);
+                numWords += 1;
+                wordStart = -1;
+
+                if (numWords >= shingleSize) {
+                    long shingleHash = 0;
+                    for (int j = numWords - shingleSize; j < numWords; j++) {
+                        shingleHash = (shingleHash * 31) + wordHashes[j % shingleSize];
+                    }
+
+                    addHash(counts, mix(shingleHash));
+                    numShingles += 1;
+                }
+            }
+        }
+
+        return numShingles == 0 ? 0 : fromCounts(counts);
+    }
+
+    /**
+     * Return the number of shingles of <shingleSize> words in <text>.
+     */
+    public static int countShingles(String text, int shingleSize) {
+        int numWords = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean isWordChar = Character.isLetterOrDigit(text.charAt(i));
+            if (isWordChar && !inWord) {
+                numWords += 1;
+            }
+
+            inWord = isWordChar;
+        }
+
+        return Math.max(0, numWords - shingleSize + 1);
+    }
+
+    public static int hammingDistance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    // FNV-1a hash of the lower-cased word.
+    private static long hashWord(String text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= Character.toLowerCase(text.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static long mix(long hash) {
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+
+    private static void addHash(int[] counts, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            if ((hash & (1L << bit)) != 0) {
+                counts[bit] += 1;
+            } else {
+                counts[bit] -= 1;
+            }
+        }
+    }
+
+    private static long fromCounts(int[] counts) {
+        long result = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (counts[bit] > 0) {
+                result |= (1L << bit);
+            }
+        }
+
+        return result;
+    }
+}
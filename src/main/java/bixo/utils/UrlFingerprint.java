@@ -0,0 +1,35 @@
+package bixo.utils;
+
+/**
+ * 64-bit fingerprint of a (normalized) URL, for use as a compact grouping key
+ * instead of the full URL string.
+ *
+ * Collisions are rare but possible, so anything that groups on the fingerprint
+ * still needs to check the actual URLs within a group.
+ */
+public class UrlFingerprint {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UrlFingerprint() {
+        // Static utility class
+    }
+
+    /**
+     * Return the 64-bit FNV-1a hash of <url>, with a final mixing step so that
+     * both halves of the result are well distributed.
+     */
+    public static long make(String url) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        return hash;
+    }
+}
@@ -0,0 +1,407 @@
+package bixo.utils;
+
+/**
+ * Light-weight parser for absolute URLs, which finds the protocol, host, port, path and
+ * query as offsets into the original string. This is used in place of creating java.net.URL
+ * (and URI) objects just to get at one part of the URL, which is expensive when done for
+ * every URL in the grouping and robots stages.
+ *
+ * Parsing follows java.net.URL, so parse() returns false for the same URLs that would
+ * cause a MalformedURLException (no protocol, unknown protocol, invalid port). The one
+ * exception is the "jar" protocol, which isn't supported. The stricter rules used by
+ * java.net.URI are available via isValidUri().
+ *
+ * An instance can be re-used by calling parse() again, and nothing is allocated while
+ * parsing. Strings are only created by the getters that return parts of the URL.
+ */
+public class UrlSpans {
+
+    private static final String[] KNOWN_PROTOCOLS = { "http", "https", "ftp", "file", "mailto" };
+    private static final int[] DEFAULT_PORTS = { 80, 443, 21, -1, -1 };
+
+    // mailto URLs never have a host, even if they start with "//".
+    private static final boolean[] HAS_AUTHORITY = { true, true, true, true, false };
+
+    private String _url;
+    private int _protocol;
+    private int _authorityStart;
+    private int _hostStart;
+    private int _hostEnd;
+    private int _port;
+    private int _pathStart;
+    private int _pathEnd;
+    private int _queryStart;
+    private int _queryEnd;
+
+    public UrlSpans() {
+        _url = null;
+    }
+
+    /**
+     * Parse <url>, returning false if it's not a valid absolute URL. The other methods can
+     * only be called after a successful parse.
+     */
+    public boolean parse(String url) {
+        _url = null;
+
+        // Same as java.net.URL, leading & trailing whitespace (and control characters) are ignored.
+        int start = 0;
+        int limit = url.length();
+        while ((limit > 0) && (url.charAt(limit - 1) <= ' ')) {
+            limit -= 1;
+        }
+
+        while ((start < limit) && (url.charAt(start) <= ' ')) {
+            start += 1;
+        }
+
+        // The protocol is everything up to the first ':', as long as it's a valid scheme name.
+        int colon = start;
+        while ((colon < limit) && isSchemeChar(url.charAt(colon), colon == start)) {
+            colon += 1;
+        }
+
+        if ((colon == start) || (colon == limit) || (url.charAt(colon) != ':')) {
+            return false;
+        }
+
+        _protocol = -1;
+        for (int i = 0; i < KNOWN_PROTOCOLS.length; i++) {
+            String protocol = KNOWN_PROTOCOLS[i];
+            if ((protocol.length() == colon - start) && url.regionMatches(true, start, protocol, 0, protocol.length())) {
+                _protocol = i;
+                break;
+            }
+        }
+
+        if (_protocol == -1) {
+            return false;
+        }
+
+        // We never return the fragment (anchor), so just ignore it.
+        int fragment = url.indexOf('#', colon);
+        if ((fragment != -1) && (fragment < limit)) {
+            limit = fragment;
+        }
+
+        int p = colon + 1;
+        _authorityStart = -1;
+        _hostStart = p;
+        _hostEnd = p;
+        _port = -1;
+
+        if (HAS_AUTHORITY[_protocol] && url.startsWith("//", p)) {
+            p += 2;
+            _authorityStart = p;
+
+            int authorityEnd = p;
+            while ((authorityEnd < limit) && (url.charAt(authorityEnd) != '/') && (url.charAt(authorityEnd) != '?')) {
+                authorityEnd += 1;
+            }
+
+            int hostStart = url.indexOf('@', p);
+            if ((hostStart == -1) || (hostStart >= authorityEnd)) {
+                hostStart = p;
+            } else {
+                hostStart += 1;
+            }
+
+            int hostEnd;
+            if ((hostStart < authorityEnd) && (url.charAt(hostStart) == '[')) {
+                // IPv6 address, which includes ':' chars.
+                hostEnd = url.indexOf(']', hostStart);
+                if ((hostEnd == -1) || (hostEnd >= authorityEnd)) {
+                    return false;
+                }
+
+                hostEnd += 1;
+                if ((hostEnd < authorityEnd) && (url.charAt(hostEnd) != ':')) {
+                    return false;
+                }
+            } else {
+                hostEnd = url.indexOf(':', hostStart);
+                if ((hostEnd == -1) || (hostEnd > authorityEnd)) {
+                    hostEnd = authorityEnd;
+                }
+            }
+
+            // An empty port (e.g. "http://domain.com:/") is the same as no port.
+            if (hostEnd + 1 < authorityEnd) {
+                long port = 0;
+                for (int i = hostEnd + 1; i < authorityEnd; i++) {
+                    char c = url.charAt(i);
+                    if ((c < '0') || (c > '9')) {
+                        return false;
+                    }
+
+                    port = (port * 10) + (c - '0');
+                    if (port > Integer.MAX_VALUE) {
+                        return false;
+                    }
+                }
+
+                _port = (int)port;
+            }
+
+            _hostStart = hostStart;
+            _hostEnd = hostEnd;
+            p = authorityEnd;
+        }
+
+        _pathStart = p;
+        int query = url.indexOf('?', p);
+        if ((query != -1) && (query < limit)) {
+            _pathEnd = query;
+            _queryStart = query + 1;
+            _queryEnd = limit;
+        } else {
+            _pathEnd = limit;
+            _queryStart = -1;
+            _queryEnd = -1;
+        }
+
+        _url = url;
+        return true;
+    }
+
+    /**
+     * Return the (lower-cased) protocol, e.g. "http".
+     */
+    public String getProtocol() {
+        checkParsed();
+        return KNOWN_PROTOCOLS[_protocol];
+    }
+
+    /**
+     * Return the host, or an empty string if the URL doesn't have one (e.g. "mailto:xxx").
+     * As with java.net.URL, IPv6 addresses include the enclosing brackets.
+     */
+    public String getHost() {
+        checkParsed();
+        return _url.substring(_hostStart, _hostEnd);
+    }
+
+    public int getHostStart() {
+        checkParsed();
+        return _hostStart;
+    }
+
+    public int getHostEnd() {
+        checkParsed();
+        return _hostEnd;
+    }
+
+    /**
+     * Return the port, or -1 if the URL doesn't specify one.
+     */
+    public int getPort() {
+        checkParsed();
+        return _port;
+    }
+
+    /**
+     * Return the default port for the protocol, or -1 if it doesn't have one.
+     */
+    public int getDefaultPort() {
+        checkParsed();
+        return DEFAULT_PORTS[_protocol];
+    }
+
+    /**
+     * Return the path, which is an empty string if the URL doesn't have one.
+     */
+    public String getPath() {
+        checkParsed();
+        return _url.substring(_pathStart, _pathEnd);
+    }
+
+    public int getPathStart() {
+        checkParsed();
+        return _pathStart;
+    }
+
+    public int getPathEnd() {
+        checkParsed();
+        return _pathEnd;
+    }
+
+    /**
+     * Return the query (without the leading '?'), or null if there isn't one.
+     */
+    public String getQuery() {
+        checkParsed();
+        return (_queryStart == -1) ? null : _url.substring(_queryStart, _queryEnd);
+    }
+
+    public int getQueryStart() {
+        checkParsed();
+        return _queryStart;
+    }
+
+    public int getQueryEnd() {
+        checkParsed();
+        return _queryEnd;
+    }
+
+    /**
+     * Return true if the host is a valid server name for java.net.URI - a host name, an
+     * IPv4 address, or a bracketed IPv6 address. Otherwise URI treats the authority as
+     * registry-based, and the host is null.
+     */
+    public boolean hasValidHostName() {
+        checkParsed();
+
+        if (_hostStart == _hostEnd) {
+            return false;
+        } else if (_url.charAt(_hostStart) == '[') {
+            for (int i = _hostStart + 1; i < _hostEnd - 1; i++) {
+                char c = _url.charAt(i);
+                if ((c != ':') && (c != '.') && (Character.digit(c, 16) == -1)) {
+                    return false;
+                }
+            }
+
+            return true;
+        } else if (isIPv4Address(_hostStart, _hostEnd)) {
+            return true;
+        }
+
+        // Labels are alphanumeric, with dashes allowed anywhere but at the start or end. A
+        // trailing '.' is OK, but if there's more than one label then the last one has to
+        // start with a letter.
+        int lastLabel = _hostStart;
+        int i = _hostStart;
+        while (i < _hostEnd) {
+            int labelEnd = i;
+            while ((labelEnd < _hostEnd) && (isAlphaNum(_url.charAt(labelEnd)) || (_url.charAt(labelEnd) == '-'))) {
+                labelEnd += 1;
+            }
+
+            if ((labelEnd == i) || (_url.charAt(i) == '-') || (_url.charAt(labelEnd - 1) == '-')) {
+                return false;
+            }
+
+            lastLabel = i;
+            if (labelEnd == _hostEnd) {
+                break;
+            } else if (_url.charAt(labelEnd) != '.') {
+                return false;
+            }
+
+            i = labelEnd + 1;
+        }
+
+        return (lastLabel == _hostStart) || isAlpha(_url.charAt(lastLabel));
+    }
+
+    /**
+     * Return true if java.net.URI would accept the URL as hierarchical, with a non-null host.
+     * This is stricter than parse(), e.g. spaces and characters like '|' aren't allowed, and
+     * '%' has to be followed by two hex digits.
+     */
+    public boolean isValidUri() {
+        checkParsed();
+
+        // URI doesn't ignore leading whitespace, and needs an authority with a valid host.
+        if ((_url.charAt(0) <= ' ') || (_authorityStart == -1) || !hasValidHostName()) {
+            return false;
+        }
+
+        for (int i = _authorityStart; i < _hostStart - 1; i++) {
+            char c = _url.charAt(i);
+            if (c == '%') {
+                if (!isEscape(i)) {
+                    return false;
+                }
+            } else if (!isUnreserved(c) && (";:&=+$,".indexOf(c) == -1)) {
+                return false;
+            }
+        }
+
+        boolean inFragment = false;
+        for (int i = _pathStart; i < _url.length(); i++) {
+            char c = _url.charAt(i);
+            if (c == '%') {
+                if (!isEscape(i)) {
+                    return false;
+                }
+            } else if ((c == '#') && !inFragment) {
+                inFragment = true;
+            } else if (!isUnreserved(c) && (";/?:@&=+$,".indexOf(c) == -1)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void checkParsed() {
+        if (_url == null) {
+            throw new IllegalStateException("No URL has been successfully parsed");
+        }
+    }
+
+    private boolean isIPv4Address(int start, int end) {
+        int numParts = 0;
+        int i = start;
+        while (i < end) {
+            int value = 0;
+            int partStart = i;
+            while ((i < end) && (i - partStart < 3) && isDigit(_url.charAt(i))) {
+                value = (value * 10) + (_url.charAt(i) - '0');
+                i += 1;
+            }
+
+            if ((i == partStart) || (value > 255)) {
+                return false;
+            }
+
+            numParts += 1;
+            if (i == end) {
+                break;
+            } else if ((_url.charAt(i) != '.') || (numParts == 4)) {
+                return false;
+            }
+
+            i += 1;
+        }
+
+        return (numParts == 4) && (_url.charAt(end - 1) != '.');
+    }
+
+    private boolean isEscape(int index) {
+        return (index + 2 < _url.length())
+            && (Character.digit(_url.charAt(index + 1), 16) != -1)
+            && (Character.digit(_url.charAt(index + 2), 16) != -1);
+    }
+
+    private static boolean isSchemeChar(char c, boolean first) {
+        if (first) {
+            return isAlpha(c);
+        } else {
+            return isAlphaNum(c) || (c == '+') || (c == '-') || (c == '.');
+        }
+    }
+
+    // Non-ASCII characters are allowed by java.net.URI, as long as they're not
+    // control or space characters.
+    private static boolean isUnreserved(char c) {
+        if (c >= 0x80) {
+            return !Character.isISOControl(c) && !Character.isSpaceChar(c);
+        } else {
+            return isAlphaNum(c) || ("-_.!~*'()".indexOf(c) != -1);
+        }
+    }
+
+    private static boolean isAlpha(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    private static boolean isAlphaNum(char c) {
+        return isAlpha(c) || isDigit(c);
+    }
+}
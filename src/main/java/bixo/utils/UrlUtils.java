@@ -45,16 +45,19 @@ public class UrlUtils {
     }
     
     public static String makeProtocolAndDomain(String urlAsString) throws MalformedURLException {
-        URL url = new URL(urlAsString);
+        UrlSpans url = new UrlSpans();
+        if (!url.parse(urlAsString)) {
+            throw new MalformedURLException("Invalid URL: " + urlAsString);
+        }
+        
         StringBuilder result = new StringBuilder(url.getProtocol());
         result.append("://");
         
-        String host = url.getHost();
-        if (host.length() == 0) {
+        if (url.getHostStart() == url.getHostEnd()) {
             throw new MalformedURLException("URL without a domain: " + urlAsString);
         }
         
-        result.append(host);
+        result.append(urlAsString, url.getHostStart(), url.getHostEnd());
         int port = url.getPort();
         if ((port != -1) && (port != url.getDefaultPort())) {
             result.append(':');
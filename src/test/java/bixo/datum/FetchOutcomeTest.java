@@ -0,0 +1,87 @@
+package bixo.datum;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import bixo.exceptions.AbortedFetchException;
+import bixo.exceptions.AbortedFetchReason;
+import bixo.exceptions.BaseFetchException;
+import bixo.exceptions.HttpFetchException;
+import bixo.exceptions.IOFetchException;
+import cascading.tuple.Fields;
+import cascading.tuple.Tuple;
+
+
+public class FetchOutcomeTest {
+
+    @Test
+    public void testHttpException() {
+        HttpFetchException e = new HttpFetchException("http://domain.com", "Not found", 404, new HttpHeaders());
+        FetchOutcome outcome = new FetchOutcome(new FetchOutcome(e).toTuple());
+
+        assertEquals(UrlStatus.HTTP_NOT_FOUND, outcome.getStatus());
+        assertEquals(404, outcome.getHttpStatus());
+        assertNull(outcome.getAbortReason());
+        assertTrue(outcome.getMessage().startsWith("Not found"));
+    }
+
+    @Test
+    public void testAbortedException() {
+        AbortedFetchException e = new AbortedFetchException("http://domain.com", AbortedFetchReason.SLOW_RESPONSE_RATE);
+        FetchOutcome outcome = new FetchOutcome(new FetchOutcome(e).toTuple());
+
+        assertEquals(UrlStatus.ABORTED_SLOW_RESPONSE, outcome.getStatus());
+        assertEquals(FetchOutcome.NO_HTTP_STATUS, outcome.getHttpStatus());
+        assertEquals(AbortedFetchReason.SLOW_RESPONSE_RATE, outcome.getAbortReason());
+    }
+
+    @Test
+    public void testLongMessage() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < FetchOutcome.MAX_MESSAGE_LENGTH * 2; i++) {
+            message.append('x');
+        }
+
+        FetchOutcome outcome = new FetchOutcome(UrlStatus.ERROR_IOEXCEPTION, FetchOutcome.NO_HTTP_STATUS, null, message.toString());
+        assertEquals(FetchOutcome.MAX_MESSAGE_LENGTH, outcome.getMessage().length());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testInStatusDatum() {
+        HttpFetchException e = new HttpFetchException("http://domain.com", "Gone", 410, new HttpHeaders());
+        StatusDatum status = new StatusDatum("http://domain.com", e, new HashMap<String, Comparable>());
+
+        Tuple tuple = status.toTuple();
+        StatusDatum status2 = new StatusDatum(tuple, new Fields());
+        assertEquals(UrlStatus.HTTP_GONE, status2.getStatus());
+        assertEquals(410, status2.getOutcome().getHttpStatus());
+
+        Map<String, Comparable> metaData = new HashMap<String, Comparable>();
+        StatusDatum fetched = new StatusDatum("http://domain.com", new HttpHeaders(), "127.0.0.1", metaData);
+        assertNull(new StatusDatum(fetched.toTuple(), new Fields()).getOutcome());
+    }
+
+    @SuppressWarnings({ "unchecked", "deprecation" })
+    @Test
+    public void testRebuildingException() {
+        HttpFetchException e = new HttpFetchException("http://domain.com", "Gone", 410, new HttpHeaders());
+        StatusDatum status = new StatusDatum(new StatusDatum("http://domain.com", e, new HashMap<String, Comparable>()).toTuple(), new Fields());
+
+        BaseFetchException e2 = status.getException();
+        assertTrue(e2 instanceof HttpFetchException);
+        assertEquals("http://domain.com", e2.getUrl());
+        assertEquals(410, ((HttpFetchException)e2).getHttpStatus());
+        assertEquals(UrlStatus.HTTP_GONE, e2.mapToUrlStatus());
+
+        FetchOutcome outcome = new FetchOutcome(new AbortedFetchException("http://domain.com", AbortedFetchReason.SLOW_RESPONSE_RATE));
+        assertEquals(UrlStatus.ABORTED_SLOW_RESPONSE, outcome.toException("http://domain.com").mapToUrlStatus());
+
+        outcome = new FetchOutcome(UrlStatus.ERROR_IOEXCEPTION, FetchOutcome.NO_HTTP_STATUS, null, "Connection reset");
+        assertTrue(outcome.toException("http://domain.com") instanceof IOFetchException);
+    }
+}
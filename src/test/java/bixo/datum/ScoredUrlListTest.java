@@ -0,0 +1,81 @@
+package bixo.datum;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import cascading.tuple.Fields;
+
+
+public class ScoredUrlListTest {
+
+    @SuppressWarnings("unchecked")
+    private static ScoredUrlDatum makeUrl(String url, String groupKey, double score, String metaValue) {
+        Map<String, Comparable> metaData = new HashMap<String, Comparable>();
+        metaData.put("meta1", metaValue);
+        return new ScoredUrlDatum(url, 1000, 2000, UrlStatus.FETCHED, groupKey, score, metaData);
+    }
+
+    private static void assertSameUrls(List<ScoredUrlDatum> expected, ScoredUrlList actual) {
+        assertEquals(expected.size(), actual.size());
+
+        Iterator<ScoredUrlDatum> iter = actual.iterator();
+        for (ScoredUrlDatum datum : expected) {
+            assertTrue(iter.hasNext());
+            ScoredUrlDatum decoded = iter.next();
+            assertEquals(datum.getUrl(), decoded.getUrl());
+            assertEquals(datum.getGroupKey(), decoded.getGroupKey());
+            assertEquals(datum.getScore(), decoded.getScore(), 0.0);
+            assertEquals(datum.getLastFetched(), decoded.getLastFetched());
+            assertEquals(datum.getLastUpdated(), decoded.getLastUpdated());
+            assertEquals(datum.getLastStatus(), decoded.getLastStatus());
+            assertEquals(datum.getMetaDataValue("meta1"), decoded.getMetaDataValue("meta1"));
+        }
+
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testFrontCoding() {
+        List<ScoredUrlDatum> urls = new ArrayList<ScoredUrlDatum>();
+        urls.add(makeUrl("http://domain.com/page-10.html", "key", 3.0, "a"));
+        urls.add(makeUrl("http://domain.com/page-1.html", "key", 2.0, "b"));
+        urls.add(makeUrl("http://domain.com/", "key", 1.0, "c"));
+        urls.add(makeUrl("http://other-domain.com/page-1.html", "key", 0.5, "d"));
+
+        ScoredUrlList list = new ScoredUrlList(urls);
+        assertEquals("http://domain.com/page-10.html", list.getFirstUrl());
+        assertSameUrls(urls, list);
+
+        ScoredUrlList list2 = new ScoredUrlList(list.toTuple(), new Fields("meta1"));
+        assertEquals(list, list2);
+        assertSameUrls(urls, list2);
+    }
+
+    @Test
+    public void testMixedGroupKeys() {
+        List<ScoredUrlDatum> urls = new ArrayList<ScoredUrlDatum>();
+        urls.add(makeUrl("http://domain.com/page-1.html", "key1", 1.0, "a"));
+        urls.add(makeUrl("http://domain.com/page-2.html", "key2", 1.0, "b"));
+
+        ScoredUrlList list = new ScoredUrlList(new ScoredUrlList(urls).toTuple(), new Fields("meta1"));
+        assertSameUrls(urls, list);
+    }
+
+    @Test
+    public void testEmptyList() {
+        ScoredUrlList list = new ScoredUrlList(new ArrayList<ScoredUrlDatum>());
+        assertTrue(list.isEmpty());
+        assertNull(list.getFirstUrl());
+        assertFalse(list.iterator().hasNext());
+
+        ScoredUrlList list2 = new ScoredUrlList(list.toTuple(), BaseDatum.EMPTY_METADATA_FIELDS);
+        assertEquals(list, list2);
+    }
+}
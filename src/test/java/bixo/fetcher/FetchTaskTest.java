@@ -0,0 +1,232 @@
+package bixo.fetcher;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import bixo.cascading.BixoFlowProcess;
+import bixo.config.FetcherPolicy;
+import bixo.datum.FetchOutcome;
+import bixo.datum.FetchedDatum;
+import bixo.datum.HttpHeaders;
+import bixo.datum.ScoredUrlDatum;
+import bixo.datum.UrlStatus;
+import bixo.exceptions.HttpFetchException;
+import bixo.exceptions.IOFetchException;
+import bixo.exceptions.UrlFetchException;
+import bixo.fetcher.http.IHttpFetcher;
+import cascading.tuple.Tuple;
+
+
+public class FetchTaskTest {
+
+    private static class CollectingFetchMgr implements IFetchMgr {
+        private BixoFlowProcess _process = new BixoFlowProcess();
+        private List<UrlStatus> _statuses = new ArrayList<UrlStatus>();
+
+        @Override
+        public BixoFlowProcess getProcess() {
+            return _process;
+        }
+
+        @Override
+        public void collect(Tuple tuple) {
+            Object result = tuple.get(tuple.size() - 1);
+            if (result instanceof Tuple) {
+                _statuses.add(new FetchOutcome((Tuple)result).getStatus());
+            } else {
+                _statuses.add(UrlStatus.valueOf((String)result));
+            }
+        }
+
+        @Override
+        public void finished(String ref) {
+        }
+
+        public List<UrlStatus> getStatuses() {
+            return _statuses;
+        }
+    }
+
+    private static List<ScoredUrlDatum> makeUrls(int numUrls) {
+        List<ScoredUrlDatum> urls = new ArrayList<ScoredUrlDatum>();
+        for (int i = 0; i < numUrls; i++) {
+            urls.add(new ScoredUrlDatum("http://domain.com/page-" + i + ".html"));
+        }
+
+        return urls;
+    }
+
+    private static int countStatus(List<UrlStatus> statuses, UrlStatus status) {
+        int result = 0;
+        for (UrlStatus curStatus : statuses) {
+            if (curStatus == status) {
+                result += 1;
+            }
+        }
+
+        return result;
+    }
+
+    @Test
+    public void testCircuitBreakerSkipsDeadHost() throws Exception {
+        IHttpFetcher fetcher = Mockito.mock(IHttpFetcher.class);
+        Mockito.when(fetcher.get(Mockito.any(ScoredUrlDatum.class))).thenThrow(new HttpFetchException("http://domain.com", "Unavailable", 503, new HttpHeaders()));
+
+        HostCircuitBreaker breaker = new HostCircuitBreaker(3);
+        CollectingFetchMgr fetchMgr = new CollectingFetchMgr();
+        new FetchTask(fetchMgr, fetcher, makeUrls(10), "ref", breaker, null).run();
+
+        List<UrlStatus> statuses = fetchMgr.getStatuses();
+        Assert.assertEquals(10, statuses.size());
+        Assert.assertEquals(3, countStatus(statuses, UrlStatus.HTTP_SERVER_ERROR));
+        Assert.assertEquals(7, countStatus(statuses, UrlStatus.SKIPPED_HOST_UNAVAILABLE));
+        Assert.assertTrue(breaker.isOpen("ref"));
+
+        // The next batch still tries one URL, as a probe.
+        fetchMgr = new CollectingFetchMgr();
+        new FetchTask(fetchMgr, fetcher, makeUrls(5), "ref", breaker, null).run();
+        statuses = fetchMgr.getStatuses();
+        Assert.assertEquals(1, countStatus(statuses, UrlStatus.HTTP_SERVER_ERROR));
+        Assert.assertEquals(4, countStatus(statuses, UrlStatus.SKIPPED_HOST_UNAVAILABLE));
+    }
+
+    @Test
+    public void testSuccessfulProbeClosesCircuit() throws Exception {
+        IHttpFetcher fetcher = Mockito.mock(IHttpFetcher.class);
+        Mockito.when(fetcher.get(Mockito.any(ScoredUrlDatum.class))).thenReturn(new FetchedDatum(new ScoredUrlDatum("http://domain.com")));
+
+        HostCircuitBreaker breaker = new HostCircuitBreaker(2);
+        breaker.recordFailure("ref");
+        breaker.recordFailure("ref");
+        Assert.assertTrue(breaker.isOpen("ref"));
+
+        CollectingFetchMgr fetchMgr = new CollectingFetchMgr();
+        new FetchTask(fetchMgr, fetcher, makeUrls(5), "ref", breaker, null).run();
+        Assert.assertEquals(5, countStatus(fetchMgr.getStatuses(), UrlStatus.FETCHED));
+        Assert.assertFalse(breaker.isOpen("ref"));
+    }
+
+    @Test
+    public void testHostFailures() {
+        Assert.assertTrue(HostCircuitBreaker.isHostFailure(new HttpFetchException("http://domain.com", "Error", 500, new HttpHeaders())));
+        Assert.assertFalse(HostCircuitBreaker.isHostFailure(new HttpFetchException("http://domain.com", "Not found", 404, new HttpHeaders())));
+        Assert.assertTrue(HostCircuitBreaker.isHostFailure(new IOFetchException("http://domain.com", new SocketTimeoutException())));
+        Assert.assertFalse(HostCircuitBreaker.isHostFailure(new UrlFetchException("http://domain.com", "Bad URL")));
+
+        // A 404 means the server is alive, so it resets the count.
+        HostCircuitBreaker breaker = new HostCircuitBreaker(2);
+        breaker.recordFailure("ref");
+        breaker.recordFailure("ref", new HttpFetchException("http://domain.com", "Not found", 404, new HttpHeaders()));
+        breaker.recordFailure("ref");
+        Assert.assertFalse(breaker.isOpen("ref"));
+    }
+    
+    @Test
+    public void testCircuitBreakerIsBounded() {
+        HostCircuitBreaker breaker = new HostCircuitBreaker(1, 2);
+        breaker.recordFailure("ref1");
+        breaker.recordFailure("ref2");
+        Assert.assertTrue(breaker.isOpen("ref1"));
+        
+        // ref2 is now the least recently used, so it's the one that gets dropped.
+        breaker.recordFailure("ref3");
+        Assert.assertTrue(breaker.isOpen("ref1"));
+        Assert.assertFalse(breaker.isOpen("ref2"));
+        Assert.assertTrue(breaker.isOpen("ref3"));
+        
+        breaker.release("ref1");
+        Assert.assertFalse(breaker.isOpen("ref1"));
+    }
+    
+    @Test
+    public void testRetryingTransientFailures() throws Exception {
+        IHttpFetcher fetcher = Mockito.mock(IHttpFetcher.class);
+        Mockito.when(fetcher.get(Mockito.any(ScoredUrlDatum.class))).thenThrow(new IOFetchException("http://domain.com", new IOException()));
+
+        FetcherPolicy policy = new FetcherPolicy();
+        policy.setMaxFetchRetries(2);
+        policy.setFetchRetryDelay(1000);
+        FetchRetryQueue retryQueue = new FetchRetryQueue(policy);
+        
+        // First failure means everything is queued up, and nothing is reported.
+        CollectingFetchMgr fetchMgr = new CollectingFetchMgr();
+        new FetchTask(fetchMgr, fetcher, makeUrls(3), "ref", null, retryQueue).run();
+        Assert.assertEquals(0, fetchMgr.getStatuses().size());
+        Assert.assertFalse(retryQueue.isEmpty());
+        
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(retryQueue.getReadyRefs(now).isEmpty());
+        Assert.assertTrue(retryQueue.getReadyRefs(now + 1000).contains("ref"));
+        
+        // Second failure backs off to twice the delay.
+        List<ScoredUrlDatum> urls = retryQueue.removeReady("ref", now + 1000);
+        Assert.assertEquals(3, urls.size());
+        Assert.assertTrue(retryQueue.isEmpty());
+        new FetchTask(fetchMgr, fetcher, urls, "ref", null, retryQueue).run();
+        Assert.assertEquals(0, fetchMgr.getStatuses().size());
+        now = System.currentTimeMillis();
+        Assert.assertTrue(retryQueue.getReadyRefs(now + 1000).isEmpty());
+        
+        // Third failure is reported, since we're out of retries.
+        urls = retryQueue.removeReady("ref", now + 2000);
+        new FetchTask(fetchMgr, fetcher, urls, "ref", null, retryQueue).run();
+        Assert.assertEquals(3, countStatus(fetchMgr.getStatuses(), UrlStatus.ERROR_IOEXCEPTION));
+        Assert.assertTrue(retryQueue.isEmpty());
+    }
+    
+    @Test
+    public void testRetryCountsAreCleared() throws Exception {
+        FetcherPolicy policy = new FetcherPolicy();
+        policy.setMaxFetchRetries(1);
+        policy.setFetchRetryDelay(1000);
+        FetchRetryQueue retryQueue = new FetchRetryQueue(policy);
+        ScoredUrlDatum datum = new ScoredUrlDatum("http://domain.com/page.html");
+        Tuple failure = new Tuple("failure");
+        IOFetchException e = new IOFetchException("http://domain.com", new IOException());
+        
+        // The retry uses up the URL's only retry.
+        Assert.assertTrue(retryQueue.add("ref", datum, e, failure));
+        Assert.assertEquals(1, retryQueue.removeReady("ref", System.currentTimeMillis() + 1000).size());
+        Assert.assertFalse(retryQueue.add("ref", datum, e, failure));
+        
+        // Once it's done (e.g. fetched on the retry), it starts over.
+        retryQueue.done(datum);
+        Assert.assertTrue(retryQueue.add("ref", datum, e, failure));
+    }
+    
+    @Test
+    public void testRetryQueueLimits() throws Exception {
+        FetcherPolicy policy = new FetcherPolicy();
+        policy.setFetchRetryDelay(1000);
+        FetchRetryQueue retryQueue = new FetchRetryQueue(policy);
+        ScoredUrlDatum datum = new ScoredUrlDatum("http://domain.com/page.html");
+        Tuple failure = new Tuple("failure");
+        
+        // Permanent failures aren't retried.
+        Assert.assertFalse(retryQueue.add("ref", datum, new HttpFetchException("http://domain.com", "Not found", 404, new HttpHeaders()), failure));
+        
+        // Retry-After is used when it's longer than our own delay.
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Retry-After", "60");
+        Assert.assertTrue(retryQueue.add("ref", datum, new HttpFetchException("http://domain.com", "Unavailable", 503, headers), failure));
+        Assert.assertTrue(retryQueue.getReadyRefs(System.currentTimeMillis() + 10000).isEmpty());
+        
+        // Once we stop, anything left over gets returned, and nothing else is accepted.
+        List<Tuple> failures = retryQueue.close();
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals(failure, failures.get(0));
+        Assert.assertFalse(retryQueue.add("ref", datum, new IOFetchException("http://domain.com", new IOException()), failure));
+        
+        // And we don't retry if it would be after the crawl end time.
+        policy.setCrawlEndTime(System.currentTimeMillis() + 500);
+        retryQueue = new FetchRetryQueue(policy);
+        Assert.assertFalse(retryQueue.add("ref", datum, new IOFetchException("http://domain.com", new IOException()), failure));
+    }
+}
@@ -0,0 +1,153 @@
+package bixo.fetcher.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+import org.mortbay.http.HttpException;
+import org.mortbay.http.HttpRequest;
+import org.mortbay.http.HttpResponse;
+import org.mortbay.http.HttpServer;
+import org.mortbay.http.handler.AbstractHttpHandler;
+
+import bixo.datum.FetchedDatum;
+import bixo.datum.ScoredUrlDatum;
+import bixo.exceptions.HttpFetchException;
+import bixo.fetcher.simulation.SimulationWebServer;
+import bixo.utils.ConfigUtils;
+
+
+public class PipeliningHttpFetcherTest extends SimulationWebServer {
+
+    /**
+     * Return the path as the content. Paths containing "missing" get a 404, paths containing
+     * "chunked" are sent without a content length, and paths containing "close" tell the
+     * client to close the connection after the response.
+     */
+    @SuppressWarnings("serial")
+    private static class PathResponseHandler extends AbstractHttpHandler {
+
+        @Override
+        public void handle(String pathInContext, String pathParams, HttpRequest request, HttpResponse response) throws HttpException, IOException {
+            if (pathInContext.contains("close")) {
+                response.setField("Connection", "close");
+            }
+
+            if (pathInContext.contains("missing")) {
+                response.setStatus(HttpStatus.SC_NOT_FOUND);
+                response.setContentLength(0);
+                request.setHandled(true);
+                return;
+            }
+
+            byte[] content = pathInContext.getBytes("UTF-8");
+            response.setStatus(HttpStatus.SC_OK);
+            response.setContentType("text/plain");
+            if (!pathInContext.contains("chunked")) {
+                response.setContentLength(content.length);
+            }
+
+            response.getOutputStream().write(content);
+        }
+    }
+
+    private static List<ScoredUrlDatum> makeUrls(String... paths) {
+        List<ScoredUrlDatum> urls = new ArrayList<ScoredUrlDatum>();
+        for (String path : paths) {
+            urls.add(new ScoredUrlDatum("http://localhost:8089" + path));
+        }
+
+        return urls;
+    }
+
+    private static void assertFetched(FetchedDatum result, String path) throws Exception {
+        Assert.assertEquals("http://localhost:8089" + path, result.getBaseUrl());
+        Assert.assertEquals(path, new String(result.getContentBytes(), "UTF-8"));
+    }
+
+    @Test
+    public void testPipelinedFetching() throws Exception {
+        HttpServer server = startServer(new PathResponseHandler(), 8089);
+
+        try {
+            List<ScoredUrlDatum> urls = makeUrls("/page-1.html", "/page-2.html", "/chunked-3.html", "/page-4.html", "/chunked-5.html", "/page-6.html");
+            PipeliningHttpFetcher fetcher = new PipeliningHttpFetcher(new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT), urls, 4);
+
+            for (ScoredUrlDatum url : urls) {
+                FetchedDatum result = fetcher.get(url);
+                assertFetched(result, url.getUrl().substring("http://localhost:8089".length()));
+                Assert.assertNotNull(result.getHostAddress());
+            }
+
+            Assert.assertTrue(fetcher.isPipelining());
+            fetcher.close();
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testErrorResponse() throws Exception {
+        HttpServer server = startServer(new PathResponseHandler(), 8089);
+
+        try {
+            List<ScoredUrlDatum> urls = makeUrls("/page-1.html", "/missing-2.html", "/page-3.html");
+            PipeliningHttpFetcher fetcher = new PipeliningHttpFetcher(new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT), urls, 3);
+
+            assertFetched(fetcher.get(urls.get(0)), "/page-1.html");
+
+            try {
+                fetcher.get(urls.get(1));
+                Assert.fail("Exception not thrown");
+            } catch (HttpFetchException e) {
+                Assert.assertEquals(HttpStatus.SC_NOT_FOUND, e.getHttpStatus());
+            }
+
+            // A 404 doesn't break the pipeline.
+            assertFetched(fetcher.get(urls.get(2)), "/page-3.html");
+            Assert.assertTrue(fetcher.isPipelining());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFallbackWhenServerClosesConnection() throws Exception {
+        HttpServer server = startServer(new PathResponseHandler(), 8089);
+
+        try {
+            List<ScoredUrlDatum> urls = makeUrls("/page-1.html", "/close-2.html", "/page-3.html", "/page-4.html");
+            PipeliningHttpFetcher fetcher = new PipeliningHttpFetcher(new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT), urls, 4);
+
+            assertFetched(fetcher.get(urls.get(0)), "/page-1.html");
+            assertFetched(fetcher.get(urls.get(1)), "/close-2.html");
+            Assert.assertFalse(fetcher.isPipelining());
+
+            // The requests we'd already sent are lost, so these come from the regular fetcher.
+            assertFetched(fetcher.get(urls.get(2)), "/page-3.html");
+            assertFetched(fetcher.get(urls.get(3)), "/page-4.html");
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFallbackWhenOutOfOrder() throws Exception {
+        HttpServer server = startServer(new PathResponseHandler(), 8089);
+
+        try {
+            List<ScoredUrlDatum> urls = makeUrls("/page-1.html", "/page-2.html", "/page-3.html");
+            PipeliningHttpFetcher fetcher = new PipeliningHttpFetcher(new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT), urls, 2);
+
+            assertFetched(fetcher.get(urls.get(1)), "/page-2.html");
+            Assert.assertFalse(fetcher.isPipelining());
+            assertFetched(fetcher.get(urls.get(0)), "/page-1.html");
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -20,6 +20,7 @@ import bixo.config.FetcherPolicy;
 import bixo.config.FetcherPolicy.RedirectMode;
 import bixo.datum.FetchedDatum;
 import bixo.datum.ScoredUrlDatum;
+import bixo.datum.UrlStatus;
 import bixo.exceptions.AbortedFetchException;
 import bixo.exceptions.AbortedFetchReason;
 import bixo.exceptions.IOFetchException;
@@ -29,6 +30,7 @@ import bixo.fetcher.RandomResponseHandler;
 import bixo.fetcher.ResourcesResponseHandler;
 import bixo.fetcher.simulation.SimulationWebServer;
 import bixo.utils.ConfigUtils;
+import bixo.utils.GroupingKey;
 
 public class SimpleHttpFetcherTest extends SimulationWebServer {
     
@@ -397,6 +399,27 @@ public class SimpleHttpFetcherTest extends SimulationWebServer {
         }
     }
 
+    @SuppressWarnings("serial")
+    private class CookieResponseHandler extends AbstractHttpHandler {
+        
+        @Override
+        public void handle(String pathInContext, String pathParams, HttpRequest request, HttpResponse response) throws HttpException, IOException {
+            String cookie = request.getField("Cookie");
+            byte[] content;
+            if ((cookie != null) && cookie.contains("session=1234")) {
+                content = "cookie".getBytes("UTF-8");
+            } else {
+                response.setField("Set-Cookie", "session=1234; Path=/");
+                content = "no cookie".getBytes("UTF-8");
+            }
+            
+            response.setStatus(HttpStatus.SC_OK);
+            response.setContentType("text/plain");
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
+        }
+    }
+    
     @Test
     public final void testHostAddress() throws Exception {
         FetcherPolicy policy = new FetcherPolicy();
@@ -411,4 +434,49 @@ public class SimpleHttpFetcherTest extends SimulationWebServer {
         assertEquals("127.0.0.1", hostAddress);
     }
     
+    @Test
+    public final void testResolvedHostAddress() throws Exception {
+        HttpServer server = startServer(new ResourcesResponseHandler(), 8089);
+        IHttpFetcher fetcher = new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT);
+        
+        // The host can't be resolved, so this only works if we use the address from the grouping key.
+        String url = "http://unknown-host.invalid:8089/simple-page.html";
+        ScoredUrlDatum datum = new ScoredUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, GroupingKey.makeGroupingKey("127.0.0.1", 0), 1.0, null);
+        
+        try {
+            FetchedDatum result = fetcher.get(datum);
+            assertEquals("127.0.0.1", result.getHostAddress());
+            assertEquals(url, result.getBaseUrl());
+        } finally {
+            server.stop();
+        }
+    }
+    
+    @Test
+    public final void testCookiesSharedWithinRef() throws Exception {
+        HttpServer server = startServer(new CookieResponseHandler(), 8089);
+        SimpleHttpFetcher fetcher = new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT);
+        
+        String ref = GroupingKey.makeGroupingKey("127.0.0.1", 0);
+        ScoredUrlDatum datum1 = new ScoredUrlDatum("http://localhost:8089/page-1.html", 0, 0, UrlStatus.UNFETCHED, ref, 1.0, null);
+        ScoredUrlDatum datum2 = new ScoredUrlDatum("http://localhost:8089/page-2.html", 0, 0, UrlStatus.UNFETCHED, ref, 1.0, null);
+        
+        try {
+            // The session cookie from the first request is sent with the second one.
+            assertEquals("no cookie", new String(fetcher.get(datum1).getContentBytes(), "UTF-8"));
+            assertEquals("cookie", new String(fetcher.get(datum2).getContentBytes(), "UTF-8"));
+            
+            // Once the ref is released, we start over.
+            fetcher.releaseContext(ref);
+            assertEquals("no cookie", new String(fetcher.get(datum1).getContentBytes(), "UTF-8"));
+            
+            // And without a ref, nothing is shared.
+            ScoredUrlDatum datum3 = new ScoredUrlDatum("http://localhost:8089/page-3.html");
+            assertEquals("no cookie", new String(fetcher.get(datum3).getContentBytes(), "UTF-8"));
+            assertEquals("no cookie", new String(fetcher.get(datum3).getContentBytes(), "UTF-8"));
+        } finally {
+            server.stop();
+        }
+    }
+    
 }
@@ -172,4 +172,9 @@ public class FakeHttpFetcher implements IHttpFetcher {
         // Do nothing
     }
 
+    @Override
+    public void releaseContext(String ref) {
+        // Do nothing
+    }
+
 }
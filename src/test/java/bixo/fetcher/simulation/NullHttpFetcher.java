@@ -71,4 +71,9 @@ public class NullHttpFetcher implements IHttpFetcher {
         // Do nothing
     }
 
+    @Override
+    public void releaseContext(String ref) {
+        // Do nothing
+    }
+
 }
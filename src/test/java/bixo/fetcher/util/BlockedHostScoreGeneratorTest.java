@@ -0,0 +1,68 @@
+package bixo.fetcher.util;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import bixo.datum.GroupedUrlDatum;
+import bixo.datum.UrlStatus;
+import bixo.utils.HostSuffixSet;
+
+public class BlockedHostScoreGeneratorTest {
+
+    // Like the RevisitScoreGenerator, this only gives the real score for a GroupedUrlDatum.
+    @SuppressWarnings("serial")
+    private static class DatumScoreGenerator extends ScoreGenerator {
+
+        @Override
+        public boolean isGoodDomain(String domain, String pld) {
+            return !domain.startsWith("bad.");
+        }
+
+        @Override
+        public double generateScore(String domain, String pld, GroupedUrlDatum url) {
+            return 2.0;
+        }
+
+        @Override
+        public double generateScore(String domain, String pld, String url) {
+            return 1.0;
+        }
+    }
+
+    private static BlockedHostScoreGenerator makeScorer(String... hosts) throws Exception {
+        File workingFolder = new File("build/test/BlockedHostScoreGeneratorTest/working");
+        workingFolder.mkdirs();
+        File setFile = new File(workingFolder, "hosts.bin");
+        setFile.delete();
+
+        HostSuffixSet.write(Arrays.asList(hosts), setFile);
+        return new BlockedHostScoreGenerator(new DatumScoreGenerator(), setFile.getAbsolutePath());
+    }
+
+    @Test
+    public void testDelegation() throws Exception {
+        BlockedHostScoreGenerator scorer = makeScorer("blocked.com");
+        GroupedUrlDatum datum = new GroupedUrlDatum("http://www.domain.com/", 0, 0, UrlStatus.UNFETCHED, "key", null);
+
+        Assert.assertEquals(2.0, scorer.generateScore("www.domain.com", "domain.com", datum));
+        Assert.assertEquals(1.0, scorer.generateScore("www.domain.com", "domain.com", "http://www.domain.com/"));
+        Assert.assertEquals(1.0, scorer.generateScore("http://www.domain.com/"));
+        Assert.assertTrue(scorer.isGoodDomain("www.domain.com", "domain.com"));
+        Assert.assertFalse(scorer.isGoodDomain("bad.domain.com", "domain.com"));
+    }
+
+    @Test
+    public void testBlockedHosts() throws Exception {
+        BlockedHostScoreGenerator scorer = makeScorer("blocked.com");
+        GroupedUrlDatum datum = new GroupedUrlDatum("http://www.blocked.com/", 0, 0, UrlStatus.UNFETCHED, "key", null);
+
+        Assert.assertEquals(ScoreGenerator.SKIP_SCORE, scorer.generateScore("www.blocked.com", "blocked.com", datum));
+        Assert.assertEquals(ScoreGenerator.SKIP_SCORE, scorer.generateScore("www.blocked.com", "blocked.com", "http://www.blocked.com/"));
+        Assert.assertEquals(ScoreGenerator.SKIP_SCORE, scorer.generateScore("http://www.blocked.com/"));
+        Assert.assertFalse(scorer.isGoodDomain("www.blocked.com", "blocked.com"));
+    }
+}
@@ -0,0 +1,72 @@
+package bixo.fetcher.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mockito;
+
+import bixo.config.FetcherPolicy;
+import bixo.datum.BaseDatum;
+import bixo.datum.PreFetchedDatum;
+import bixo.datum.ScoredUrlDatum;
+import bixo.utils.GroupingKey;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryCollector;
+
+
+public class PreFetchBatcherTest {
+
+    private static class RecordBatches extends ArgumentMatcher<Tuple> {
+        private List<PreFetchedDatum> _batches = new ArrayList<PreFetchedDatum>();
+
+        @Override
+        public boolean matches(Object argument) {
+            _batches.add(new PreFetchedDatum((Tuple)argument, BaseDatum.EMPTY_METADATA_FIELDS));
+            return true;
+        }
+
+        public List<PreFetchedDatum> getBatches() {
+            return _batches;
+        }
+    }
+
+    private static List<PreFetchedDatum> makeBatches(FetcherPolicy policy, int numUrls) {
+        List<ScoredUrlDatum> urls = new ArrayList<ScoredUrlDatum>();
+        for (int i = 0; i < numUrls; i++) {
+            urls.add(new ScoredUrlDatum("http://domain.com/page-" + i + ".html"));
+        }
+
+        TupleEntryCollector collector = Mockito.mock(TupleEntryCollector.class);
+        PreFetchBatcher batcher = new PreFetchBatcher(policy, 1);
+        batcher.makeBatches(GroupingKey.makeGroupingKey("1.2.3.4", 1000), urls.iterator(), collector);
+
+        RecordBatches recorder = new RecordBatches();
+        Mockito.verify(collector, Mockito.atLeastOnce()).add(Mockito.argThat(recorder));
+        return recorder.getBatches();
+    }
+
+    @Test
+    public void testParallelFetchingBatchSize() {
+        FetcherPolicy policy = new FetcherPolicy();
+        policy.setMaxRequestsPerConnection(10);
+        policy.setMaxConnectionsPerHost(3);
+
+        // Without parallel fetching, we only get one connection's worth per batch.
+        List<PreFetchedDatum> batches = makeBatches(policy, 45);
+        Assert.assertEquals(10, batches.get(0).getUrlList().size());
+        Assert.assertEquals(10 * 1000L, batches.get(0).getFetchDelay());
+
+        // With it, every connection slot gets that many URLs in the same amount of time.
+        policy.setParallelFetching(true);
+        batches = makeBatches(policy, 45);
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(30, batches.get(0).getUrlList().size());
+        Assert.assertEquals(10 * 1000L, batches.get(0).getFetchDelay());
+        Assert.assertEquals(15, batches.get(1).getUrlList().size());
+        Assert.assertTrue(batches.get(1).isLastList());
+    }
+}
@@ -2,11 +2,14 @@ package bixo.operations;
 
 import java.util.ArrayList;
 
+import junit.framework.Assert;
+
 import org.apache.hadoop.mapred.JobConf;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
+import bixo.cascading.BixoFlowProcess;
 import bixo.cascading.NullContext;
 import bixo.datum.BaseDatum;
 import bixo.datum.GroupedUrlDatum;
@@ -22,6 +25,7 @@ import bixo.hadoop.FetchCounters;
 import bixo.robots.RobotRulesParser;
 import bixo.robots.SimpleRobotRulesParser;
 import bixo.utils.ConfigUtils;
+import bixo.utils.DiskQueue;
 import bixo.utils.GroupingKey;
 import cascading.flow.hadoop.HadoopFlowProcess;
 import cascading.operation.BufferCall;
@@ -42,6 +46,33 @@ public class FilterAndScoreByUrlAndRobotsTest {
         }
     }
     
+    private static class MatchDeferredKey extends ArgumentMatcher<Tuple> {
+
+        @Override
+        public boolean matches(Object argument) {
+            ScoredUrlDatum datum = new ScoredUrlDatum((Tuple)argument, BaseDatum.EMPTY_METADATA_FIELDS);
+            return (datum.getGroupKey().equals(GroupingKey.DEFERRED_GROUPING_KEY));
+        }
+    }
+    
+    private static class MatchGroupingKey extends ArgumentMatcher<Tuple> {
+        private boolean _wantLimited;
+        
+        public MatchGroupingKey(boolean wantLimited) {
+            _wantLimited = wantLimited;
+        }
+        
+        @Override
+        public boolean matches(Object argument) {
+            ScoredUrlDatum datum = new ScoredUrlDatum((Tuple)argument, BaseDatum.EMPTY_METADATA_FIELDS);
+            if (_wantLimited) {
+                return datum.getGroupKey().equals(GroupingKey.LIMITED_GROUPING_KEY);
+            } else {
+                return !GroupingKey.isSpecialKey(datum.getGroupKey());
+            }
+        }
+    }
+    
     @SuppressWarnings("unchecked")
     @Test
     public void testUsingAllThreads() throws Exception {
@@ -135,4 +166,76 @@ public class FilterAndScoreByUrlAndRobotsTest {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testLimitingUrlsPerServer() throws Exception {
+        final int maxUrlsPerServer = 1;
+        final int numUrls = 3;
+        
+        SimpleHttpFetcher fetcher = new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT);
+        ScoreGenerator scorer = new FixedScoreGenerator(1.0);
+        RobotRulesParser parser = new SimpleRobotRulesParser();
+        FilterAndScoreByUrlAndRobots op = new FilterAndScoreByUrlAndRobots(fetcher, parser, scorer, BaseDatum.EMPTY_METADATA_FIELDS, maxUrlsPerServer, null);
+        
+        HadoopFlowProcess fp = Mockito.mock(HadoopFlowProcess.class);
+        Mockito.when(fp.getJobConf()).thenReturn(new JobConf());
+        
+        OperationCall<NullContext> oc = Mockito.mock(OperationCall.class);
+        BufferCall<NullContext> bc = Mockito.mock(BufferCall.class);
+        
+        ArrayList<TupleEntry> iterValues = new ArrayList<TupleEntry>();
+        for (int i = 0; i < numUrls; i++) {
+            String url = "http://localhost:8089/page-" + i + ".html";
+            iterValues.add(new TupleEntry(new GroupedUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, "http://localhost:8089", BaseDatum.EMPTY_METADATA_MAP).toTuple()));
+        }
+        
+        TupleEntryCollector collector = Mockito.mock(TupleEntryCollector.class);
+        
+        Mockito.when(bc.getGroup()).thenReturn(new TupleEntry(new Tuple("http://localhost:8089")));
+        Mockito.when(bc.getArgumentsIterator()).thenReturn(iterValues.iterator());
+        Mockito.when(bc.getOutputCollector()).thenReturn(collector);
+        
+        TestWebServer server = null;
+        
+        try {
+            final String allowAllRobots = "User-agent: *" + CRLF
+            + "Disallow:";
+
+            server = new TestWebServer(new StringResponseHandler("text/plain", allowAllRobots), 8089);
+            op.prepare(fp, oc);
+            op.operate(fp, bc);
+            op.cleanup(fp, oc);
+            
+            Mockito.verify(collector, Mockito.times(maxUrlsPerServer)).add(Mockito.argThat(new MatchGroupingKey(false)));
+            Mockito.verify(collector, Mockito.times(numUrls - maxUrlsPerServer)).add(Mockito.argThat(new MatchGroupingKey(true)));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testStreamingRejectedDomain() throws Exception {
+        final int numUrls = 250;
+        
+        SimpleHttpFetcher fetcher = new SimpleHttpFetcher(1, ConfigUtils.BIXO_TEST_AGENT);
+        ScoreGenerator scorer = new FixedScoreGenerator(1.0);
+        RobotRulesParser parser = new SimpleRobotRulesParser();
+        TupleEntryCollector collector = Mockito.mock(TupleEntryCollector.class);
+        
+        // Since the domain is rejected before any URLs are added, nothing should get queued.
+        DiskQueue<GroupedUrlDatum> urls = new DiskQueue<GroupedUrlDatum>(10);
+        ProcessRobotsTask task = new ProcessRobotsTask("http://localhost:8089", scorer, urls, fetcher, parser, collector, new BixoFlowProcess());
+        task.beginStreaming();
+        task.rejectDomain(GroupingKey.DEFERRED_GROUPING_KEY);
+        
+        for (int i = 0; i < numUrls; i++) {
+            String url = "http://localhost:8089/page-" + i + ".html";
+            task.addUrl(new GroupedUrlDatum(url, 0, 0, UrlStatus.UNFETCHED, "http://localhost:8089", BaseDatum.EMPTY_METADATA_MAP));
+            Assert.assertTrue(urls.isEmpty());
+        }
+        
+        task.endStreaming();
+        Mockito.verify(collector, Mockito.times(numUrls)).add(Mockito.argThat(new MatchDeferredKey()));
+    }
+
 }
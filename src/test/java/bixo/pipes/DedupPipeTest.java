@@ -0,0 +1,188 @@
+package bixo.pipes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import bixo.datum.Outlink;
+import bixo.datum.ParsedDatum;
+import bixo.operations.MarkDuplicatesFunction;
+import bixo.operations.RemoveDuplicatesFilter;
+import cascading.CascadingTestCase;
+import cascading.flow.Flow;
+import cascading.flow.FlowConnector;
+import cascading.pipe.Each;
+import cascading.pipe.Pipe;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Lfs;
+import cascading.tap.SinkMode;
+import cascading.tap.Tap;
+import cascading.tuple.Fields;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryCollector;
+import cascading.tuple.TupleEntryIterator;
+
+public class DedupPipeTest extends CascadingTestCase {
+
+    private static final String WORKING_DIR = "build/test/DedupPipeTest";
+
+    private static final String BASE_TEXT = "the quick brown fox jumps over the lazy dog while the farmer watches from the old wooden fence "
+        + "near the river bank and the children play games in the tall green grass under a bright summer sun that warms the quiet "
+        + "valley below the distant blue mountains";
+
+    private static final String OTHER_TEXT = "a completely different page about cooking pasta with fresh tomatoes garlic basil and olive oil "
+        + "which should never be confused with anything else in this small test collection of documents";
+
+    private static String replaceWord(String text, int index, String newWord) {
+        String[] words = text.split(" ");
+        words[index] = newWord;
+        StringBuilder result = new StringBuilder();
+        for (String word : words) {
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+
+            result.append(word);
+        }
+
+        return result.toString();
+    }
+
+    private static Map<String, String> runDedup(String testName, String[][] docs) throws Exception {
+        String inPath = WORKING_DIR + "/" + testName + "/in";
+        Lfs in = new Lfs(new SequenceFile(ParsedDatum.FIELDS), inPath, SinkMode.REPLACE);
+        TupleEntryCollector write = in.openForWrite(new JobConf());
+        for (String[] doc : docs) {
+            write.add(new ParsedDatum(doc[0], "127.0.0.1", doc[1], "en", "title", new Outlink[0], null, null).toTuple());
+        }
+        write.close();
+
+        // First find the duplicates.
+        DedupPipe dedupPipe = new DedupPipe(new Pipe("parsed"));
+
+        String outPath = WORKING_DIR + "/" + testName + "/out";
+        Tap duplicatesSink = new Lfs(new SequenceFile(DedupPipe.DUPLICATES_FIELDS), outPath + "/duplicates", SinkMode.REPLACE);
+        Tap outlinksSink = new Lfs(new SequenceFile(ParsedDatum.FIELDS), outPath + "/outlinks", SinkMode.REPLACE);
+
+        Map<String, Tap> sinkMap = new HashMap<String, Tap>();
+        sinkMap.put(DedupPipe.DEDUP_PIPE_NAME, duplicatesSink);
+        sinkMap.put(DedupPipe.OUTLINKS_PIPE_NAME, outlinksSink);
+
+        Flow flow = new FlowConnector().connect(in, sinkMap, dedupPipe.getDuplicatesTailPipe(), dedupPipe.getOutlinksTailPipe());
+        flow.complete();
+
+        // Then mark them on the map side, and remove them.
+        Pipe markPipe = new Pipe("mark");
+        markPipe = new Each(markPipe, new MarkDuplicatesFunction(duplicatesSink), Fields.ALL);
+        Pipe uniquePipe = new Pipe("unique", markPipe);
+        uniquePipe = new Each(uniquePipe, new RemoveDuplicatesFilter());
+
+        Fields outFields = ParsedDatum.FIELDS.append(new Fields(DedupPipe.DUPLICATE_OF_FIELD));
+        Tap allSink = new Lfs(new SequenceFile(outFields), outPath + "/all", SinkMode.REPLACE);
+        Tap uniqueSink = new Lfs(new SequenceFile(outFields), outPath + "/unique", SinkMode.REPLACE);
+
+        sinkMap = new HashMap<String, Tap>();
+        sinkMap.put(markPipe.getName(), allSink);
+        sinkMap.put(uniquePipe.getName(), uniqueSink);
+
+        flow = new FlowConnector().connect(in, sinkMap, markPipe, uniquePipe);
+        flow.complete();
+
+        Map<String, String> result = new HashMap<String, String>();
+        TupleEntryIterator iter = allSink.openForRead(new JobConf());
+        while (iter.hasNext()) {
+            TupleEntry entry = iter.next();
+            result.put(entry.getString(ParsedDatum.URL_FIELD), entry.getString(DedupPipe.DUPLICATE_OF_FIELD));
+        }
+        iter.close();
+
+        // Every document that's not a duplicate should make it through the filter.
+        int numUnique = 0;
+        iter = uniqueSink.openForRead(new JobConf());
+        while (iter.hasNext()) {
+            TupleEntry entry = iter.next();
+            assertEquals("", result.get(entry.getString(ParsedDatum.URL_FIELD)));
+            numUnique += 1;
+        }
+        iter.close();
+
+        // And the same documents (but without their text) should be used for outlinks.
+        int numOutlinks = 0;
+        iter = outlinksSink.openForRead(new JobConf());
+        while (iter.hasNext()) {
+            TupleEntry entry = iter.next();
+            assertEquals("", result.get(entry.getString(ParsedDatum.URL_FIELD)));
+            assertEquals("", entry.getString(ParsedDatum.PARSED_TEXT_FIELD));
+            numOutlinks += 1;
+        }
+        iter.close();
+        assertEquals(numUnique, numOutlinks);
+
+        int numOriginals = 0;
+        for (String duplicateOf : result.values()) {
+            if (duplicateOf.length() == 0) {
+                numOriginals += 1;
+            } else {
+                // What a document is a duplicate of must never be removed itself.
+                assertEquals("", result.get(duplicateOf));
+            }
+        }
+
+        assertTrue(numOriginals <= numUnique);
+        return result;
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        String[][] docs = {
+            { "http://domain.com/page1", BASE_TEXT },
+            { "http://domain.com/page2", replaceWord(BASE_TEXT, 10, "zebra") },
+            { "http://domain.com/page3", BASE_TEXT },
+            { "http://domain.com/page4", OTHER_TEXT },
+            { "http://domain.com/page5", "too short to check" },
+        };
+
+        Map<String, String> result = runDedup("testNearDuplicates", docs);
+        assertEquals(docs.length, result.size());
+        assertEquals("", result.get("http://domain.com/page1"));
+        assertEquals("http://domain.com/page1", result.get("http://domain.com/page3"));
+        assertEquals("", result.get("http://domain.com/page4"));
+        assertEquals("", result.get("http://domain.com/page5"));
+    }
+
+    @Test
+    public void testDuplicateChains() throws Exception {
+        // The page with the middle URL is close to both of the others, but they aren't
+        // close to each other, so they only match via different bands. All three have
+        // to wind up as one set, with the lowest URL as the original.
+        String[][] docs = {
+            { "http://domain.com/a", replaceWord(BASE_TEXT, 4, "zebra") },
+            { "http://domain.com/b", BASE_TEXT },
+            { "http://domain.com/c", replaceWord(BASE_TEXT, 0, "zebra") },
+        };
+
+        Map<String, String> result = runDedup("testDuplicateChains", docs);
+        assertEquals("", result.get("http://domain.com/a"));
+        assertEquals("http://domain.com/a", result.get("http://domain.com/b"));
+        assertEquals("http://domain.com/a", result.get("http://domain.com/c"));
+    }
+
+    @Test
+    public void testRepeatedUrls() throws Exception {
+        // Every datum for a URL has to be kept (or removed), not just the first one.
+        String[][] docs = {
+            { "http://domain.com/page1", BASE_TEXT },
+            { "http://domain.com/page1", BASE_TEXT },
+            { "http://domain.com/page2", BASE_TEXT },
+            { "http://domain.com/page2", BASE_TEXT },
+            { "http://domain.com/page3", OTHER_TEXT },
+        };
+
+        Map<String, String> result = runDedup("testRepeatedUrls", docs);
+        assertEquals("", result.get("http://domain.com/page1"));
+        assertEquals("http://domain.com/page1", result.get("http://domain.com/page2"));
+        assertEquals("", result.get("http://domain.com/page3"));
+    }
+}
@@ -2,7 +2,10 @@ package bixo.pipes;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.http.HttpStatus;
@@ -17,6 +20,7 @@ import bixo.config.UserAgent;
 import bixo.datum.BaseDatum;
 import bixo.datum.FetchedDatum;
 import bixo.datum.HttpHeaders;
+import bixo.datum.ParsedDatum;
 import bixo.datum.ScoredUrlDatum;
 import bixo.datum.StatusDatum;
 import bixo.datum.UrlDatum;
@@ -28,6 +32,7 @@ import bixo.exceptions.HttpFetchException;
 import bixo.exceptions.IOFetchException;
 import bixo.exceptions.UrlFetchException;
 import bixo.fetcher.RandomResponseHandler;
+import bixo.fetcher.StringResponseHandler;
 import bixo.fetcher.http.IHttpFetcher;
 import bixo.fetcher.http.SimpleHttpFetcher;
 import bixo.fetcher.simulation.FakeHttpFetcher;
@@ -35,6 +40,7 @@ import bixo.fetcher.simulation.TestWebServer;
 import bixo.fetcher.util.FixedScoreGenerator;
 import bixo.fetcher.util.IGroupingKeyGenerator;
 import bixo.fetcher.util.ScoreGenerator;
+import bixo.parser.SimpleParser;
 import bixo.robots.RobotRulesParser;
 import bixo.robots.SimpleRobotRulesParser;
 import bixo.utils.ConfigUtils;
@@ -87,6 +93,59 @@ public class FetchPipeLRTest extends CascadingTestCase {
         Assert.assertTrue(headers.getNames().size() > 0);
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFetchAndParse() throws Exception {
+        final int numPages = 10;
+        final int port = 8089;
+        
+        Fields metaDataFields = new Fields("meta-test");
+        Map<String, Comparable> metadata = new HashMap<String, Comparable>();
+        metadata.put("meta-test", "value");
+        Lfs in = makeInputData("localhost:" + port, numPages, metadata);
+
+        Pipe pipe = new Pipe("urlSource");
+        ScoreGenerator scorer = new FixedScoreGenerator();
+        IHttpFetcher fetcher = new SimpleHttpFetcher(ConfigUtils.BIXO_TEST_AGENT);
+        FetchPipeOptions options = new FetchPipeOptions();
+        options.setContentParser(new SimpleParser());
+        options.setKeepContent(false);
+        FetchPipe fetchPipe = new FetchPipe(pipe, scorer, fetcher, null, null, 1, metaDataFields, options);
+        
+        String outputPath = "build/test/FetchPipeTest/testFetchAndParse";
+        Tap status = new Lfs(new SequenceFile(StatusDatum.FIELDS.append(metaDataFields)), outputPath + "/status", true);
+        Tap parsed = new Lfs(new SequenceFile(ParsedDatum.FIELDS.append(metaDataFields)), outputPath + "/parse", true);
+
+        FlowConnector flowConnector = new FlowConnector();
+        Flow flow = flowConnector.connect(in, FetchPipe.makeSinkMap(status, null, parsed), fetchPipe);
+        TestWebServer webServer = null;
+        
+        try {
+            String html = "<html><head><title>Title</title></head><body>Some text</body></html>";
+            webServer = new TestWebServer(new StringResponseHandler("text/html", html), port);
+            flow.complete();
+        } finally {
+            webServer.stop();
+        }
+        
+        Lfs validate = new Lfs(new SequenceFile(ParsedDatum.FIELDS.append(metaDataFields)), outputPath + "/parse");
+        TupleEntryIterator tupleEntryIterator = validate.openForRead(new JobConf());
+        
+        int totalEntries = 0;
+        while (tupleEntryIterator.hasNext()) {
+            TupleEntry entry = tupleEntryIterator.next();
+            totalEntries += 1;
+
+            ParsedDatum datum = new ParsedDatum(entry.getTuple(), metaDataFields);
+            Assert.assertNotNull(datum.getUrl());
+            Assert.assertEquals("Title", datum.getTitle());
+            Assert.assertEquals("value", entry.getString("meta-test"));
+        }
+                
+        Assert.assertEquals(numPages, totalEntries);
+        tupleEntryIterator.close();
+    }
+    
     @SuppressWarnings("unchecked")
     @Test
     public void testFetchPipe() throws Exception {
@@ -320,6 +379,86 @@ public class FetchPipeLRTest extends CascadingTestCase {
         Assert.assertEquals(10, numEntries);
     }
     
+    @Test
+    public void testUnsortedStatus() throws Exception {
+        Lfs in = makeInputData(1, 1);
+
+        Pipe pipe = new Pipe("urlSource");
+        IHttpFetcher fetcher = new FakeHttpFetcher(false, 1);
+        ScoreGenerator scorer = new SkippedScoreGenerator();
+        RobotRulesParser parser = new SimpleRobotRulesParser();
+        FetchPipeOptions options = new FetchPipeOptions();
+        options.setSortStatus(false);
+        FetchPipe fetchPipe = new FetchPipe(pipe, scorer, fetcher, fetcher, parser, 1, BaseDatum.EMPTY_METADATA_FIELDS, options);
+        
+        String outputPath = DEFAULT_OUTPUT_PATH;
+        Tap status = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status", true);
+        Tap skippedStatus = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/skipped-status", true);
+        
+        FlowConnector flowConnector = new FlowConnector();
+        Flow flow = flowConnector.connect(in, FetchPipe.makeUnsortedSinkMap(status, skippedStatus, null, null), fetchPipe);
+        flow.complete();
+        
+        Lfs validate = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status");
+        TupleEntryIterator tupleEntryIterator = validate.openForRead(new JobConf());
+        Assert.assertFalse(tupleEntryIterator.hasNext());
+        
+        validate = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/skipped-status");
+        tupleEntryIterator = validate.openForRead(new JobConf());
+        Assert.assertTrue(tupleEntryIterator.hasNext());
+        StatusDatum sd = new StatusDatum(tupleEntryIterator.next(), BaseDatum.EMPTY_METADATA_FIELDS);
+        Assert.assertEquals(UrlStatus.SKIPPED_BY_SCORER, sd.getStatus());
+        Assert.assertFalse(tupleEntryIterator.hasNext());
+    }
+    
+    @Test
+    public void testUnsortedStatusWithFetchedUrls() throws Exception {
+        // Two URLs from the same domain, but only one can be fetched.
+        Lfs in = makeInputData(1, 2);
+
+        Pipe pipe = new Pipe("urlSource");
+        FetcherPolicy policy = new FetcherPolicy();
+        policy.setMaxUrlsPerServer(1);
+        IHttpFetcher fetcher = new FakeHttpFetcher(false, 1, policy);
+        ScoreGenerator scorer = new FixedScoreGenerator();
+        RobotRulesParser parser = new SimpleRobotRulesParser();
+        FetchPipeOptions options = new FetchPipeOptions();
+        options.setSortStatus(false);
+        FetchPipe fetchPipe = new FetchPipe(pipe, scorer, fetcher, fetcher, parser, 1, BaseDatum.EMPTY_METADATA_FIELDS, options);
+        
+        String outputPath = DEFAULT_OUTPUT_PATH;
+        Tap status = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status", true);
+        Tap skippedStatus = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/skipped-status", true);
+        Tap content = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content", true);
+        
+        FlowConnector flowConnector = new FlowConnector();
+        Flow flow = flowConnector.connect(in, FetchPipe.makeUnsortedSinkMap(status, skippedStatus, content, null), fetchPipe);
+        flow.complete();
+        
+        // The fetched URL only shows up in the regular status output...
+        Lfs validate = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status");
+        TupleEntryIterator tupleEntryIterator = validate.openForRead(new JobConf());
+        Assert.assertTrue(tupleEntryIterator.hasNext());
+        StatusDatum fetched = new StatusDatum(tupleEntryIterator.next(), BaseDatum.EMPTY_METADATA_FIELDS);
+        Assert.assertEquals(UrlStatus.FETCHED, fetched.getStatus());
+        Assert.assertFalse(tupleEntryIterator.hasNext());
+        
+        // ...and the skipped URL only shows up in the skipped status output.
+        validate = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/skipped-status");
+        tupleEntryIterator = validate.openForRead(new JobConf());
+        Assert.assertTrue(tupleEntryIterator.hasNext());
+        StatusDatum skipped = new StatusDatum(tupleEntryIterator.next(), BaseDatum.EMPTY_METADATA_FIELDS);
+        Assert.assertEquals(UrlStatus.SKIPPED_PER_SERVER_LIMIT, skipped.getStatus());
+        Assert.assertFalse(tupleEntryIterator.hasNext());
+        Assert.assertFalse(fetched.getUrl().equals(skipped.getUrl()));
+        
+        validate = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content");
+        tupleEntryIterator = validate.openForRead(new JobConf());
+        Assert.assertTrue(tupleEntryIterator.hasNext());
+        tupleEntryIterator.next();
+        Assert.assertFalse(tupleEntryIterator.hasNext());
+    }
+    
     @Test
     public void testMaxUrlsPerServer() throws Exception {
         // Pretend like we have 2 URLs from the same domain
@@ -375,6 +514,147 @@ public class FetchPipeLRTest extends CascadingTestCase {
         Assert.assertEquals(numSkippedEntries, sourceUrls - maxUrls);
     }
     
+    @Test
+    public void testBatchInRobots() throws Exception {
+        // Pretend like we have 2 URLs from the same domain
+        final int sourceUrls = 2;
+        Lfs in = makeInputData(1, sourceUrls);
+
+        Pipe pipe = new Pipe("urlSource");
+        
+        // This will limit us to one URL.
+        final int maxUrls = 1;
+        FetcherPolicy defaultPolicy = new FetcherPolicy();
+        defaultPolicy.setMaxUrlsPerServer(maxUrls);
+        IHttpFetcher fetcher = new FakeHttpFetcher(false, 1, defaultPolicy);
+        ScoreGenerator scorer = new FixedScoreGenerator();
+        RobotRulesParser parser = new SimpleRobotRulesParser();
+        FetchPipeOptions options = new FetchPipeOptions();
+        options.setBatchInRobots(true);
+        FetchPipe fetchPipe = new FetchPipe(pipe, scorer, fetcher, fetcher, parser, 1, BaseDatum.EMPTY_METADATA_FIELDS, options);
+
+        String outputPath = DEFAULT_OUTPUT_PATH;
+        Tap statusSink = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status", true);
+        Tap contentSink = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content", true);
+
+        FlowConnector flowConnector = new FlowConnector();
+        Flow flow = flowConnector.connect(in, FetchPipe.makeSinkMap(statusSink, contentSink), fetchPipe);
+        flow.complete();
+        
+        Lfs validate = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content");
+        TupleEntryIterator tupleEntryIterator = validate.openForRead(new JobConf());
+        Assert.assertTrue(tupleEntryIterator.hasNext());
+        tupleEntryIterator.next();
+        Assert.assertFalse(tupleEntryIterator.hasNext());
+
+        validate = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status");
+        tupleEntryIterator = validate.openForRead(new JobConf());
+        
+        int numSkippedEntries = 0;
+        int numFetchedEntries = 0;
+        while (tupleEntryIterator.hasNext()) {
+            StatusDatum status = new StatusDatum(tupleEntryIterator.next(), BaseDatum.EMPTY_METADATA_FIELDS);
+            if (status.getStatus() == UrlStatus.SKIPPED_PER_SERVER_LIMIT) {
+                numSkippedEntries += 1;
+            } else if (status.getStatus() == UrlStatus.FETCHED) {
+                numFetchedEntries += 1;
+            } else {
+                Assert.fail("Unexpected status: " + status.getStatus());
+            }
+        }
+        
+        Assert.assertEquals(maxUrls, numFetchedEntries);
+        Assert.assertEquals(sourceUrls - maxUrls, numSkippedEntries);
+    }
+    
+    @Test
+    public void testBatchInRobotsWithDefaultPolicy() throws Exception {
+        // Default policy has no limit on URLs per server, so it gets capped to what the
+        // robots reducer can hold in memory.
+        final int sourceUrls = 10;
+        Lfs in = makeInputData(1, sourceUrls);
+
+        Pipe pipe = new Pipe("urlSource");
+        FetcherPolicy defaultPolicy = new FetcherPolicy();
+        defaultPolicy.setCrawlDelay(0);
+        IHttpFetcher fetcher = new FakeHttpFetcher(false, 1, defaultPolicy);
+        FetchPipeOptions options = new FetchPipeOptions();
+        options.setBatchInRobots(true);
+        FetchPipe fetchPipe = new FetchPipe(pipe, new FixedScoreGenerator(), fetcher, fetcher, new SimpleRobotRulesParser(), 1, BaseDatum.EMPTY_METADATA_FIELDS, options);
+
+        String outputPath = DEFAULT_OUTPUT_PATH;
+        Tap statusSink = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status", true);
+        Tap contentSink = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content", true);
+
+        FlowConnector flowConnector = new FlowConnector();
+        Flow flow = flowConnector.connect(in, FetchPipe.makeSinkMap(statusSink, contentSink), fetchPipe);
+        flow.complete();
+        
+        Lfs validate = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content");
+        TupleEntryIterator tupleEntryIterator = validate.openForRead(new JobConf());
+        int numFetched = 0;
+        while (tupleEntryIterator.hasNext()) {
+            tupleEntryIterator.next();
+            numFetched += 1;
+        }
+        
+        Assert.assertEquals(sourceUrls, numFetched);
+    }
+    
+    @Test
+    public void testRetryingTransientFailures() throws Exception {
+        // All URLs are in one (last) batch, so the retries have to happen after
+        // the input has been used up.
+        final int numPages = 5;
+        Lfs in = makeInputData(1, numPages);
+
+        Pipe pipe = new Pipe("urlSource");
+        FetcherPolicy policy = new FetcherPolicy();
+        policy.setCrawlDelay(0);
+        policy.setMaxFetchRetries(1);
+        policy.setFetchRetryDelay(100);
+        policy.setMaxConsecutiveFailures(FetcherPolicy.NO_MAX_CONSECUTIVE_FAILURES);
+        IHttpFetcher fetcher = new FailOnceFetcher(policy);
+        ScoreGenerator scorer = new FixedScoreGenerator();
+        RobotRulesParser parser = new SimpleRobotRulesParser();
+        FetchPipe fetchPipe = new FetchPipe(pipe, scorer, fetcher, fetcher, parser, 1, BaseDatum.EMPTY_METADATA_FIELDS);
+        FailOnceFetcher.NUM_FETCHED.set(0);
+        FailOnceFetcher.NUM_FETCHED_WHEN_RELEASED.set(-1);
+
+        String outputPath = "build/test/FetchPipeLRTest/testRetryingTransientFailures";
+        Tap statusSink = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status", true);
+        Tap contentSink = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content", true);
+
+        FlowConnector flowConnector = new FlowConnector();
+        Flow flow = flowConnector.connect(in, FetchPipe.makeSinkMap(statusSink, contentSink), fetchPipe);
+        flow.complete();
+        
+        Lfs validate = new Lfs(new SequenceFile(StatusDatum.FIELDS), outputPath + "/status");
+        TupleEntryIterator tupleEntryIterator = validate.openForRead(new JobConf());
+        int numStatusEntries = 0;
+        while (tupleEntryIterator.hasNext()) {
+            StatusDatum status = new StatusDatum(tupleEntryIterator.next(), BaseDatum.EMPTY_METADATA_FIELDS);
+            Assert.assertEquals(UrlStatus.FETCHED, status.getStatus());
+            numStatusEntries += 1;
+        }
+        
+        Assert.assertEquals(numPages, numStatusEntries);
+        tupleEntryIterator.close();
+        
+        // The server's ref only gets released after the retries, not after the last batch.
+        Assert.assertEquals(numPages, FailOnceFetcher.NUM_FETCHED_WHEN_RELEASED.get());
+        
+        validate = new Lfs(new SequenceFile(FetchedDatum.FIELDS), outputPath + "/content");
+        tupleEntryIterator = validate.openForRead(new JobConf());
+        int numContentEntries = 0;
+        while (tupleEntryIterator.hasNext()) {
+            tupleEntryIterator.next();
+            numContentEntries += 1;
+        }
+        
+        Assert.assertEquals(numPages, numContentEntries);
+    }
+    
     // TODO KKr- re-enable this test when we know how to make it work for
     // the new fetcher architecture.
     /**
@@ -592,6 +872,38 @@ public class FetchPipeLRTest extends CascadingTestCase {
         }
     }
     
+    @SuppressWarnings("serial")
+    private static class FailOnceFetcher extends FakeHttpFetcher {
+        // Static, since the FetchBuffer gets its own (deserialized) copy of the fetcher.
+        private static final AtomicInteger NUM_FETCHED = new AtomicInteger();
+        private static final AtomicInteger NUM_FETCHED_WHEN_RELEASED = new AtomicInteger();
+        
+        private Set<String> _failedUrls = new HashSet<String>();
+        
+        public FailOnceFetcher(FetcherPolicy policy) {
+            super(false, 1, policy);
+        }
+        
+        @Override
+        public FetchedDatum get(ScoredUrlDatum scoredUrl) throws BaseFetchException {
+            String url = scoredUrl.getUrl();
+            synchronized (_failedUrls) {
+                if (_failedUrls.add(url)) {
+                    throw new IOFetchException(url, new IOException("First fetch attempt always fails"));
+                }
+            }
+            
+            FetchedDatum result = super.get(scoredUrl);
+            NUM_FETCHED.incrementAndGet();
+            return result;
+        }
+        
+        @Override
+        public void releaseContext(String ref) {
+            NUM_FETCHED_WHEN_RELEASED.set(NUM_FETCHED.get());
+        }
+    }
+    
     @SuppressWarnings("serial")
     private static class CustomFetcher implements IHttpFetcher {
 
@@ -641,6 +953,11 @@ public class FetchPipeLRTest extends CascadingTestCase {
 	        // Do nothing
 	    }
 
+	    @Override
+	    public void releaseContext(String ref) {
+	        // Do nothing
+	    }
+
     };
 
 
@@ -82,4 +82,35 @@ public class UrlDbPipeTest extends CascadingTestCase {
         read.close();
     }
 
+    @Test
+    public void testGroupingOnFingerprint() throws Exception {
+        Lfs in = new Lfs(new SequenceFile(UrlDatum.FIELDS), "build/test/UrlDbPipeTest/testGroupingOnFingerprint/in", true);
+        Tap out = new Lfs(new SequenceFile(UrlDatum.FIELDS), "build/test/UrlDbPipeTest/testGroupingOnFingerprint/out", true);
+
+        TupleEntryCollector write = in.openForWrite(new JobConf());
+        for (int i = 0; i < 200; i++) {
+            String url = "http://domain.com/page-" + (i % 100);
+            UrlDatum datum = new UrlDatum(url, 0, i, UrlStatus.UNFETCHED, null);
+            write.add(datum.toTuple());
+        }
+        write.close();
+
+        Pipe pipe = new Pipe("urlDb_source");
+        UrlDbPipe urlDbPipe = new UrlDbPipe(pipe, new SimpleUrlFilter(), new Fields(), true);
+        Flow flow = new FlowConnector().connect(in, out, urlDbPipe);
+        flow.complete();
+
+        TupleEntryIterator read = out.openForRead(new JobConf());
+        int numUrls = 0;
+        while (read.hasNext()) {
+            UrlDatum datum = new UrlDatum(read.next().getTuple(), new Fields());
+            // We should have kept the second (later) entry for each URL.
+            assertTrue(datum.getLastUpdated() >= 100);
+            numUrls += 1;
+        }
+        read.close();
+
+        assertEquals(100, numUrls);
+    }
+
 }
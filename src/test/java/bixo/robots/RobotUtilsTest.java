@@ -16,7 +16,9 @@ import org.mortbay.http.handler.AbstractHttpHandler;
 
 import bixo.config.UserAgent;
 import bixo.datum.FetchedDatum;
+import bixo.datum.RobotsDatum;
 import bixo.datum.ScoredUrlDatum;
+import bixo.exceptions.HttpFetchException;
 import bixo.fetcher.SimulationWebServerForTests;
 import bixo.fetcher.http.IHttpFetcher;
 import bixo.utils.ConfigUtils;
@@ -111,5 +113,41 @@ public class RobotUtilsTest {
         Assert.assertTrue(rules.isAllowed("http://www.domain.com/anypage.html"));
     }
     
+    @Test
+    public void testPrefetchedRobots() throws Exception {
+        final String simpleRobotsTxt = "User-agent: *" + "\r\n"
+        + "Disallow: /private/";
+
+        IHttpFetcher fetcher = Mockito.mock(IHttpFetcher.class);
+        FetchedDatum datum = Mockito.mock(FetchedDatum.class);
+        Mockito.when(datum.getContentBytes()).thenReturn(simpleRobotsTxt.getBytes());
+        Mockito.when(fetcher.get(Mockito.any(ScoredUrlDatum.class))).thenReturn(datum);
+        
+        RobotsDatum robots = RobotUtils.fetchRobots(fetcher, "http://www.domain.com", "127.0.0.1");
+        Assert.assertEquals(200, robots.getHttpStatus());
+        Assert.assertEquals("127.0.0.1", robots.getHostAddress());
+        
+        // Make sure the rules survive being saved & loaded.
+        RobotsDatum savedRobots = new RobotsDatum(robots.toTuple());
+        Assert.assertEquals("http://www.domain.com/robots.txt", savedRobots.getRobotsUrl());
+        
+        RobotRules rules = RobotUtils.getRobotRules(savedRobots, new SimpleRobotRulesParser(), "testAgent");
+        Assert.assertTrue(rules.isAllowed("http://www.domain.com/anypage.html"));
+        Assert.assertFalse(rules.isAllowed("http://www.domain.com/private/anypage.html"));
+    }
+    
+    @Test
+    public void testPrefetchedRobotsFailure() throws Exception {
+        IHttpFetcher fetcher = Mockito.mock(IHttpFetcher.class);
+        Mockito.when(fetcher.get(Mockito.any(ScoredUrlDatum.class))).thenThrow(new HttpFetchException("http://www.domain.com/robots.txt", "Not found", 404, null));
+        
+        RobotsDatum robots = RobotUtils.fetchRobots(fetcher, "http://www.domain.com", "127.0.0.1");
+        Assert.assertEquals(404, robots.getHttpStatus());
+        Assert.assertEquals(0, robots.getContentLength());
+        
+        RobotRules rules = RobotUtils.getRobotRules(new RobotsDatum(robots.toTuple()), new SimpleRobotRulesParser(), "testAgent");
+        Assert.assertTrue(rules.isAllowAll());
+    }
+    
 
 }
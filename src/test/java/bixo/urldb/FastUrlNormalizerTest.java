@@ -0,0 +1,94 @@
+package bixo.urldb;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Run all of the SimpleUrlNormalizer tests against FastUrlNormalizer, and
+ * verify that both normalizers give the same results for a set of real URLs.
+ */
+public class FastUrlNormalizerTest extends SimpleUrlNormalizerTest {
+
+    private static final String SAMPLE_URLS_FILE = "src/test/resources/sample-urls.txt";
+    
+    @Override
+    protected IUrlNormalizer makeNormalizer(boolean treatRefAsQuery) {
+        return new FastUrlNormalizer(treatRefAsQuery);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSameAsSimpleNormalizer() throws Exception {
+        List<String> urls = FileUtils.readLines(new File(SAMPLE_URLS_FILE), "UTF-8");
+        
+        IUrlNormalizer simpleNormalizer = new SimpleUrlNormalizer();
+        IUrlNormalizer fastNormalizer = new FastUrlNormalizer();
+        for (String url : urls) {
+            Assert.assertEquals(url, simpleNormalizer.normalize(url), fastNormalizer.normalize(url));
+        }
+    }
+    
+    @Test
+    public void testTrickyUrls() {
+        String[] urls = {
+            "http://www.foo.com/..//../a/b/../index.HTML?x=1",
+            "http://www.foo.com/./../.../../a",
+            "http://www.foo.com/a/Default.PHP5&b",
+            "http://www.foo.com/a/index.jspx#top",
+            "http://www.foo.com/page.html;JSESSIONID=abc&q=%e2%82%ac",
+            "http://www.foo.com/_bv_sessionid=1?a==b&&c=%zz%",
+            "http://www.foo.com/%e2%82%%41/sp ace+plus",
+            "http://[::1]:8080/a/../b",
+            "ftp://www.foo.com/a/../b;sid=1",
+        };
+        
+        IUrlNormalizer simpleNormalizer = new SimpleUrlNormalizer();
+        IUrlNormalizer fastNormalizer = new FastUrlNormalizer();
+        for (String url : urls) {
+            Assert.assertEquals(url, simpleNormalizer.normalize(url), fastNormalizer.normalize(url));
+        }
+    }
+    
+    @Test
+    public void testRandomUrls() {
+        // Glue together random pieces that exercise each of the normalization steps, using
+        // a fixed seed so that any failure can be reproduced.
+        String[] schemes = { "http://", "HTTP://", "https://", "ftp://" };
+        String[] hosts = { "www.foo.com", "WWW.Foo.COM", "foo.com.", "foo.com:80", "foo.com:8080", "[::1]", "192.168.1.1" };
+        String[] segments = { "a", "B", "..", ".", "", "...", "index.html", "Default.PHP5", "index.jspx", "a b",
+            "%41", "%e2%82%ac", "%zz", "%", "+", "~user", ";jsessionid=abc", "_bv_sessionid=1" };
+        String[] params = { "a=1", "B=2", "a==b", "", "x", "sid=123", "phpsessid=abc", "q=%e2%82%ac", "q=a+b", "q=a b" };
+        String[] refs = { "", "#", "#top", "#a=1&b=2", "#!/path" };
+        
+        Random rand = new Random(1L);
+        IUrlNormalizer simpleNormalizer = new SimpleUrlNormalizer();
+        IUrlNormalizer fastNormalizer = new FastUrlNormalizer();
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder url = new StringBuilder();
+            url.append(schemes[rand.nextInt(schemes.length)]);
+            url.append(hosts[rand.nextInt(hosts.length)]);
+            
+            int numSegments = rand.nextInt(5);
+            for (int j = 0; j < numSegments; j++) {
+                url.append('/');
+                url.append(segments[rand.nextInt(segments.length)]);
+            }
+            
+            int numParams = rand.nextInt(4);
+            for (int j = 0; j < numParams; j++) {
+                url.append((j == 0) ? '?' : '&');
+                url.append(params[rand.nextInt(params.length)]);
+            }
+            
+            url.append(refs[rand.nextInt(refs.length)]);
+            
+            String testUrl = url.toString();
+            Assert.assertEquals(testUrl, simpleNormalizer.normalize(testUrl), fastNormalizer.normalize(testUrl));
+        }
+    }
+}
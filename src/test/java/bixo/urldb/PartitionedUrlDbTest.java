@@ -0,0 +1,100 @@
+package bixo.urldb;
+
+import java.io.File;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import bixo.datum.UrlDatum;
+import cascading.CascadingTestCase;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Hfs;
+import cascading.tuple.TupleEntry;
+import cascading.tuple.TupleEntryIterator;
+
+public class PartitionedUrlDbTest extends CascadingTestCase {
+
+    private static final int NUM_PARTITIONS = 4;
+
+    @Test
+    public void testImportAndMerge() throws Exception {
+        UrlImporter urlImporter = new UrlImporter();
+        String inputPath = "src/test/resources/urls.txt";
+        String workingFolder = "build/test/PartitionedUrlDbTest/working";
+        FileUtil.fullyDelete(new File(workingFolder));
+        urlImporter.importUrls(inputPath, workingFolder, NUM_PARTITIONS);
+
+        String dbPath = workingFolder + "/" + UrlImporter.URL_DB_NAME;
+        Hfs hfs = new Hfs(new SequenceFile(UrlDatum.FIELDS), dbPath);
+        validateLength(hfs.openForRead(new JobConf()), 10);
+        validatePartitions(dbPath);
+
+        urlImporter.importUrls(inputPath, workingFolder, NUM_PARTITIONS);
+        // should be still only 10
+        hfs = new Hfs(new SequenceFile(UrlDatum.FIELDS), dbPath);
+        validateLength(hfs.openForRead(new JobConf()), 10);
+        validatePartitions(dbPath);
+        assertTrue(new File(dbPath, PartitionedUrlDb.LAYOUT_FILE_NAME).exists());
+    }
+
+    @Test
+    public void testWrongPartitionCount() throws Exception {
+        UrlImporter urlImporter = new UrlImporter();
+        String inputPath = "src/test/resources/urls.txt";
+        String workingFolder = "build/test/PartitionedUrlDbTest/testWrongPartitionCount";
+        FileUtil.fullyDelete(new File(workingFolder));
+        urlImporter.importUrls(inputPath, workingFolder, NUM_PARTITIONS);
+
+        try {
+            urlImporter.importUrls(inputPath, workingFolder, NUM_PARTITIONS + 1);
+            fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+            // Valid
+        }
+
+        // The existing URL DB should be untouched.
+        validatePartitions(workingFolder + "/" + UrlImporter.URL_DB_NAME);
+    }
+
+    @Test
+    public void testUnpartitionedUrlDb() throws Exception {
+        UrlImporter urlImporter = new UrlImporter();
+        String inputPath = "src/test/resources/urls.txt";
+        String workingFolder = "build/test/PartitionedUrlDbTest/testUnpartitionedUrlDb";
+        FileUtil.fullyDelete(new File(workingFolder));
+        urlImporter.importUrls(inputPath, workingFolder);
+
+        try {
+            urlImporter.importUrls(inputPath, workingFolder, NUM_PARTITIONS);
+            fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+            // Valid
+        }
+    }
+
+    private void validatePartitions(String dbPath) throws Exception {
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            String partitionPath = dbPath + "/" + PartitionedUrlDb.makePartitionName(i);
+            if (!new File(partitionPath).exists()) {
+                continue;
+            }
+
+            Hfs hfs = new Hfs(new SequenceFile(UrlDatum.FIELDS), partitionPath);
+            TupleEntryIterator iter = hfs.openForRead(new JobConf());
+            String lastUrl = null;
+            while (iter.hasNext()) {
+                TupleEntry entry = iter.next();
+                String url = entry.getString(UrlDatum.URL_FIELD);
+                assertEquals(i, PartitionedUrlDb.getPartition(url, NUM_PARTITIONS));
+                if (lastUrl != null) {
+                    assertTrue(lastUrl.compareTo(url) < 0);
+                }
+
+                lastUrl = url;
+            }
+
+            iter.close();
+        }
+    }
+}
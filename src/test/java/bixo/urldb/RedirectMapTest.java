@@ -0,0 +1,92 @@
+package bixo.urldb;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import bixo.utils.UrlFingerprint;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Lfs;
+import cascading.tap.Tap;
+import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntryCollector;
+
+
+public class RedirectMapTest {
+
+    @Test
+    public void testCollapsingChains() {
+        Map<Long, String> redirects = new HashMap<Long, String>();
+        redirects.put(UrlFingerprint.make("http://domain.com/a"), "http://domain.com/b");
+        redirects.put(UrlFingerprint.make("http://domain.com/b"), "http://domain.com/c");
+        redirects.put(UrlFingerprint.make("http://domain.com/loop1"), "http://domain.com/loop2");
+        redirects.put(UrlFingerprint.make("http://domain.com/loop2"), "http://domain.com/loop1");
+
+        RedirectMap map = RedirectMap.makeMap(redirects);
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("http://domain.com/c", map.getTarget("http://domain.com/a"));
+        Assert.assertEquals("http://domain.com/c", map.rewrite("http://domain.com/b"));
+        Assert.assertEquals("http://domain.com/c", map.rewrite("http://domain.com/c"));
+        Assert.assertNull(map.getTarget("http://domain.com/loop1"));
+    }
+
+    @Test
+    public void testReadingAndWriting() throws Exception {
+        String workingFolder = "build/test/RedirectMapTest/working";
+        FileUtil.fullyDelete(new File(workingFolder));
+        JobConf conf = new JobConf();
+
+        // Older redirects, and then newer ones that override them.
+        Tap oldRedirects = new Lfs(new SequenceFile(RedirectMap.FIELDS), workingFolder + "/old", true);
+        TupleEntryCollector write = oldRedirects.openForWrite(conf);
+        write.add(new Tuple(UrlFingerprint.make("http://domain.com/a"), "http://domain.com/b"));
+        write.add(new Tuple(UrlFingerprint.make("http://domain.com/x"), "http://domain.com/y"));
+        write.close();
+
+        Tap newRedirects = new Lfs(new SequenceFile(RedirectMap.FIELDS), workingFolder + "/new", true);
+        write = newRedirects.openForWrite(conf);
+        write.add(new Tuple(UrlFingerprint.make("http://domain.com/x"), "http://domain.com/z"));
+        write.close();
+
+        RedirectMap map = RedirectMap.read(conf, oldRedirects, newRedirects);
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("http://domain.com/z", map.getTarget("http://domain.com/x"));
+
+        Tap merged = new Lfs(new SequenceFile(RedirectMap.FIELDS), workingFolder + "/merged", true);
+        map.write(merged, conf);
+        map = RedirectMap.read(conf, merged);
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("http://domain.com/b", map.getTarget("http://domain.com/a"));
+        Assert.assertEquals("http://domain.com/z", map.getTarget("http://domain.com/x"));
+    }
+
+    @Test
+    public void testReadingFile() throws Exception {
+        String workingFolder = "build/test/RedirectMapTest/testReadingFile";
+        FileUtil.fullyDelete(new File(workingFolder));
+        new File(workingFolder).mkdirs();
+
+        Map<Long, String> redirects = new HashMap<Long, String>();
+        redirects.put(UrlFingerprint.make("http://domain.com/a"), "http://domain.com/b");
+        redirects.put(UrlFingerprint.make("http://domain.com/x"), "http://domain.com/y");
+
+        File mapFile = new File(workingFolder, "redirect-map");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(mapFile));
+        RedirectMap.makeMap(redirects).write(out);
+        out.close();
+
+        RedirectMap map = RedirectMap.readFile(mapFile);
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("http://domain.com/b", map.getTarget("http://domain.com/a"));
+        Assert.assertEquals("http://domain.com/y", map.getTarget("http://domain.com/x"));
+        Assert.assertNull(map.getTarget("http://domain.com/b"));
+    }
+}
@@ -0,0 +1,119 @@
+package bixo.urldb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bixo.utils.ContentSignature;
+
+@SuppressWarnings("unchecked")
+public class RevisitSchedulerTest {
+
+    private static final long ONE_DAY = 24L * 60 * 60 * 1000;
+
+    private static Map<String, Comparable> makeMetaData() {
+        Map<String, Comparable> result = new HashMap<String, Comparable>();
+        RevisitScheduler.resetMetaData(result);
+        return result;
+    }
+
+    private static long makeSignature(String content) {
+        byte[] bytes = content.getBytes();
+        return ContentSignature.make(bytes, bytes.length);
+    }
+
+    @Test
+    public void testUpdatingHistory() {
+        Map<String, Comparable> metaData = makeMetaData();
+
+        // First fetch has nothing to compare against.
+        RevisitScheduler.update(metaData, 10 * ONE_DAY, makeSignature("version 1"));
+        Assert.assertEquals(10 * ONE_DAY, RevisitScheduler.getLastFetched(metaData));
+        Assert.assertEquals(0, metaData.get(RevisitScheduler.NUM_CHECKS_FIELD));
+
+        RevisitScheduler.update(metaData, 12 * ONE_DAY, makeSignature("version 1"));
+        Assert.assertEquals(1, metaData.get(RevisitScheduler.NUM_CHECKS_FIELD));
+        Assert.assertEquals(0, metaData.get(RevisitScheduler.NUM_CHANGES_FIELD));
+        Assert.assertEquals(2 * ONE_DAY, metaData.get(RevisitScheduler.CHECK_INTERVAL_FIELD));
+
+        RevisitScheduler.update(metaData, 13 * ONE_DAY, makeSignature("version 2"));
+        Assert.assertEquals(2, metaData.get(RevisitScheduler.NUM_CHECKS_FIELD));
+        Assert.assertEquals(1, metaData.get(RevisitScheduler.NUM_CHANGES_FIELD));
+        Assert.assertEquals(3 * ONE_DAY, metaData.get(RevisitScheduler.CHECK_INTERVAL_FIELD));
+    }
+
+    @Test
+    public void testHistoryIsDecayed() {
+        Map<String, Comparable> metaData = makeMetaData();
+        long time = ONE_DAY;
+        for (int i = 0; i <= RevisitScheduler.MAX_CHECKS + 1; i++) {
+            RevisitScheduler.update(metaData, time, makeSignature("version " + i));
+            time += ONE_DAY;
+        }
+
+        int numChecks = (Integer)metaData.get(RevisitScheduler.NUM_CHECKS_FIELD);
+        Assert.assertTrue(numChecks <= RevisitScheduler.MAX_CHECKS);
+        Assert.assertEquals(numChecks, metaData.get(RevisitScheduler.NUM_CHANGES_FIELD));
+    }
+
+    @Test
+    public void testChangeRate() {
+        RevisitScheduler scheduler = new RevisitScheduler(7 * ONE_DAY, 90 * ONE_DAY, 0.5);
+
+        // No history, so we get the default rate.
+        Map<String, Comparable> metaData = makeMetaData();
+        Assert.assertEquals(1.0 / (7 * ONE_DAY), scheduler.getChangeRate(metaData), 0.0);
+
+        // Changed every time we looked (daily), so estimate is more than once per day.
+        Map<String, Comparable> daily = makeMetaData();
+        Map<String, Comparable> never = makeMetaData();
+        for (int i = 1; i <= 10; i++) {
+            RevisitScheduler.update(daily, i * ONE_DAY, makeSignature("version " + i));
+            RevisitScheduler.update(never, i * ONE_DAY, makeSignature("version 1"));
+        }
+
+        Assert.assertTrue(scheduler.getChangeRate(daily) > 1.0 / ONE_DAY);
+
+        // Never changed, so we fall back to the min rate.
+        Assert.assertEquals(1.0 / (90 * ONE_DAY), scheduler.getChangeRate(never), 0.0);
+
+        // Values read back from a DB can be strings.
+        daily.put(RevisitScheduler.NUM_CHECKS_FIELD, "10");
+        Assert.assertTrue(scheduler.getChangeRate(daily) > 1.0 / ONE_DAY);
+    }
+
+    @Test
+    public void testStaleness() {
+        RevisitScheduler scheduler = new RevisitScheduler(7 * ONE_DAY, 90 * ONE_DAY, 0.5);
+
+        Map<String, Comparable> metaData = makeMetaData();
+        Assert.assertEquals(1.0, scheduler.getStaleness(metaData, 0, ONE_DAY), 0.0);
+        Assert.assertTrue(scheduler.isDue(metaData, 0, ONE_DAY));
+
+        // With the default of one change per week, it's likely to have changed after a week.
+        long lastFetched = 100 * ONE_DAY;
+        Assert.assertEquals(0.0, scheduler.getStaleness(metaData, lastFetched, lastFetched), 0.0);
+        Assert.assertFalse(scheduler.isDue(metaData, lastFetched, lastFetched + ONE_DAY));
+        Assert.assertEquals(1.0 - Math.exp(-1.0), scheduler.getStaleness(metaData, lastFetched, lastFetched + (7 * ONE_DAY)), 0.0001);
+        Assert.assertTrue(scheduler.isDue(metaData, lastFetched, lastFetched + (7 * ONE_DAY)));
+    }
+
+    @Test
+    public void testInvalidParameters() {
+        try {
+            new RevisitScheduler(7 * ONE_DAY, ONE_DAY, 0.5);
+            Assert.fail("Exception should be thrown");
+        } catch (IllegalArgumentException e) {
+            // Valid
+        }
+
+        try {
+            new RevisitScheduler(ONE_DAY, 7 * ONE_DAY, 1.5);
+            Assert.fail("Exception should be thrown");
+        } catch (IllegalArgumentException e) {
+            // Valid
+        }
+    }
+}
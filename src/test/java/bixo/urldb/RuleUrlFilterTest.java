@@ -0,0 +1,65 @@
+package bixo.urldb;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bixo.datum.UrlDatum;
+import bixo.urldb.RuleUrlFilter.Rule;
+import bixo.urldb.RuleUrlFilter.RuleType;
+
+
+public class RuleUrlFilterTest {
+
+    private static RuleUrlFilter makeFilter(String rulesText, boolean removeByDefault) throws Exception {
+        return new RuleUrlFilter(RuleUrlFilter.readRules(new StringReader(rulesText)), removeByDefault);
+    }
+
+    @Test
+    public void testParsingRules() throws Exception {
+        List<Rule> rules = RuleUrlFilter.readRules(new StringReader("# Comment\n\n-suffix:.pdf\n+HOST:domain.com\n-regex:\\?.*sessionid=\n"));
+        Assert.assertEquals(3, rules.size());
+        Assert.assertFalse(rules.get(0).isInclude());
+        Assert.assertEquals(RuleType.SUFFIX, rules.get(0).getType());
+        Assert.assertEquals(".pdf", rules.get(0).getValue());
+        Assert.assertEquals(RuleType.HOST_SUFFIX, rules.get(1).getType());
+        Assert.assertEquals("-regex:\\?.*sessionid=", rules.get(2).toString());
+
+        try {
+            Rule.parse("*prefix:http://");
+            Assert.fail("Exception should be thrown");
+        } catch (IllegalArgumentException e) {
+            // Valid
+        }
+    }
+
+    @Test
+    public void testRuleTypes() throws Exception {
+        RuleUrlFilter filter = makeFilter("-suffix:.PDF\n-prefix:http://www.domain.com/private/\n-regex:sessionid=\\d+\n+host:domain.com", true);
+
+        Assert.assertFalse(filter.isRemove(new UrlDatum("http://domain.com/page.html")));
+        Assert.assertFalse(filter.isRemove(new UrlDatum("http://www.Domain.com/page.html")));
+        Assert.assertTrue("Not a subdomain", filter.isRemove(new UrlDatum("http://notdomain.com/page.html")));
+        Assert.assertTrue("Other domain", filter.isRemove(new UrlDatum("http://domain.com.au/page.html")));
+
+        Assert.assertTrue(filter.isRemove(new UrlDatum("http://domain.com/file.pdf")));
+        Assert.assertTrue(filter.isRemove(new UrlDatum("http://www.domain.com/private/page.html")));
+        Assert.assertTrue(filter.isRemove(new UrlDatum("http://domain.com/page.html?sessionid=1234")));
+        Assert.assertFalse(filter.isRemove(new UrlDatum("http://domain.com/page.html?sessionid=none")));
+    }
+
+    @Test
+    public void testFirstRuleWins() throws Exception {
+        RuleUrlFilter filter = makeFilter("+regex:keep\n-regex:/private/\n+prefix:http://domain.com/private/public\n-host:domain.com", false);
+
+        // The earlier regex wins, even though the later one matches earlier in the URL.
+        Assert.assertEquals("+regex:keep", filter.getMatchingRule("http://domain.com/private/keep.html").toString());
+        Assert.assertEquals("-regex:/private/", filter.getMatchingRule("http://domain.com/private/public.html").toString());
+        Assert.assertEquals("-host:domain.com", filter.getMatchingRule("http://domain.com/public.html").toString());
+
+        Assert.assertNull(filter.getMatchingRule("http://other.com/page.html"));
+        Assert.assertFalse(filter.isRemove(new UrlDatum("http://other.com/page.html")));
+    }
+}
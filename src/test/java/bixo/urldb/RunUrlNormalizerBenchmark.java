@@ -0,0 +1,57 @@
+package bixo.urldb;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Print the throughput (URLs/sec) of SimpleUrlNormalizer and FastUrlNormalizer for the
+ * sample URLs, or for the URLs (one per line) in the file passed as the first argument.
+ *
+ * This isn't a unit test, since it only prints timings and takes a while to run.
+ */
+public class RunUrlNormalizerBenchmark {
+
+    private static final String SAMPLE_URLS_FILE = "src/test/resources/sample-urls.txt";
+
+    private static final int WARMUP_LOOPS = 5;
+    private static final int TIMED_LOOPS = 20;
+
+    private static long timeNormalizer(IUrlNormalizer normalizer, List<String> urls, int numLoops) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numLoops; i++) {
+            for (String url : urls) {
+                normalizer.normalize(url);
+            }
+        }
+
+        long deltaTime = Math.max(1, System.nanoTime() - startTime);
+        return (urls.size() * (long)numLoops * 1000000000L) / deltaTime;
+    }
+
+    /**
+     * @param args optional path to file of URLs
+     */
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) {
+        String urlsFile = (args.length > 0) ? args[0] : SAMPLE_URLS_FILE;
+
+        try {
+            List<String> urls = FileUtils.readLines(new File(urlsFile), "UTF-8");
+
+            // Warm up both, then time them.
+            timeNormalizer(new SimpleUrlNormalizer(), urls, WARMUP_LOOPS);
+            timeNormalizer(new FastUrlNormalizer(), urls, WARMUP_LOOPS);
+
+            long simpleRate = timeNormalizer(new SimpleUrlNormalizer(), urls, TIMED_LOOPS);
+            long fastRate = timeNormalizer(new FastUrlNormalizer(), urls, TIMED_LOOPS);
+            System.out.println(String.format("SimpleUrlNormalizer: %d URLs/sec", simpleRate));
+            System.out.println(String.format("FastUrlNormalizer: %d URLs/sec", fastRate));
+        } catch (Throwable t) {
+            System.err.println("Exception running benchmark: " + t.getMessage());
+            t.printStackTrace(System.err);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package bixo.urldb;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+import bixo.datum.UrlDatum;
+import cascading.CascadingTestCase;
+import cascading.scheme.SequenceFile;
+import cascading.tap.Lfs;
+import cascading.tuple.TupleEntryCollector;
+
+public class SeenUrlFilterTest extends CascadingTestCase {
+
+    private static final String WORKING_DIR = "build/test/SeenUrlFilterTest";
+
+    @Test
+    public void testFilterFlow() throws Exception {
+        FileUtil.fullyDelete(new File(WORKING_DIR));
+
+        Lfs in = new Lfs(new SequenceFile(UrlDatum.FIELDS), WORKING_DIR + "/in", true);
+        TupleEntryCollector write = in.openForWrite(new JobConf());
+        for (int i = 0; i < 100; i++) {
+            write.add(new UrlDatum("http://domain.com/page-" + i).toTuple());
+        }
+        write.close();
+
+        String filterPath = WORKING_DIR + "/seen-urls";
+        SeenUrlFilter.makeFilterFlow(in, filterPath, SeenUrlFilter.DEFAULT_FALSE_POSITIVE_RATE, new Properties()).complete();
+
+        SeenUrlFilter filter = new SeenUrlFilter(filterPath);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(filter.isRemove(new UrlDatum("http://domain.com/page-" + i)));
+        }
+
+        assertFalse(filter.isRemove(new UrlDatum("http://domain.com/new-page")));
+        assertFalse(filter.isRemove(new UrlDatum("http://other-domain.com/page-1")));
+    }
+}
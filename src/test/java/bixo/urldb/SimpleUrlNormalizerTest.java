@@ -8,7 +8,7 @@ import bixo.urldb.SimpleUrlNormalizer;
 
 
 public class SimpleUrlNormalizerTest {
-    private SimpleUrlNormalizer _normalizer;
+    private IUrlNormalizer _normalizer;
     
     private void normalizeTest(String weird, String normal, String testName) {
     	normalizeTest(_normalizer, weird, normal, testName);
@@ -18,9 +18,13 @@ public class SimpleUrlNormalizerTest {
         Assert.assertEquals(testName + ": " + weird, normal, normalizer.normalize(weird));
     }
 
+    protected IUrlNormalizer makeNormalizer(boolean treatRefAsQuery) {
+        return new SimpleUrlNormalizer(treatRefAsQuery);
+    }
+    
     @Before
     public void setupNormalizer() {
-        _normalizer = new SimpleUrlNormalizer();
+        _normalizer = makeNormalizer(false);
     }
     
     @Test
@@ -282,7 +286,7 @@ public class SimpleUrlNormalizerTest {
     
     @Test
     public void testStumbleUponURLs() {
-    	SimpleUrlNormalizer normalizer = new SimpleUrlNormalizer(true);
+    	IUrlNormalizer normalizer = makeNormalizer(true);
 
         normalizeTest(normalizer, "http://www.stumbleupon.com/toolbar/#url=http%3A//links.flashdance.cx/misc-pix/fjortisfangelse.jpg",
                         "http://www.stumbleupon.com/toolbar/#url=http%3a//links.flashdance.cx/misc-pix/fjortisfangelse.jpg",
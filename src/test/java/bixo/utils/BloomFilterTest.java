@@ -0,0 +1,70 @@
+package bixo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        Random rand = new Random(1L);
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextLong();
+            filter.add(values[i]);
+        }
+
+        for (long value : values) {
+            assertTrue(filter.mightContain(value));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        Random rand = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(rand.nextLong());
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(rand.nextLong())) {
+                falsePositives += 1;
+            }
+        }
+
+        // Allow for some slop around the target 1% rate.
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 200);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        Random rand = new Random(1L);
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextLong();
+            filter.add(values[i]);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(bytes));
+        BloomFilter copy = BloomFilter.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(filter.getNumBits(), copy.getNumBits());
+        assertEquals(filter.getNumHashes(), copy.getNumHashes());
+        for (long value : values) {
+            assertTrue(copy.mightContain(value));
+        }
+    }
+}
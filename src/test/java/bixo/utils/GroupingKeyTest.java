@@ -1,6 +1,7 @@
 package bixo.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import org.junit.Test;
@@ -27,6 +28,15 @@ public class GroupingKeyTest {
         assertEquals(30000, GroupingKey.getCrawlDelayFromKey("domain.com-30000"));
     }
     
+    @Test
+    public void testExtractingHostAddress() {
+        assertEquals("1.2.3.4", GroupingKey.getHostAddressFromKey("1.2.3.4-30000"));
+        assertEquals("fe80::1", GroupingKey.getHostAddressFromKey("fe80::1-unset"));
+        assertNull(GroupingKey.getHostAddressFromKey("domain.com-30000"));
+        assertNull(GroupingKey.getHostAddressFromKey(GroupingKey.BLOCKED_GROUPING_KEY));
+        assertNull(GroupingKey.getHostAddressFromKey(null));
+    }
+    
     @Test
     public void testFunkyDomainNames() {
         assertEquals("domain-name.com", GroupingKey.getDomainFromKey("domain-name.com-unset"));
@@ -0,0 +1,63 @@
+package bixo.utils;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HostSuffixSetTest {
+
+    private static HostSuffixSet makeSet(String... hosts) throws Exception {
+        File workingFolder = new File("build/test/HostSuffixSetTest/working");
+        workingFolder.mkdirs();
+        File setFile = new File(workingFolder, "hosts.bin");
+        setFile.delete();
+
+        HostSuffixSet.write(Arrays.asList(hosts), setFile);
+        return HostSuffixSet.open(setFile);
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        HostSuffixSet set = makeSet("domain.com", "Blocked.ORG", "sub.other.net", "domain.com", "", "sub-domain.co.uk.");
+        assertEquals(4, set.size());
+
+        assertTrue(set.contains("domain.com"));
+        assertTrue(set.contains("www.domain.com"));
+        assertTrue(set.contains("a.b.DOMAIN.com"));
+        assertTrue(set.contains("blocked.org"));
+        assertTrue(set.contains("sub.other.net"));
+        assertTrue(set.contains("www.sub.other.net"));
+        assertTrue(set.contains("sub-domain.co.uk"));
+        assertTrue(set.contains("domain.com."));
+
+        assertFalse(set.contains("notdomain.com"));
+        assertFalse(set.contains("domain.co"));
+        assertFalse(set.contains("com"));
+        assertFalse(set.contains("other.net"));
+        assertFalse(set.contains("domain.com.au"));
+        assertFalse(set.contains("domain.org"));
+        assertFalse(set.contains(""));
+    }
+
+    @Test
+    public void testHostOffsets() throws Exception {
+        HostSuffixSet set = makeSet("domain.com");
+        String url = "http://www.domain.com/page.html";
+        UrlSpans spans = new UrlSpans();
+        assertTrue(spans.parse(url));
+        assertTrue(set.contains(url, spans.getHostStart(), spans.getHostEnd()));
+
+        url = "http://www.otherdomain.com/domain.com";
+        assertTrue(spans.parse(url));
+        assertFalse(set.contains(url, spans.getHostStart(), spans.getHostEnd()));
+    }
+
+    @Test
+    public void testEmptySet() throws Exception {
+        HostSuffixSet set = makeSet();
+        assertEquals(0, set.size());
+        assertFalse(set.contains("domain.com"));
+    }
+}
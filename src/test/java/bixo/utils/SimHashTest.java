@@ -0,0 +1,48 @@
+package bixo.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SimHashTest {
+
+    private static final String TEXT = "The quick brown fox jumps over the lazy dog, and then the dog "
+        + "wakes up and chases the fox all the way back to the forest at the edge of the farm. "
+        + "The farmer watches from the porch and laughs, because this happens every single day "
+        + "and neither the fox nor the dog ever seems to get tired of the game they play together.";
+
+    @Test
+    public void testIdenticalText() {
+        assertEquals(SimHash.makeSimHash(TEXT, 3), SimHash.makeSimHash(TEXT, 3));
+    }
+
+    @Test
+    public void testCaseAndPunctuationIgnored() {
+        String other = TEXT.toUpperCase().replaceAll("[,.]", " ");
+        assertEquals(SimHash.makeSimHash(TEXT, 3), SimHash.makeSimHash(other, 3));
+    }
+
+    @Test
+    public void testNearDuplicateText() {
+        String other = TEXT.replace("every single day", "every day");
+        int distance = SimHash.hammingDistance(SimHash.makeSimHash(TEXT, 3), SimHash.makeSimHash(other, 3));
+        assertTrue("Distance was " + distance, distance <= 6);
+    }
+
+    @Test
+    public void testDifferentText() {
+        String other = "Bixo is an open source web mining toolkit that runs as a series of Cascading pipes. "
+            + "It is designed to be used as a tool for creating customized web mining apps, "
+            + "by combining a fetch pipe with parse and analysis pipes that fit the task.";
+        int distance = SimHash.hammingDistance(SimHash.makeSimHash(TEXT, 3), SimHash.makeSimHash(other, 3));
+        assertTrue("Distance was " + distance, distance > 10);
+    }
+
+    @Test
+    public void testShortText() {
+        assertEquals(0, SimHash.countShingles("two words", 3));
+        assertEquals(0, SimHash.makeSimHash("two words", 3));
+        assertEquals(2, SimHash.countShingles("now four words here", 3));
+    }
+}
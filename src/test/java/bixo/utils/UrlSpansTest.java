@@ -0,0 +1,101 @@
+package bixo.utils;
+
+import java.net.URI;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class UrlSpansTest {
+
+    @Test
+    public void testParsing() {
+        UrlSpans url = new UrlSpans();
+        assertTrue(url.parse("HTTP://user:pw@www.domain.com:8080/path;x/file.html?a=b&c=/d#anchor"));
+        assertEquals("http", url.getProtocol());
+        assertEquals("www.domain.com", url.getHost());
+        assertEquals(8080, url.getPort());
+        assertEquals(80, url.getDefaultPort());
+        assertEquals("/path;x/file.html", url.getPath());
+        assertEquals("a=b&c=/d", url.getQuery());
+
+        // Same instance can be re-used.
+        assertTrue(url.parse("https://domain.com"));
+        assertEquals("https", url.getProtocol());
+        assertEquals("domain.com", url.getHost());
+        assertEquals(-1, url.getPort());
+        assertEquals(443, url.getDefaultPort());
+        assertEquals("", url.getPath());
+        assertNull(url.getQuery());
+
+        assertTrue(url.parse("http://[::1]:80/"));
+        assertEquals("[::1]", url.getHost());
+        assertEquals(80, url.getPort());
+
+        assertTrue(url.parse("mailto:name@domain.com"));
+        assertEquals("", url.getHost());
+    }
+
+    @Test
+    public void testInvalidUrls() {
+        UrlSpans url = new UrlSpans();
+        assertFalse("No protocol", url.parse("www.domain.com"));
+        assertFalse("Unknown protocol", url.parse("mdata://www.domain.com"));
+        assertFalse("Invalid port", url.parse("http://www.domain.com:a"));
+        assertFalse("Unclosed IPv6 address", url.parse("http://[::1/"));
+
+        try {
+            url.getHost();
+            fail("Exception should be thrown");
+        } catch (IllegalStateException e) {
+            // Valid
+        }
+    }
+
+    @Test
+    public void testSameAsJavaNet() throws Exception {
+        String[] urls = {
+            "http://domain.com",
+            "http://domain.com/",
+            "http://domain.com?q=/x",
+            "http://domain.com#anchor",
+            "  http://domain.com/path  ",
+            "http://domain.com:/path",
+            "http://domain.com./",
+            "http://1.2.3.4/",
+            "http://1.2.3.400/",
+            "http://-subdomain.domain.com/",
+            "http://sub_domain.domain.com/",
+            "http://domain..com/",
+            "http://domain.1com/",
+            "http://domain.com/x y",
+            "http://domain.com/x|y",
+            "http://domain.com/%zz",
+            "http://domain.com/%41?q#a#b",
+            "http://domain.com/\u00e9t\u00e9",
+            "http:path",
+            "http:///path",
+            "file:///tmp/file.txt",
+        };
+
+        UrlSpans spans = new UrlSpans();
+        for (String url : urls) {
+            assertTrue(url, spans.parse(url));
+
+            URL javaUrl = new URL(url);
+            assertEquals(url, javaUrl.getHost(), spans.getHost());
+            assertEquals(url, javaUrl.getPort(), spans.getPort());
+            assertEquals(url, javaUrl.getPath(), spans.getPath());
+            assertEquals(url, javaUrl.getQuery(), spans.getQuery());
+
+            boolean validUri;
+            try {
+                validUri = new URI(url).getHost() != null;
+            } catch (Exception e) {
+                validUri = false;
+            }
+
+            assertEquals(url, validUri, spans.isValidUri());
+        }
+    }
+}